@@ -0,0 +1,192 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * The common parts of the columnar lists of nodes and relationships: the IDs, property set IDs and properties.
+ * Elements are returned as views on a row.  Inserting or removing anywhere but at the end moves the rows after it,
+ * views on those rows then point to other elements.
+ *
+ * @param <T> The type of graph element
+ */
+abstract class ColumnarElementList<T> extends AbstractList<T> implements RandomAccess {
+
+  protected final IdColumn ids;
+  protected final StringDictionary propertySetIds;
+  protected final PropertyColumns properties;
+  protected int[] propertySets;
+  protected int size;
+
+  protected ColumnarElementList() {
+    ids = new IdColumn();
+    propertySetIds = new StringDictionary();
+    properties = new PropertyColumns();
+    propertySets = new int[ 16 ];
+  }
+
+  /**
+   * Write all columns of a row
+   *
+   * @param row     The row to write
+   * @param element The element to copy into the columns
+   */
+  protected abstract void write( int row, T element );
+
+  /**
+   * @param row The row
+   * @return A view on the given row
+   */
+  protected abstract T view( int row );
+
+  /**
+   * @param element The element to copy
+   * @return A standalone copy of the element
+   */
+  protected abstract T copy( T element );
+
+  /**
+   * @param element The element to examine
+   * @param row     The row
+   * @return true if the element is a view on the given row of this list
+   */
+  protected abstract boolean isView( T element, int row );
+
+  protected void ensureCapacity( int capacity ) {
+    if ( capacity > propertySets.length ) {
+      propertySets = Arrays.copyOf( propertySets, Math.max( capacity, propertySets.length * 2 ) );
+    }
+  }
+
+  protected void truncate( int newSize ) {
+    size = newSize;
+    ids.truncate( newSize );
+    properties.truncate( newSize );
+  }
+
+  @Override public T get( int index ) {
+    checkIndex( index, size );
+    return view( index );
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public void add( int index, T element ) {
+    checkIndex( index, size + 1 );
+    List<T> tail = detach( index, size );
+    truncate( index );
+    append( element );
+    for ( T tailElement : tail ) {
+      append( tailElement );
+    }
+    modCount++;
+  }
+
+  @Override public T set( int index, T element ) {
+    checkIndex( index, size );
+    T previous = copy( view( index ) );
+    if ( !isView( element, index ) ) {
+      write( index, element );
+    }
+    return previous;
+  }
+
+  @Override public T remove( int index ) {
+    checkIndex( index, size );
+    T previous = copy( view( index ) );
+    List<T> tail = detach( index + 1, size );
+    truncate( index );
+    for ( T tailElement : tail ) {
+      append( tailElement );
+    }
+    modCount++;
+    return previous;
+  }
+
+  @Override public void clear() {
+    truncate( 0 );
+    modCount++;
+  }
+
+  private void append( T element ) {
+    ensureCapacity( size + 1 );
+    size++;
+    write( size - 1, element );
+  }
+
+  private List<T> detach( int from, int to ) {
+    List<T> detached = new ArrayList<>( to - from );
+    for ( int row = from; row < to; row++ ) {
+      detached.add( copy( view( row ) ) );
+    }
+    return detached;
+  }
+
+  private static void checkIndex( int index, int limit ) {
+    if ( index < 0 || index >= limit ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + limit );
+    }
+  }
+
+  /**
+   * The labels or properties of a row, read when the list is created.  Every change to the list is written back to the
+   * columns.  Changes to the elements themselves, like the value of a property, are not: set the element again.
+   *
+   * @param <E> The type of the elements
+   */
+  static class RowList<E> extends AbstractList<E> implements RandomAccess {
+    private List<E> elements;
+    private final Consumer<List<E>> writer;
+    private boolean copied;
+
+    /**
+     * @param elements The current elements of the row, only copied when the list is changed
+     * @param writer   Writes the elements back to the row
+     */
+    RowList( List<E> elements, Consumer<List<E>> writer ) {
+      this.elements = elements;
+      this.writer = writer;
+    }
+
+    private List<E> modifiable() {
+      if ( !copied ) {
+        elements = new ArrayList<>( elements );
+        copied = true;
+      }
+      return elements;
+    }
+
+    @Override public E get( int index ) {
+      return elements.get( index );
+    }
+
+    @Override public int size() {
+      return elements.size();
+    }
+
+    @Override public void add( int index, E element ) {
+      modifiable().add( index, element );
+      modCount++;
+      writer.accept( elements );
+    }
+
+    @Override public E set( int index, E element ) {
+      E previous = modifiable().set( index, element );
+      writer.accept( elements );
+      return previous;
+    }
+
+    @Override public E remove( int index ) {
+      E removed = modifiable().remove( index );
+      modCount++;
+      writer.accept( elements );
+      return removed;
+    }
+  }
+}
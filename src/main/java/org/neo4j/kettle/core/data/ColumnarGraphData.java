@@ -0,0 +1,95 @@
+package org.neo4j.kettle.core.data;
+
+import org.neo4j.driver.Result;
+
+import java.util.List;
+
+/**
+ * A graph which stores its nodes and relationships in columns rather than as separate objects.
+ * <p>
+ * Numeric IDs are kept as primitive longs.  Labels, relationship labels, property keys, property set IDs and
+ * string property values are dictionary encoded.  Long, Double and Boolean property values are kept in primitive
+ * arrays.  This makes large graphs a lot smaller on the heap.
+ * <p>
+ * The nodes and relationships in {@link #getNodes()} and {@link #getRelationships()} are lightweight views on a row of
+ * the columns.  Their setters write through to the columns.  The lists returned by getProperties() are copies, so
+ * changing a property requires a call to setProperties().  The properties of an element are returned in the order in
+ * which the property keys were first seen in the graph.
+ */
+public class ColumnarGraphData extends GraphData {
+
+  public ColumnarGraphData() {
+    super();
+  }
+
+  /**
+   * Copy the given graph into columns
+   *
+   * @param source The graph to copy
+   */
+  public ColumnarGraphData( GraphData source ) {
+    this();
+    replace( source );
+  }
+
+  /**
+   * Build a columnar graph from the nodes, relationships and paths in all records of the given result
+   *
+   * @param result The result to consume
+   */
+  public ColumnarGraphData( Result result ) {
+    this();
+    new GraphDataBuilder().addResult( result ).buildInto( this );
+  }
+
+  @Override public void replace( GraphData source ) {
+    // No need for intermediate copies, the columns are a copy
+    //
+    setNodes( source.getNodesForReading() );
+    setRelationships( source.getRelationshipsForReading() );
+    sourceTransformationName = source.getSourceTransformationName();
+    sourceStepName = source.getSourceStepName();
+  }
+
+  @Override public ColumnarGraphData clone() {
+    return new ColumnarGraphData( this );
+  }
+
+  /**
+   * The columns are compact enough to simply copy
+   *
+   * @return A copy of this graph
+   */
+  @Override public ColumnarGraphData copyOnWrite() {
+    return clone();
+  }
+
+  @Override public ColumnarGraphData createEmptyCopy() {
+    ColumnarGraphData copy = new ColumnarGraphData();
+    copy.setSourceTransformationName( getSourceTransformationName() );
+    copy.setSourceStepName( getSourceStepName() );
+    return copy;
+  }
+
+  /**
+   * The given nodes are copied into columns
+   *
+   * @param nodes The nodes to set
+   */
+  @Override public void setNodes( List<GraphNodeData> nodes ) {
+    ColumnarNodeList columnarNodes = new ColumnarNodeList();
+    columnarNodes.addAll( nodes );
+    super.setNodes( columnarNodes );
+  }
+
+  /**
+   * The given relationships are copied into columns
+   *
+   * @param relationships The relationships to set
+   */
+  @Override public void setRelationships( List<GraphRelationshipData> relationships ) {
+    ColumnarRelationshipList columnarRelationships = new ColumnarRelationshipList();
+    columnarRelationships.addAll( relationships );
+    super.setRelationships( columnarRelationships );
+  }
+}
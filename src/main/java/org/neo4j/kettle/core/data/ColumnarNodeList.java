@@ -0,0 +1,136 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A list of nodes stored in columns.  Every distinct set of labels is only stored once.
+ */
+class ColumnarNodeList extends ColumnarElementList<GraphNodeData> {
+
+  private final StringDictionary labels;
+  private final List<List<String>> labelSetList;
+  private final Map<List<String>, Integer> labelSetCodes;
+  private int[] labelSets;
+
+  ColumnarNodeList() {
+    labels = new StringDictionary();
+    labelSetList = new ArrayList<>();
+    labelSetCodes = new HashMap<>();
+    labelSets = new int[ 16 ];
+  }
+
+  @Override protected void ensureCapacity( int capacity ) {
+    super.ensureCapacity( capacity );
+    if ( capacity > labelSets.length ) {
+      labelSets = Arrays.copyOf( labelSets, Math.max( capacity, labelSets.length * 2 ) );
+    }
+  }
+
+  @Override protected void write( int row, GraphNodeData node ) {
+    ids.set( row, node.hasNumericId(), node.getNumericId(), node.getId() );
+    labelSets[ row ] = encodeLabels( node.getLabels() );
+    propertySets[ row ] = propertySetIds.encode( node.getPropertySetId() );
+    properties.setRow( row, node.getProperties() );
+  }
+
+  @Override protected GraphNodeData view( int row ) {
+    return new View( this, row );
+  }
+
+  @Override protected GraphNodeData copy( GraphNodeData node ) {
+    return new GraphNodeData( node );
+  }
+
+  @Override protected boolean isView( GraphNodeData node, int row ) {
+    return node instanceof View && ( (View) node ).list == this && ( (View) node ).row == row;
+  }
+
+  private int encodeLabels( List<String> nodeLabels ) {
+    List<String> key = new ArrayList<>();
+    if ( nodeLabels != null ) {
+      for ( String label : nodeLabels ) {
+        // Share the label strings between the label sets
+        //
+        key.add( labels.decode( labels.encode( label ) ) );
+      }
+    }
+    Integer code = labelSetCodes.get( key );
+    if ( code == null ) {
+      code = labelSetList.size();
+      List<String> labelSet = Collections.unmodifiableList( key );
+      labelSetList.add( labelSet );
+      labelSetCodes.put( labelSet, code );
+    }
+    return code;
+  }
+
+  /**
+   * A node which reads and writes its data from and to a row of the columns.
+   * The lists of labels and properties write changes back to the row, see {@link RowList}.
+   */
+  static class View extends GraphNodeData {
+    private final ColumnarNodeList list;
+    private final int row;
+
+    View( ColumnarNodeList list, int row ) {
+      super( null, null, null );
+      this.list = list;
+      this.row = row;
+    }
+
+    @Override public String getId() {
+      return list.ids.get( row );
+    }
+
+    @Override public void setId( String id ) {
+      list.ids.set( row, id );
+      idChanged();
+    }
+
+    @Override public void setId( long id ) {
+      list.ids.set( row, id );
+      idChanged();
+    }
+
+    @Override public boolean hasNumericId() {
+      return list.ids.isNumeric( row );
+    }
+
+    @Override public long getNumericId() {
+      return list.ids.getLong( row );
+    }
+
+    @Override public List<String> getLabels() {
+      return new RowList<>( list.labelSetList.get( list.labelSets[ row ] ), this::setLabels );
+    }
+
+    @Override public void setLabels( List<String> labels ) {
+      list.labelSets[ row ] = list.encodeLabels( labels );
+    }
+
+    @Override public List<GraphPropertyData> getProperties() {
+      return new RowList<>( list.properties.getRow( row ), this::setProperties );
+    }
+
+    @Override public void setProperties( List<GraphPropertyData> properties ) {
+      list.properties.setRow( row, properties );
+    }
+
+    @Override public GraphPropertyData findProperty( String id ) {
+      return list.properties.findProperty( row, id );
+    }
+
+    @Override public String getPropertySetId() {
+      return list.propertySetIds.decode( list.propertySets[ row ] );
+    }
+
+    @Override public void setPropertySetId( String propertySetId ) {
+      list.propertySets[ row ] = list.propertySetIds.encode( propertySetId );
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A list of relationships stored in columns.
+ */
+class ColumnarRelationshipList extends ColumnarElementList<GraphRelationshipData> {
+
+  private final StringDictionary labels;
+  private final IdColumn sourceIds;
+  private final IdColumn targetIds;
+  private int[] labelCodes;
+
+  ColumnarRelationshipList() {
+    labels = new StringDictionary();
+    sourceIds = new IdColumn();
+    targetIds = new IdColumn();
+    labelCodes = new int[ 16 ];
+  }
+
+  @Override protected void ensureCapacity( int capacity ) {
+    super.ensureCapacity( capacity );
+    if ( capacity > labelCodes.length ) {
+      labelCodes = Arrays.copyOf( labelCodes, Math.max( capacity, labelCodes.length * 2 ) );
+    }
+  }
+
+  @Override protected void truncate( int newSize ) {
+    super.truncate( newSize );
+    sourceIds.truncate( newSize );
+    targetIds.truncate( newSize );
+  }
+
+  @Override protected void write( int row, GraphRelationshipData relationship ) {
+    ids.set( row, relationship.hasNumericId(), relationship.getNumericId(), relationship.getId() );
+    labelCodes[ row ] = labels.encode( relationship.getLabel() );
+    sourceIds.set( row, relationship.hasNumericSourceNodeId(), relationship.getNumericSourceNodeId(), relationship.getSourceNodeId() );
+    targetIds.set( row, relationship.hasNumericTargetNodeId(), relationship.getNumericTargetNodeId(), relationship.getTargetNodeId() );
+    propertySets[ row ] = propertySetIds.encode( relationship.getPropertySetId() );
+    properties.setRow( row, relationship.getProperties() );
+  }
+
+  @Override protected GraphRelationshipData view( int row ) {
+    return new View( this, row );
+  }
+
+  @Override protected GraphRelationshipData copy( GraphRelationshipData relationship ) {
+    return new GraphRelationshipData( relationship );
+  }
+
+  @Override protected boolean isView( GraphRelationshipData relationship, int row ) {
+    return relationship instanceof View && ( (View) relationship ).list == this && ( (View) relationship ).row == row;
+  }
+
+  /**
+   * A relationship which reads and writes its data from and to a row of the columns.
+   * The list of properties writes changes back to the row, see {@link RowList}.
+   */
+  static class View extends GraphRelationshipData {
+    private final ColumnarRelationshipList list;
+    private final int row;
+
+    View( ColumnarRelationshipList list, int row ) {
+      super( null, null, null, null, null );
+      this.list = list;
+      this.row = row;
+    }
+
+    @Override public String getId() {
+      return list.ids.get( row );
+    }
+
+    @Override public void setId( String id ) {
+      list.ids.set( row, id );
+      idChanged();
+    }
+
+    @Override public void setId( long id ) {
+      list.ids.set( row, id );
+      idChanged();
+    }
+
+    @Override public boolean hasNumericId() {
+      return list.ids.isNumeric( row );
+    }
+
+    @Override public long getNumericId() {
+      return list.ids.getLong( row );
+    }
+
+    @Override public String getLabel() {
+      return list.labels.decode( list.labelCodes[ row ] );
+    }
+
+    @Override public void setLabel( String label ) {
+      list.labelCodes[ row ] = list.labels.encode( label );
+    }
+
+    @Override public String getSourceNodeId() {
+      return list.sourceIds.get( row );
+    }
+
+    @Override public void setSourceNodeId( String sourceNodeId ) {
+      list.sourceIds.set( row, sourceNodeId );
+      idChanged();
+    }
+
+    @Override public void setSourceNodeId( long sourceNodeId ) {
+      list.sourceIds.set( row, sourceNodeId );
+      idChanged();
+    }
+
+    @Override public boolean hasNumericSourceNodeId() {
+      return list.sourceIds.isNumeric( row );
+    }
+
+    @Override public long getNumericSourceNodeId() {
+      return list.sourceIds.getLong( row );
+    }
+
+    @Override public String getTargetNodeId() {
+      return list.targetIds.get( row );
+    }
+
+    @Override public void setTargetNodeId( String targetNodeId ) {
+      list.targetIds.set( row, targetNodeId );
+      idChanged();
+    }
+
+    @Override public void setTargetNodeId( long targetNodeId ) {
+      list.targetIds.set( row, targetNodeId );
+      idChanged();
+    }
+
+    @Override public boolean hasNumericTargetNodeId() {
+      return list.targetIds.isNumeric( row );
+    }
+
+    @Override public long getNumericTargetNodeId() {
+      return list.targetIds.getLong( row );
+    }
+
+    @Override public List<GraphPropertyData> getProperties() {
+      return new RowList<>( list.properties.getRow( row ), this::setProperties );
+    }
+
+    @Override public void setProperties( List<GraphPropertyData> properties ) {
+      list.properties.setRow( row, properties );
+    }
+
+    @Override public String getPropertySetId() {
+      return list.propertySetIds.decode( list.propertySets[ row ] );
+    }
+
+    @Override public void setPropertySetId( String propertySetId ) {
+      list.propertySets[ row ] = list.propertySetIds.encode( propertySetId );
+    }
+  }
+}
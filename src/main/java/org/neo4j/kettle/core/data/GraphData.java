@@ -1,20 +1,40 @@
 package org.neo4j.kettle.core.data;
 
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
-import org.neo4j.driver.Record;
 import org.neo4j.driver.Result;
-import org.neo4j.driver.Value;
-import org.neo4j.driver.types.Node;
-import org.neo4j.driver.types.Path;
-import org.neo4j.driver.types.Relationship;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.UnaryOperator;
 
+/**
+ * A graph of nodes and relationships.
+ * <p>
+ * Nodes and relationships are indexed on their ID and relationships on their source and target node IDs so that
+ * looking up elements doesn't need to scan the lists.  The indexes are kept up to date when elements are added to the
+ * lists returned by {@link #getNodes()} and {@link #getRelationships()} and rebuilt when elements are replaced or
+ * removed.  Changing the ID of an element or the source or target of a relationship after adding it to a graph is
+ * counted and rebuilds the indexes on the next lookup.  Since an element can be part of more than one graph, such a
+ * change rebuilds the indexes of all graphs, once.
+ */
 public class GraphData {
 
   protected List<GraphNodeData> nodes;
@@ -25,15 +45,30 @@ public class GraphData {
 
   protected String sourceStepName;
 
+  /**
+   * The indexes are dropped when the ID of an element of this graph changes, see {@link GraphNodeData#idChanged()}, or
+   * when the lists are changed other than by appending.  Changes which bypass both, like changing the list given to
+   * {@link #setNodes(List)}, are caught by checking the ID of every element found.
+   */
+  private Map<Object, Integer> nodeIndex;
+  private List<GraphNodeData> indexedNodes;
+  private int indexedNodeCount;
+
+  private Map<Object, Integer> relationshipIndex;
+  private Map<Object, List<Integer>> outgoingIndex;
+  private Map<Object, List<Integer>> incomingIndex;
+  private List<GraphRelationshipData> indexedRelationships;
+  private int indexedRelationshipCount;
+
   public GraphData() {
-    nodes = new ArrayList<>();
-    relationships = new ArrayList<>();
+    setNodes( new SharedElementList<>( 0, GraphNodeData::new ) );
+    setRelationships( new SharedElementList<>( 0, GraphRelationshipData::new ) );
   }
 
   public GraphData( List<GraphNodeData> nodes, List<GraphRelationshipData> relationships ) {
     this();
-    this.nodes = nodes;
-    this.relationships = relationships;
+    setNodes( nodes );
+    setRelationships( relationships );
   }
 
   @Override public boolean equals( Object object ) {
@@ -61,17 +96,21 @@ public class GraphData {
   public void replace( GraphData source ) {
     // Copy nodes
     //
-    nodes = new ArrayList<>();
-    for ( GraphNodeData node : source.getNodes() ) {
-      nodes.add( new GraphNodeData( node ) );
+    List<GraphNodeData> sourceNodes = source.getNodesForReading();
+    List<GraphNodeData> nodesCopy = new SharedElementList<>( sourceNodes.size(), GraphNodeData::new );
+    for ( GraphNodeData node : sourceNodes ) {
+      nodesCopy.add( new GraphNodeData( node ) );
     }
+    setNodes( nodesCopy );
 
     // replace relationships
     //
-    relationships = new ArrayList<>();
-    for ( GraphRelationshipData relationship : source.getRelationships() ) {
-      relationships.add( new GraphRelationshipData( relationship ) );
+    List<GraphRelationshipData> sourceRelationships = source.getRelationshipsForReading();
+    List<GraphRelationshipData> relationshipsCopy = new SharedElementList<>( sourceRelationships.size(), GraphRelationshipData::new );
+    for ( GraphRelationshipData relationship : sourceRelationships ) {
+      relationshipsCopy.add( new GraphRelationshipData( relationship ) );
     }
+    setRelationships( relationshipsCopy );
 
     sourceTransformationName = source.sourceTransformationName;
     sourceStepName = source.sourceStepName;
@@ -82,13 +121,13 @@ public class GraphData {
 
     JSONArray jNodes = new JSONArray();
     jGraph.put( "nodes", jNodes );
-    for ( GraphNodeData node : nodes ) {
+    for ( GraphNodeData node : getNodesForReading() ) {
       jNodes.add( node.toJson() );
     }
 
     JSONArray jRelationships = new JSONArray();
     jGraph.put( "relationships", jRelationships );
-    for ( GraphRelationshipData relationship : relationships ) {
+    for ( GraphRelationshipData relationship : getRelationshipsForReading() ) {
       jRelationships.add( relationship.toJson() );
     }
 
@@ -104,7 +143,89 @@ public class GraphData {
    * @param graphJsonString
    */
   public GraphData( String graphJsonString ) throws ParseException {
-    this( (JSONObject) new JSONParser().parse( graphJsonString ) );
+    this();
+    try {
+      readJson( new StringReader( graphJsonString ) );
+    } catch ( IOException | RuntimeException e ) {
+      throw new ParseException( ParseException.ERROR_UNEXPECTED_EXCEPTION, e );
+    }
+  }
+
+  /**
+   * Read graph data in JSON format from the given reader without holding the whole document in memory
+   *
+   * @param reader The reader to read from, it is not closed
+   * @throws IOException In case of a read error or invalid JSON
+   */
+  public GraphData( Reader reader ) throws IOException {
+    this();
+    readJson( reader );
+  }
+
+  private void readJson( Reader reader ) throws IOException {
+    JsonReader jsonReader = new JsonReader( reader );
+    List<GraphNodeData> readNodes = new SharedElementList<>( 0, GraphNodeData::new );
+    List<GraphRelationshipData> readRelationships = new SharedElementList<>( 0, GraphRelationshipData::new );
+    jsonReader.beginObject();
+    while ( jsonReader.hasNext() ) {
+      switch ( jsonReader.nextName() ) {
+        case "nodes":
+          jsonReader.beginArray();
+          while ( jsonReader.hasNext() ) {
+            readNodes.add( new GraphNodeData( jsonReader ) );
+          }
+          jsonReader.endArray();
+          break;
+        case "relationships":
+          jsonReader.beginArray();
+          while ( jsonReader.hasNext() ) {
+            readRelationships.add( new GraphRelationshipData( jsonReader ) );
+          }
+          jsonReader.endArray();
+          break;
+        case "source_trans":
+          sourceTransformationName = GraphPropertyData.readJsonString( jsonReader );
+          break;
+        case "source_step":
+          sourceStepName = GraphPropertyData.readJsonString( jsonReader );
+          break;
+        default:
+          jsonReader.skipValue();
+          break;
+      }
+    }
+    jsonReader.endObject();
+    if ( jsonReader.peek() != JsonToken.END_DOCUMENT ) {
+      throw new IOException( "Unexpected data after the graph at " + jsonReader.getPath() );
+    }
+    setNodes( readNodes );
+    setRelationships( readRelationships );
+  }
+
+  /**
+   * Write this graph in JSON format to the given writer without building the whole document in memory.
+   * The format is the same as {@link #toJson()}.
+   *
+   * @param writer The writer to write to, it is flushed but not closed
+   * @throws IOException In case of a write error
+   */
+  public void writeJson( Writer writer ) throws IOException {
+    JsonWriter jsonWriter = new JsonWriter( writer );
+    jsonWriter.beginObject();
+    jsonWriter.name( "nodes" ).beginArray();
+    for ( GraphNodeData node : getNodesForReading() ) {
+      node.writeJson( jsonWriter );
+    }
+    jsonWriter.endArray();
+    jsonWriter.name( "relationships" ).beginArray();
+    for ( GraphRelationshipData relationship : getRelationshipsForReading() ) {
+      relationship.writeJson( jsonWriter );
+    }
+    jsonWriter.endArray();
+    jsonWriter.name( "source_trans" ).value( sourceTransformationName );
+    jsonWriter.name( "source_step" ).value( sourceStepName );
+    jsonWriter.endObject();
+    jsonWriter.flush();
   }
 
   public GraphData( JSONObject jGraph ) {
@@ -127,7 +248,13 @@ public class GraphData {
 
 
   public String toJsonString() {
-    return toJson().toJSONString();
+    StringWriter writer = new StringWriter();
+    try {
+      writeJson( writer );
+    } catch ( IOException e ) {
+      throw new RuntimeException( "Error writing graph data to JSON", e );
+    }
+    return writer.toString();
   }
 
   public GraphData clone() {
@@ -141,6 +268,230 @@ public class GraphData {
     return copy;
   }
 
+  /**
+   * Create a copy of this graph which shares the nodes and relationships with this one until they are modified.
+   * Cloning this way takes constant time unless the lists were set with {@link #setNodes(List)} or
+   * {@link #setRelationships(List)}, those are wrapped once.  An element is only copied when it's retrieved from the
+   * lists of either graph since the caller could change it.  That includes iterating over {@link #getNodes()} or
+   * {@link #getRelationships()}: read with {@link #getNodesForReading()} and {@link #getRelationshipsForReading()}.
+   * Elements this graph handed out after its first copy stay with it, the copies get their own copies of those.
+   * References to elements obtained before the first copy shouldn't be used to modify the elements afterwards:
+   * retrieve them again.
+   *
+   * @return The copy
+   */
+  public GraphData copyOnWrite() {
+    if ( !( nodes instanceof GraphElementList ) || !( relationships instanceof GraphElementList ) ) {
+      return clone();
+    }
+    GraphData copy = new GraphData();
+    copy.setNodes( share( (GraphElementList<GraphNodeData>) nodes, GraphNodeData::new ) );
+    copy.setRelationships( share( (GraphElementList<GraphRelationshipData>) relationships, GraphRelationshipData::new ) );
+    copy.sourceTransformationName = sourceTransformationName;
+    copy.sourceStepName = sourceStepName;
+    return copy;
+  }
+
+  /**
+   * Compare this graph with another one in linear time.  Nodes are matched on their labels and primary properties, or
+   * their ID if they don't have any, relationships on their label and nodes.
+   *
+   * @param other The graph to compare with
+   * @return What needs to change in this graph to get the other graph
+   */
+  public GraphDelta diff( GraphData other ) {
+    return new GraphDelta( this, other );
+  }
+
+  /**
+   * Create the union of this graph and the other one in a new graph.  See {@link #mergeInPlace(GraphData, MergePolicy)}.
+   * This graph isn't modified: the result is a {@link #copyOnWrite()} copy.
+   *
+   * @param other  The graph to merge
+   * @param policy Decides the value of properties which both graphs have
+   * @return The merged graph
+   */
+  public GraphData merge( GraphData other, MergePolicy policy ) {
+    GraphData merged = copyOnWrite();
+    merged.mergeInPlace( other, policy );
+    return merged;
+  }
+
+  /**
+   * Add the nodes and relationships of the other graph to this one in linear time.
+   * <p>
+   * Nodes are matched on their labels and primary properties or on their ID if they don't have primary properties.
+   * A matching node gets the labels and properties it doesn't have yet, the policy decides the value of properties they
+   * both have.  Relationships are matched on their label and nodes and merged the same way.
+   * Other nodes and relationships are copied into this graph.  They keep their ID unless this graph already uses it.
+   * <p>
+   * Apart from the lookup tables only the new elements and changed properties are allocated, the other graph isn't modified.
+   *
+   * @param other  The graph to merge
+   * @param policy Decides the value of properties which both graphs have
+   */
+  public void mergeInPlace( GraphData other, MergePolicy policy ) {
+    Map<Object, Integer> nodePositions = new HashMap<>();
+    Map<Object, Object> nodeKeys = new HashMap<>();
+    Set<Object> nodeIds = new HashSet<>();
+    for ( int i = 0; i < nodes.size(); i++ ) {
+      GraphNodeData node = peekNode( i );
+      Object key = GraphDelta.getNodeKey( node );
+      Object idKey = node.getIdKey();
+      nodePositions.putIfAbsent( key, i );
+      nodeKeys.putIfAbsent( idKey, key );
+      nodeIds.add( idKey );
+    }
+
+    // Where the nodes of the other graph ended up
+    //
+    Map<Object, Object> otherNodeKeys = new HashMap<>();
+    Map<Object, Object> nodeIdMap = new HashMap<>();
+    for ( GraphNodeData otherNode : other.getNodesForReading() ) {
+      Object key = GraphDelta.getNodeKey( otherNode );
+      Object otherIdKey = otherNode.getIdKey();
+      otherNodeKeys.putIfAbsent( otherIdKey, key );
+      Integer position = nodePositions.get( key );
+      GraphNodeData node;
+      if ( position == null ) {
+        node = new GraphNodeData( otherNode );
+        Object idKey = getUniqueIdKey( otherIdKey, nodeIds );
+        if ( idKey != otherIdKey ) {
+          node.setId( (String) idKey );
+        }
+        nodePositions.put( key, nodes.size() );
+        nodes.add( node );
+      } else {
+        node = nodes.get( position );
+        List<String> labels = mergeLabels( node.getLabels(), otherNode.getLabels() );
+        if ( labels != null ) {
+          node.setLabels( labels );
+        }
+        List<GraphPropertyData> properties = mergeProperties( node.getProperties(), otherNode.getProperties(), policy );
+        if ( properties != null ) {
+          node.setProperties( properties );
+        }
+      }
+      nodeIdMap.putIfAbsent( otherIdKey, node.getIdKey() );
+    }
+
+    Map<Object, Integer> relationshipPositions = new HashMap<>();
+    Set<Object> relationshipIds = new HashSet<>();
+    for ( int i = 0; i < relationships.size(); i++ ) {
+      GraphRelationshipData relationship = peekRelationship( i );
+      relationshipPositions.putIfAbsent( getMergeKey( relationship, nodeKeys ), i );
+      relationshipIds.add( relationship.getIdKey() );
+    }
+    for ( GraphRelationshipData otherRelationship : other.getRelationshipsForReading() ) {
+      Object key = getMergeKey( otherRelationship, otherNodeKeys );
+      Integer position = relationshipPositions.get( key );
+      if ( position == null ) {
+        GraphRelationshipData relationship = new GraphRelationshipData( otherRelationship );
+        Object otherIdKey = otherRelationship.getIdKey();
+        Object idKey = getUniqueIdKey( otherIdKey, relationshipIds );
+        if ( idKey != otherIdKey ) {
+          relationship.setId( (String) idKey );
+        }
+        Object sourceIdKey = nodeIdMap.get( otherRelationship.getSourceNodeIdKey() );
+        if ( sourceIdKey != null ) {
+          relationship.setSourceNodeIdKey( sourceIdKey );
+        }
+        Object targetIdKey = nodeIdMap.get( otherRelationship.getTargetNodeIdKey() );
+        if ( targetIdKey != null ) {
+          relationship.setTargetNodeIdKey( targetIdKey );
+        }
+        relationshipPositions.put( key, relationships.size() );
+        relationships.add( relationship );
+      } else {
+        GraphRelationshipData relationship = relationships.get( position );
+        List<GraphPropertyData> properties = mergeProperties( relationship.getProperties(), otherRelationship.getProperties(), policy );
+        if ( properties != null ) {
+          relationship.setProperties( properties );
+        }
+      }
+    }
+  }
+
+  private static Object getMergeKey( GraphRelationshipData relationship, Map<Object, Object> nodeKeys ) {
+    Object sourceKey = nodeKeys.getOrDefault( relationship.getSourceNodeIdKey(), Arrays.asList( "id", relationship.getSourceNodeIdKey() ) );
+    Object targetKey = nodeKeys.getOrDefault( relationship.getTargetNodeIdKey(), Arrays.asList( "id", relationship.getTargetNodeIdKey() ) );
+    return Arrays.asList( relationship.getLabel(), sourceKey, targetKey );
+  }
+
+  /**
+   * @return The given ID key if it isn't used yet, otherwise a new String ID with a suffix
+   */
+  private static Object getUniqueIdKey( Object idKey, Set<Object> idKeys ) {
+    if ( idKey == null || idKeys.add( idKey ) ) {
+      return idKey;
+    }
+    for ( int i = 2; ; i++ ) {
+      String uniqueId = idKey + "-" + i;
+      if ( idKeys.add( uniqueId ) ) {
+        return uniqueId;
+      }
+    }
+  }
+
+  /**
+   * @return The labels with the missing other labels added or null if nothing needs to be added
+   */
+  private static List<String> mergeLabels( List<String> labels, List<String> otherLabels ) {
+    List<String> merged = null;
+    for ( String label : otherLabels ) {
+      if ( !labels.contains( label ) ) {
+        if ( merged == null ) {
+          merged = new ArrayList<>( labels );
+        }
+        merged.add( label );
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * @return The merged properties or null if nothing changed
+   */
+  private static List<GraphPropertyData> mergeProperties( List<GraphPropertyData> properties, List<GraphPropertyData> otherProperties,
+                                                          MergePolicy policy ) {
+    List<GraphPropertyData> merged = null;
+    for ( GraphPropertyData otherProperty : otherProperties ) {
+      List<GraphPropertyData> current = merged == null ? properties : merged;
+      int index = 0;
+      while ( index < current.size() && !current.get( index ).getId().equals( otherProperty.getId() ) ) {
+        index++;
+      }
+      GraphPropertyData property;
+      if ( index < current.size() ) {
+        GraphPropertyData existing = current.get( index );
+        property = policy.merge( existing, otherProperty );
+        if ( property == existing ) {
+          continue;
+        }
+      } else {
+        property = new GraphPropertyData( otherProperty.getId(), otherProperty.getValue(), otherProperty.getType(), otherProperty.isPrimary() );
+      }
+      if ( merged == null ) {
+        merged = new ArrayList<>( properties );
+      }
+      if ( index < merged.size() ) {
+        merged.set( index, property );
+      } else {
+        merged.add( property );
+      }
+    }
+    return merged;
+  }
+
+  private static <T> List<T> share( GraphElementList<T> list, UnaryOperator<T> copier ) {
+    // Lists set from the outside are wrapped once.  The positions of the elements don't change so the indexes stay valid
+    //
+    if ( !( list.getElements() instanceof SharedElementList ) ) {
+      list.setElements( new SharedElementList<>( list.getElements(), copier ) );
+    }
+    return ( (SharedElementList<T>) list.getElements() ).share();
+  }
+
   /**
    * Find a node with the given ID
    *
@@ -148,12 +499,67 @@ public class GraphData {
    * @return The mode with the given ID or null if the node was not found
    */
   public GraphNodeData findNode( String nodeId ) {
-    for ( GraphNodeData node : nodes ) {
-      if ( node.getId() != null && node.getId().equals( nodeId ) ) {
-        return node;
-      }
+    if ( nodeId == null ) {
+      return null;
     }
-    return null;
+    return findNodeWithKey( IdColumn.toKey( nodeId ) );
+  }
+
+  /**
+   * Find a node with the given numeric ID, like the ones assigned by the database
+   *
+   * @param nodeId
+   * @return The node with the given ID or null if the node was not found
+   */
+  public GraphNodeData findNode( long nodeId ) {
+    return findNodeWithKey( nodeId );
+  }
+
+  /**
+   * Find the source node of the given relationship
+   *
+   * @param relationship The relationship
+   * @return The source node or null if the node was not found
+   */
+  public GraphNodeData findSourceNode( GraphRelationshipData relationship ) {
+    return findNodeWithKey( relationship.getSourceNodeIdKey() );
+  }
+
+  /**
+   * Find the target node of the given relationship
+   *
+   * @param relationship The relationship
+   * @return The target node or null if the node was not found
+   */
+  public GraphNodeData findTargetNode( GraphRelationshipData relationship ) {
+    return findNodeWithKey( relationship.getTargetNodeIdKey() );
+  }
+
+  private GraphNodeData findNodeWithKey( Object key ) {
+    int position = findNodePosition( key );
+    return position < 0 ? null : nodes.get( position );
+  }
+
+  /**
+   * Find the position in the list of nodes of the node with the given ID key, see {@link GraphNodeData#getIdKey()}
+   *
+   * @param key The ID key
+   * @return The position of the node or -1 if the node was not found
+   */
+  int findNodePosition( Object key ) {
+    if ( key == null ) {
+      return -1;
+    }
+    Integer position = getNodeIndex().get( key );
+    if ( position != null && !isNodeAt( position, key ) ) {
+      reindexNodes();
+      position = nodeIndex.get( key );
+    }
+    return position == null ? -1 : position;
+  }
+
+  private boolean isNodeAt( int position, Object key ) {
+    return position < nodes.size() && key.equals( peekNode( position ).getIdKey() );
   }
 
 
@@ -164,12 +570,16 @@ public class GraphData {
    * @return The relationship with the given name or null if the relationship was not found
    */
   public GraphRelationshipData findRelationship( String relationshipId ) {
-    for ( GraphRelationshipData relationship : relationships ) {
-      if ( relationship.getId() != null && relationship.getId().equals( relationshipId ) ) {
-        return relationship;
-      }
+    if ( relationshipId == null ) {
+      return null;
     }
-    return null;
+    Object key = IdColumn.toKey( relationshipId );
+    Integer position = getRelationshipIndex().get( key );
+    if ( position != null && ( position >= relationships.size() || !key.equals( peekRelationship( position ).getIdKey() ) ) ) {
+      reindexRelationships();
+      position = relationshipIndex.get( key );
+    }
+    return position == null ? null : relationships.get( position );
   }
 
   /**
@@ -180,71 +590,229 @@ public class GraphData {
    * @return the relationship or null if nothing was found.
    */
   public GraphRelationshipData findRelationship( String sourceId, String targetId ) {
-    for ( GraphRelationshipData relationship : relationships ) {
-      if ( relationship.getSourceNodeId().equals( sourceId ) &&
-        relationship.getTargetNodeId().equals( targetId ) ) {
+    if ( sourceId == null || targetId == null ) {
+      return null;
+    }
+    Object sourceKey = IdColumn.toKey( sourceId );
+    Object targetKey = IdColumn.toKey( targetId );
+    for ( GraphRelationshipData relationship : findAdjacentRelationships( sourceKey, true ) ) {
+      if ( targetKey.equals( relationship.getTargetNodeIdKey() ) ) {
         return relationship;
       }
-      // Also match on the inverse
-      if ( relationship.getSourceNodeId().equals( targetId ) &&
-        relationship.getTargetNodeId().equals( sourceId ) ) {
+    }
+    // Also match on the inverse
+    for ( GraphRelationshipData relationship : findAdjacentRelationships( targetKey, true ) ) {
+      if ( sourceKey.equals( relationship.getTargetNodeIdKey() ) ) {
         return relationship;
       }
-
     }
     return null;
   }
 
-  public GraphData( Result result ) {
-    this();
+  /**
+   * Get the relationships with the given node as source
+   *
+   * @param nodeId The ID of the source node
+   * @return The outgoing relationships, don't modify this list
+   */
+  public List<GraphRelationshipData> findOutgoingRelationships( String nodeId ) {
+    if ( nodeId == null ) {
+      return Collections.emptyList();
+    }
+    return findAdjacentRelationships( IdColumn.toKey( nodeId ), true );
+  }
 
-    while ( result.hasNext() ) {
-      Record record = result.next();
-      for ( String key : record.keys() ) {
-        Value value = record.get( key );
-        if ( "NODE".equals( value.type().name() ) ) {
-          Node node = value.asNode();
-          update( new GraphNodeData( node ) );
-        } else if ( "RELATIONSHIP".equals( value.type().name() ) ) {
-          Relationship relationship = value.asRelationship();
-          update( new GraphRelationshipData( relationship ) );
-        } else if ( "PATH".equals( value.type().name() ) ) {
-          Path path = value.asPath();
-          for ( Node node : path.nodes() ) {
-            update( new GraphNodeData( node ) );
-          }
-          for ( Relationship relationship : path.relationships() ) {
-            update( new GraphRelationshipData( relationship ) );
-          }
-        }
+  /**
+   * Get the relationships with the given node as target
+   *
+   * @param nodeId The ID of the target node
+   * @return The incoming relationships, don't modify this list
+   */
+  public List<GraphRelationshipData> findIncomingRelationships( String nodeId ) {
+    if ( nodeId == null ) {
+      return Collections.emptyList();
+    }
+    return findAdjacentRelationships( IdColumn.toKey( nodeId ), false );
+  }
+
+  private List<GraphRelationshipData> findAdjacentRelationships( Object nodeKey, boolean outgoing ) {
+    List<Integer> positions = findAdjacentPositions( nodeKey, outgoing );
+    if ( positions.isEmpty() ) {
+      return Collections.emptyList();
+    }
+    List<GraphRelationshipData> adjacent = new ArrayList<>( positions.size() );
+    for ( int position : positions ) {
+      adjacent.add( relationships.get( position ) );
+    }
+    return Collections.unmodifiableList( adjacent );
+  }
+
+  /**
+   * Rebuild the indexes on the nodes and relationships.  This is done automatically after changing the ID of a node or
+   * relationship, or the source or target of a relationship, after it was added to a graph.
+   */
+  public void reindex() {
+    reindexNodes();
+    reindexRelationships();
+  }
+
+  /**
+   * Get the nodes without copying the ones shared with a copy of this graph, see {@link #copyOnWrite()}, or loading
+   * spilled nodes back into memory.  Use this to iterate over the nodes without changing them.
+   *
+   * @return A read-only view of the nodes, don't modify the nodes either
+   */
+  public List<GraphNodeData> getNodesForReading() {
+    if ( nodes instanceof GraphElementList ) {
+      return ( (GraphElementList<GraphNodeData>) nodes ).peekView();
+    }
+    return nodes;
+  }
+
+  /**
+   * Get the relationships without copying the ones shared with a copy of this graph, see {@link #copyOnWrite()}, or
+   * loading spilled relationships back into memory.  Use this to iterate over the relationships without changing them.
+   *
+   * @return A read-only view of the relationships, don't modify the relationships either
+   */
+  public List<GraphRelationshipData> getRelationshipsForReading() {
+    if ( relationships instanceof GraphElementList ) {
+      return ( (GraphElementList<GraphRelationshipData>) relationships ).peekView();
+    }
+    return relationships;
+  }
+
+  private GraphNodeData peekNode( int index ) {
+    if ( nodes instanceof GraphElementList ) {
+      return ( (GraphElementList<GraphNodeData>) nodes ).peek( index );
+    }
+    return nodes.get( index );
+  }
+
+  private GraphRelationshipData peekRelationship( int index ) {
+    if ( relationships instanceof GraphElementList ) {
+      return ( (GraphElementList<GraphRelationshipData>) relationships ).peek( index );
+    }
+    return relationships.get( index );
+  }
+
+  /**
+   * Get the positions of the relationships with the given node as source or target, in ascending order
+   */
+  private List<Integer> findAdjacentPositions( Object nodeKey, boolean outgoing ) {
+    getRelationshipIndex();
+    List<Integer> positions = ( outgoing ? outgoingIndex : incomingIndex ).get( nodeKey );
+    if ( positions != null && !areAdjacent( positions, nodeKey, outgoing ) ) {
+      reindexRelationships();
+      positions = ( outgoing ? outgoingIndex : incomingIndex ).get( nodeKey );
+    }
+    return positions == null ? Collections.emptyList() : positions;
+  }
+
+  private boolean areAdjacent( List<Integer> positions, Object nodeKey, boolean outgoing ) {
+    for ( int position : positions ) {
+      if ( position >= relationships.size() ) {
+        return false;
       }
+      GraphRelationshipData relationship = peekRelationship( position );
+      if ( !nodeKey.equals( outgoing ? relationship.getSourceNodeIdKey() : relationship.getTargetNodeIdKey() ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Map<Object, Integer> getNodeIndex() {
+    if ( nodeIndex == null || indexedNodes != nodes || indexedNodeCount != nodes.size() ) {
+      reindexNodes();
+    }
+    return nodeIndex;
+  }
+
+  private void reindexNodes() {
+    nodeIndex = new HashMap<>();
+    for ( int i = 0; i < nodes.size(); i++ ) {
+      indexNode( peekNode( i ), i );
+    }
+    indexedNodes = nodes;
+    indexedNodeCount = nodes.size();
+  }
+
+  private void indexNode( GraphNodeData node, int position ) {
+    node.markIndexed( this );
+    Object key = node.getIdKey();
+    if ( key != null ) {
+      // Keep the first, just like a scan would find it
+      //
+      nodeIndex.putIfAbsent( key, position );
+    }
+  }
+
+  /**
+   * Called when the ID of a node of this graph changed
+   */
+  void nodeIdChanged() {
+    nodeIndex = null;
+  }
+
+  /**
+   * Called when the ID, source or target of a relationship of this graph changed
+   */
+  void relationshipIdChanged() {
+    relationshipIndex = null;
+  }
+
+  private Map<Object, Integer> getRelationshipIndex() {
+    if ( relationshipIndex == null || indexedRelationships != relationships || indexedRelationshipCount != relationships.size() ) {
+      reindexRelationships();
     }
+    return relationshipIndex;
   }
 
-  private void update( GraphNodeData dataNode ) {
-    int index = nodes.indexOf( dataNode );
-    if ( index < 0 ) {
-      nodes.add( dataNode );
-    } else {
-      nodes.set( index, dataNode );
+  private void reindexRelationships() {
+    relationshipIndex = new HashMap<>();
+    outgoingIndex = new HashMap<>();
+    incomingIndex = new HashMap<>();
+    for ( int i = 0; i < relationships.size(); i++ ) {
+      indexRelationship( peekRelationship( i ), i );
     }
+    indexedRelationships = relationships;
+    indexedRelationshipCount = relationships.size();
   }
 
-  private void update( GraphRelationshipData dataRelationship ) {
-    int index = relationships.indexOf( dataRelationship );
-    if ( index < 0 ) {
-      relationships.add( dataRelationship );
-    } else {
-      relationships.set( index, dataRelationship );
+  private void indexRelationship( GraphRelationshipData relationship, int position ) {
+    relationship.markIndexed( this );
+    Object key = relationship.getIdKey();
+    if ( key != null ) {
+      relationshipIndex.putIfAbsent( key, position );
+    }
+    Object sourceKey = relationship.getSourceNodeIdKey();
+    if ( sourceKey != null ) {
+      outgoingIndex.computeIfAbsent( sourceKey, id -> new ArrayList<>() ).add( position );
+    }
+    Object targetKey = relationship.getTargetNodeIdKey();
+    if ( targetKey != null ) {
+      incomingIndex.computeIfAbsent( targetKey, id -> new ArrayList<>() ).add( position );
     }
   }
 
+  /**
+   * Build a graph from the nodes, relationships and paths in all records of the given result.
+   * Their properties are only converted when they're used, see {@link LazyGraphNodeData}.
+   *
+   * @param result The result to consume
+   */
+  public GraphData( Result result ) {
+    this();
+    new GraphDataBuilder( true ).addResult( result ).buildInto( this );
+  }
+
   public GraphNodeData findNodeWithProperty( String propertyId, Object value ) {
-    for ( GraphNodeData node : nodes ) {
-      GraphPropertyData property = node.findProperty( propertyId );
+    for ( int i = 0; i < nodes.size(); i++ ) {
+      GraphPropertyData property = peekNode( i ).findProperty( propertyId );
       if ( property != null ) {
         if ( property.getValue() != null && property.getValue().equals( value ) ) {
-          return node;
+          return nodes.get( i );
         }
       }
     }
@@ -253,9 +821,9 @@ public class GraphData {
 
   public List<GraphRelationshipData> findRelationships( String label ) {
     List<GraphRelationshipData> rels = new ArrayList<>();
-    for ( GraphRelationshipData relationship : relationships ) {
-      if ( relationship.getLabel().equals( label ) ) {
-        rels.add( relationship );
+    for ( int i = 0; i < relationships.size(); i++ ) {
+      if ( peekRelationship( i ).getLabel().equals( label ) ) {
+        rels.add( relationships.get( i ) );
       }
     }
     return rels;
@@ -270,11 +838,19 @@ public class GraphData {
     if ( rels.size() == 0 ) {
       return null;
     }
+    Map<String, GraphRelationshipData> relsByTarget = new HashMap<>();
+    for ( GraphRelationshipData rel : rels ) {
+      relsByTarget.putIfAbsent( rel.getTargetNodeId(), rel );
+    }
+    Set<String> visited = new HashSet<>();
     GraphRelationshipData rel = rels.get( 0 );
     GraphNodeData node = null;
-    while ( rel != null ) {
+    while ( rel != null && visited.add( rel.getSourceNodeId() ) ) {
       node = findNode( rel.getSourceNodeId() );
-      rel = findRelationshipsWithTarget( rels, node.getId() );
+      if ( node == null ) {
+        break;
+      }
+      rel = relsByTarget.get( node.getId() );
     }
     return node;
   }
@@ -302,7 +878,10 @@ public class GraphData {
     GraphNodeData currentNode = startNode;
     GraphNodeData previousNode = null;
     List<GraphNodeData> path = new ArrayList<>();
-    while ( currentNode != null ) {
+    Set<Object> visited = new HashSet<>();
+    // Stop when the path runs into a cycle
+    //
+    while ( currentNode != null && visited.add( currentNode.getIdKey() ) ) {
       path.add( currentNode );
       GraphNodeData nextNode = findNextNode( currentNode, mainRelationshipLabel, previousNode );
       previousNode = currentNode;
@@ -312,11 +891,12 @@ public class GraphData {
   }
 
   private GraphNodeData getOtherNode( GraphRelationshipData nextRel, GraphNodeData currentNode ) {
-    if ( nextRel.getSourceNodeId().equals( currentNode.getId() ) ) {
-      return findNode( nextRel.getTargetNodeId() );
+    Object currentKey = currentNode.getIdKey();
+    if ( Objects.equals( nextRel.getSourceNodeIdKey(), currentKey ) ) {
+      return findNodeWithKey( nextRel.getTargetNodeIdKey() );
     }
-    if ( nextRel.getTargetNodeId().equals( currentNode.getId() ) ) {
-      return findNode( nextRel.getSourceNodeId() );
+    if ( Objects.equals( nextRel.getTargetNodeIdKey(), currentKey ) ) {
+      return findNodeWithKey( nextRel.getSourceNodeIdKey() );
     }
     return null;
   }
@@ -341,14 +921,15 @@ public class GraphData {
   private List<GraphNodeData> findNextNodes( GraphNodeData currentNode, String excludeLabel ) {
 
     List<GraphNodeData> nextNodes = new ArrayList<>();
-    for ( GraphRelationshipData relationship : relationships ) {
+    Object currentKey = currentNode.getIdKey();
+    for ( GraphRelationshipData relationship : findRelationships( currentNode ) ) {
 
       if ( !relationship.getLabel().equals( excludeLabel ) ) {
-        if ( relationship.getSourceNodeId().equals( currentNode.getId() ) ) {
-          nextNodes.add( findNode( relationship.getTargetNodeId() ) );
+        if ( Objects.equals( relationship.getSourceNodeIdKey(), currentKey ) ) {
+          nextNodes.add( findNodeWithKey( relationship.getTargetNodeIdKey() ) );
         }
-        if ( relationship.getTargetNodeId().equals( currentNode.getId() ) ) {
-          nextNodes.add( findNode( relationship.getSourceNodeId() ) );
+        if ( Objects.equals( relationship.getTargetNodeIdKey(), currentKey ) ) {
+          nextNodes.add( findNodeWithKey( relationship.getSourceNodeIdKey() ) );
         }
       }
     }
@@ -357,15 +938,17 @@ public class GraphData {
 
   public GraphNodeData findNextNode( GraphNodeData currentNode, String mainRelationshipLabel, GraphNodeData excludeNode ) {
     List<GraphRelationshipData> rels = findRelationships( currentNode );
+    Object currentKey = currentNode.getIdKey();
+    Object excludeKey = excludeNode == null ? null : excludeNode.getIdKey();
     for ( GraphRelationshipData rel : rels ) {
       if ( mainRelationshipLabel.equals( rel.getLabel() ) ) {
-        if ( excludeNode == null || !( rel.getSourceNodeId().equals( excludeNode.getId() ) || rel.getTargetNodeId().equals( excludeNode.getId() ) ) ) {
+        if ( excludeNode == null || !( Objects.equals( rel.getSourceNodeIdKey(), excludeKey ) || Objects.equals( rel.getTargetNodeIdKey(), excludeKey ) ) ) {
           // Don't return the same node, return the other
           //
-          if ( rel.getSourceNodeId().equals( currentNode.getId() ) ) {
-            return findNode( rel.getTargetNodeId() );
+          if ( Objects.equals( rel.getSourceNodeIdKey(), currentKey ) ) {
+            return findNodeWithKey( rel.getTargetNodeIdKey() );
           } else {
-            return findNode( rel.getSourceNodeId() );
+            return findNodeWithKey( rel.getSourceNodeIdKey() );
           }
         }
       }
@@ -381,11 +964,29 @@ public class GraphData {
    */
   public List<GraphRelationshipData> findRelationships( GraphNodeData dataNode ) {
 
-    List<GraphRelationshipData> found = new ArrayList<>();
-    for ( GraphRelationshipData relationship : relationships ) {
-      if ( relationship.getSourceNodeId().equals( dataNode.getId() ) || relationship.getTargetNodeId().equals( dataNode.getId() ) ) {
-        found.add( relationship );
+    Object key = dataNode.getIdKey();
+    if ( key == null ) {
+      return new ArrayList<>();
+    }
+    List<Integer> outgoing = findAdjacentPositions( key, true );
+    List<Integer> incoming = findAdjacentPositions( key, false );
+
+    // Merge on position to keep the order of the graph.  Relationships to the node itself are in both lists.
+    //
+    List<GraphRelationshipData> found = new ArrayList<>( outgoing.size() + incoming.size() );
+    int out = 0;
+    int in = 0;
+    while ( out < outgoing.size() || in < incoming.size() ) {
+      int position;
+      if ( in >= incoming.size() || ( out < outgoing.size() && outgoing.get( out ) <= incoming.get( in ) ) ) {
+        position = outgoing.get( out++ );
+        if ( in < incoming.size() && incoming.get( in ) == position ) {
+          in++;
+        }
+      } else {
+        position = incoming.get( in++ );
       }
+      found.add( relationships.get( position ) );
     }
     return found;
   }
@@ -403,7 +1004,23 @@ public class GraphData {
    * @param nodes The nodes to set
    */
   public void setNodes( List<GraphNodeData> nodes ) {
-    this.nodes = nodes;
+    this.nodes = new GraphElementList<>( nodes, new GraphElementList.Listener<GraphNodeData>() {
+      @Override public void appended( GraphNodeData node ) {
+        if ( nodeIndex != null && indexedNodes == GraphData.this.nodes && indexedNodeCount == GraphData.this.nodes.size() - 1 ) {
+          indexNode( node, indexedNodeCount );
+          indexedNodeCount++;
+        }
+      }
+
+      @Override public void retrieved( GraphNodeData node ) {
+        node.markIndexed( GraphData.this );
+      }
+
+      @Override public void changed() {
+        nodeIndex = null;
+      }
+    } );
+    nodeIndex = null;
   }
 
   /**
@@ -419,7 +1036,24 @@ public class GraphData {
    * @param relationships The relationships to set
    */
   public void setRelationships( List<GraphRelationshipData> relationships ) {
-    this.relationships = relationships;
+    this.relationships = new GraphElementList<>( relationships, new GraphElementList.Listener<GraphRelationshipData>() {
+      @Override public void appended( GraphRelationshipData relationship ) {
+        if ( relationshipIndex != null && indexedRelationships == GraphData.this.relationships
+          && indexedRelationshipCount == GraphData.this.relationships.size() - 1 ) {
+          indexRelationship( relationship, indexedRelationshipCount );
+          indexedRelationshipCount++;
+        }
+      }
+
+      @Override public void retrieved( GraphRelationshipData relationship ) {
+        relationship.markIndexed( GraphData.this );
+      }
+
+      @Override public void changed() {
+        relationshipIndex = null;
+      }
+    } );
+    relationshipIndex = null;
   }
 
   /**
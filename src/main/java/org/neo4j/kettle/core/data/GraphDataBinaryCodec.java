@@ -0,0 +1,677 @@
+package org.neo4j.kettle.core.data;
+
+import org.neo4j.driver.Values;
+import org.neo4j.driver.types.IsoDuration;
+import org.neo4j.driver.types.Point;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary format for {@link GraphData}.
+ * <p>
+ * Labels, relationship labels, property keys and property set IDs are written once in a dictionary at the start and
+ * referred to by their index.  Lengths, counts and dictionary indexes are written as variable length integers.
+ * Numeric IDs are written as numbers.  Every property has a tag with its {@link GraphPropertyDataType} and a tag with
+ * the class of its value so the value comes back exactly as it was written.  Values of other classes than the ones
+ * a property can have are not supported.
+ * <p>
+ * Lengths and counts are checked while reading so corrupt input fails with an {@link IOException} instead of
+ * allocating large arrays.
+ */
+public class GraphDataBinaryCodec {
+
+  private static final int VERSION = 1;
+
+  private static final int ID_NULL = 0;
+  private static final int ID_NUMBER = 1;
+  private static final int ID_STRING = 2;
+
+  private static final int VALUE_NULL = 0;
+  private static final int VALUE_LONG = 1;
+  private static final int VALUE_INTEGER = 2;
+  private static final int VALUE_DOUBLE = 3;
+  private static final int VALUE_FLOAT = 4;
+  private static final int VALUE_TRUE = 5;
+  private static final int VALUE_FALSE = 6;
+  private static final int VALUE_STRING = 7;
+  private static final int VALUE_BYTES = 8;
+  private static final int VALUE_LOCAL_DATE = 9;
+  private static final int VALUE_LOCAL_DATE_TIME = 10;
+  private static final int VALUE_LOCAL_TIME = 11;
+  private static final int VALUE_OFFSET_TIME = 12;
+  private static final int VALUE_ZONED_DATE_TIME = 13;
+  private static final int VALUE_OFFSET_DATE_TIME = 14;
+  private static final int VALUE_DURATION = 15;
+  private static final int VALUE_LIST = 16;
+  private static final int VALUE_MAP = 17;
+  // 18 was used for Java serialized values, those are no longer supported
+  //
+  private static final int VALUE_ISO_DURATION = 19;
+  private static final int VALUE_POINT = 20;
+
+  /**
+   * Lists are created with at most this capacity so a corrupt count doesn't allocate a large array up front
+   */
+  private static final int MAX_INITIAL_CAPACITY = 1024;
+
+  /**
+   * Byte arrays are read in blocks of this size so a corrupt length fails at the end of the input
+   */
+  private static final int READ_BLOCK_SIZE = 64 * 1024;
+
+  private static final GraphPropertyDataType[] TYPES = GraphPropertyDataType.values();
+
+  private GraphDataBinaryCodec() {
+  }
+
+  /**
+   * Encode a graph into bytes
+   *
+   * @param graphData The graph to encode
+   * @return The encoded graph
+   * @throws IOException In case a property value can't be encoded
+   */
+  public static byte[] encode( GraphData graphData ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( bytes );
+    write( out, graphData );
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decode a graph from bytes
+   *
+   * @param bytes The encoded graph
+   * @return The graph
+   * @throws IOException In case the bytes are not a valid encoded graph
+   */
+  public static GraphData decode( byte[] bytes ) throws IOException {
+    return read( new DataInputStream( new ByteArrayInputStream( bytes ) ) );
+  }
+
+  /**
+   * Write a graph
+   *
+   * @param out       The output to write to
+   * @param graphData The graph to write
+   * @throws IOException In case of a write error or if a property value can't be encoded
+   */
+  public static void write( DataOutput out, GraphData graphData ) throws IOException {
+    List<GraphNodeData> nodes = graphData.getNodesForReading();
+    List<GraphRelationshipData> relationships = graphData.getRelationshipsForReading();
+
+    // Collect the dictionary, materialize views only once
+    //
+    StringDictionary dictionary = new StringDictionary();
+    List<List<GraphPropertyData>> nodeProperties = new ArrayList<>( nodes.size() );
+    for ( GraphNodeData node : nodes ) {
+      for ( String label : nonNull( node.getLabels() ) ) {
+        dictionary.encode( label );
+      }
+      dictionary.encode( node.getPropertySetId() );
+      List<GraphPropertyData> properties = nonNull( node.getProperties() );
+      for ( GraphPropertyData property : properties ) {
+        dictionary.encode( property.getId() );
+      }
+      nodeProperties.add( properties );
+    }
+    List<List<GraphPropertyData>> relationshipProperties = new ArrayList<>( relationships.size() );
+    for ( GraphRelationshipData relationship : relationships ) {
+      dictionary.encode( relationship.getLabel() );
+      dictionary.encode( relationship.getPropertySetId() );
+      List<GraphPropertyData> properties = nonNull( relationship.getProperties() );
+      for ( GraphPropertyData property : properties ) {
+        dictionary.encode( property.getId() );
+      }
+      relationshipProperties.add( properties );
+    }
+
+    writeVarInt( out, VERSION );
+    writeVarInt( out, dictionary.size() );
+    for ( int i = 0; i < dictionary.size(); i++ ) {
+      writeString( out, dictionary.decode( i ) );
+    }
+    writeString( out, graphData.getSourceTransformationName() );
+    writeString( out, graphData.getSourceStepName() );
+
+    writeVarInt( out, nodes.size() );
+    for ( int i = 0; i < nodes.size(); i++ ) {
+      writeNode( out, dictionary, nodes.get( i ), nodeProperties.get( i ) );
+    }
+
+    writeVarInt( out, relationships.size() );
+    for ( int i = 0; i < relationships.size(); i++ ) {
+      writeRelationship( out, dictionary, relationships.get( i ), relationshipProperties.get( i ) );
+    }
+  }
+
+  /**
+   * Write a single node with its labels and property keys as strings instead of dictionary indexes
+   *
+   * @param out  The output to write to
+   * @param node The node to write
+   * @throws IOException In case of a write error or if a property value can't be encoded
+   */
+  static void writeNode( DataOutput out, GraphNodeData node ) throws IOException {
+    writeNode( out, null, node, nonNull( node.getProperties() ) );
+  }
+
+  /**
+   * Read a single node written by {@link #writeNode(DataOutput, GraphNodeData)}
+   *
+   * @param in The input to read from
+   * @return The node
+   * @throws IOException In case of a read error or if the input is not a valid encoded node
+   */
+  static GraphNodeData readNode( DataInput in ) throws IOException {
+    return readNode( in, null );
+  }
+
+  /**
+   * Write a single relationship with its label and property keys as strings instead of dictionary indexes
+   *
+   * @param out          The output to write to
+   * @param relationship The relationship to write
+   * @throws IOException In case of a write error or if a property value can't be encoded
+   */
+  static void writeRelationship( DataOutput out, GraphRelationshipData relationship ) throws IOException {
+    writeRelationship( out, null, relationship, nonNull( relationship.getProperties() ) );
+  }
+
+  /**
+   * Read a single relationship written by {@link #writeRelationship(DataOutput, GraphRelationshipData)}
+   *
+   * @param in The input to read from
+   * @return The relationship
+   * @throws IOException In case of a read error or if the input is not a valid encoded relationship
+   */
+  static GraphRelationshipData readRelationship( DataInput in ) throws IOException {
+    return readRelationship( in, null );
+  }
+
+  private static void writeNode( DataOutput out, StringDictionary dictionary, GraphNodeData node, List<GraphPropertyData> properties )
+    throws IOException {
+    writeId( out, node.hasNumericId(), node.getNumericId(), node.getId() );
+    List<String> labels = nonNull( node.getLabels() );
+    writeVarInt( out, labels.size() );
+    for ( String label : labels ) {
+      writeSymbol( out, dictionary, label );
+    }
+    writeSymbol( out, dictionary, node.getPropertySetId() );
+    writeProperties( out, dictionary, properties );
+  }
+
+  private static void writeRelationship( DataOutput out, StringDictionary dictionary, GraphRelationshipData relationship,
+                                         List<GraphPropertyData> properties ) throws IOException {
+    writeId( out, relationship.hasNumericId(), relationship.getNumericId(), relationship.getId() );
+    writeSymbol( out, dictionary, relationship.getLabel() );
+    writeId( out, relationship.hasNumericSourceNodeId(), relationship.getNumericSourceNodeId(), relationship.getSourceNodeId() );
+    writeId( out, relationship.hasNumericTargetNodeId(), relationship.getNumericTargetNodeId(), relationship.getTargetNodeId() );
+    writeSymbol( out, dictionary, relationship.getPropertySetId() );
+    writeProperties( out, dictionary, properties );
+  }
+
+  /**
+   * Write a label, property key or property set ID as its dictionary index or, without a dictionary, as a string
+   */
+  private static void writeSymbol( DataOutput out, StringDictionary dictionary, String symbol ) throws IOException {
+    if ( dictionary == null ) {
+      writeString( out, symbol );
+    } else {
+      writeVarInt( out, dictionary.lookup( symbol ) );
+    }
+  }
+
+  private static String readSymbol( DataInput in, String[] dictionary ) throws IOException {
+    if ( dictionary == null ) {
+      return GraphSymbolTable.intern( readString( in ) );
+    }
+    int index = readVarInt( in );
+    if ( index < 0 || index >= dictionary.length ) {
+      throw new IOException( "Invalid dictionary index " + index + " in graph data" );
+    }
+    return dictionary[ index ];
+  }
+
+  /**
+   * Read a graph
+   *
+   * @param in The input to read from
+   * @return The graph
+   * @throws IOException In case of a read error or if the input is not a valid encoded graph
+   */
+  public static GraphData read( DataInput in ) throws IOException {
+    int version = readVarInt( in );
+    if ( version != VERSION ) {
+      throw new IOException( "Unsupported graph data binary format version " + version );
+    }
+    int dictionarySize = readLength( in );
+    List<String> symbols = new ArrayList<>( Math.min( dictionarySize, MAX_INITIAL_CAPACITY ) );
+    for ( int i = 0; i < dictionarySize; i++ ) {
+      symbols.add( GraphSymbolTable.intern( readString( in ) ) );
+    }
+    String[] dictionary = symbols.toArray( new String[ 0 ] );
+
+    GraphData graphData = new GraphData();
+    graphData.setSourceTransformationName( readString( in ) );
+    graphData.setSourceStepName( readString( in ) );
+
+    int nodeCount = readLength( in );
+    List<GraphNodeData> nodes = new SharedElementList<>( Math.min( nodeCount, MAX_INITIAL_CAPACITY ), GraphNodeData::new );
+    for ( int i = 0; i < nodeCount; i++ ) {
+      nodes.add( readNode( in, dictionary ) );
+    }
+    graphData.setNodes( nodes );
+
+    int relationshipCount = readLength( in );
+    List<GraphRelationshipData> relationships = new SharedElementList<>( Math.min( relationshipCount, MAX_INITIAL_CAPACITY ),
+      GraphRelationshipData::new );
+    for ( int i = 0; i < relationshipCount; i++ ) {
+      relationships.add( readRelationship( in, dictionary ) );
+    }
+    graphData.setRelationships( relationships );
+
+    return graphData;
+  }
+
+  private static GraphNodeData readNode( DataInput in, String[] dictionary ) throws IOException {
+    Object id = readId( in );
+    int labelCount = readLength( in );
+    List<String> labels = new ArrayList<>( Math.min( labelCount, MAX_INITIAL_CAPACITY ) );
+    for ( int l = 0; l < labelCount; l++ ) {
+      labels.add( readSymbol( in, dictionary ) );
+    }
+    String propertySetId = readSymbol( in, dictionary );
+    GraphNodeData node = new GraphNodeData( null, labels, readProperties( in, dictionary ) );
+    if ( id instanceof Long ) {
+      node.setId( ( (Long) id ).longValue() );
+    } else {
+      node.setId( (String) id );
+    }
+    node.setPropertySetId( propertySetId );
+    return node;
+  }
+
+  private static GraphRelationshipData readRelationship( DataInput in, String[] dictionary ) throws IOException {
+    Object id = readId( in );
+    String label = readSymbol( in, dictionary );
+    Object sourceNodeId = readId( in );
+    Object targetNodeId = readId( in );
+    String propertySetId = readSymbol( in, dictionary );
+    GraphRelationshipData relationship = new GraphRelationshipData( null, label, readProperties( in, dictionary ), null, null );
+    if ( id instanceof Long ) {
+      relationship.setId( ( (Long) id ).longValue() );
+    } else {
+      relationship.setId( (String) id );
+    }
+    if ( sourceNodeId instanceof Long ) {
+      relationship.setSourceNodeId( ( (Long) sourceNodeId ).longValue() );
+    } else {
+      relationship.setSourceNodeId( (String) sourceNodeId );
+    }
+    if ( targetNodeId instanceof Long ) {
+      relationship.setTargetNodeId( ( (Long) targetNodeId ).longValue() );
+    } else {
+      relationship.setTargetNodeId( (String) targetNodeId );
+    }
+    relationship.setPropertySetId( propertySetId );
+    return relationship;
+  }
+
+  private static <T> List<T> nonNull( List<T> list ) {
+    return list == null ? Collections.emptyList() : list;
+  }
+
+  private static void writeProperties( DataOutput out, StringDictionary dictionary, List<GraphPropertyData> properties ) throws IOException {
+    writeVarInt( out, properties.size() );
+    for ( GraphPropertyData property : properties ) {
+      writeSymbol( out, dictionary, property.getId() );
+      // The type (or 0 for null) and the primary flag in one
+      //
+      int typeTag = property.getType() == null ? 0 : property.getType().ordinal() + 1;
+      writeVarInt( out, ( typeTag << 1 ) | ( property.isPrimary() ? 1 : 0 ) );
+      writeValue( out, property.getValue() );
+    }
+  }
+
+  private static List<GraphPropertyData> readProperties( DataInput in, String[] dictionary ) throws IOException {
+    int count = readLength( in );
+    List<GraphPropertyData> properties = new ArrayList<>( Math.min( count, MAX_INITIAL_CAPACITY ) );
+    for ( int i = 0; i < count; i++ ) {
+      String id = readSymbol( in, dictionary );
+      int tag = readVarInt( in );
+      int typeTag = tag >>> 1;
+      if ( typeTag > TYPES.length ) {
+        throw new IOException( "Unsupported graph property type tag " + typeTag );
+      }
+      GraphPropertyDataType type = typeTag == 0 ? null : TYPES[ typeTag - 1 ];
+      Object value = readValue( in );
+      properties.add( new GraphPropertyData( id, value, type, ( tag & 1 ) != 0 ) );
+    }
+    return properties;
+  }
+
+  static void writeValue( DataOutput out, Object value ) throws IOException {
+    if ( value == null ) {
+      out.writeByte( VALUE_NULL );
+    } else if ( value instanceof Long ) {
+      out.writeByte( VALUE_LONG );
+      writeSignedVarLong( out, (Long) value );
+    } else if ( value instanceof Integer ) {
+      out.writeByte( VALUE_INTEGER );
+      writeSignedVarLong( out, (Integer) value );
+    } else if ( value instanceof Double ) {
+      out.writeByte( VALUE_DOUBLE );
+      out.writeDouble( (Double) value );
+    } else if ( value instanceof Float ) {
+      out.writeByte( VALUE_FLOAT );
+      out.writeFloat( (Float) value );
+    } else if ( value instanceof Boolean ) {
+      out.writeByte( ( (Boolean) value ) ? VALUE_TRUE : VALUE_FALSE );
+    } else if ( value instanceof String ) {
+      out.writeByte( VALUE_STRING );
+      writeString( out, (String) value );
+    } else if ( value instanceof byte[] ) {
+      out.writeByte( VALUE_BYTES );
+      byte[] bytes = (byte[]) value;
+      writeVarInt( out, bytes.length );
+      out.write( bytes );
+    } else if ( value instanceof LocalDate ) {
+      out.writeByte( VALUE_LOCAL_DATE );
+      writeSignedVarLong( out, ( (LocalDate) value ).toEpochDay() );
+    } else if ( value instanceof LocalDateTime ) {
+      out.writeByte( VALUE_LOCAL_DATE_TIME );
+      LocalDateTime localDateTime = (LocalDateTime) value;
+      writeSignedVarLong( out, localDateTime.toEpochSecond( ZoneOffset.UTC ) );
+      writeVarInt( out, localDateTime.getNano() );
+    } else if ( value instanceof LocalTime ) {
+      out.writeByte( VALUE_LOCAL_TIME );
+      writeVarLong( out, ( (LocalTime) value ).toNanoOfDay() );
+    } else if ( value instanceof OffsetTime ) {
+      out.writeByte( VALUE_OFFSET_TIME );
+      OffsetTime offsetTime = (OffsetTime) value;
+      writeVarLong( out, offsetTime.toLocalTime().toNanoOfDay() );
+      writeSignedVarLong( out, offsetTime.getOffset().getTotalSeconds() );
+    } else if ( value instanceof ZonedDateTime ) {
+      out.writeByte( VALUE_ZONED_DATE_TIME );
+      ZonedDateTime zonedDateTime = (ZonedDateTime) value;
+      writeSignedVarLong( out, zonedDateTime.toEpochSecond() );
+      writeVarInt( out, zonedDateTime.getNano() );
+      writeString( out, zonedDateTime.getZone().getId() );
+    } else if ( value instanceof OffsetDateTime ) {
+      out.writeByte( VALUE_OFFSET_DATE_TIME );
+      OffsetDateTime offsetDateTime = (OffsetDateTime) value;
+      writeSignedVarLong( out, offsetDateTime.toEpochSecond() );
+      writeVarInt( out, offsetDateTime.getNano() );
+      writeSignedVarLong( out, offsetDateTime.getOffset().getTotalSeconds() );
+    } else if ( value instanceof Duration ) {
+      out.writeByte( VALUE_DURATION );
+      Duration duration = (Duration) value;
+      writeSignedVarLong( out, duration.getSeconds() );
+      writeVarInt( out, duration.getNano() );
+    } else if ( value instanceof Collection ) {
+      out.writeByte( VALUE_LIST );
+      Collection<?> collection = (Collection<?>) value;
+      writeVarInt( out, collection.size() );
+      for ( Object element : collection ) {
+        writeValue( out, element );
+      }
+    } else if ( value instanceof Map ) {
+      out.writeByte( VALUE_MAP );
+      Map<?, ?> map = (Map<?, ?>) value;
+      writeVarInt( out, map.size() );
+      for ( Map.Entry<?, ?> entry : map.entrySet() ) {
+        writeString( out, String.valueOf( entry.getKey() ) );
+        writeValue( out, entry.getValue() );
+      }
+    } else if ( value instanceof IsoDuration ) {
+      out.writeByte( VALUE_ISO_DURATION );
+      IsoDuration duration = (IsoDuration) value;
+      writeSignedVarLong( out, duration.months() );
+      writeSignedVarLong( out, duration.days() );
+      writeSignedVarLong( out, duration.seconds() );
+      writeVarInt( out, duration.nanoseconds() );
+    } else if ( value instanceof Point ) {
+      out.writeByte( VALUE_POINT );
+      Point point = (Point) value;
+      writeSignedVarLong( out, point.srid() );
+      out.writeDouble( point.x() );
+      out.writeDouble( point.y() );
+      out.writeDouble( point.z() );
+    } else {
+      throw new IOException( "Unsupported graph property value of class " + value.getClass().getName() );
+    }
+  }
+
+  static Object readValue( DataInput in ) throws IOException {
+    int tag = in.readUnsignedByte();
+    switch ( tag ) {
+      case VALUE_NULL:
+        return null;
+      case VALUE_LONG:
+        return readSignedVarLong( in );
+      case VALUE_INTEGER:
+        return (int) readSignedVarLong( in );
+      case VALUE_DOUBLE:
+        return in.readDouble();
+      case VALUE_FLOAT:
+        return in.readFloat();
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_STRING:
+        return readString( in );
+      case VALUE_BYTES:
+        return readBytes( in, readLength( in ) );
+      case VALUE_LOCAL_DATE:
+        return LocalDate.ofEpochDay( readSignedVarLong( in ) );
+      case VALUE_LOCAL_DATE_TIME:
+        return LocalDateTime.ofEpochSecond( readSignedVarLong( in ), readVarInt( in ), ZoneOffset.UTC );
+      case VALUE_LOCAL_TIME:
+        return LocalTime.ofNanoOfDay( readVarLong( in ) );
+      case VALUE_OFFSET_TIME:
+        LocalTime time = LocalTime.ofNanoOfDay( readVarLong( in ) );
+        return OffsetTime.of( time, ZoneOffset.ofTotalSeconds( (int) readSignedVarLong( in ) ) );
+      case VALUE_ZONED_DATE_TIME:
+        long zonedSeconds = readSignedVarLong( in );
+        int zonedNanos = readVarInt( in );
+        return ZonedDateTime.ofInstant( Instant.ofEpochSecond( zonedSeconds, zonedNanos ), ZoneId.of( readString( in ) ) );
+      case VALUE_OFFSET_DATE_TIME:
+        long offsetSeconds = readSignedVarLong( in );
+        int offsetNanos = readVarInt( in );
+        return OffsetDateTime.ofInstant( Instant.ofEpochSecond( offsetSeconds, offsetNanos ),
+          ZoneOffset.ofTotalSeconds( (int) readSignedVarLong( in ) ) );
+      case VALUE_DURATION:
+        long durationSeconds = readSignedVarLong( in );
+        return Duration.ofSeconds( durationSeconds, readVarInt( in ) );
+      case VALUE_LIST:
+        int size = readLength( in );
+        List<Object> list = new ArrayList<>( Math.min( size, MAX_INITIAL_CAPACITY ) );
+        for ( int i = 0; i < size; i++ ) {
+          list.add( readValue( in ) );
+        }
+        return list;
+      case VALUE_MAP:
+        int entries = readLength( in );
+        Map<String, Object> map = new LinkedHashMap<>();
+        for ( int i = 0; i < entries; i++ ) {
+          String key = readString( in );
+          map.put( key, readValue( in ) );
+        }
+        return map;
+      case VALUE_ISO_DURATION:
+        long months = readSignedVarLong( in );
+        long days = readSignedVarLong( in );
+        long seconds = readSignedVarLong( in );
+        return Values.isoDuration( months, days, seconds, readVarInt( in ) ).asIsoDuration();
+      case VALUE_POINT:
+        int srid = (int) readSignedVarLong( in );
+        double x = in.readDouble();
+        double y = in.readDouble();
+        double z = in.readDouble();
+        return ( Double.isNaN( z ) ? Values.point( srid, x, y ) : Values.point( srid, x, y, z ) ).asPoint();
+      default:
+        throw new IOException( "Unsupported graph property value tag " + tag );
+    }
+  }
+
+  private static void writeId( DataOutput out, boolean isNumeric, long number, String id ) throws IOException {
+    if ( isNumeric ) {
+      out.writeByte( ID_NUMBER );
+      writeSignedVarLong( out, number );
+    } else if ( id == null ) {
+      out.writeByte( ID_NULL );
+    } else if ( IdColumn.isNumericId( id ) ) {
+      out.writeByte( ID_NUMBER );
+      writeSignedVarLong( out, Long.parseLong( id ) );
+    } else {
+      out.writeByte( ID_STRING );
+      writeString( out, id );
+    }
+  }
+
+  /**
+   * @return A Long for numeric IDs, a String or null otherwise
+   */
+  private static Object readId( DataInput in ) throws IOException {
+    int tag = in.readUnsignedByte();
+    switch ( tag ) {
+      case ID_NULL:
+        return null;
+      case ID_NUMBER:
+        return readSignedVarLong( in );
+      case ID_STRING:
+        return readString( in );
+      default:
+        throw new IOException( "Unknown graph element ID tag " + tag );
+    }
+  }
+
+  /**
+   * Write a string as its UTF-8 length + 1 (0 for null) followed by the bytes
+   *
+   * @param out    The output to write to
+   * @param string The string to write, can be null
+   * @throws IOException In case of a write error
+   */
+  static void writeString( DataOutput out, String string ) throws IOException {
+    if ( string == null ) {
+      writeVarInt( out, 0 );
+      return;
+    }
+    byte[] bytes = string.getBytes( StandardCharsets.UTF_8 );
+    writeVarInt( out, bytes.length + 1 );
+    out.write( bytes );
+  }
+
+  static String readString( DataInput in ) throws IOException {
+    int length = readLength( in );
+    if ( length == 0 ) {
+      return null;
+    }
+    return new String( readBytes( in, length - 1 ), StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * Read a length or count
+   *
+   * @param in The input to read from
+   * @return The length, never negative
+   * @throws IOException In case of a read error or a negative length
+   */
+  static int readLength( DataInput in ) throws IOException {
+    int length = readVarInt( in );
+    if ( length < 0 ) {
+      throw new IOException( "Invalid length " + ( length & 0xFFFFFFFFL ) + " in graph data" );
+    }
+    return length;
+  }
+
+  /**
+   * Read the given number of bytes.  Large arrays are only allocated once the bytes are there.
+   *
+   * @param in     The input to read from
+   * @param length The number of bytes to read
+   * @return The bytes
+   * @throws IOException In case of a read error or if the input ends early
+   */
+  private static byte[] readBytes( DataInput in, int length ) throws IOException {
+    if ( length <= READ_BLOCK_SIZE ) {
+      byte[] bytes = new byte[ length ];
+      in.readFully( bytes );
+      return bytes;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream( READ_BLOCK_SIZE );
+    byte[] block = new byte[ READ_BLOCK_SIZE ];
+    for ( int remaining = length; remaining > 0; remaining -= READ_BLOCK_SIZE ) {
+      int blockSize = Math.min( remaining, READ_BLOCK_SIZE );
+      in.readFully( block, 0, blockSize );
+      bytes.write( block, 0, blockSize );
+    }
+    return bytes.toByteArray();
+  }
+
+  static void writeVarInt( DataOutput out, int value ) throws IOException {
+    writeVarLong( out, value & 0xFFFFFFFFL );
+  }
+
+  static int readVarInt( DataInput in ) throws IOException {
+    return (int) readVarLong( in );
+  }
+
+  static void writeVarLong( DataOutput out, long value ) throws IOException {
+    while ( ( value & ~0x7FL ) != 0 ) {
+      out.writeByte( (int) ( ( value & 0x7F ) | 0x80 ) );
+      value >>>= 7;
+    }
+    out.writeByte( (int) value );
+  }
+
+  static long readVarLong( DataInput in ) throws IOException {
+    long value = 0;
+    for ( int shift = 0; shift < 64; shift += 7 ) {
+      int b = in.readUnsignedByte();
+      value |= (long) ( b & 0x7F ) << shift;
+      if ( ( b & 0x80 ) == 0 ) {
+        return value;
+      }
+    }
+    throw new IOException( "Malformed variable length integer" );
+  }
+
+  static void writeSignedVarLong( DataOutput out, long value ) throws IOException {
+    // Zig-zag encoding so small negative numbers stay small
+    //
+    writeVarLong( out, ( value << 1 ) ^ ( value >> 63 ) );
+  }
+
+  static long readSignedVarLong( DataInput in ) throws IOException {
+    long value = readVarLong( in );
+    return ( value >>> 1 ) ^ -( value & 1 );
+  }
+}
@@ -0,0 +1,184 @@
+package org.neo4j.kettle.core.data;
+
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.types.Node;
+import org.neo4j.driver.types.Path;
+import org.neo4j.driver.types.Relationship;
+import org.neo4j.driver.types.TypeSystem;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds a {@link GraphData} from records one at a time.  The nodes, relationships and paths in the records are
+ * de-duplicated on their IDs in linear time and kept in the order in which they were first seen.
+ * <p>
+ * Just like {@link GraphData#GraphData(org.neo4j.driver.Result)} always did, a node or relationship which is seen
+ * again replaces the earlier one, keeping the position of the earlier one.  Use a lazy builder to keep the cost of
+ * converting such duplicates down.
+ */
+public class GraphDataBuilder {
+
+  private static final TypeSystem TYPE_SYSTEM = TypeSystem.getDefault();
+
+  private final Map<Object, GraphNodeData> nodes;
+  private final Map<Object, GraphRelationshipData> relationships;
+
+  /**
+   * Wrap the driver nodes and relationships in lazy views instead of converting them
+   */
+  private final boolean lazy;
+
+  public GraphDataBuilder() {
+    this( false );
+  }
+
+  /**
+   * @param lazy true to wrap the nodes and relationships in a {@link LazyGraphNodeData} or
+   *             {@link LazyGraphRelationshipData} which only converts properties when they're used
+   */
+  public GraphDataBuilder( boolean lazy ) {
+    this.lazy = lazy;
+    nodes = new LinkedHashMap<>();
+    relationships = new LinkedHashMap<>();
+  }
+
+  /**
+   * Add all remaining records of the given result
+   *
+   * @param result The result to consume
+   * @return this builder
+   */
+  public GraphDataBuilder addResult( Result result ) {
+    while ( result.hasNext() ) {
+      addRecord( result.next() );
+    }
+    return this;
+  }
+
+  /**
+   * Add the nodes, relationships and paths in the values of the given record.  Other values are ignored.
+   *
+   * @param record The record to add
+   * @return this builder
+   */
+  public GraphDataBuilder addRecord( Record record ) {
+    for ( Value value : record.values() ) {
+      addValue( value );
+    }
+    return this;
+  }
+
+  /**
+   * Add the given value if it's a node, relationship or path.  Other values are ignored.
+   *
+   * @param value The value to add
+   * @return this builder
+   */
+  public GraphDataBuilder addValue( Value value ) {
+    if ( value.hasType( TYPE_SYSTEM.NODE() ) ) {
+      addNode( value.asNode() );
+    } else if ( value.hasType( TYPE_SYSTEM.RELATIONSHIP() ) ) {
+      addRelationship( value.asRelationship() );
+    } else if ( value.hasType( TYPE_SYSTEM.PATH() ) ) {
+      addPath( value.asPath() );
+    }
+    return this;
+  }
+
+  public GraphDataBuilder addNode( Node node ) {
+    nodes.put( node.id(), lazy ? new LazyGraphNodeData( node ) : new GraphNodeData( node ) );
+    return this;
+  }
+
+  public GraphDataBuilder addRelationship( Relationship relationship ) {
+    relationships.put( relationship.id(), lazy ? new LazyGraphRelationshipData( relationship ) : new GraphRelationshipData( relationship ) );
+    return this;
+  }
+
+  public GraphDataBuilder addPath( Path path ) {
+    for ( Node node : path.nodes() ) {
+      addNode( node );
+    }
+    for ( Relationship relationship : path.relationships() ) {
+      addRelationship( relationship );
+    }
+    return this;
+  }
+
+  /**
+   * Add a node, replacing the node with the same ID if there is one
+   *
+   * @param node The node to add
+   * @return this builder
+   */
+  public GraphDataBuilder addNode( GraphNodeData node ) {
+    nodes.put( node.getIdKey(), node );
+    return this;
+  }
+
+  /**
+   * Add a relationship, replacing the relationship with the same ID if there is one
+   *
+   * @param relationship The relationship to add
+   * @return this builder
+   */
+  public GraphDataBuilder addRelationship( GraphRelationshipData relationship ) {
+    relationships.put( relationship.getIdKey(), relationship );
+    return this;
+  }
+
+  /**
+   * Add the nodes and relationships of another builder as if its records were added to this one: new ones are added in
+   * the order of the other builder, the ones of the other builder replace the ones with the same ID in this one.
+   *
+   * @param other The builder to add from
+   * @return this builder
+   */
+  GraphDataBuilder addAll( GraphDataBuilder other ) {
+    nodes.putAll( other.nodes );
+    relationships.putAll( other.relationships );
+    return this;
+  }
+
+  /**
+   * Build a new graph with the nodes and relationships added so far
+   *
+   * @return The graph
+   */
+  public GraphData build() {
+    GraphData graphData = new GraphData();
+    buildInto( graphData );
+    return graphData;
+  }
+
+  /**
+   * Replace the nodes and relationships of the given graph with the ones added so far
+   *
+   * @param graphData The graph to fill
+   */
+  public void buildInto( GraphData graphData ) {
+    graphData.setNodes( new SharedElementList<>( nodes.values(), GraphNodeData::new ) );
+    graphData.setRelationships( new SharedElementList<>( relationships.values(), GraphRelationshipData::new ) );
+  }
+
+  /**
+   * Gets the number of nodes added so far
+   *
+   * @return value of the number of nodes
+   */
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  /**
+   * Gets the number of relationships added so far
+   *
+   * @return value of the number of relationships
+   */
+  public int getRelationshipCount() {
+    return relationships.size();
+  }
+}
@@ -0,0 +1,386 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The differences between two graphs: the nodes and relationships which were added, removed or changed.
+ * Changes are tracked per property and per label.  See {@link GraphData#diff(GraphData)}.
+ * <p>
+ * Nodes are matched on their labels and primary properties or on their ID if they don't have primary properties.
+ * Relationships are matched on their label and their source and target nodes.  A relationship which was moved to other
+ * nodes is removed and added.
+ * <p>
+ * Nodes with the same key as an earlier node in the same graph are ignored: they're the same node in the database.
+ * In the same way, parallel relationships with the same label between the same nodes are only removed when none of them
+ * are left.  Going from two to one is not a removal since a relationship can't be told apart from its parallel ones.
+ * <p>
+ * The delta refers to the elements of both graphs, don't modify them.
+ */
+public class GraphDelta {
+
+  /**
+   * The changes made to a node or relationship
+   *
+   * @param <T> The type of element
+   */
+  public static class Change<T> {
+    private final T before;
+    private final T after;
+    private final List<GraphPropertyData> setProperties;
+    private final List<String> removedProperties;
+    private final List<String> addedLabels;
+    private final List<String> removedLabels;
+
+    Change( T before, T after, List<GraphPropertyData> setProperties, List<String> removedProperties, List<String> addedLabels,
+            List<String> removedLabels ) {
+      this.before = before;
+      this.after = after;
+      this.setProperties = setProperties;
+      this.removedProperties = removedProperties;
+      this.addedLabels = addedLabels;
+      this.removedLabels = removedLabels;
+    }
+
+    /**
+     * Gets before: the element in the original graph
+     *
+     * @return value of before
+     */
+    public T getBefore() {
+      return before;
+    }
+
+    /**
+     * Gets after: the element in the other graph
+     *
+     * @return value of after
+     */
+    public T getAfter() {
+      return after;
+    }
+
+    /**
+     * Gets setProperties: the properties which were added or have a different value or type
+     *
+     * @return value of setProperties
+     */
+    public List<GraphPropertyData> getSetProperties() {
+      return setProperties;
+    }
+
+    /**
+     * Gets removedProperties: the IDs of the properties which were removed
+     *
+     * @return value of removedProperties
+     */
+    public List<String> getRemovedProperties() {
+      return removedProperties;
+    }
+
+    /**
+     * Gets addedLabels, always empty for relationships
+     *
+     * @return value of addedLabels
+     */
+    public List<String> getAddedLabels() {
+      return addedLabels;
+    }
+
+    /**
+     * Gets removedLabels, always empty for relationships
+     *
+     * @return value of removedLabels
+     */
+    public List<String> getRemovedLabels() {
+      return removedLabels;
+    }
+  }
+
+  private final GraphData before;
+  private final GraphData after;
+
+  private final List<GraphNodeData> addedNodes;
+  private final List<GraphNodeData> removedNodes;
+  private final List<Change<GraphNodeData>> changedNodes;
+
+  private final List<GraphRelationshipData> addedRelationships;
+  private final List<GraphRelationshipData> removedRelationships;
+  private final List<Change<GraphRelationshipData>> changedRelationships;
+
+  private final Map<Object, GraphNodeData> beforeNodesById;
+  private final Map<Object, GraphNodeData> afterNodesById;
+
+  GraphDelta( GraphData before, GraphData after ) {
+    this.before = before;
+    this.after = after;
+    addedNodes = new ArrayList<>();
+    removedNodes = new ArrayList<>();
+    changedNodes = new ArrayList<>();
+    addedRelationships = new ArrayList<>();
+    removedRelationships = new ArrayList<>();
+    changedRelationships = new ArrayList<>();
+    beforeNodesById = new HashMap<>();
+    afterNodesById = new HashMap<>();
+
+    Map<Object, Object> beforeNodeKeys = new HashMap<>();
+    Map<Object, Object> afterNodeKeys = new HashMap<>();
+    diffNodes( beforeNodeKeys, afterNodeKeys );
+    diffRelationships( beforeNodeKeys, afterNodeKeys );
+  }
+
+  private void diffNodes( Map<Object, Object> beforeNodeKeys, Map<Object, Object> afterNodeKeys ) {
+    Map<Object, GraphNodeData> beforeNodes = new LinkedHashMap<>();
+    for ( GraphNodeData node : before.getNodesForReading() ) {
+      Object key = getNodeKey( node );
+      beforeNodeKeys.putIfAbsent( node.getIdKey(), key );
+      beforeNodesById.putIfAbsent( node.getIdKey(), node );
+      // A duplicate of a node we already have is the same node, removing it would remove the other one as well
+      //
+      beforeNodes.putIfAbsent( key, node );
+    }
+    Set<Object> afterKeys = new HashSet<>();
+    for ( GraphNodeData node : after.getNodesForReading() ) {
+      Object key = getNodeKey( node );
+      afterNodeKeys.putIfAbsent( node.getIdKey(), key );
+      afterNodesById.putIfAbsent( node.getIdKey(), node );
+      if ( !afterKeys.add( key ) ) {
+        continue;
+      }
+      GraphNodeData beforeNode = beforeNodes.remove( key );
+      if ( beforeNode == null ) {
+        addedNodes.add( node );
+      } else {
+        Change<GraphNodeData> change = diff( beforeNode, node, beforeNode.getProperties(), node.getProperties(),
+          beforeNode.getLabels(), node.getLabels() );
+        if ( change != null ) {
+          changedNodes.add( change );
+        }
+      }
+    }
+    removedNodes.addAll( beforeNodes.values() );
+  }
+
+  private void diffRelationships( Map<Object, Object> beforeNodeKeys, Map<Object, Object> afterNodeKeys ) {
+    Map<Object, GraphRelationshipData> beforeRelationships = new LinkedHashMap<>();
+    Map<Object, Integer> occurrences = new HashMap<>();
+    for ( GraphRelationshipData relationship : before.getRelationshipsForReading() ) {
+      beforeRelationships.put( getRelationshipKey( relationship, beforeNodeKeys, occurrences ), relationship );
+    }
+    occurrences.clear();
+    for ( GraphRelationshipData relationship : after.getRelationshipsForReading() ) {
+      GraphRelationshipData beforeRelationship = beforeRelationships.remove( getRelationshipKey( relationship, afterNodeKeys, occurrences ) );
+      if ( beforeRelationship == null ) {
+        addedRelationships.add( relationship );
+      } else {
+        Change<GraphRelationshipData> change = diff( beforeRelationship, relationship, beforeRelationship.getProperties(),
+          relationship.getProperties(), Collections.emptyList(), Collections.emptyList() );
+        if ( change != null ) {
+          changedRelationships.add( change );
+        }
+      }
+    }
+    for ( Map.Entry<Object, GraphRelationshipData> entry : beforeRelationships.entrySet() ) {
+      // The relationship can't be removed without removing the parallel ones which are still there
+      //
+      if ( !occurrences.containsKey( ( (List<?>) entry.getKey() ).get( 0 ) ) ) {
+        removedRelationships.add( entry.getValue() );
+      }
+    }
+  }
+
+  private static <T> Change<T> diff( T beforeElement, T afterElement, List<GraphPropertyData> beforeProperties,
+                                     List<GraphPropertyData> afterProperties, List<String> beforeLabels, List<String> afterLabels ) {
+    Map<String, GraphPropertyData> beforeMap = new HashMap<>();
+    for ( GraphPropertyData property : beforeProperties ) {
+      beforeMap.putIfAbsent( property.getId(), property );
+    }
+    List<GraphPropertyData> setProperties = new ArrayList<>();
+    Set<String> afterIds = new HashSet<>();
+    for ( GraphPropertyData property : afterProperties ) {
+      if ( !afterIds.add( property.getId() ) ) {
+        continue;
+      }
+      GraphPropertyData beforeProperty = beforeMap.get( property.getId() );
+      if ( beforeProperty == null
+        || !Objects.equals( beforeProperty.getValue(), property.getValue() )
+        || beforeProperty.getType() != property.getType() ) {
+        setProperties.add( property );
+      }
+    }
+    List<String> removedProperties = new ArrayList<>();
+    for ( String id : beforeMap.keySet() ) {
+      if ( !afterIds.contains( id ) ) {
+        removedProperties.add( id );
+      }
+    }
+    List<String> addedLabels = difference( afterLabels, beforeLabels );
+    List<String> removedLabels = difference( beforeLabels, afterLabels );
+
+    if ( setProperties.isEmpty() && removedProperties.isEmpty() && addedLabels.isEmpty() && removedLabels.isEmpty() ) {
+      return null;
+    }
+    return new Change<>( beforeElement, afterElement, setProperties, removedProperties, addedLabels, removedLabels );
+  }
+
+  private static List<String> difference( List<String> list, List<String> remove ) {
+    if ( list.isEmpty() ) {
+      return Collections.emptyList();
+    }
+    Set<String> removeSet = new HashSet<>( remove );
+    List<String> difference = new ArrayList<>();
+    for ( String string : list ) {
+      if ( !removeSet.contains( string ) ) {
+        difference.add( string );
+      }
+    }
+    return difference;
+  }
+
+  /**
+   * The key of a node is its sorted labels and its primary property values or its ID if it doesn't have primary properties.
+   */
+  static Object getNodeKey( GraphNodeData node ) {
+    Map<String, Object> primaryValues = new TreeMap<>();
+    for ( GraphPropertyData property : node.getProperties() ) {
+      if ( property.isPrimary() ) {
+        primaryValues.put( property.getId(), property.getValue() );
+      }
+    }
+    if ( primaryValues.isEmpty() ) {
+      return Arrays.asList( "id", node.getIdKey() );
+    }
+    List<String> labels = new ArrayList<>( node.getLabels() );
+    Collections.sort( labels );
+    return Arrays.asList( labels, primaryValues );
+  }
+
+  /**
+   * The key of a relationship is a list of its label and the keys of its nodes, and the number of identical relationships
+   * before it
+   */
+  private static Object getRelationshipKey( GraphRelationshipData relationship, Map<Object, Object> nodeKeys,
+                                            Map<Object, Integer> occurrences ) {
+    Object sourceKey = nodeKeys.getOrDefault( relationship.getSourceNodeIdKey(), Arrays.asList( "id", relationship.getSourceNodeIdKey() ) );
+    Object targetKey = nodeKeys.getOrDefault( relationship.getTargetNodeIdKey(), Arrays.asList( "id", relationship.getTargetNodeIdKey() ) );
+    List<Object> key = Arrays.asList( relationship.getLabel(), sourceKey, targetKey );
+    int occurrence = occurrences.merge( key, 1, Integer::sum );
+    return Arrays.asList( key, occurrence );
+  }
+
+  /**
+   * See if anything changed
+   *
+   * @return true if both graphs are the same
+   */
+  public boolean isEmpty() {
+    return addedNodes.isEmpty() && removedNodes.isEmpty() && changedNodes.isEmpty()
+      && addedRelationships.isEmpty() && removedRelationships.isEmpty() && changedRelationships.isEmpty();
+  }
+
+  @Override public String toString() {
+    return "GraphDelta{nodes +" + addedNodes.size() + " -" + removedNodes.size() + " ~" + changedNodes.size()
+      + ", relationships +" + addedRelationships.size() + " -" + removedRelationships.size() + " ~" + changedRelationships.size() + "}";
+  }
+
+  /**
+   * Find a node in the original graph without copying it
+   *
+   * @param nodeId The ID of the node
+   * @return The node or null if it wasn't found
+   */
+  public GraphNodeData findBeforeNode( String nodeId ) {
+    return nodeId == null ? null : beforeNodesById.get( IdColumn.toKey( nodeId ) );
+  }
+
+  /**
+   * Find a node in the other graph without copying it
+   *
+   * @param nodeId The ID of the node
+   * @return The node or null if it wasn't found
+   */
+  public GraphNodeData findAfterNode( String nodeId ) {
+    return nodeId == null ? null : afterNodesById.get( IdColumn.toKey( nodeId ) );
+  }
+
+  /**
+   * Gets before: the original graph
+   *
+   * @return value of before
+   */
+  public GraphData getBefore() {
+    return before;
+  }
+
+  /**
+   * Gets after: the graph it was compared with
+   *
+   * @return value of after
+   */
+  public GraphData getAfter() {
+    return after;
+  }
+
+  /**
+   * Gets addedNodes, from the other graph
+   *
+   * @return value of addedNodes
+   */
+  public List<GraphNodeData> getAddedNodes() {
+    return addedNodes;
+  }
+
+  /**
+   * Gets removedNodes, from the original graph
+   *
+   * @return value of removedNodes
+   */
+  public List<GraphNodeData> getRemovedNodes() {
+    return removedNodes;
+  }
+
+  /**
+   * Gets changedNodes
+   *
+   * @return value of changedNodes
+   */
+  public List<Change<GraphNodeData>> getChangedNodes() {
+    return changedNodes;
+  }
+
+  /**
+   * Gets addedRelationships, from the other graph
+   *
+   * @return value of addedRelationships
+   */
+  public List<GraphRelationshipData> getAddedRelationships() {
+    return addedRelationships;
+  }
+
+  /**
+   * Gets removedRelationships, from the original graph
+   *
+   * @return value of removedRelationships
+   */
+  public List<GraphRelationshipData> getRemovedRelationships() {
+    return removedRelationships;
+  }
+
+  /**
+   * Gets changedRelationships
+   *
+   * @return value of changedRelationships
+   */
+  public List<Change<GraphRelationshipData>> getChangedRelationships() {
+    return changedRelationships;
+  }
+}
@@ -0,0 +1,138 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of nodes or relationships which tells its owner about changes so it can keep its indexes up to date.
+ * Appending an element is reported as such, all other changes simply invalidate the indexes.
+ *
+ * @param <T> The type of graph element
+ */
+class GraphElementList<T> extends AbstractList<T> implements RandomAccess {
+
+  interface Listener<T> {
+    /**
+     * The element was added at the end of the list
+     *
+     * @param element The added element
+     */
+    void appended( T element );
+
+    /**
+     * The element was handed out to be modified
+     *
+     * @param element The element
+     */
+    void retrieved( T element );
+
+    /**
+     * The list was changed in any other way
+     */
+    void changed();
+  }
+
+  private List<T> elements;
+  private final Listener<T> listener;
+
+  GraphElementList( List<T> elements, Listener<T> listener ) {
+    this.elements = elements;
+    this.listener = listener;
+  }
+
+  /**
+   * Get an element without copying it if it's shared with a clone of the graph, or loading it if it's spilled to disk.
+   * Don't modify it.
+   *
+   * @param index The index of the element
+   * @return The element
+   */
+  T peek( int index ) {
+    if ( elements instanceof PeekableList ) {
+      return ( (PeekableList<T>) elements ).peek( index );
+    }
+    return elements.get( index );
+  }
+
+  /**
+   * Get a read-only view of the elements which doesn't copy the ones shared with a clone of the graph
+   *
+   * @return The view, don't modify the elements in it either
+   */
+  List<T> peekView() {
+    if ( elements instanceof PeekableList ) {
+      return new AbstractList<T>() {
+        @Override public T get( int index ) {
+          return peek( index );
+        }
+
+        @Override public int size() {
+          return elements.size();
+        }
+      };
+    }
+    return Collections.unmodifiableList( elements );
+  }
+
+  @Override public T get( int index ) {
+    T element = elements.get( index );
+    listener.retrieved( element );
+    return element;
+  }
+
+  @Override public int size() {
+    return elements.size();
+  }
+
+  @Override public void add( int index, T element ) {
+    boolean append = index == elements.size();
+    elements.add( index, element );
+    modCount++;
+    if ( append ) {
+      listener.appended( element );
+    } else {
+      listener.changed();
+    }
+  }
+
+  @Override public T set( int index, T element ) {
+    T previous = elements.set( index, element );
+    if ( previous != element ) {
+      listener.changed();
+    }
+    return previous;
+  }
+
+  @Override public T remove( int index ) {
+    T removed = elements.remove( index );
+    modCount++;
+    listener.changed();
+    return removed;
+  }
+
+  @Override public void clear() {
+    elements.clear();
+    modCount++;
+    listener.changed();
+  }
+
+  /**
+   * Gets the wrapped list
+   *
+   * @return value of elements
+   */
+  List<T> getElements() {
+    return elements;
+  }
+
+  /**
+   * Replace the wrapped list with one containing the same elements in the same order, the indexes stay valid
+   *
+   * @param elements The new list to wrap
+   */
+  void setElements( List<T> elements ) {
+    this.elements = elements;
+  }
+}
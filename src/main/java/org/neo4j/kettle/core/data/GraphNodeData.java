@@ -1,24 +1,48 @@
 package org.neo4j.kettle.core.data;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.neo4j.driver.Value;
 import org.neo4j.driver.types.Node;
 import org.pentaho.di.core.Const;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class GraphNodeData {
 
+  /**
+   * The ID if it's not a number, null otherwise
+   */
   protected String id;
 
+  /**
+   * The ID if it's a number, like the IDs assigned by the database.  Only valid if hasNumericId is set.
+   */
+  protected long numericId;
+
+  /**
+   * The numeric ID as a String, created the first time it's asked for
+   */
+  private String numericIdString;
+
+  protected boolean hasNumericId;
+
   protected List<String> labels;
 
   protected List<GraphPropertyData> properties;
 
   protected String propertySetId;
 
+  /**
+   * The last graph which indexed this node or handed it out, changing the ID invalidates the indexes of that graph
+   */
+  private GraphData owner;
+
   public GraphNodeData() {
     labels = new ArrayList<>();
     properties = new ArrayList<>();
@@ -26,25 +50,21 @@ public class GraphNodeData {
 
   public GraphNodeData( String id ) {
     this();
-    this.id = id;
+    initId( id );
   }
 
   public GraphNodeData( String id, List<String> labels, List<GraphPropertyData> properties ) {
-    this.id = id;
+    initId( id );
     this.labels = labels;
     this.properties = properties;
   }
 
   public GraphNodeData( Node node ) {
     this();
-    this.id = Long.toString( node.id() );
-    StringBuilder propertySet = new StringBuilder();
+    this.numericId = node.id();
+    this.hasNumericId = true;
     for ( String label : node.labels() ) {
-      labels.add( label );
-      if (propertySet.length()>0) {
-        propertySet.append( "," );
-      }
-      propertySet.append( label );
+      labels.add( GraphSymbolTable.intern( label ) );
     }
     for ( String propertyKey : node.keys() ) {
       Value propertyValue = node.get( propertyKey );
@@ -52,13 +72,17 @@ public class GraphNodeData {
       GraphPropertyDataType propertyType = GraphPropertyDataType.getTypeFromNeo4jValue(propertyObject);
       properties.add( new GraphPropertyData( propertyKey, propertyObject, propertyType, false ) );
     }
-    this.propertySetId = propertySet.toString();
+    this.propertySetId = GraphSymbolTable.getLabelSetId( labels );
   }
 
 
   public GraphNodeData( GraphNodeData graphNode ) {
     this();
-    setId( graphNode.getId() );
+    if ( graphNode.hasNumericId() ) {
+      setId( graphNode.getNumericId() );
+    } else {
+      setId( graphNode.getId() );
+    }
 
 
     // Copy labels
@@ -77,27 +101,27 @@ public class GraphNodeData {
 
   public JSONObject toJson() {
     JSONObject jNode = new JSONObject();
-    jNode.put("id", id);
+    jNode.put("id", getId());
 
-    jNode.put("labels", labels);
+    jNode.put("labels", getLabels());
 
     JSONArray jProperties = new JSONArray();
     jNode.put("properties", jProperties);
-    for (GraphPropertyData property : properties) {
+    for (GraphPropertyData property : getProperties()) {
       jProperties.add(property.toJson());
     }
 
-    jNode.put("property_set", propertySetId );
+    jNode.put("property_set", getPropertySetId() );
 
     return jNode;
   }
 
   public GraphNodeData( JSONObject jNode ) {
 
-    id = (String) jNode.get("id");
+    initId( (String) jNode.get("id") );
     JSONArray jLabels = (JSONArray) jNode.get("labels");
     for (int i=0;i<jLabels.size();i++) {
-      labels.add((String)jLabels.get(i));
+      labels.add( GraphSymbolTable.intern( (String) jLabels.get( i ) ) );
     }
 
     JSONArray jProperties = (JSONArray)jNode.get("properties");
@@ -105,7 +129,69 @@ public class GraphNodeData {
       properties.add(new GraphPropertyData( (JSONObject)jProperties.get(i)) );
     }
 
-    propertySetId = (String) jNode.get("property_set");
+    propertySetId = GraphSymbolTable.intern( (String) jNode.get("property_set") );
+  }
+
+  /**
+   * Write this node as a JSON object, in the same format as {@link #toJson()}
+   *
+   * @param writer The JSON writer to write to
+   * @throws IOException In case of a write error
+   */
+  public void writeJson( JsonWriter writer ) throws IOException {
+    writer.beginObject();
+    writer.name( "id" ).value( getId() );
+    writer.name( "labels" ).beginArray();
+    for ( String label : getLabels() ) {
+      writer.value( label );
+    }
+    writer.endArray();
+    writer.name( "properties" ).beginArray();
+    for ( GraphPropertyData property : getProperties() ) {
+      property.writeJson( writer );
+    }
+    writer.endArray();
+    writer.name( "property_set" ).value( getPropertySetId() );
+    writer.endObject();
+  }
+
+  /**
+   * Read a node from a JSON object as written by {@link #writeJson(JsonWriter)}
+   *
+   * @param reader The JSON reader positioned at the start of the object
+   * @throws IOException In case of a read error or invalid JSON
+   */
+  public GraphNodeData( JsonReader reader ) throws IOException {
+    this();
+    reader.beginObject();
+    while ( reader.hasNext() ) {
+      switch ( reader.nextName() ) {
+        case "id":
+          initId( GraphPropertyData.readJsonString( reader ) );
+          break;
+        case "labels":
+          reader.beginArray();
+          while ( reader.hasNext() ) {
+            labels.add( GraphSymbolTable.intern( GraphPropertyData.readJsonString( reader ) ) );
+          }
+          reader.endArray();
+          break;
+        case "properties":
+          reader.beginArray();
+          while ( reader.hasNext() ) {
+            properties.add( new GraphPropertyData( reader ) );
+          }
+          reader.endArray();
+          break;
+        case "property_set":
+          propertySetId = GraphSymbolTable.intern( GraphPropertyData.readJsonString( reader ) );
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
   }
 
   public GraphNodeData clone() {
@@ -114,6 +200,7 @@ public class GraphNodeData {
 
 
   @Override public String toString() {
+    String id = getId();
     return id == null ? super.toString() : id;
   }
 
@@ -127,7 +214,32 @@ public class GraphNodeData {
     if ( o == this ) {
       return true;
     }
-    return ( (GraphNodeData) o ).getId().equals( id );
+    GraphNodeData node = (GraphNodeData) o;
+    if ( hasNumericId() || node.hasNumericId() ) {
+      return hasNumericId() == node.hasNumericId() && getNumericId() == node.getNumericId();
+    }
+    return Objects.equals( getId(), node.getId() );
+  }
+
+  @Override public int hashCode() {
+    return hasNumericId() ? Long.hashCode( getNumericId() ) : Objects.hashCode( getId() );
+  }
+
+  /**
+   * The ID as a Long if it's a number or as a String otherwise, to use as a key in lookups without creating a String
+   * for numeric IDs
+   *
+   * @return The ID key
+   */
+  public Object getIdKey() {
+    return hasNumericId() ? (Object) getNumericId() : getId();
+  }
+
+  private void initId( String id ) {
+    hasNumericId = IdColumn.isNumericId( id );
+    numericId = hasNumericId ? Long.parseLong( id ) : 0L;
+    numericIdString = null;
+    this.id = hasNumericId ? null : id;
   }
 
   /**
@@ -137,6 +249,17 @@ public class GraphNodeData {
    * @return the property or null if nothing could be found.
    */
   public GraphPropertyData findProperty( String id ) {
+    List<GraphPropertyData> properties = getProperties();
+    // An exact match compares symbol IDs
+    //
+    int symbol = GraphSymbolTable.lookup( id );
+    if ( symbol >= 0 ) {
+      for ( GraphPropertyData property : properties ) {
+        if ( property.getSymbol() == symbol ) {
+          return property;
+        }
+      }
+    }
     for ( GraphPropertyData property : properties ) {
       if ( property.getId().equalsIgnoreCase( id ) ) {
         return property;
@@ -153,7 +276,7 @@ public class GraphNodeData {
   public String getName() {
     GraphPropertyData nameProperty = findProperty( "name" );
     if ( nameProperty == null || nameProperty.getValue() == null ) {
-      return id;
+      return getId();
     }
     return nameProperty.getValue().toString();
   }
@@ -165,6 +288,7 @@ public class GraphNodeData {
     if ( typeProperty != null && typeProperty.getValue() != null ) {
       nodeText += typeProperty.getValue().toString();
     }
+    List<String> labels = getLabels();
     if ( labels.size() > 0 ) {
       nodeText += " (:" + labels.get( 0 ) + ")";
     }
@@ -178,14 +302,71 @@ public class GraphNodeData {
    * @return value of id
    */
   public String getId() {
-    return id;
+    if ( !hasNumericId ) {
+      return id;
+    }
+    String idString = numericIdString;
+    if ( idString == null ) {
+      idString = Long.toString( numericId );
+      numericIdString = idString;
+    }
+    return idString;
   }
 
   /**
-   * @param id The id to set
+   * @param id The id to set, IDs which are numbers are stored as such
    */
   public void setId( String id ) {
-    this.id = id;
+    initId( id );
+    idChanged();
+  }
+
+  /**
+   * @param id The numeric id to set
+   */
+  public void setId( long id ) {
+    this.numericId = id;
+    this.hasNumericId = true;
+    this.numericIdString = null;
+    this.id = null;
+    idChanged();
+  }
+
+  /**
+   * Mark this node as known to a graph, see {@link GraphData}
+   *
+   * @param graph The graph which indexed the node
+   */
+  void markIndexed( GraphData graph ) {
+    owner = graph;
+  }
+
+  /**
+   * Let the graph know the ID changed so it rebuilds its indexes
+   */
+  protected void idChanged() {
+    GraphData graph = owner;
+    if ( graph != null ) {
+      graph.nodeIdChanged();
+    }
+  }
+
+  /**
+   * See if the ID is stored as a number.  That's the case for IDs like the ones assigned by the database.
+   *
+   * @return true if the ID is a number
+   */
+  public boolean hasNumericId() {
+    return hasNumericId;
+  }
+
+  /**
+   * Gets the numeric ID, only valid if {@link #hasNumericId()}
+   *
+   * @return value of numericId
+   */
+  public long getNumericId() {
+    return numericId;
   }
 
   /**
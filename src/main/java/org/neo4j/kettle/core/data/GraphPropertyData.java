@@ -1,12 +1,30 @@
 package org.neo4j.kettle.core.data;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import org.apache.commons.lang.StringUtils;
 import org.json.simple.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public class GraphPropertyData {
 
+  /**
+   * The property key, shared through the {@link GraphSymbolTable}
+   */
   protected String id;
 
+  /**
+   * The ID of the property key in the {@link GraphSymbolTable}
+   */
+  protected int symbol = -1;
+
   protected Object value;
 
   protected GraphPropertyDataType type;
@@ -17,7 +35,7 @@ public class GraphPropertyData {
   }
 
   public GraphPropertyData( String id, Object value, GraphPropertyDataType type, boolean primary ) {
-    this.id = id;
+    initId( id );
     this.value = value;
     this.type = type;
     this.primary = primary;
@@ -75,7 +93,7 @@ public class GraphPropertyData {
   public GraphPropertyData( JSONObject jProperty ) {
     this();
 
-    id = (String) jProperty.get( "id" );
+    initId( (String) jProperty.get( "id" ) );
 
     String typeCode = (String) jProperty.get( "type" );
     if ( StringUtils.isNotEmpty( typeCode ) ) {
@@ -86,6 +104,169 @@ public class GraphPropertyData {
     primary = primaryValue!=null && ((Boolean)primaryValue);
   }
 
+  /**
+   * Write this property as a JSON object, in the same format as {@link #toJson()}
+   *
+   * @param writer The JSON writer to write to
+   * @throws IOException In case of a write error
+   */
+  public void writeJson( JsonWriter writer ) throws IOException {
+    writer.beginObject();
+    writer.name( "id" ).value( id );
+    if ( type != null ) {
+      writer.name( "type" ).value( type.name() );
+    }
+    if ( value != null ) {
+      writer.name( "value" );
+      writeJsonValue( writer, value );
+    }
+    if ( primary ) {
+      writer.name( "primary" ).value( true );
+    }
+    writer.endObject();
+  }
+
+  /**
+   * Read a property from a JSON object as written by {@link #writeJson(JsonWriter)}
+   *
+   * @param reader The JSON reader positioned at the start of the object
+   * @throws IOException In case of a read error or invalid JSON
+   */
+  public GraphPropertyData( JsonReader reader ) throws IOException {
+    this();
+    reader.beginObject();
+    while ( reader.hasNext() ) {
+      switch ( reader.nextName() ) {
+        case "id":
+          initId( readJsonString( reader ) );
+          break;
+        case "type":
+          String typeCode = readJsonString( reader );
+          if ( StringUtils.isNotEmpty( typeCode ) ) {
+            type = GraphPropertyDataType.parseCode( typeCode );
+          }
+          break;
+        case "value":
+          value = readJsonValue( reader );
+          break;
+        case "primary":
+          Object primaryValue = readJsonValue( reader );
+          primary = primaryValue != null && ( (Boolean) primaryValue );
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+  }
+
+  /**
+   * Write a property value as JSON.  Numbers, booleans, strings, lists and maps are written as such, other values as
+   * strings.
+   *
+   * @param writer The JSON writer to write to
+   * @param value  The value to write
+   * @throws IOException In case of a write error
+   */
+  public static void writeJsonValue( JsonWriter writer, Object value ) throws IOException {
+    if ( value == null ) {
+      writer.nullValue();
+    } else if ( value instanceof String ) {
+      writer.value( (String) value );
+    } else if ( value instanceof Boolean ) {
+      writer.value( (Boolean) value );
+    } else if ( value instanceof Double || value instanceof Float ) {
+      double number = ( (Number) value ).doubleValue();
+      if ( Double.isNaN( number ) || Double.isInfinite( number ) ) {
+        writer.nullValue();
+      } else {
+        writer.value( (Number) value );
+      }
+    } else if ( value instanceof Number ) {
+      writer.value( (Number) value );
+    } else if ( value instanceof Map ) {
+      writer.beginObject();
+      for ( Map.Entry<?, ?> entry : ( (Map<?, ?>) value ).entrySet() ) {
+        writer.name( String.valueOf( entry.getKey() ) );
+        writeJsonValue( writer, entry.getValue() );
+      }
+      writer.endObject();
+    } else if ( value instanceof Collection ) {
+      writer.beginArray();
+      for ( Object element : (Collection<?>) value ) {
+        writeJsonValue( writer, element );
+      }
+      writer.endArray();
+    } else {
+      writer.value( value.toString() );
+    }
+  }
+
+  /**
+   * Read a JSON value.  Integer numbers are read as Long, other numbers as Double, arrays as lists and objects as maps.
+   *
+   * @param reader The JSON reader to read from
+   * @return The value
+   * @throws IOException In case of a read error or invalid JSON
+   */
+  public static Object readJsonValue( JsonReader reader ) throws IOException {
+    JsonToken token = reader.peek();
+    switch ( token ) {
+      case NULL:
+        reader.nextNull();
+        return null;
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NUMBER:
+        String number = reader.nextString();
+        if ( number.indexOf( '.' ) < 0 && number.indexOf( 'e' ) < 0 && number.indexOf( 'E' ) < 0 ) {
+          try {
+            return Long.parseLong( number );
+          } catch ( NumberFormatException e ) {
+            // Too large for a long
+          }
+        }
+        return Double.parseDouble( number );
+      case STRING:
+        return reader.nextString();
+      case BEGIN_ARRAY:
+        List<Object> list = new ArrayList<>();
+        reader.beginArray();
+        while ( reader.hasNext() ) {
+          list.add( readJsonValue( reader ) );
+        }
+        reader.endArray();
+        return list;
+      case BEGIN_OBJECT:
+        Map<String, Object> map = new LinkedHashMap<>();
+        reader.beginObject();
+        while ( reader.hasNext() ) {
+          String name = reader.nextName();
+          map.put( name, readJsonValue( reader ) );
+        }
+        reader.endObject();
+        return map;
+      default:
+        throw new IOException( "Unexpected JSON token " + token + " at " + reader.getPath() );
+    }
+  }
+
+  /**
+   * Read a string which can be null
+   *
+   * @param reader The JSON reader to read from
+   * @return The string or null
+   * @throws IOException In case of a read error or invalid JSON
+   */
+  public static String readJsonString( JsonReader reader ) throws IOException {
+    if ( reader.peek() == JsonToken.NULL ) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
   /**
    * Gets id
    *
@@ -99,7 +280,21 @@ public class GraphPropertyData {
    * @param id The id to set
    */
   public void setId( String id ) {
-    this.id = id;
+    initId( id );
+  }
+
+  private void initId( String id ) {
+    symbol = GraphSymbolTable.getId( id );
+    this.id = symbol < 0 ? id : GraphSymbolTable.getName( symbol );
+  }
+
+  /**
+   * Gets the ID of the property key in the {@link GraphSymbolTable}
+   *
+   * @return value of symbol or -1 if the property has no key or the key didn't fit in the table
+   */
+  public int getSymbol() {
+    return symbol;
   }
 
   /**
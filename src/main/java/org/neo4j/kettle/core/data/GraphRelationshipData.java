@@ -1,37 +1,65 @@
 package org.neo4j.kettle.core.data;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.neo4j.driver.Value;
 import org.neo4j.driver.types.Relationship;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class GraphRelationshipData {
 
+  /**
+   * The ID if it's not a number, null otherwise.  IDs which are numbers, like the IDs assigned by the database, are
+   * stored in numericId.  The same goes for the source and target node IDs.
+   */
   protected String id;
+  protected long numericId;
+  protected boolean hasNumericId;
 
   protected String label;
 
   protected List<GraphPropertyData> properties;
 
   protected String sourceNodeId;
+  protected long numericSourceNodeId;
+  protected boolean hasNumericSourceNodeId;
 
   protected String targetNodeId;
+  protected long numericTargetNodeId;
+  protected boolean hasNumericTargetNodeId;
 
   protected String propertySetId;
 
+  /**
+   * The numeric IDs as Strings, created the first time they're asked for
+   */
+  private String numericIdString;
+  private String numericSourceNodeIdString;
+  private String numericTargetNodeIdString;
+
+  /**
+   * The last graph which indexed this relationship or handed it out, changing the ID, source or target invalidates the
+   * indexes of that graph
+   */
+  private GraphData owner;
+
   public GraphRelationshipData() {
     properties = new ArrayList<>();
   }
 
   public GraphRelationshipData( String id, String label, List<GraphPropertyData> properties, String nodeSource, String nodeTarget ) {
-    this.id = id;
-    this.label = label;
+    initId( id );
+    this.label = GraphSymbolTable.intern( label );
     this.properties = properties;
-    this.sourceNodeId = nodeSource;
-    this.targetNodeId = nodeTarget;
+    initSourceNodeId( nodeSource );
+    initTargetNodeId( nodeTarget );
   }
 
   @Override public boolean equals( Object o ) {
@@ -44,20 +72,112 @@ public class GraphRelationshipData {
     if ( o == this ) {
       return true;
     }
-    return ( (GraphRelationshipData) o ).getId().equalsIgnoreCase( id );
+    GraphRelationshipData relationship = (GraphRelationshipData) o;
+    if ( hasNumericId() || relationship.hasNumericId() ) {
+      return hasNumericId() == relationship.hasNumericId() && getNumericId() == relationship.getNumericId();
+    }
+    return Objects.equals( getId(), relationship.getId() );
+  }
+
+  @Override public int hashCode() {
+    return hasNumericId() ? Long.hashCode( getNumericId() ) : Objects.hashCode( getId() );
+  }
+
+  /**
+   * The ID as a Long if it's a number or as a String otherwise, to use as a key in lookups without creating a String
+   * for numeric IDs
+   *
+   * @return The ID key
+   */
+  public Object getIdKey() {
+    return hasNumericId() ? (Object) getNumericId() : getId();
+  }
+
+  /**
+   * The source node ID as a Long if it's a number or as a String otherwise, to use as a key in lookups
+   *
+   * @return The source node ID key
+   */
+  public Object getSourceNodeIdKey() {
+    return hasNumericSourceNodeId() ? (Object) getNumericSourceNodeId() : getSourceNodeId();
+  }
+
+  /**
+   * The target node ID as a Long if it's a number or as a String otherwise, to use as a key in lookups
+   *
+   * @return The target node ID key
+   */
+  public Object getTargetNodeIdKey() {
+    return hasNumericTargetNodeId() ? (Object) getNumericTargetNodeId() : getTargetNodeId();
+  }
+
+  /**
+   * @param key The source node ID key to set, see {@link #getSourceNodeIdKey()}
+   */
+  void setSourceNodeIdKey( Object key ) {
+    if ( key instanceof Long ) {
+      setSourceNodeId( (long) (Long) key );
+    } else {
+      setSourceNodeId( (String) key );
+    }
+  }
+
+  /**
+   * @param key The target node ID key to set, see {@link #getTargetNodeIdKey()}
+   */
+  void setTargetNodeIdKey( Object key ) {
+    if ( key instanceof Long ) {
+      setTargetNodeId( (long) (Long) key );
+    } else {
+      setTargetNodeId( (String) key );
+    }
+  }
+
+  private void initId( String id ) {
+    hasNumericId = IdColumn.isNumericId( id );
+    numericId = hasNumericId ? Long.parseLong( id ) : 0L;
+    numericIdString = null;
+    this.id = hasNumericId ? null : id;
+  }
+
+  private void initSourceNodeId( String sourceNodeId ) {
+    hasNumericSourceNodeId = IdColumn.isNumericId( sourceNodeId );
+    numericSourceNodeId = hasNumericSourceNodeId ? Long.parseLong( sourceNodeId ) : 0L;
+    numericSourceNodeIdString = null;
+    this.sourceNodeId = hasNumericSourceNodeId ? null : sourceNodeId;
+  }
+
+  private void initTargetNodeId( String targetNodeId ) {
+    hasNumericTargetNodeId = IdColumn.isNumericId( targetNodeId );
+    numericTargetNodeId = hasNumericTargetNodeId ? Long.parseLong( targetNodeId ) : 0L;
+    numericTargetNodeIdString = null;
+    this.targetNodeId = hasNumericTargetNodeId ? null : targetNodeId;
   }
 
   @Override public String toString() {
+    String id = getId();
     return id == null ? super.toString() : id;
   }
 
   public GraphRelationshipData( GraphRelationshipData graphRelationship ) {
     this();
 
-    setId(graphRelationship.getId());
+    if ( graphRelationship.hasNumericId() ) {
+      setId( graphRelationship.getNumericId() );
+    } else {
+      setId( graphRelationship.getId() );
+    }
     setLabel( graphRelationship.getLabel() );
-    setSourceNodeId( graphRelationship.getSourceNodeId() );
-    setTargetNodeId( graphRelationship.getTargetNodeId() );
+    if ( graphRelationship.hasNumericSourceNodeId() ) {
+      setSourceNodeId( graphRelationship.getNumericSourceNodeId() );
+    } else {
+      setSourceNodeId( graphRelationship.getSourceNodeId() );
+    }
+    if ( graphRelationship.hasNumericTargetNodeId() ) {
+      setTargetNodeId( graphRelationship.getNumericTargetNodeId() );
+    } else {
+      setTargetNodeId( graphRelationship.getTargetNodeId() );
+    }
 
     List<GraphPropertyData> properties = new ArrayList<>();
     for ( GraphPropertyData property : graphRelationship.getProperties() ) {
@@ -69,9 +189,9 @@ public class GraphRelationshipData {
 
   public GraphRelationshipData( Relationship relationship ) {
     this();
-    setId( Long.toString( relationship.id() ) );
-    setSourceNodeId( Long.toString( relationship.startNodeId() ) );
-    setTargetNodeId( Long.toString( relationship.endNodeId() ) );
+    setId( relationship.id() );
+    setSourceNodeId( relationship.startNodeId() );
+    setTargetNodeId( relationship.endNodeId() );
     setLabel( relationship.type() );
     for ( String propertyKey : relationship.keys() ) {
       Value propertyValue = relationship.get( propertyKey );
@@ -84,11 +204,12 @@ public class GraphRelationshipData {
   public JSONObject toJson() {
     JSONObject jRelationship = new JSONObject();
 
-    jRelationship.put("id", id);
-    jRelationship.put("label", label);
-    jRelationship.put("sourceNodeId", sourceNodeId );
-    jRelationship.put("targetNodeId", targetNodeId );
+    jRelationship.put("id", getId());
+    jRelationship.put("label", getLabel());
+    jRelationship.put("sourceNodeId", getSourceNodeId() );
+    jRelationship.put("targetNodeId", getTargetNodeId() );
 
+    List<GraphPropertyData> properties = getProperties();
     if (!properties.isEmpty()) {
       JSONArray jProperties = new JSONArray();
       jRelationship.put( "properties", jProperties );
@@ -96,17 +217,17 @@ public class GraphRelationshipData {
         jProperties.add( property.toJson() );
       }
     }
-    jRelationship.put("property_set", propertySetId);
+    jRelationship.put("property_set", getPropertySetId());
 
     return jRelationship;
   }
 
   public GraphRelationshipData( JSONObject jRelationship ) {
     this();
-    id = (String) jRelationship.get("id");
-    label = (String) jRelationship.get("label");
-    sourceNodeId = (String) jRelationship.get("sourceNodeId");
-    targetNodeId = (String) jRelationship.get("targetNodeId");
+    initId( (String) jRelationship.get("id") );
+    label = GraphSymbolTable.intern( (String) jRelationship.get("label") );
+    initSourceNodeId( (String) jRelationship.get("sourceNodeId") );
+    initTargetNodeId( (String) jRelationship.get("targetNodeId") );
 
     JSONArray jProperties = (JSONArray) jRelationship.get("properties");
     if (jProperties!=null) {
@@ -118,10 +239,105 @@ public class GraphRelationshipData {
     propertySetId = (String)jRelationship.get("property_set");
   }
 
+  /**
+   * Write this relationship as a JSON object, in the same format as {@link #toJson()}
+   *
+   * @param writer The JSON writer to write to
+   * @throws IOException In case of a write error
+   */
+  public void writeJson( JsonWriter writer ) throws IOException {
+    writer.beginObject();
+    writer.name( "id" ).value( getId() );
+    writer.name( "label" ).value( getLabel() );
+    writer.name( "sourceNodeId" ).value( getSourceNodeId() );
+    writer.name( "targetNodeId" ).value( getTargetNodeId() );
+    List<GraphPropertyData> properties = getProperties();
+    if ( !properties.isEmpty() ) {
+      writer.name( "properties" ).beginArray();
+      for ( GraphPropertyData property : properties ) {
+        property.writeJson( writer );
+      }
+      writer.endArray();
+    }
+    writer.name( "property_set" ).value( getPropertySetId() );
+    writer.endObject();
+  }
+
+  /**
+   * Read a relationship from a JSON object as written by {@link #writeJson(JsonWriter)}
+   *
+   * @param reader The JSON reader positioned at the start of the object
+   * @throws IOException In case of a read error or invalid JSON
+   */
+  public GraphRelationshipData( JsonReader reader ) throws IOException {
+    this();
+    reader.beginObject();
+    while ( reader.hasNext() ) {
+      switch ( reader.nextName() ) {
+        case "id":
+          initId( GraphPropertyData.readJsonString( reader ) );
+          break;
+        case "label":
+          label = GraphSymbolTable.intern( GraphPropertyData.readJsonString( reader ) );
+          break;
+        case "sourceNodeId":
+          initSourceNodeId( GraphPropertyData.readJsonString( reader ) );
+          break;
+        case "targetNodeId":
+          initTargetNodeId( GraphPropertyData.readJsonString( reader ) );
+          break;
+        case "properties":
+          if ( reader.peek() == JsonToken.NULL ) {
+            reader.nextNull();
+            break;
+          }
+          reader.beginArray();
+          while ( reader.hasNext() ) {
+            properties.add( new GraphPropertyData( reader ) );
+          }
+          reader.endArray();
+          break;
+        case "property_set":
+          propertySetId = GraphPropertyData.readJsonString( reader );
+          break;
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+  }
+
   public GraphRelationshipData clone() {
     return new GraphRelationshipData( this );
   }
 
+  /**
+   * Search for the property with the given ID, case insensitive
+   *
+   * @param id the name of the property to look for
+   * @return the property or null if nothing could be found.
+   */
+  public GraphPropertyData findProperty( String id ) {
+    List<GraphPropertyData> properties = getProperties();
+    // An exact match compares symbol IDs
+    //
+    int symbol = GraphSymbolTable.lookup( id );
+    if ( symbol >= 0 ) {
+      for ( GraphPropertyData property : properties ) {
+        if ( property.getSymbol() == symbol ) {
+          return property;
+        }
+      }
+    }
+    for ( GraphPropertyData property : properties ) {
+      if ( property.getId().equalsIgnoreCase( id ) ) {
+        return property;
+      }
+    }
+    return null;
+  }
+
 
   /**
    * Gets id
@@ -129,14 +345,71 @@ public class GraphRelationshipData {
    * @return value of id
    */
   public String getId() {
-    return id;
+    if ( !hasNumericId ) {
+      return id;
+    }
+    String idString = numericIdString;
+    if ( idString == null ) {
+      idString = Long.toString( numericId );
+      numericIdString = idString;
+    }
+    return idString;
   }
 
   /**
-   * @param id The id to set
+   * @param id The id to set, IDs which are numbers are stored as such
    */
   public void setId( String id ) {
-    this.id = id;
+    initId( id );
+    idChanged();
+  }
+
+  /**
+   * @param id The numeric id to set
+   */
+  public void setId( long id ) {
+    this.numericId = id;
+    this.hasNumericId = true;
+    this.numericIdString = null;
+    this.id = null;
+    idChanged();
+  }
+
+  /**
+   * Mark this relationship as known to a graph, see {@link GraphData}
+   *
+   * @param graph The graph which indexed the relationship
+   */
+  void markIndexed( GraphData graph ) {
+    owner = graph;
+  }
+
+  /**
+   * Let the graph know the ID, source or target changed so it rebuilds its indexes
+   */
+  protected void idChanged() {
+    GraphData graph = owner;
+    if ( graph != null ) {
+      graph.relationshipIdChanged();
+    }
+  }
+
+  /**
+   * See if the ID is stored as a number.  That's the case for IDs like the ones assigned by the database.
+   *
+   * @return true if the ID is a number
+   */
+  public boolean hasNumericId() {
+    return hasNumericId;
+  }
+
+  /**
+   * Gets the numeric ID, only valid if {@link #hasNumericId()}
+   *
+   * @return value of numericId
+   */
+  public long getNumericId() {
+    return numericId;
   }
 
   /**
@@ -152,7 +425,7 @@ public class GraphRelationshipData {
    * @param label The label to set
    */
   public void setLabel( String label ) {
-    this.label = label;
+    this.label = GraphSymbolTable.intern( label );
   }
 
   /**
@@ -177,14 +450,52 @@ public class GraphRelationshipData {
    * @return value of sourceNodeId
    */
   public String getSourceNodeId() {
-    return sourceNodeId;
+    if ( !hasNumericSourceNodeId ) {
+      return sourceNodeId;
+    }
+    String idString = numericSourceNodeIdString;
+    if ( idString == null ) {
+      idString = Long.toString( numericSourceNodeId );
+      numericSourceNodeIdString = idString;
+    }
+    return idString;
   }
 
   /**
-   * @param sourceNodeId The sourceNodeId to set
+   * @param sourceNodeId The sourceNodeId to set, IDs which are numbers are stored as such
    */
   public void setSourceNodeId( String sourceNodeId ) {
-    this.sourceNodeId = sourceNodeId;
+    initSourceNodeId( sourceNodeId );
+    idChanged();
+  }
+
+  /**
+   * @param sourceNodeId The numeric sourceNodeId to set
+   */
+  public void setSourceNodeId( long sourceNodeId ) {
+    this.numericSourceNodeId = sourceNodeId;
+    this.hasNumericSourceNodeId = true;
+    this.numericSourceNodeIdString = null;
+    this.sourceNodeId = null;
+    idChanged();
+  }
+
+  /**
+   * See if the source node ID is stored as a number
+   *
+   * @return true if the source node ID is a number
+   */
+  public boolean hasNumericSourceNodeId() {
+    return hasNumericSourceNodeId;
+  }
+
+  /**
+   * Gets the numeric source node ID, only valid if {@link #hasNumericSourceNodeId()}
+   *
+   * @return value of numericSourceNodeId
+   */
+  public long getNumericSourceNodeId() {
+    return numericSourceNodeId;
   }
 
   /**
@@ -193,14 +504,52 @@ public class GraphRelationshipData {
    * @return value of targetNodeId
    */
   public String getTargetNodeId() {
-    return targetNodeId;
+    if ( !hasNumericTargetNodeId ) {
+      return targetNodeId;
+    }
+    String idString = numericTargetNodeIdString;
+    if ( idString == null ) {
+      idString = Long.toString( numericTargetNodeId );
+      numericTargetNodeIdString = idString;
+    }
+    return idString;
   }
 
   /**
-   * @param targetNodeId The targetNodeId to set
+   * @param targetNodeId The targetNodeId to set, IDs which are numbers are stored as such
    */
   public void setTargetNodeId( String targetNodeId ) {
-    this.targetNodeId = targetNodeId;
+    initTargetNodeId( targetNodeId );
+    idChanged();
+  }
+
+  /**
+   * @param targetNodeId The numeric targetNodeId to set
+   */
+  public void setTargetNodeId( long targetNodeId ) {
+    this.numericTargetNodeId = targetNodeId;
+    this.hasNumericTargetNodeId = true;
+    this.numericTargetNodeIdString = null;
+    this.targetNodeId = null;
+    idChanged();
+  }
+
+  /**
+   * See if the target node ID is stored as a number
+   *
+   * @return true if the target node ID is a number
+   */
+  public boolean hasNumericTargetNodeId() {
+    return hasNumericTargetNodeId;
+  }
+
+  /**
+   * Gets the numeric target node ID, only valid if {@link #hasNumericTargetNodeId()}
+   *
+   * @return value of numericTargetNodeId
+   */
+  public long getNumericTargetNodeId() {
+    return numericTargetNodeId;
   }
 
   /**
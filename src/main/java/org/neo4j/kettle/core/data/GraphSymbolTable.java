@@ -0,0 +1,154 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A process-wide table of the names used in graphs: labels, relationship types and property keys.
+ * Every name gets a small int ID and a single String instance which all graph elements share.  Comparing the IDs or the
+ * shared instances is a lot cheaper than comparing strings.
+ * <p>
+ * Names are never removed, don't use this for property values.  To keep a flood of distinct names from using up the
+ * heap, the table holds at most {@link #getMaxSize()} names.  Names which don't fit anymore get no ID and aren't
+ * shared, they still work but without the cheap comparisons.  The same goes for the label sets.
+ * This class is thread-safe.
+ */
+public class GraphSymbolTable {
+
+  public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+  private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+  private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  private static volatile String[] names = new String[ 256 ];
+  private static int size;
+
+  private static final Map<List<String>, String> labelSetIds = new ConcurrentHashMap<>();
+
+  private GraphSymbolTable() {
+  }
+
+  /**
+   * Get the ID of the given name, adding it to the table if it's not there yet and the table isn't full
+   *
+   * @param name The name
+   * @return The ID of the name or -1 for null or a name which doesn't fit in the table anymore
+   */
+  public static int getId( String name ) {
+    if ( name == null ) {
+      return -1;
+    }
+    Integer id = ids.get( name );
+    if ( id != null ) {
+      return id;
+    }
+    synchronized ( GraphSymbolTable.class ) {
+      id = ids.get( name );
+      if ( id == null ) {
+        if ( size >= maxSize ) {
+          return -1;
+        }
+        if ( size == names.length ) {
+          names = Arrays.copyOf( names, size * 2 );
+        }
+        // Store the name before publishing its ID
+        //
+        names[ size ] = name;
+        id = size++;
+        ids.put( name, id );
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Get the ID of the given name without adding it
+   *
+   * @param name The name
+   * @return The ID of the name or -1 if the name isn't in the table or is null
+   */
+  public static int lookup( String name ) {
+    if ( name == null ) {
+      return -1;
+    }
+    Integer id = ids.get( name );
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Get the name with the given ID
+   *
+   * @param id The ID of the name
+   * @return The name or null for a negative ID
+   */
+  public static String getName( int id ) {
+    if ( id < 0 ) {
+      return null;
+    }
+    return names[ id ];
+  }
+
+  /**
+   * Get the shared instance of the given name, adding it to the table if it's not there yet
+   *
+   * @param name The name
+   * @return The shared instance equal to the name, the name itself if the table is full, or null
+   */
+  public static String intern( String name ) {
+    int id = getId( name );
+    return id < 0 ? name : names[ id ];
+  }
+
+  /**
+   * Get the property set ID of a node with the given labels: the labels separated by commas.
+   * The result is shared between all nodes with the same labels.
+   *
+   * @param labels The labels of the node
+   * @return The property set ID
+   */
+  public static String getLabelSetId( List<String> labels ) {
+    String labelSetId = labelSetIds.get( labels );
+    if ( labelSetId == null ) {
+      List<String> key = new ArrayList<>( labels.size() );
+      for ( String label : labels ) {
+        key.add( intern( label ) );
+      }
+      if ( labelSetIds.size() >= maxSize ) {
+        return intern( String.join( ",", key ) );
+      }
+      labelSetId = labelSetIds.computeIfAbsent( Collections.unmodifiableList( key ), k -> intern( String.join( ",", k ) ) );
+    }
+    return labelSetId;
+  }
+
+  /**
+   * Gets the number of names in the table
+   *
+   * @return value of size
+   */
+  public static int size() {
+    synchronized ( GraphSymbolTable.class ) {
+      return size;
+    }
+  }
+
+  /**
+   * Gets maxSize
+   *
+   * @return value of maxSize
+   */
+  public static int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @param maxSize The maximum number of names and of label sets in the table.  Lowering it doesn't remove names.
+   */
+  public static void setMaxSize( int maxSize ) {
+    GraphSymbolTable.maxSize = maxSize;
+  }
+}
@@ -0,0 +1,566 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Walks the nodes and relationships of a {@link GraphData} in memory: breadth and depth first iteration, shortest paths,
+ * connected components, topological order and degree statistics.
+ * <p>
+ * The adjacency of the graph is captured in a few int arrays when the traversal is created, so walking the graph
+ * doesn't scan the relationships or create objects per hop.  Create a new traversal after adding or removing
+ * relationships or changing IDs.  Every node is visited at most once so cycles are safe.
+ * <p>
+ * Relationships are followed in the direction set with {@link #direction(Direction)}, outgoing by default.  They can be
+ * limited to certain labels with {@link #relationshipLabels(String...)} and the nodes they lead to with
+ * {@link #nodeLabels(String...)}.
+ * <p>
+ * The nodes are read with {@link GraphData#getNodesForReading()}, so walking a graph doesn't copy the nodes it shares
+ * with its copies.  Don't modify the nodes returned, find them in the graph to change them.
+ */
+public class GraphTraversal {
+
+  public enum Direction {
+    OUTGOING, INCOMING, BOTH
+  }
+
+  private final GraphData graphData;
+  private final List<GraphNodeData> nodes;
+  private final List<GraphRelationshipData> relationships;
+  private final int nodeCount;
+
+  // The relationships of node n are at positions offsets[n] up to offsets[n+1] of the relationship and node arrays.
+  // These hold the position of the relationship and of the node at the other end.
+  //
+  private final int[] outgoingOffsets;
+  private final int[] outgoingRelationships;
+  private final int[] outgoingNodes;
+  private final int[] incomingOffsets;
+  private final int[] incomingRelationships;
+  private final int[] incomingNodes;
+
+  private Direction direction;
+  private Set<String> relationshipLabels;
+  private Set<String> nodeLabels;
+
+  public GraphTraversal( GraphData graphData ) {
+    this.graphData = graphData;
+    this.direction = Direction.OUTGOING;
+    nodes = graphData.getNodesForReading();
+    relationships = graphData.getRelationshipsForReading();
+    nodeCount = nodes.size();
+
+    int relationshipCount = relationships.size();
+    int[] sources = new int[ relationshipCount ];
+    int[] targets = new int[ relationshipCount ];
+    outgoingOffsets = new int[ nodeCount + 1 ];
+    incomingOffsets = new int[ nodeCount + 1 ];
+    for ( int i = 0; i < relationshipCount; i++ ) {
+      GraphRelationshipData relationship = relationships.get( i );
+      sources[ i ] = graphData.findNodePosition( relationship.getSourceNodeIdKey() );
+      targets[ i ] = graphData.findNodePosition( relationship.getTargetNodeIdKey() );
+      // Relationships to nodes which aren't in the graph are left out
+      //
+      if ( sources[ i ] >= 0 && targets[ i ] >= 0 ) {
+        outgoingOffsets[ sources[ i ] + 1 ]++;
+        incomingOffsets[ targets[ i ] + 1 ]++;
+      }
+    }
+    for ( int n = 0; n < nodeCount; n++ ) {
+      outgoingOffsets[ n + 1 ] += outgoingOffsets[ n ];
+      incomingOffsets[ n + 1 ] += incomingOffsets[ n ];
+    }
+    int adjacentCount = outgoingOffsets[ nodeCount ];
+    outgoingRelationships = new int[ adjacentCount ];
+    outgoingNodes = new int[ adjacentCount ];
+    incomingRelationships = new int[ adjacentCount ];
+    incomingNodes = new int[ adjacentCount ];
+    int[] outgoingNext = Arrays.copyOf( outgoingOffsets, nodeCount );
+    int[] incomingNext = Arrays.copyOf( incomingOffsets, nodeCount );
+    for ( int i = 0; i < relationshipCount; i++ ) {
+      int source = sources[ i ];
+      int target = targets[ i ];
+      if ( source >= 0 && target >= 0 ) {
+        int outgoing = outgoingNext[ source ]++;
+        outgoingRelationships[ outgoing ] = i;
+        outgoingNodes[ outgoing ] = target;
+        int incoming = incomingNext[ target ]++;
+        incomingRelationships[ incoming ] = i;
+        incomingNodes[ incoming ] = source;
+      }
+    }
+  }
+
+  /**
+   * Follow relationships in the given direction
+   *
+   * @param direction The direction, outgoing by default
+   * @return this traversal
+   */
+  public GraphTraversal direction( Direction direction ) {
+    this.direction = direction;
+    return this;
+  }
+
+  /**
+   * Only follow relationships with one of the given labels
+   *
+   * @param labels The labels to follow or none to follow all relationships
+   * @return this traversal
+   */
+  public GraphTraversal relationshipLabels( String... labels ) {
+    relationshipLabels = toSet( labels );
+    return this;
+  }
+
+  /**
+   * Only visit nodes with at least one of the given labels.  The start node of a walk is always visited.
+   *
+   * @param labels The labels of the nodes to visit or none to visit all nodes
+   * @return this traversal
+   */
+  public GraphTraversal nodeLabels( String... labels ) {
+    nodeLabels = toSet( labels );
+    return this;
+  }
+
+  private static Set<String> toSet( String[] labels ) {
+    if ( labels == null || labels.length == 0 ) {
+      return null;
+    }
+    return new HashSet<>( Arrays.asList( labels ) );
+  }
+
+  /**
+   * Visit the nodes which can be reached from the given node, nearest first
+   *
+   * @param start The node to start from
+   * @return The nodes, starting with the given one.  Nothing if the node isn't in the graph.
+   */
+  public Iterable<GraphNodeData> breadthFirst( GraphNodeData start ) {
+    return () -> new NodeIterator( findPosition( start ), false );
+  }
+
+  /**
+   * Visit the nodes which can be reached from the given node, following each path as far as possible first
+   *
+   * @param start The node to start from
+   * @return The nodes, starting with the given one.  Nothing if the node isn't in the graph.
+   */
+  public Iterable<GraphNodeData> depthFirst( GraphNodeData start ) {
+    return () -> new NodeIterator( findPosition( start ), true );
+  }
+
+  /**
+   * Find a path with the least relationships between two nodes
+   *
+   * @param from The node to start from
+   * @param to   The node to get to
+   * @return The nodes on the path including both given nodes or null if there is no path
+   */
+  public List<GraphNodeData> shortestPath( GraphNodeData from, GraphNodeData to ) {
+    int start = findPosition( from );
+    int end = findPosition( to );
+    if ( start < 0 || end < 0 ) {
+      return null;
+    }
+    int[] previous = new int[ nodeCount ];
+    Arrays.fill( previous, -1 );
+    previous[ start ] = start;
+    int[] queue = new int[ nodeCount ];
+    int head = 0;
+    int tail = 0;
+    queue[ tail++ ] = start;
+    while ( head < tail && previous[ end ] < 0 ) {
+      int node = queue[ head++ ];
+      for ( int pass = 0; pass < 2; pass++ ) {
+        if ( !follows( pass ) ) {
+          continue;
+        }
+        int[] offsets = pass == 0 ? outgoingOffsets : incomingOffsets;
+        int[] adjacentRelationships = pass == 0 ? outgoingRelationships : incomingRelationships;
+        int[] adjacentNodes = pass == 0 ? outgoingNodes : incomingNodes;
+        for ( int i = offsets[ node ]; i < offsets[ node + 1 ]; i++ ) {
+          int next = adjacentNodes[ i ];
+          if ( previous[ next ] < 0 && accepts( adjacentRelationships[ i ], next ) ) {
+            previous[ next ] = node;
+            queue[ tail++ ] = next;
+          }
+        }
+      }
+    }
+    if ( previous[ end ] < 0 ) {
+      return null;
+    }
+    List<GraphNodeData> path = new ArrayList<>();
+    for ( int node = end; node != start; node = previous[ node ] ) {
+      path.add( nodes.get( node ) );
+    }
+    path.add( nodes.get( start ) );
+    Collections.reverse( path );
+    return path;
+  }
+
+  /**
+   * Split the nodes into groups which are connected through relationships, regardless of their direction
+   *
+   * @return The groups of nodes in the order of their first node in the graph
+   */
+  public List<List<GraphNodeData>> connectedComponents() {
+    int[] parents = new int[ nodeCount ];
+    for ( int n = 0; n < nodeCount; n++ ) {
+      parents[ n ] = n;
+    }
+    for ( int n = 0; n < nodeCount; n++ ) {
+      if ( !acceptsNode( n ) ) {
+        continue;
+      }
+      for ( int i = outgoingOffsets[ n ]; i < outgoingOffsets[ n + 1 ]; i++ ) {
+        if ( accepts( outgoingRelationships[ i ], outgoingNodes[ i ] ) ) {
+          int root = findRoot( parents, n );
+          int otherRoot = findRoot( parents, outgoingNodes[ i ] );
+          // The lowest position is the root so the groups come out in order
+          //
+          if ( root < otherRoot ) {
+            parents[ otherRoot ] = root;
+          } else {
+            parents[ root ] = otherRoot;
+          }
+        }
+      }
+    }
+    List<List<GraphNodeData>> components = new ArrayList<>();
+    int[] componentIndexes = new int[ nodeCount ];
+    for ( int n = 0; n < nodeCount; n++ ) {
+      if ( !acceptsNode( n ) ) {
+        continue;
+      }
+      int root = findRoot( parents, n );
+      if ( root == n ) {
+        componentIndexes[ n ] = components.size();
+        components.add( new ArrayList<>() );
+      }
+      components.get( componentIndexes[ root ] ).add( nodes.get( n ) );
+    }
+    return components;
+  }
+
+  private static int findRoot( int[] parents, int node ) {
+    while ( parents[ node ] != node ) {
+      parents[ node ] = parents[ parents[ node ] ];
+      node = parents[ node ];
+    }
+    return node;
+  }
+
+  /**
+   * Sort the nodes so that the source of every relationship comes before its target.  The direction of the traversal
+   * isn't used, relationships always point from their source to their target here.
+   *
+   * @return The nodes in topological order or null if the relationships form a cycle
+   */
+  public List<GraphNodeData> topologicalOrder() {
+    int[] incomingCounts = new int[ nodeCount ];
+    int[] queue = new int[ nodeCount ];
+    int tail = 0;
+    for ( int n = 0; n < nodeCount; n++ ) {
+      if ( !acceptsNode( n ) ) {
+        continue;
+      }
+      for ( int i = incomingOffsets[ n ]; i < incomingOffsets[ n + 1 ]; i++ ) {
+        if ( accepts( incomingRelationships[ i ], incomingNodes[ i ] ) ) {
+          incomingCounts[ n ]++;
+        }
+      }
+      if ( incomingCounts[ n ] == 0 ) {
+        queue[ tail++ ] = n;
+      }
+    }
+    List<GraphNodeData> order = new ArrayList<>();
+    for ( int head = 0; head < tail; head++ ) {
+      int node = queue[ head ];
+      order.add( nodes.get( node ) );
+      for ( int i = outgoingOffsets[ node ]; i < outgoingOffsets[ node + 1 ]; i++ ) {
+        int next = outgoingNodes[ i ];
+        if ( accepts( outgoingRelationships[ i ], next ) && --incomingCounts[ next ] == 0 ) {
+          queue[ tail++ ] = next;
+        }
+      }
+    }
+    for ( int n = 0; n < nodeCount; n++ ) {
+      if ( incomingCounts[ n ] > 0 ) {
+        return null;
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Count the relationships of a node which the traversal follows
+   *
+   * @param node The node
+   * @return The number of relationships or -1 if the node isn't in the graph
+   */
+  public int getDegree( GraphNodeData node ) {
+    int position = findPosition( node );
+    return position < 0 ? -1 : degree( position );
+  }
+
+  /**
+   * Calculate the degrees of all nodes the traversal visits
+   *
+   * @return The statistics
+   */
+  public DegreeStatistics getDegreeStatistics() {
+    DegreeStatistics statistics = new DegreeStatistics();
+    for ( int n = 0; n < nodeCount; n++ ) {
+      if ( acceptsNode( n ) ) {
+        statistics.add( degree( n ) );
+      }
+    }
+    return statistics;
+  }
+
+  private int degree( int node ) {
+    int degree = 0;
+    for ( int pass = 0; pass < 2; pass++ ) {
+      if ( !follows( pass ) ) {
+        continue;
+      }
+      int[] offsets = pass == 0 ? outgoingOffsets : incomingOffsets;
+      int[] adjacentRelationships = pass == 0 ? outgoingRelationships : incomingRelationships;
+      int[] adjacentNodes = pass == 0 ? outgoingNodes : incomingNodes;
+      for ( int i = offsets[ node ]; i < offsets[ node + 1 ]; i++ ) {
+        if ( accepts( adjacentRelationships[ i ], adjacentNodes[ i ] ) ) {
+          degree++;
+        }
+      }
+    }
+    return degree;
+  }
+
+  private int findPosition( GraphNodeData node ) {
+    if ( node == null ) {
+      return -1;
+    }
+    int position = graphData.findNodePosition( node.getIdKey() );
+    return position < nodeCount ? position : -1;
+  }
+
+  /**
+   * @param pass 0 for the outgoing relationships, 1 for the incoming ones
+   * @return true if the relationships of the pass are followed
+   */
+  private boolean follows( int pass ) {
+    return pass == 0 ? direction != Direction.INCOMING : direction != Direction.OUTGOING;
+  }
+
+  private boolean accepts( int relationship, int node ) {
+    if ( relationshipLabels != null && !relationshipLabels.contains( relationships.get( relationship ).getLabel() ) ) {
+      return false;
+    }
+    return acceptsNode( node );
+  }
+
+  private boolean acceptsNode( int node ) {
+    if ( nodeLabels == null ) {
+      return true;
+    }
+    List<String> labels = nodes.get( node ).getLabels();
+    if ( labels != null ) {
+      for ( String label : labels ) {
+        if ( nodeLabels.contains( label ) ) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private class NodeIterator implements Iterator<GraphNodeData> {
+
+    private final boolean depthFirst;
+    private final BitSet visited;
+
+    /**
+     * The queue of nodes to visit when going breadth first, the stack when going depth first
+     */
+    private int[] pending;
+    private int head;
+    private int tail;
+    private int next;
+
+    NodeIterator( int start, boolean depthFirst ) {
+      this.depthFirst = depthFirst;
+      this.visited = new BitSet( nodeCount );
+      this.pending = new int[ 16 ];
+      this.next = -1;
+      if ( start >= 0 ) {
+        push( start );
+        if ( !depthFirst ) {
+          visited.set( start );
+        }
+      }
+    }
+
+    @Override public boolean hasNext() {
+      if ( next < 0 ) {
+        next = depthFirst ? popDepthFirst() : pollBreadthFirst();
+      }
+      return next >= 0;
+    }
+
+    @Override public GraphNodeData next() {
+      if ( !hasNext() ) {
+        throw new NoSuchElementException();
+      }
+      int node = next;
+      next = -1;
+      return nodes.get( node );
+    }
+
+    private int pollBreadthFirst() {
+      if ( head == tail ) {
+        return -1;
+      }
+      int node = pending[ head++ ];
+      for ( int pass = 0; pass < 2; pass++ ) {
+        if ( !follows( pass ) ) {
+          continue;
+        }
+        int[] offsets = pass == 0 ? outgoingOffsets : incomingOffsets;
+        int[] adjacentRelationships = pass == 0 ? outgoingRelationships : incomingRelationships;
+        int[] adjacentNodes = pass == 0 ? outgoingNodes : incomingNodes;
+        for ( int i = offsets[ node ]; i < offsets[ node + 1 ]; i++ ) {
+          int adjacent = adjacentNodes[ i ];
+          if ( !visited.get( adjacent ) && accepts( adjacentRelationships[ i ], adjacent ) ) {
+            visited.set( adjacent );
+            push( adjacent );
+          }
+        }
+      }
+      return node;
+    }
+
+    private int popDepthFirst() {
+      while ( tail > 0 ) {
+        int node = pending[ --tail ];
+        if ( visited.get( node ) ) {
+          continue;
+        }
+        visited.set( node );
+        // Push in reverse so the first relationship is followed first
+        //
+        for ( int pass = 1; pass >= 0; pass-- ) {
+          if ( !follows( pass ) ) {
+            continue;
+          }
+          int[] offsets = pass == 0 ? outgoingOffsets : incomingOffsets;
+          int[] adjacentRelationships = pass == 0 ? outgoingRelationships : incomingRelationships;
+          int[] adjacentNodes = pass == 0 ? outgoingNodes : incomingNodes;
+          for ( int i = offsets[ node + 1 ] - 1; i >= offsets[ node ]; i-- ) {
+            int adjacent = adjacentNodes[ i ];
+            if ( !visited.get( adjacent ) && accepts( adjacentRelationships[ i ], adjacent ) ) {
+              push( adjacent );
+            }
+          }
+        }
+        return node;
+      }
+      return -1;
+    }
+
+    private void push( int node ) {
+      if ( tail == pending.length ) {
+        pending = Arrays.copyOf( pending, pending.length * 2 );
+      }
+      pending[ tail++ ] = node;
+    }
+  }
+
+  /**
+   * The number of relationships per node
+   */
+  public static class DegreeStatistics {
+    private int nodeCount;
+    private int isolatedNodeCount;
+    private int minimum;
+    private int maximum;
+    private long total;
+
+    private void add( int degree ) {
+      if ( nodeCount == 0 || degree < minimum ) {
+        minimum = degree;
+      }
+      if ( degree > maximum ) {
+        maximum = degree;
+      }
+      if ( degree == 0 ) {
+        isolatedNodeCount++;
+      }
+      total += degree;
+      nodeCount++;
+    }
+
+    /**
+     * Gets nodeCount
+     *
+     * @return value of nodeCount
+     */
+    public int getNodeCount() {
+      return nodeCount;
+    }
+
+    /**
+     * Gets the number of nodes without relationships
+     *
+     * @return value of isolatedNodeCount
+     */
+    public int getIsolatedNodeCount() {
+      return isolatedNodeCount;
+    }
+
+    /**
+     * Gets minimum
+     *
+     * @return value of minimum
+     */
+    public int getMinimum() {
+      return minimum;
+    }
+
+    /**
+     * Gets maximum
+     *
+     * @return value of maximum
+     */
+    public int getMaximum() {
+      return maximum;
+    }
+
+    /**
+     * Gets the sum of the degrees of all nodes
+     *
+     * @return value of total
+     */
+    public long getTotal() {
+      return total;
+    }
+
+    /**
+     * Gets the average degree
+     *
+     * @return The average or 0 without nodes
+     */
+    public double getAverage() {
+      return nodeCount == 0 ? 0.0 : (double) total / nodeCount;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A column of element IDs.  IDs which are numbers, like the ones assigned by the database, are kept as primitive longs.
+ * Other IDs are kept as strings in a separate array which is only allocated when it's needed.
+ */
+class IdColumn {
+
+  private long[] values;
+  private String[] strings;
+  private final BitSet nonNumeric;
+
+  IdColumn() {
+    values = new long[ 16 ];
+    nonNumeric = new BitSet();
+  }
+
+  void set( int row, String id ) {
+    ensureCapacity( row + 1 );
+    if ( isNumericId( id ) ) {
+      values[ row ] = Long.parseLong( id );
+      nonNumeric.clear( row );
+      if ( strings != null ) {
+        strings[ row ] = null;
+      }
+    } else {
+      if ( strings == null ) {
+        strings = new String[ values.length ];
+      }
+      strings[ row ] = id;
+      nonNumeric.set( row );
+    }
+  }
+
+  void set( int row, long id ) {
+    ensureCapacity( row + 1 );
+    values[ row ] = id;
+    nonNumeric.clear( row );
+    if ( strings != null ) {
+      strings[ row ] = null;
+    }
+  }
+
+  /**
+   * Store the ID of an element without converting numeric IDs to and from strings
+   *
+   * @param row       The row to set
+   * @param isNumeric true if the ID is a number
+   * @param number    The numeric ID
+   * @param id        The ID if it's not a number
+   */
+  void set( int row, boolean isNumeric, long number, String id ) {
+    if ( isNumeric ) {
+      set( row, number );
+    } else {
+      set( row, id );
+    }
+  }
+
+  String get( int row ) {
+    if ( nonNumeric.get( row ) ) {
+      return strings[ row ];
+    }
+    return Long.toString( values[ row ] );
+  }
+
+  boolean isNumeric( int row ) {
+    return !nonNumeric.get( row );
+  }
+
+  long getLong( int row ) {
+    return values[ row ];
+  }
+
+  void truncate( int size ) {
+    nonNumeric.clear( size, Math.max( size, nonNumeric.length() ) );
+    if ( strings != null && size < strings.length ) {
+      Arrays.fill( strings, size, strings.length, null );
+    }
+  }
+
+  private void ensureCapacity( int capacity ) {
+    if ( capacity > values.length ) {
+      int newCapacity = Math.max( capacity, values.length * 2 );
+      values = Arrays.copyOf( values, newCapacity );
+      if ( strings != null ) {
+        strings = Arrays.copyOf( strings, newCapacity );
+      }
+    }
+  }
+
+  /**
+   * Convert an element ID to the key used to look it up: a Long for numeric IDs, the ID itself otherwise
+   *
+   * @param id The ID
+   * @return The key
+   */
+  static Object toKey( String id ) {
+    return isNumericId( id ) ? (Object) Long.parseLong( id ) : id;
+  }
+
+  /**
+   * See if the given ID is the canonical string form of a long, so it can be stored as one and converted back
+   *
+   * @param id The ID to examine
+   * @return true if Long.toString(Long.parseLong(id)) gives back the ID
+   */
+  static boolean isNumericId( String id ) {
+    if ( id == null || id.isEmpty() || id.length() > 20 ) {
+      return false;
+    }
+    int start = id.charAt( 0 ) == '-' ? 1 : 0;
+    if ( start == id.length() ) {
+      return false;
+    }
+    // No leading zeros and no -0
+    //
+    if ( id.charAt( start ) == '0' && ( id.length() > start + 1 || start == 1 ) ) {
+      return false;
+    }
+    for ( int i = start; i < id.length(); i++ ) {
+      char c = id.charAt( i );
+      if ( c < '0' || c > '9' ) {
+        return false;
+      }
+    }
+    if ( id.length() - start < 19 ) {
+      return true;
+    }
+    try {
+      Long.parseLong( id );
+      return true;
+    } catch ( NumberFormatException e ) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package org.neo4j.kettle.core.data;
+
+import org.neo4j.driver.types.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node which wraps a node returned by the driver.  The ID is taken right away but the labels and properties are only
+ * converted when they're asked for.  Looking up a single property with {@link #findProperty(String)} only converts
+ * that one.  This makes it cheap to pass wide nodes along when only their ID or a few properties are used.
+ * <p>
+ * Use {@link #detach()} to get a plain node which no longer holds on to the driver node.
+ * <p>
+ * Converting is thread-safe: the graphs created with {@link GraphData#copyOnWrite()} share these elements and can be
+ * read from different threads.  Setting labels or properties is only safe on an element which isn't shared.
+ */
+public class LazyGraphNodeData extends GraphNodeData {
+
+  /**
+   * The driver node, null once the labels are converted
+   */
+  private Node node;
+
+  /**
+   * The properties still to convert, null once they all are
+   */
+  private LazyProperties lazyProperties;
+
+  private boolean propertySetIdLoaded;
+
+  public LazyGraphNodeData( Node node ) {
+    super( null, null, null );
+    setId( node.id() );
+    this.node = node;
+    this.lazyProperties = new LazyProperties( node );
+  }
+
+  /**
+   * Copy the node into a plain {@link GraphNodeData}, converting everything which isn't yet
+   *
+   * @return A new node which doesn't refer to the driver node
+   */
+  public GraphNodeData detach() {
+    return new GraphNodeData( this );
+  }
+
+  /**
+   * See if the labels and all properties are converted
+   *
+   * @return true if nothing is left to convert
+   */
+  public synchronized boolean isMaterialized() {
+    return node == null && lazyProperties == null;
+  }
+
+  @Override public synchronized GraphPropertyData findProperty( String id ) {
+    if ( lazyProperties != null ) {
+      return lazyProperties.find( id );
+    }
+    return super.findProperty( id );
+  }
+
+  @Override public synchronized List<String> getLabels() {
+    if ( node != null ) {
+      List<String> nodeLabels = new ArrayList<>();
+      for ( String label : node.labels() ) {
+        nodeLabels.add( GraphSymbolTable.intern( label ) );
+      }
+      labels = nodeLabels;
+      node = null;
+    }
+    return labels;
+  }
+
+  @Override public synchronized void setLabels( List<String> labels ) {
+    node = null;
+    super.setLabels( labels );
+  }
+
+  @Override public synchronized List<GraphPropertyData> getProperties() {
+    if ( lazyProperties != null ) {
+      properties = lazyProperties.materialize();
+      lazyProperties = null;
+    }
+    return properties;
+  }
+
+  @Override public synchronized void setProperties( List<GraphPropertyData> properties ) {
+    lazyProperties = null;
+    super.setProperties( properties );
+  }
+
+  @Override public synchronized String getPropertySetId() {
+    if ( !propertySetIdLoaded ) {
+      propertySetId = GraphSymbolTable.getLabelSetId( getLabels() );
+      propertySetIdLoaded = true;
+    }
+    return propertySetId;
+  }
+
+  @Override public synchronized void setPropertySetId( String propertySetId ) {
+    propertySetIdLoaded = true;
+    super.setPropertySetId( propertySetId );
+  }
+}
@@ -0,0 +1,69 @@
+package org.neo4j.kettle.core.data;
+
+import org.neo4j.driver.types.Relationship;
+
+import java.util.List;
+
+/**
+ * A relationship which wraps a relationship returned by the driver.  The IDs and the label are taken right away but the
+ * properties are only converted when they're asked for.  Looking up a single property with
+ * {@link #findProperty(String)} only converts that one.
+ * <p>
+ * Use {@link #detach()} to get a plain relationship which no longer holds on to the driver relationship.
+ * <p>
+ * Converting is thread-safe: the graphs created with {@link GraphData#copyOnWrite()} share these elements and can be
+ * read from different threads.  Setting labels or properties is only safe on an element which isn't shared.
+ */
+public class LazyGraphRelationshipData extends GraphRelationshipData {
+
+  /**
+   * The properties still to convert, null once they all are
+   */
+  private LazyProperties lazyProperties;
+
+  public LazyGraphRelationshipData( Relationship relationship ) {
+    super( null, relationship.type(), null, null, null );
+    setId( relationship.id() );
+    setSourceNodeId( relationship.startNodeId() );
+    setTargetNodeId( relationship.endNodeId() );
+    this.lazyProperties = new LazyProperties( relationship );
+  }
+
+  /**
+   * Copy the relationship into a plain {@link GraphRelationshipData}, converting the properties if they aren't yet
+   *
+   * @return A new relationship which doesn't refer to the driver relationship
+   */
+  public GraphRelationshipData detach() {
+    return new GraphRelationshipData( this );
+  }
+
+  /**
+   * See if all properties are converted
+   *
+   * @return true if nothing is left to convert
+   */
+  public synchronized boolean isMaterialized() {
+    return lazyProperties == null;
+  }
+
+  @Override public synchronized GraphPropertyData findProperty( String id ) {
+    if ( lazyProperties != null ) {
+      return lazyProperties.find( id );
+    }
+    return super.findProperty( id );
+  }
+
+  @Override public synchronized List<GraphPropertyData> getProperties() {
+    if ( lazyProperties != null ) {
+      properties = lazyProperties.materialize();
+      lazyProperties = null;
+    }
+    return properties;
+  }
+
+  @Override public synchronized void setProperties( List<GraphPropertyData> properties ) {
+    lazyProperties = null;
+    super.setProperties( properties );
+  }
+}
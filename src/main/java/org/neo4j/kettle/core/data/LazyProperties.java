@@ -0,0 +1,77 @@
+package org.neo4j.kettle.core.data;
+
+import org.neo4j.driver.Value;
+import org.neo4j.driver.types.Entity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The properties of a driver node or relationship, converted to {@link GraphPropertyData} only when they're needed.
+ * A property which is looked up before all of them are converted is converted once and the same instance ends up in
+ * the list of all properties, so changes to it are kept.
+ * <p>
+ * This class isn't thread-safe, the lazy node or relationship which owns it synchronizes the access.
+ */
+class LazyProperties {
+
+  private final Entity entity;
+
+  /**
+   * The properties converted before all of them were, by key
+   */
+  private Map<String, GraphPropertyData> converted;
+
+  LazyProperties( Entity entity ) {
+    this.entity = entity;
+  }
+
+  /**
+   * Search for the property with the given ID, case insensitive, only converting that property
+   *
+   * @param id the name of the property to look for
+   * @return the property or null if nothing could be found.
+   */
+  GraphPropertyData find( String id ) {
+    if ( id == null ) {
+      return null;
+    }
+    if ( entity.containsKey( id ) ) {
+      return get( id );
+    }
+    for ( String key : entity.keys() ) {
+      if ( key.equalsIgnoreCase( id ) ) {
+        return get( key );
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Convert all properties
+   *
+   * @return A new list with all properties
+   */
+  List<GraphPropertyData> materialize() {
+    List<GraphPropertyData> properties = new ArrayList<>( entity.size() );
+    for ( String key : entity.keys() ) {
+      properties.add( get( key ) );
+    }
+    return properties;
+  }
+
+  private GraphPropertyData get( String key ) {
+    if ( converted == null ) {
+      converted = new HashMap<>();
+    }
+    return converted.computeIfAbsent( key, k -> convert( k, entity.get( k ) ) );
+  }
+
+  static GraphPropertyData convert( String key, Value value ) {
+    Object propertyObject = value.asObject();
+    GraphPropertyDataType propertyType = GraphPropertyDataType.getTypeFromNeo4jValue( propertyObject );
+    return new GraphPropertyData( key, propertyObject, propertyType, false );
+  }
+}
@@ -0,0 +1,69 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Decides the value of a property which both a node or relationship and the one merged into it have.
+ * See {@link GraphData#merge(GraphData, MergePolicy)}.
+ * <p>
+ * Return the existing property to keep it or a new property.  Don't return the other property itself and don't modify
+ * either of them: they belong to their graphs.
+ */
+@FunctionalInterface
+public interface MergePolicy {
+
+  /**
+   * Keep the value of the graph merged into
+   */
+  MergePolicy KEEP_FIRST = ( existing, other ) -> existing;
+
+  /**
+   * Take the value of the graph which is merged
+   */
+  MergePolicy KEEP_LAST = ( existing, other ) ->
+    new GraphPropertyData( existing.getId(), other.getValue(), other.getType(), existing.isPrimary() );
+
+  /**
+   * Combine both values into a list without duplicates.  List values are combined element by element, null values are
+   * left out.  Primary properties are never combined, the first value is kept.
+   */
+  MergePolicy COMBINE_LISTS = ( existing, other ) -> {
+    if ( existing.isPrimary() ) {
+      return existing;
+    }
+    Set<Object> values = new LinkedHashSet<>();
+    addValues( values, existing.getValue() );
+    addValues( values, other.getValue() );
+    return new GraphPropertyData( existing.getId(), new ArrayList<>( values ), GraphPropertyDataType.List, false );
+  };
+
+  /**
+   * Merge the property of an element of the other graph into the existing one with the same ID
+   *
+   * @param existing The property of the element in the graph merged into
+   * @param other    The property with the same ID of the element in the graph which is merged
+   * @return The property to keep
+   */
+  GraphPropertyData merge( GraphPropertyData existing, GraphPropertyData other );
+
+  /**
+   * Add a value or the elements of a collection value to the given values, skipping nulls
+   *
+   * @param values The values to add to
+   * @param value  The value to add
+   */
+  static void addValues( Set<Object> values, Object value ) {
+    if ( value instanceof Collection ) {
+      for ( Object element : (Collection<?>) value ) {
+        if ( element != null ) {
+          values.add( element );
+        }
+      }
+    } else if ( value != null ) {
+      values.add( value );
+    }
+  }
+}
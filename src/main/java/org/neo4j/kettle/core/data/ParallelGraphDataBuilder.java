@@ -0,0 +1,147 @@
+package org.neo4j.kettle.core.data;
+
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Result;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a {@link GraphData} from a large number of records using several threads.  The records are read in chunks on
+ * the calling thread and every chunk is converted into a fragment by a {@link GraphDataBuilder} on a fork-join pool.
+ * The fragments are merged in the order of the chunks, keeping the node or relationship seen last for every ID in the
+ * position where it was first seen.  The result is the same as the one of a single {@link GraphDataBuilder}.
+ * <p>
+ * At most a fixed number of chunks are converted or waiting to be merged at any time.  When that limit is reached,
+ * reading the records waits for the oldest chunk, so memory use doesn't depend on the size of the result.
+ * <p>
+ * A node or relationship which shows up in several chunks is converted in each of them, only the last one is kept.
+ */
+public class ParallelGraphDataBuilder {
+
+  public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+  private final int maxPendingChunks;
+
+  private final GraphDataBuilder builder;
+  private final Deque<Future<GraphDataBuilder>> pendingChunks;
+
+  /**
+   * Build on the common fork-join pool with the default chunk size
+   */
+  public ParallelGraphDataBuilder() {
+    this( ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, 2 * ForkJoinPool.commonPool().getParallelism() );
+  }
+
+  /**
+   * @param pool             The pool to convert the chunks on
+   * @param chunkSize        The number of records per chunk
+   * @param maxPendingChunks The maximum number of chunks being converted or waiting to be merged
+   */
+  public ParallelGraphDataBuilder( ForkJoinPool pool, int chunkSize, int maxPendingChunks ) {
+    if ( chunkSize < 1 || maxPendingChunks < 1 ) {
+      throw new IllegalArgumentException( "The chunk size and maximum number of pending chunks need to be at least 1" );
+    }
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+    this.maxPendingChunks = maxPendingChunks;
+    this.builder = new GraphDataBuilder();
+    this.pendingChunks = new ArrayDeque<>();
+  }
+
+  /**
+   * Add all remaining records of the given result
+   *
+   * @param result The result to consume
+   * @return this builder
+   */
+  public ParallelGraphDataBuilder addResult( Result result ) {
+    return addRecords( result );
+  }
+
+  /**
+   * Add all remaining records.  They're read on the calling thread only.
+   *
+   * @param records The records to add
+   * @return this builder
+   */
+  public ParallelGraphDataBuilder addRecords( Iterator<Record> records ) {
+    List<Record> chunk = new ArrayList<>( chunkSize );
+    while ( records.hasNext() ) {
+      chunk.add( records.next() );
+      if ( chunk.size() == chunkSize ) {
+        submit( chunk );
+        chunk = new ArrayList<>( chunkSize );
+      }
+    }
+    if ( !chunk.isEmpty() ) {
+      submit( chunk );
+    }
+    return this;
+  }
+
+  private void submit( List<Record> chunk ) {
+    if ( pendingChunks.size() >= maxPendingChunks ) {
+      mergeOldestChunk();
+    }
+    pendingChunks.addLast( pool.submit( () -> {
+      GraphDataBuilder fragment = new GraphDataBuilder();
+      for ( Record record : chunk ) {
+        fragment.addRecord( record );
+      }
+      return fragment;
+    } ) );
+  }
+
+  private void mergeOldestChunk() {
+    Future<GraphDataBuilder> oldest = pendingChunks.removeFirst();
+    try {
+      builder.addAll( oldest.get() );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      cancel();
+      throw new RuntimeException( "Interrupted while building graph data", e );
+    } catch ( ExecutionException e ) {
+      cancel();
+      throw new RuntimeException( "Error building graph data from records", e.getCause() );
+    }
+  }
+
+  private void cancel() {
+    for ( Future<GraphDataBuilder> pendingChunk : pendingChunks ) {
+      pendingChunk.cancel( true );
+    }
+    pendingChunks.clear();
+  }
+
+  /**
+   * Build a new graph with the nodes and relationships of all records added so far
+   *
+   * @return The graph
+   */
+  public GraphData build() {
+    GraphData graphData = new GraphData();
+    buildInto( graphData );
+    return graphData;
+  }
+
+  /**
+   * Replace the nodes and relationships of the given graph with the ones of all records added so far
+   *
+   * @param graphData The graph to fill
+   */
+  public void buildInto( GraphData graphData ) {
+    while ( !pendingChunks.isEmpty() ) {
+      mergeOldestChunk();
+    }
+    builder.buildInto( graphData );
+  }
+}
@@ -0,0 +1,20 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.List;
+
+/**
+ * A list of nodes or relationships which does extra work to hand out an element for modification, like copying or
+ * loading it.  {@link #peek(int)} skips that work for callers which only read the element.
+ *
+ * @param <T> The type of graph element
+ */
+interface PeekableList<T> extends List<T> {
+
+  /**
+   * Get an element for reading only.  Don't modify it.
+   *
+   * @param index The index of the element
+   * @return The element
+   */
+  T peek( int index );
+}
@@ -0,0 +1,318 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The properties of a list of nodes or relationships, stored as a column per property key.
+ * Long, Double and Boolean values are kept in primitive arrays, strings are dictionary encoded.
+ * Other values, or columns where the values have different classes, are kept as objects.
+ */
+class PropertyColumns {
+
+  private final StringDictionary keys;
+  private final List<Column> columns;
+
+  PropertyColumns() {
+    keys = new StringDictionary();
+    columns = new ArrayList<>();
+  }
+
+  /**
+   * Replace the properties of a row
+   *
+   * @param row        The row to set
+   * @param properties The properties, null for none
+   */
+  void setRow( int row, List<GraphPropertyData> properties ) {
+    clearRow( row );
+    if ( properties == null ) {
+      return;
+    }
+    for ( GraphPropertyData property : properties ) {
+      int key = keys.encode( property.getId() );
+      Object value = property.getValue();
+      Column column;
+      if ( key == columns.size() ) {
+        column = Column.create( value );
+        columns.add( column );
+      } else {
+        column = columns.get( key );
+        if ( value != null && !column.accepts( value ) ) {
+          column = new ObjectColumn( column );
+          columns.set( key, column );
+        }
+      }
+      column.set( row, value, property.getType(), property.isPrimary() );
+    }
+  }
+
+  /**
+   * Materialize the properties of a row in key order
+   *
+   * @param row The row to get
+   * @return A new list of properties
+   */
+  List<GraphPropertyData> getRow( int row ) {
+    List<GraphPropertyData> properties = new ArrayList<>();
+    for ( int key = 0; key < columns.size(); key++ ) {
+      GraphPropertyData property = getProperty( row, key );
+      if ( property != null ) {
+        properties.add( property );
+      }
+    }
+    return properties;
+  }
+
+  /**
+   * Find a property of a row, the key is case insensitive like in {@link GraphNodeData#findProperty(String)}
+   *
+   * @param row The row
+   * @param id  The property key
+   * @return The property or null if the row doesn't have it
+   */
+  GraphPropertyData findProperty( int row, String id ) {
+    int key = keys.lookup( id );
+    if ( key >= 0 ) {
+      GraphPropertyData property = getProperty( row, key );
+      if ( property != null ) {
+        return property;
+      }
+    }
+    for ( key = 0; key < columns.size(); key++ ) {
+      String keyName = keys.decode( key );
+      if ( keyName != null && keyName.equalsIgnoreCase( id ) ) {
+        GraphPropertyData property = getProperty( row, key );
+        if ( property != null ) {
+          return property;
+        }
+      }
+    }
+    return null;
+  }
+
+  private GraphPropertyData getProperty( int row, int key ) {
+    Column column = columns.get( key );
+    if ( !column.present.get( row ) ) {
+      return null;
+    }
+    return new GraphPropertyData( keys.decode( key ), column.get( row ), column.getType( row ), column.primary.get( row ) );
+  }
+
+  void clearRow( int row ) {
+    for ( Column column : columns ) {
+      column.clear( row, row + 1 );
+    }
+  }
+
+  void truncate( int size ) {
+    for ( Column column : columns ) {
+      column.clear( size, Math.max( size, column.present.length() ) );
+    }
+  }
+
+  abstract static class Column {
+    final BitSet present = new BitSet();
+    final BitSet primary = new BitSet();
+    final BitSet nulls = new BitSet();
+    GraphPropertyDataType type;
+    GraphPropertyDataType[] rowTypes;
+    int capacity;
+
+    static Column create( Object value ) {
+      if ( value instanceof Long ) {
+        return new LongColumn();
+      }
+      if ( value instanceof Double ) {
+        return new DoubleColumn();
+      }
+      if ( value instanceof Boolean ) {
+        return new BooleanColumn();
+      }
+      if ( value instanceof String ) {
+        return new StringColumn();
+      }
+      return new ObjectColumn();
+    }
+
+    void set( int row, Object value, GraphPropertyDataType valueType, boolean isPrimary ) {
+      if ( row >= capacity ) {
+        int newCapacity = Math.max( 16, Math.max( row + 1, capacity * 2 ) );
+        grow( newCapacity );
+        if ( rowTypes != null ) {
+          rowTypes = Arrays.copyOf( rowTypes, newCapacity );
+        }
+        capacity = newCapacity;
+      }
+      if ( present.isEmpty() && rowTypes == null ) {
+        type = valueType;
+      } else if ( valueType != type && rowTypes == null ) {
+        // Only keep a type per row when the rows don't agree
+        //
+        rowTypes = new GraphPropertyDataType[ capacity ];
+        Arrays.fill( rowTypes, type );
+      }
+      if ( rowTypes != null ) {
+        rowTypes[ row ] = valueType;
+      }
+      present.set( row );
+      primary.set( row, isPrimary );
+      if ( value == null ) {
+        nulls.set( row );
+      } else {
+        nulls.clear( row );
+        store( row, value );
+      }
+    }
+
+    Object get( int row ) {
+      return nulls.get( row ) ? null : load( row );
+    }
+
+    GraphPropertyDataType getType( int row ) {
+      return rowTypes == null ? type : rowTypes[ row ];
+    }
+
+    void clear( int from, int to ) {
+      present.clear( from, to );
+      primary.clear( from, to );
+      nulls.clear( from, to );
+    }
+
+    abstract boolean accepts( Object value );
+
+    abstract void grow( int newCapacity );
+
+    abstract void store( int row, Object value );
+
+    abstract Object load( int row );
+  }
+
+  static class LongColumn extends Column {
+    private long[] values = new long[ 0 ];
+
+    @Override boolean accepts( Object value ) {
+      return value instanceof Long;
+    }
+
+    @Override void grow( int newCapacity ) {
+      values = Arrays.copyOf( values, newCapacity );
+    }
+
+    @Override void store( int row, Object value ) {
+      values[ row ] = (Long) value;
+    }
+
+    @Override Object load( int row ) {
+      return values[ row ];
+    }
+  }
+
+  static class DoubleColumn extends Column {
+    private double[] values = new double[ 0 ];
+
+    @Override boolean accepts( Object value ) {
+      return value instanceof Double;
+    }
+
+    @Override void grow( int newCapacity ) {
+      values = Arrays.copyOf( values, newCapacity );
+    }
+
+    @Override void store( int row, Object value ) {
+      values[ row ] = (Double) value;
+    }
+
+    @Override Object load( int row ) {
+      return values[ row ];
+    }
+  }
+
+  static class BooleanColumn extends Column {
+    private final BitSet values = new BitSet();
+
+    @Override boolean accepts( Object value ) {
+      return value instanceof Boolean;
+    }
+
+    @Override void grow( int newCapacity ) {
+    }
+
+    @Override void store( int row, Object value ) {
+      values.set( row, (Boolean) value );
+    }
+
+    @Override Object load( int row ) {
+      return values.get( row );
+    }
+  }
+
+  static class StringColumn extends Column {
+    private final StringDictionary dictionary = new StringDictionary();
+    private int[] codes = new int[ 0 ];
+
+    @Override boolean accepts( Object value ) {
+      return value instanceof String;
+    }
+
+    @Override void grow( int newCapacity ) {
+      codes = Arrays.copyOf( codes, newCapacity );
+    }
+
+    @Override void store( int row, Object value ) {
+      codes[ row ] = dictionary.encode( (String) value );
+    }
+
+    @Override Object load( int row ) {
+      return dictionary.decode( codes[ row ] );
+    }
+  }
+
+  static class ObjectColumn extends Column {
+    private Object[] values = new Object[ 0 ];
+
+    ObjectColumn() {
+    }
+
+    /**
+     * Convert a typed column into an object column
+     *
+     * @param column The column to convert
+     */
+    ObjectColumn( Column column ) {
+      grow( column.capacity );
+      capacity = column.capacity;
+      type = column.type;
+      rowTypes = column.rowTypes;
+      present.or( column.present );
+      primary.or( column.primary );
+      nulls.or( column.nulls );
+      for ( int row = present.nextSetBit( 0 ); row >= 0; row = present.nextSetBit( row + 1 ) ) {
+        values[ row ] = column.get( row );
+      }
+    }
+
+    @Override boolean accepts( Object value ) {
+      return true;
+    }
+
+    @Override void grow( int newCapacity ) {
+      values = Arrays.copyOf( values, newCapacity );
+    }
+
+    @Override void store( int row, Object value ) {
+      values[ row ] = value;
+    }
+
+    @Override Object load( int row ) {
+      return values[ row ];
+    }
+
+    @Override void clear( int from, int to ) {
+      super.clear( from, to );
+      Arrays.fill( values, Math.min( from, values.length ), Math.min( to, values.length ), null );
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.UnaryOperator;
+
+/**
+ * A list of nodes or relationships which can share its elements with the lists it was cloned from or into.
+ * <p>
+ * Until it's shared the list is a plain array list.  Sharing hands the backing array to the new list without copying
+ * anything, every side keeps its own bitmap of the elements which belong to it.  Right after sharing that's none on
+ * either side.  An element which doesn't belong to a list is copied the first time it's handed out by {@link #get(int)}
+ * since the caller could modify it, and so is every element which is iterated over with {@link #iterator()}.  Use
+ * {@link #peek(int)} to read without copying.  Elements added to the list belong to it.
+ * <p>
+ * While the backing array is shared, the copies are kept on the side.  The array itself is only copied when either
+ * list changes its structure.  The elements which a list handed out or which were added to it after it was first
+ * shared stay with that list when it's shared again: the new list gets copies of those few right away.
+ *
+ * @param <T> The type of graph element
+ */
+class SharedElementList<T> extends AbstractList<T> implements PeekableList<T>, RandomAccess {
+
+  private static final int DEFAULT_CAPACITY = 10;
+
+  private final UnaryOperator<T> copier;
+  private Object[] elements;
+  private int size;
+
+  /**
+   * The backing array is used by other lists too, copy it before changing it
+   */
+  private boolean elementsShared;
+
+  /**
+   * The elements could be referenced by other lists, only the ones in {@link #owned} belong to this list
+   */
+  private boolean shared;
+  private BitSet owned;
+
+  /**
+   * The copies of shared elements by index, only used while the backing array is shared
+   */
+  private Map<Integer, T> copies;
+
+  /**
+   * Create an empty list
+   *
+   * @param capacity The initial capacity
+   * @param copier   Creates a copy of an element
+   */
+  SharedElementList( int capacity, UnaryOperator<T> copier ) {
+    this.elements = new Object[ Math.max( capacity, DEFAULT_CAPACITY ) ];
+    this.copier = copier;
+  }
+
+  /**
+   * Create a list with the given elements, they belong to this list until it's shared
+   *
+   * @param elements The elements
+   * @param copier   Creates a copy of an element
+   */
+  SharedElementList( Collection<T> elements, UnaryOperator<T> copier ) {
+    this.elements = elements.toArray();
+    this.size = this.elements.length;
+    this.copier = copier;
+  }
+
+  private SharedElementList( SharedElementList<T> source ) {
+    this.elements = source.elements;
+    this.size = source.size;
+    this.elementsShared = true;
+    this.shared = true;
+    this.copier = source.copier;
+    this.owned = new BitSet();
+
+    // The source keeps the elements it owns, they could still be modified through references it handed out
+    //
+    if ( source.shared ) {
+      for ( int i = source.owned.nextSetBit( 0 ); i >= 0; i = source.owned.nextSetBit( i + 1 ) ) {
+        putCopy( i, copier.apply( source.peek( i ) ) );
+      }
+    }
+  }
+
+  /**
+   * Create a list sharing the elements with this one.  The first time this list is shared that takes constant time.
+   * After that the elements this list owns are copied into the new list.
+   *
+   * @return The new list
+   */
+  SharedElementList<T> share() {
+    SharedElementList<T> copy = new SharedElementList<>( this );
+    elementsShared = true;
+    if ( !shared ) {
+      shared = true;
+      owned = new BitSet();
+    }
+    return copy;
+  }
+
+  /**
+   * Get an element without copying it.  Don't modify it.
+   *
+   * @param index The index of the element
+   * @return The element, possibly shared with other lists
+   */
+  @SuppressWarnings( "unchecked" )
+  @Override public T peek( int index ) {
+    checkIndex( index );
+    if ( copies != null ) {
+      T copy = copies.get( index );
+      if ( copy != null ) {
+        return copy;
+      }
+    }
+    return (T) elements[ index ];
+  }
+
+  @Override public T get( int index ) {
+    T element = peek( index );
+    if ( shared && !owned.get( index ) ) {
+      element = copier.apply( element );
+      putCopy( index, element );
+    }
+    return element;
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public void add( int index, T element ) {
+    if ( index < 0 || index > size ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+    }
+    ownElements( size + 1 );
+    System.arraycopy( elements, index, elements, index + 1, size - index );
+    elements[ index ] = element;
+    size++;
+    if ( shared ) {
+      shift( index, 1 );
+      owned.set( index );
+    }
+    modCount++;
+  }
+
+  @Override public T set( int index, T element ) {
+    T previous = peek( index );
+    ownElements( size );
+    elements[ index ] = element;
+    if ( shared ) {
+      owned.set( index );
+    }
+    return previous;
+  }
+
+  @Override public T remove( int index ) {
+    T removed = peek( index );
+    ownElements( size );
+    System.arraycopy( elements, index + 1, elements, index, size - index - 1 );
+    elements[ --size ] = null;
+    if ( shared ) {
+      shift( index + 1, -1 );
+    }
+    modCount++;
+    return removed;
+  }
+
+  @Override public void clear() {
+    elements = new Object[ DEFAULT_CAPACITY ];
+    size = 0;
+    elementsShared = false;
+    shared = false;
+    owned = null;
+    copies = null;
+    modCount++;
+  }
+
+  private void checkIndex( int index ) {
+    if ( index < 0 || index >= size ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+    }
+  }
+
+  /**
+   * Keep a copy of an element which now belongs to this list
+   */
+  private void putCopy( int index, T copy ) {
+    if ( elementsShared ) {
+      if ( copies == null ) {
+        copies = new HashMap<>();
+      }
+      copies.put( index, copy );
+    } else {
+      elements[ index ] = copy;
+    }
+    owned.set( index );
+  }
+
+  /**
+   * Make sure the backing array belongs to this list and has room for the given number of elements
+   */
+  private void ownElements( int capacity ) {
+    if ( elementsShared ) {
+      elements = Arrays.copyOf( elements, Math.max( capacity, size ) );
+      elementsShared = false;
+      if ( copies != null ) {
+        copies.forEach( ( index, copy ) -> elements[ index ] = copy );
+        copies = null;
+      }
+    }
+    if ( capacity > elements.length ) {
+      elements = Arrays.copyOf( elements, Math.max( capacity, elements.length + ( elements.length >> 1 ) ) );
+    }
+  }
+
+  /**
+   * Move the owned flags from the given index on up or down
+   */
+  private void shift( int from, int distance ) {
+    int length = owned.length();
+    if ( from >= length ) {
+      return;
+    }
+    BitSet tail = owned.get( from, length );
+    owned.clear( Math.min( from, from + distance ), length );
+    for ( int i = tail.nextSetBit( 0 ); i >= 0; i = tail.nextSetBit( i + 1 ) ) {
+      owned.set( from + distance + i );
+    }
+  }
+}
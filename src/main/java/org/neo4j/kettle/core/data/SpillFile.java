@@ -0,0 +1,143 @@
+package org.neo4j.kettle.core.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A temporary file with records of bytes, mapped into memory in segments.  Records are appended, a record is never split
+ * over two segments.  A record can be rewritten in place as long as the new bytes fit in the space it was written with.
+ * The address of a record is the index of its segment in the upper and the position in the segment in the lower 32
+ * bits.
+ * <p>
+ * The file is only deleted by {@link #close()}.
+ */
+class SpillFile implements Closeable {
+
+  static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final List<MappedByteBuffer> segments;
+  private long length;
+  private long recordLength;
+
+  SpillFile( File directory ) throws IOException {
+    file = File.createTempFile( "graph-data-", ".spill", directory );
+    randomAccessFile = new RandomAccessFile( file, "rw" );
+    segments = new ArrayList<>();
+  }
+
+  private static final int HEADER_SIZE = 8;
+
+  /**
+   * Append a record
+   *
+   * @param bytes  The buffer with the record
+   * @param count  The number of bytes in the record
+   * @return The address of the record
+   * @throws IOException In case the file can't be extended
+   */
+  long write( byte[] bytes, int count ) throws IOException {
+    MappedByteBuffer segment = segments.isEmpty() ? null : segments.get( segments.size() - 1 );
+    if ( segment == null || segment.remaining() < count + HEADER_SIZE ) {
+      int segmentSize = Math.max( SEGMENT_SIZE, count + HEADER_SIZE );
+      segment = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_WRITE, length, segmentSize );
+      length += segmentSize;
+      segments.add( segment );
+    }
+    int position = segment.position();
+    segment.putInt( count );
+    segment.putInt( count );
+    segment.put( bytes, 0, count );
+    recordLength += count + HEADER_SIZE;
+    return ( (long) ( segments.size() - 1 ) << 32 ) | position;
+  }
+
+  /**
+   * Replace the bytes of a record if they fit in the space it was written with.  Unchanged bytes aren't written again.
+   *
+   * @param address The address returned when the record was written
+   * @param bytes   The buffer with the new record
+   * @param count   The number of bytes in the new record
+   * @return true if the record was replaced, false if it doesn't fit and has to be appended
+   */
+  boolean rewrite( long address, byte[] bytes, int count ) {
+    ByteBuffer segment = segment( address );
+    int capacity = segment.getInt();
+    if ( count > capacity ) {
+      return false;
+    }
+    int lengthPosition = segment.position();
+    if ( segment.getInt() == count && matches( segment, bytes, count ) ) {
+      return true;
+    }
+    segment.position( lengthPosition );
+    segment.putInt( count );
+    segment.put( bytes, 0, count );
+    return true;
+  }
+
+  /**
+   * Read a record
+   *
+   * @param address The address returned when the record was written
+   * @return The bytes of the record
+   */
+  byte[] read( long address ) {
+    ByteBuffer segment = segment( address );
+    segment.getInt();
+    byte[] bytes = new byte[ segment.getInt() ];
+    segment.get( bytes );
+    return bytes;
+  }
+
+  private ByteBuffer segment( long address ) {
+    ByteBuffer segment = segments.get( (int) ( address >>> 32 ) ).duplicate();
+    segment.position( (int) address );
+    return segment;
+  }
+
+  private static boolean matches( ByteBuffer segment, byte[] bytes, int count ) {
+    int position = segment.position();
+    for ( int i = 0; i < count; i++ ) {
+      if ( segment.get( position + i ) != bytes[ i ] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the size of the file
+   *
+   * @return value of length
+   */
+  long getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the number of bytes taken by the records written so far
+   *
+   * @return value of recordLength
+   */
+  long getRecordLength() {
+    return recordLength;
+  }
+
+  /**
+   * Close and delete the file.  The records can't be read anymore.
+   */
+  @Override public void close() throws IOException {
+    segments.clear();
+    randomAccessFile.close();
+    file.delete();
+  }
+}
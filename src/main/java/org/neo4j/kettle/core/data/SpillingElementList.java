@@ -0,0 +1,343 @@
+package org.neo4j.kettle.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.ToLongFunction;
+
+/**
+ * A list of nodes or relationships which writes elements to a {@link SpillFile} when the estimated size of the elements
+ * in memory exceeds a budget.  Elements are spilled in a round robin over the list, skipping the one just handed out.
+ * <p>
+ * An element handed out by {@link #get(int)} is loaded back into memory so changes to it are kept.  Once it's spilled
+ * again changes made through old references are lost: get the element again after adding or getting others.
+ * <p>
+ * The record of an element loaded back into memory is kept.  When the element is spilled again the record is left as
+ * it is if the element didn't change and rewritten in place if it still fits, only otherwise a new record is appended.
+ *
+ * @param <T> The type of graph element
+ */
+class SpillingElementList<T> extends AbstractList<T> implements PeekableList<T>, RandomAccess {
+
+  interface Codec<T> {
+    void write( DataOutput out, T element ) throws IOException;
+
+    T read( DataInput in ) throws IOException;
+  }
+
+  /**
+   * The memory budget shared by the node and relationship lists of a graph
+   */
+  static class Budget {
+    private final long limit;
+    private final File directory;
+    private final List<SpillingElementList<?>> lists;
+    private long used;
+    private SpillFile spillFile;
+
+    Budget( long limit, File directory ) {
+      this.limit = limit;
+      this.directory = directory;
+      this.lists = new ArrayList<>();
+    }
+
+    private void reserve( long size, SpillingElementList<?> hotList, int hotIndex ) {
+      used += size;
+      for ( SpillingElementList<?> list : lists ) {
+        if ( used <= limit ) {
+          break;
+        }
+        list.spill( list == hotList ? hotIndex : -1 );
+      }
+    }
+
+    private SpillFile getSpillFile() throws IOException {
+      if ( spillFile == null ) {
+        spillFile = new SpillFile( directory );
+      }
+      return spillFile;
+    }
+
+    /**
+     * Gets limit
+     *
+     * @return value of limit
+     */
+    long getLimit() {
+      return limit;
+    }
+
+    /**
+     * Gets directory
+     *
+     * @return value of directory
+     */
+    File getDirectory() {
+      return directory;
+    }
+
+    /**
+     * Gets the estimated size of the elements in memory
+     *
+     * @return value of used
+     */
+    long getUsed() {
+      return used;
+    }
+
+    /**
+     * Gets the size of the spill file
+     *
+     * @return The size or 0 if nothing was spilled yet
+     */
+    long getSpilledLength() {
+      return spillFile == null ? 0L : spillFile.getLength();
+    }
+
+    /**
+     * Gets the number of bytes taken by the spilled records
+     *
+     * @return The number of bytes or 0 if nothing was spilled yet
+     */
+    long getRecordLength() {
+      return spillFile == null ? 0L : spillFile.getRecordLength();
+    }
+
+    /**
+     * Stop budgeting for the given list once a graph replaced it: its elements are forgotten and the memory they took
+     * is given back.  Its records stay in the spill file until it's closed.
+     *
+     * @param list The list to remove
+     */
+    void remove( SpillingElementList<?> list ) {
+      if ( lists.remove( list ) ) {
+        list.clear();
+        list.clearElements();
+      }
+    }
+
+    void close() throws IOException {
+      if ( spillFile != null ) {
+        spillFile.close();
+        spillFile = null;
+      }
+      for ( SpillingElementList<?> list : lists ) {
+        list.clearElements();
+      }
+      used = 0;
+    }
+  }
+
+  private static final long NOT_SPILLED = -1L;
+
+  private final Budget budget;
+  private final Codec<T> codec;
+  private final ToLongFunction<T> sizer;
+
+  private Object[] elements;
+  private long[] addresses;
+  private long[] records;
+  private long[] sizes;
+  private int size;
+  private int spillCursor;
+  private int spilledCount;
+
+  SpillingElementList( Budget budget, Codec<T> codec, ToLongFunction<T> sizer ) {
+    this.budget = budget;
+    this.codec = codec;
+    this.sizer = sizer;
+    this.elements = new Object[ 16 ];
+    this.addresses = new long[ 16 ];
+    this.records = new long[ 16 ];
+    this.sizes = new long[ 16 ];
+    budget.lists.add( this );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  @Override public T peek( int index ) {
+    rangeCheck( index );
+    if ( addresses[ index ] != NOT_SPILLED ) {
+      return load( index );
+    }
+    return (T) elements[ index ];
+  }
+
+  @SuppressWarnings( "unchecked" )
+  @Override public T get( int index ) {
+    rangeCheck( index );
+    if ( addresses[ index ] != NOT_SPILLED ) {
+      T element = load( index );
+      elements[ index ] = element;
+      addresses[ index ] = NOT_SPILLED;
+      spilledCount--;
+      keep( index, element );
+      return element;
+    }
+    return (T) elements[ index ];
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public void add( int index, T element ) {
+    if ( index < 0 || index > size ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+    }
+    if ( size == elements.length ) {
+      int capacity = elements.length * 2;
+      elements = Arrays.copyOf( elements, capacity );
+      addresses = Arrays.copyOf( addresses, capacity );
+      records = Arrays.copyOf( records, capacity );
+      sizes = Arrays.copyOf( sizes, capacity );
+    }
+    System.arraycopy( elements, index, elements, index + 1, size - index );
+    System.arraycopy( addresses, index, addresses, index + 1, size - index );
+    System.arraycopy( records, index, records, index + 1, size - index );
+    System.arraycopy( sizes, index, sizes, index + 1, size - index );
+    size++;
+    modCount++;
+    elements[ index ] = element;
+    addresses[ index ] = NOT_SPILLED;
+    records[ index ] = NOT_SPILLED;
+    keep( index, element );
+  }
+
+  @Override public T set( int index, T element ) {
+    T previous = peek( index );
+    release( index );
+    elements[ index ] = element;
+    keep( index, element );
+    return previous;
+  }
+
+  @Override public T remove( int index ) {
+    T removed = peek( index );
+    release( index );
+    System.arraycopy( elements, index + 1, elements, index, size - index - 1 );
+    System.arraycopy( addresses, index + 1, addresses, index, size - index - 1 );
+    System.arraycopy( records, index + 1, records, index, size - index - 1 );
+    System.arraycopy( sizes, index + 1, sizes, index, size - index - 1 );
+    size--;
+    elements[ size ] = null;
+    modCount++;
+    return removed;
+  }
+
+  @Override public void clear() {
+    for ( int i = 0; i < size; i++ ) {
+      release( i );
+    }
+    clearElements();
+    modCount++;
+  }
+
+  private void clearElements() {
+    elements = new Object[ 16 ];
+    addresses = new long[ 16 ];
+    records = new long[ 16 ];
+    sizes = new long[ 16 ];
+    size = 0;
+    spillCursor = 0;
+    spilledCount = 0;
+  }
+
+  /**
+   * Gets the number of elements which are only on disk
+   *
+   * @return value of spilledCount
+   */
+  int getSpilledCount() {
+    return spilledCount;
+  }
+
+  private void rangeCheck( int index ) {
+    if ( index < 0 || index >= size ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+    }
+  }
+
+  private void keep( int index, T element ) {
+    sizes[ index ] = element == null ? 0L : sizer.applyAsLong( element );
+    budget.reserve( sizes[ index ], this, index );
+  }
+
+  /**
+   * Forget the element at the given index, whether it's in memory or on disk.  Its record stays available for the
+   * element which replaces it.
+   */
+  private void release( int index ) {
+    if ( addresses[ index ] != NOT_SPILLED ) {
+      addresses[ index ] = NOT_SPILLED;
+      spilledCount--;
+    } else {
+      budget.used -= sizes[ index ];
+    }
+    sizes[ index ] = 0L;
+    elements[ index ] = null;
+  }
+
+  /**
+   * Spill elements until the budget is met or all elements but the hot one are on disk
+   *
+   * @param hotIndex The index of the element to keep in memory or -1
+   */
+  @SuppressWarnings( "unchecked" )
+  private void spill( int hotIndex ) {
+    int keep = hotIndex >= 0 && addresses[ hotIndex ] == NOT_SPILLED ? 1 : 0;
+    int checked = 0;
+    while ( budget.used > budget.limit && size - spilledCount > keep && checked < size ) {
+      if ( spillCursor >= size ) {
+        spillCursor = 0;
+      }
+      int index = spillCursor++;
+      checked++;
+      if ( index == hotIndex || addresses[ index ] != NOT_SPILLED || elements[ index ] == null ) {
+        continue;
+      }
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 256 );
+        DataOutputStream out = new DataOutputStream( bytes );
+        codec.write( out, (T) elements[ index ] );
+        out.flush();
+        addresses[ index ] = write( index, bytes.toByteArray(), bytes.size() );
+      } catch ( IOException e ) {
+        throw new RuntimeException( "Error spilling graph data to disk", e );
+      }
+      elements[ index ] = null;
+      budget.used -= sizes[ index ];
+      sizes[ index ] = 0L;
+      spilledCount++;
+    }
+  }
+
+  /**
+   * Write the element at the given index to its previous record if it fits, or append a new one
+   */
+  private long write( int index, byte[] bytes, int count ) throws IOException {
+    SpillFile spillFile = budget.getSpillFile();
+    if ( records[ index ] == NOT_SPILLED || !spillFile.rewrite( records[ index ], bytes, count ) ) {
+      records[ index ] = spillFile.write( bytes, count );
+    }
+    return records[ index ];
+  }
+
+  private T load( int index ) {
+    try {
+      byte[] bytes = budget.spillFile.read( addresses[ index ] );
+      return codec.read( new DataInputStream( new ByteArrayInputStream( bytes ) ) );
+    } catch ( IOException e ) {
+      throw new RuntimeException( "Error reading spilled graph data from disk", e );
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package org.neo4j.kettle.core.data;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A graph which writes nodes and relationships to a memory mapped temporary file once their estimated size in memory
+ * exceeds a budget.  This allows graphs which don't fit on the heap.  The indexes on the IDs stay in memory.
+ * <p>
+ * The API is the same as the one of {@link GraphData}.  Getting a node or relationship from {@link #getNodes()} or
+ * {@link #getRelationships()} loads it back into memory, possibly spilling others.  Don't hold on to elements while
+ * adding or getting lots of others: changes made to an element after it was spilled again are lost.
+ * <p>
+ * The spilled records are only removed from disk by {@link #close()}: close the graph once it's no longer used.  The
+ * same goes for copies made with {@link #clone()}.  A {@link #copyOnWrite()} copy doesn't spill and needs no closing.
+ */
+public class SpillingGraphData extends GraphData implements Closeable {
+
+  public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+  private SpillingElementList.Budget budget;
+
+  public SpillingGraphData() {
+    this( DEFAULT_MEMORY_BUDGET, null );
+  }
+
+  /**
+   * @param memoryBudget The estimated number of bytes nodes and relationships can take on the heap
+   * @param directory    The directory for the temporary file or null for the default temporary directory
+   */
+  public SpillingGraphData( long memoryBudget, File directory ) {
+    super();
+    budget = new SpillingElementList.Budget( memoryBudget, directory );
+    setNodes( new ArrayList<>() );
+    setRelationships( new ArrayList<>() );
+  }
+
+  /**
+   * Copy the given graph, spilling it as needed
+   *
+   * @param source       The graph to copy
+   * @param memoryBudget The estimated number of bytes nodes and relationships can take on the heap
+   * @param directory    The directory for the temporary file or null for the default temporary directory
+   */
+  public SpillingGraphData( GraphData source, long memoryBudget, File directory ) {
+    this( memoryBudget, directory );
+    replace( source );
+  }
+
+  @Override public void replace( GraphData source ) {
+    // Copy one element at a time so the copies can be spilled
+    //
+    SpillingElementList<GraphNodeData> nodesCopy = createNodeList();
+    for ( GraphNodeData node : source.getNodesForReading() ) {
+      nodesCopy.add( new GraphNodeData( node ) );
+    }
+    SpillingElementList<GraphRelationshipData> relationshipsCopy = createRelationshipList();
+    for ( GraphRelationshipData relationship : source.getRelationshipsForReading() ) {
+      relationshipsCopy.add( new GraphRelationshipData( relationship ) );
+    }
+    setNodes( nodesCopy );
+    setRelationships( relationshipsCopy );
+    sourceTransformationName = source.getSourceTransformationName();
+    sourceStepName = source.getSourceStepName();
+  }
+
+  /**
+   * The copy spills into its own file: close it once it's no longer used
+   *
+   * @return A copy of this graph
+   */
+  @Override public SpillingGraphData clone() {
+    return new SpillingGraphData( this, budget.getLimit(), budget.getDirectory() );
+  }
+
+  /**
+   * The elements on disk can't be shared without tying the copy to the spill file of this graph, which is deleted on
+   * {@link #close()}.  Since the callers of this method don't close the copies this is a full copy in memory.
+   *
+   * @return A copy of this graph which doesn't spill
+   */
+  @Override public GraphData copyOnWrite() {
+    return new GraphData( this );
+  }
+
+  @Override public SpillingGraphData createEmptyCopy() {
+    SpillingGraphData copy = new SpillingGraphData( budget.getLimit(), budget.getDirectory() );
+    copy.setSourceTransformationName( getSourceTransformationName() );
+    copy.setSourceStepName( getSourceStepName() );
+    return copy;
+  }
+
+  /**
+   * The given nodes are moved into a list which can spill them
+   *
+   * @param nodes The nodes to set
+   */
+  @Override public void setNodes( List<GraphNodeData> nodes ) {
+    // Called by the super constructor before the budget is set up
+    //
+    if ( budget != null && !( nodes instanceof SpillingElementList ) ) {
+      SpillingElementList<GraphNodeData> spillingNodes = createNodeList();
+      spillingNodes.addAll( nodes );
+      nodes = spillingNodes;
+    }
+    List<GraphNodeData> previous = getElements( this.nodes );
+    super.setNodes( nodes );
+    discard( previous, nodes );
+  }
+
+  /**
+   * The given relationships are moved into a list which can spill them
+   *
+   * @param relationships The relationships to set
+   */
+  @Override public void setRelationships( List<GraphRelationshipData> relationships ) {
+    if ( budget != null && !( relationships instanceof SpillingElementList ) ) {
+      SpillingElementList<GraphRelationshipData> spillingRelationships = createRelationshipList();
+      spillingRelationships.addAll( relationships );
+      relationships = spillingRelationships;
+    }
+    List<GraphRelationshipData> previous = getElements( this.relationships );
+    super.setRelationships( relationships );
+    discard( previous, relationships );
+  }
+
+  private static <T> List<T> getElements( List<T> list ) {
+    if ( list instanceof GraphElementList ) {
+      return ( (GraphElementList<T>) list ).getElements();
+    }
+    return list;
+  }
+
+  /**
+   * Give the memory of a replaced list back to the budget.  Done after the replacement was filled since it could have
+   * been copied from the previous list.
+   */
+  private void discard( List<?> previous, List<?> replacement ) {
+    if ( budget != null && previous instanceof SpillingElementList && previous != replacement ) {
+      budget.remove( (SpillingElementList<?>) previous );
+    }
+  }
+
+  private SpillingElementList<GraphNodeData> createNodeList() {
+    return new SpillingElementList<>( budget, new SpillingElementList.Codec<GraphNodeData>() {
+      @Override public void write( DataOutput out, GraphNodeData node ) throws IOException {
+        GraphDataBinaryCodec.writeNode( out, node );
+      }
+
+      @Override public GraphNodeData read( DataInput in ) throws IOException {
+        return GraphDataBinaryCodec.readNode( in );
+      }
+    }, SpillingGraphData::estimateSize );
+  }
+
+  private SpillingElementList<GraphRelationshipData> createRelationshipList() {
+    return new SpillingElementList<>( budget, new SpillingElementList.Codec<GraphRelationshipData>() {
+      @Override public void write( DataOutput out, GraphRelationshipData relationship ) throws IOException {
+        GraphDataBinaryCodec.writeRelationship( out, relationship );
+      }
+
+      @Override public GraphRelationshipData read( DataInput in ) throws IOException {
+        return GraphDataBinaryCodec.readRelationship( in );
+      }
+    }, SpillingGraphData::estimateSize );
+  }
+
+  /**
+   * Remove all nodes and relationships and delete the spill file
+   */
+  @Override public void close() {
+    try {
+      budget.close();
+    } catch ( IOException e ) {
+      throw new RuntimeException( "Error deleting the graph data spill file", e );
+    }
+  }
+
+  /**
+   * Gets the estimated number of bytes the nodes and relationships in memory take
+   *
+   * @return value of the memory used
+   */
+  public long getMemoryUsed() {
+    return budget.getUsed();
+  }
+
+  /**
+   * Gets the size of the spill file
+   *
+   * @return The size in bytes or 0 if nothing was spilled
+   */
+  public long getSpilledBytes() {
+    return budget.getSpilledLength();
+  }
+
+  static long estimateSize( GraphNodeData node ) {
+    long size = 80;
+    if ( node.getLabels() != null ) {
+      size += 16 + 8L * node.getLabels().size();
+    }
+    return size + estimateSize( node.getProperties() );
+  }
+
+  static long estimateSize( GraphRelationshipData relationship ) {
+    return 112 + estimateSize( relationship.getProperties() );
+  }
+
+  private static long estimateSize( List<GraphPropertyData> properties ) {
+    if ( properties == null ) {
+      return 0;
+    }
+    long size = 24 + 8L * properties.size();
+    for ( GraphPropertyData property : properties ) {
+      size += 40 + estimateValueSize( property.getValue() );
+    }
+    return size;
+  }
+
+  private static long estimateValueSize( Object value ) {
+    if ( value == null ) {
+      return 0;
+    }
+    if ( value instanceof String ) {
+      return 48 + 2L * ( (String) value ).length();
+    }
+    if ( value instanceof byte[] ) {
+      return 16 + ( (byte[]) value ).length;
+    }
+    if ( value instanceof Collection ) {
+      long size = 32;
+      for ( Object element : (Collection<?>) value ) {
+        size += 8 + estimateValueSize( element );
+      }
+      return size;
+    }
+    if ( value instanceof Map ) {
+      long size = 48;
+      for ( Map.Entry<?, ?> entry : ( (Map<?, ?>) value ).entrySet() ) {
+        size += 40 + estimateValueSize( entry.getKey() ) + estimateValueSize( entry.getValue() );
+      }
+      return size;
+    }
+    return 24;
+  }
+}
@@ -0,0 +1,49 @@
+package org.neo4j.kettle.core.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes strings as small int codes so a column only needs to keep the codes.  Null is a regular entry.
+ */
+class StringDictionary {
+
+  private final List<String> strings;
+  private final Map<String, Integer> codes;
+
+  StringDictionary() {
+    strings = new ArrayList<>();
+    codes = new HashMap<>();
+  }
+
+  int encode( String string ) {
+    Integer code = codes.get( string );
+    if ( code == null ) {
+      code = strings.size();
+      strings.add( string );
+      codes.put( string, code );
+    }
+    return code;
+  }
+
+  /**
+   * Get the code of the given string without adding it
+   *
+   * @param string The string to look up
+   * @return The code or -1 if the string isn't in the dictionary
+   */
+  int lookup( String string ) {
+    Integer code = codes.get( string );
+    return code == null ? -1 : code;
+  }
+
+  String decode( int code ) {
+    return strings.get( code );
+  }
+
+  int size() {
+    return strings.size();
+  }
+}
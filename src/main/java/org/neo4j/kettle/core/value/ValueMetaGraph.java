@@ -1,7 +1,10 @@
 package org.neo4j.kettle.core.value;
 
 import org.neo4j.kettle.core.data.GraphData;
+import org.neo4j.kettle.core.data.GraphDataBinaryCodec;
+import org.pentaho.di.core.exception.KettleEOFException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleFileException;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.row.ValueDataUtil;
 import org.pentaho.di.core.row.ValueMetaInterface;
@@ -9,6 +12,12 @@ import org.pentaho.di.core.row.value.ValueMetaBase;
 import org.pentaho.di.core.row.value.ValueMetaPlugin;
 import org.w3c.dom.Node;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
 @ValueMetaPlugin(
   id = "303",
   name = "Graph",
@@ -50,8 +59,10 @@ public class ValueMetaGraph extends ValueMetaBase implements ValueMetaInterface
         switch ( storageType ) {
           case STORAGE_TYPE_NORMAL:
             return (GraphData) object;
+          case STORAGE_TYPE_BINARY_STRING:
+            return (GraphData) convertBinaryStringToNativeType( (byte[]) object );
           default:
-            throw new KettleValueException( "Only normal storage type is supported for Graph value : " + toString() );
+            throw new KettleValueException( "Only normal and binary string storage types are supported for Graph value : " + toString() );
         }
       case TYPE_STRING:
         switch ( storageType ) {
@@ -152,7 +163,8 @@ public class ValueMetaGraph extends ValueMetaBase implements ValueMetaInterface
         case TYPE_GRAPH:
           switch ( storageType ) {
             case STORAGE_TYPE_NORMAL:
-              string = object == null ? null : ( (GraphData) object ).toJsonString();
+            case STORAGE_TYPE_BINARY_STRING:
+              string = object == null ? null : getGraphData( object ).toJsonString();
               break;
             default:
               throw new KettleValueException( toString() + " : Unsupported storage type " + getStorageTypeDesc() + " for " + toString() );
@@ -182,8 +194,119 @@ public class ValueMetaGraph extends ValueMetaBase implements ValueMetaInterface
       return null;
     }
 
+    if ( type == TYPE_GRAPH && storageType == STORAGE_TYPE_BINARY_STRING ) {
+      return ( (byte[]) object ).clone();
+    }
+
+    // Nodes and relationships are only copied when the clone or the original hands them out to be changed.
+    // Converting a graph to a string or to binary only reads them.
+    //
     GraphData graphData = getGraphData( object );
-    return new GraphData(graphData);
+    return graphData.copyOnWrite();
+  }
+
+  /**
+   * Binary string storage of a graph is the compact binary format of {@link GraphDataBinaryCodec}
+   *
+   * @param binary The encoded graph
+   * @return The graph
+   * @throws KettleValueException In case the bytes can't be decoded
+   */
+  @Override
+  public Object convertBinaryStringToNativeType( byte[] binary ) throws KettleValueException {
+    if ( type != TYPE_GRAPH ) {
+      return super.convertBinaryStringToNativeType( binary );
+    }
+    if ( binary == null ) {
+      return null;
+    }
+    try {
+      return GraphDataBinaryCodec.decode( binary );
+    } catch ( IOException e ) {
+      throw new KettleValueException( toString() + " : Unable to decode binary Graph value", e );
+    }
+  }
+
+  @Override
+  public byte[] convertNormalStorageTypeToBinaryString( Object object ) throws KettleValueException {
+    if ( type != TYPE_GRAPH ) {
+      return super.convertNormalStorageTypeToBinaryString( object );
+    }
+    if ( object == null ) {
+      return null;
+    }
+    try {
+      return GraphDataBinaryCodec.encode( (GraphData) object );
+    } catch ( IOException e ) {
+      throw new KettleValueException( toString() + " : Unable to encode Graph value", e );
+    }
+  }
+
+  /**
+   * Write the graph in the compact binary format, used for remote steps, sorting to disk and so on
+   *
+   * @param outputStream The stream to write to
+   * @param object       The value to write
+   * @throws KettleFileException In case writing failed
+   */
+  @Override
+  public void writeData( DataOutputStream outputStream, Object object ) throws KettleFileException {
+    if ( type != TYPE_GRAPH ) {
+      super.writeData( outputStream, object );
+      return;
+    }
+    try {
+      // Is the value NULL?
+      //
+      outputStream.writeBoolean( object == null );
+      if ( object == null ) {
+        return;
+      }
+      switch ( storageType ) {
+        case STORAGE_TYPE_NORMAL:
+          GraphDataBinaryCodec.write( outputStream, (GraphData) object );
+          break;
+        case STORAGE_TYPE_BINARY_STRING:
+          byte[] binary = (byte[]) object;
+          outputStream.writeInt( binary.length );
+          outputStream.write( binary );
+          break;
+        default:
+          throw new KettleFileException( toString() + " : Unsupported storage type " + getStorageTypeDesc() + " for " + toString() );
+      }
+    } catch ( IOException e ) {
+      throw new KettleFileException( toString() + " : Unable to write Graph value data to output stream", e );
+    }
+  }
+
+  @Override
+  public Object readData( DataInputStream inputStream ) throws KettleFileException, KettleEOFException, SocketTimeoutException {
+    if ( type != TYPE_GRAPH ) {
+      return super.readData( inputStream );
+    }
+    try {
+      // Is the value NULL?
+      //
+      if ( inputStream.readBoolean() ) {
+        return null;
+      }
+      switch ( storageType ) {
+        case STORAGE_TYPE_NORMAL:
+          return GraphDataBinaryCodec.read( inputStream );
+        case STORAGE_TYPE_BINARY_STRING:
+          byte[] binary = new byte[ inputStream.readInt() ];
+          inputStream.readFully( binary );
+          return binary;
+        default:
+          throw new KettleFileException( toString() + " : Unsupported storage type " + getStorageTypeDesc() + " for " + toString() );
+      }
+    } catch ( EOFException e ) {
+      throw new KettleEOFException( e );
+    } catch ( SocketTimeoutException e ) {
+      throw e;
+    } catch ( IOException e ) {
+      throw new KettleFileException( toString() + " : Unable to read Graph value data from input stream", e );
+    }
   }
 
   @Override
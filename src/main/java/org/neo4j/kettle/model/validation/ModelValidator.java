@@ -7,6 +7,7 @@ import org.neo4j.driver.TransactionWork;
 import org.neo4j.kettle.model.GraphModel;
 import org.neo4j.kettle.model.GraphNode;
 import org.neo4j.kettle.model.GraphProperty;
+import org.neo4j.kettle.shared.NeoConnection;
 import org.pentaho.di.core.logging.LogChannelInterface;
 
 import java.util.ArrayList;
@@ -78,6 +79,20 @@ public class ModelValidator {
     return nrErrors;
   }
 
+  /**
+   * Validate the existence of indexes and constraints in the Neo4j database before any load takes place.
+   * The schema is read with a read session so on a routed cluster it doesn't bother the leader.
+   *
+   * @param log        The log channel to write to when there are validation errors. Validation successes are logged in Detailed
+   * @param connection The Neo4j connection to validate against
+   * @return the number of validation errors
+   */
+  public int validateBeforeLoad( LogChannelInterface log, NeoConnection connection ) {
+    try ( Session session = connection.getReadSession( log ) ) {
+      return validateBeforeLoad( log, session );
+    }
+  }
+
   /**
    * See if all the used node and relationship properties are used
    *
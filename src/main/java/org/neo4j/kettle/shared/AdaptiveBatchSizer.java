@@ -0,0 +1,213 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.driver.exceptions.Neo4jException;
+import org.neo4j.driver.exceptions.TransientException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Learns a good batch size for a statement on a connection at runtime.
+ * <p>
+ * The batch size grows while full batches commit faster than the target latency and shrinks when commits are a lot
+ * slower than that.  It is halved when a batch fails with a transient error, a deadlock or when the database runs out
+ * of transaction memory.  The target latency is kept well under the maximum transaction retry time of the connection
+ * so the retries of the driver have time to do their job.
+ * <p>
+ * The learned sizes are kept for the lifetime of the JVM, per connection and statement, so the next transformation
+ * writing to the same labels starts off where the previous one stopped.  Only the {@link #MAX_SIZERS} most recently
+ * used statements are remembered.
+ */
+public class AdaptiveBatchSizer {
+
+  public static final int DEFAULT_INITIAL_BATCH_SIZE = 1000;
+  public static final int DEFAULT_MIN_BATCH_SIZE = 10;
+  public static final int DEFAULT_MAX_BATCH_SIZE = 100000;
+  public static final long DEFAULT_TARGET_LATENCY_MS = 1000L;
+
+  public static final int MAX_SIZERS = 1000;
+
+  private static final Map<String, AdaptiveBatchSizer> sizers = Collections.synchronizedMap(
+    new LinkedHashMap<String, AdaptiveBatchSizer>( 16, 0.75f, true ) {
+      @Override protected boolean removeEldestEntry( Map.Entry<String, AdaptiveBatchSizer> eldest ) {
+        return size() > MAX_SIZERS;
+      }
+    } );
+
+  private final String key;
+  private final AtomicInteger batchSize;
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final long targetLatencyMs;
+
+  public AdaptiveBatchSizer( String key, int initialBatchSize, int minBatchSize, int maxBatchSize, long targetLatencyMs ) {
+    this.key = key;
+    this.minBatchSize = Math.max( 1, minBatchSize );
+    this.maxBatchSize = Math.max( this.minBatchSize, maxBatchSize );
+    this.batchSize = new AtomicInteger( Math.min( this.maxBatchSize, Math.max( this.minBatchSize, initialBatchSize ) ) );
+    this.targetLatencyMs = targetLatencyMs;
+  }
+
+  /**
+   * Get the batch sizer for the given statement on the given connection, create it if needed.
+   * This resolves the connection so keep the sizer around instead of calling this for every row.
+   *
+   * @param connection       The connection to write to
+   * @param statement        The statement or other key (label, target) to learn the batch size for
+   * @param initialBatchSize The batch size to start with if nothing was learned yet
+   * @return The shared batch sizer
+   */
+  public static AdaptiveBatchSizer getSizer( NeoConnection connection, String statement, int initialBatchSize ) {
+    ResolvedNeoConnection resolved = connection.resolve();
+    String key = resolved.getFingerprint() + "/" + statement;
+    return sizers.computeIfAbsent( key, k -> new AdaptiveBatchSizer( k, initialBatchSize, DEFAULT_MIN_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE,
+      calculateTargetLatency( resolved.getMaxTransactionRetryTime() ) ) );
+  }
+
+  /**
+   * Stay well under the maximum transaction retry time: a transaction which takes longer than that can't be retried.
+   *
+   * @param maxTransactionRetryTime The maximum transaction retry time in ms or -1 if the driver default (30s) is used
+   * @return The target commit latency in ms
+   */
+  static long calculateTargetLatency( long maxTransactionRetryTime ) {
+    if ( maxTransactionRetryTime <= 0 ) {
+      return DEFAULT_TARGET_LATENCY_MS;
+    }
+    return Math.max( 1L, Math.min( DEFAULT_TARGET_LATENCY_MS, maxTransactionRetryTime / 10 ) );
+  }
+
+  /**
+   * Forget all learned batch sizes
+   */
+  public static void clear() {
+    sizers.clear();
+  }
+
+  /**
+   * Gets the learned batch sizes per key
+   *
+   * @return A copy of the learned batch sizes
+   */
+  public static Map<String, Integer> getLearnedBatchSizes() {
+    Map<String, Integer> sizes = new HashMap<>();
+    synchronized ( sizers ) {
+      sizers.forEach( ( key, sizer ) -> sizes.put( key, sizer.getBatchSize() ) );
+    }
+    return sizes;
+  }
+
+  /**
+   * Record a successful commit
+   *
+   * @param rows      The number of rows in the batch
+   * @param elapsedMs The time it took to write and commit the batch
+   */
+  public void recordSuccess( int rows, long elapsedMs ) {
+    batchSize.updateAndGet( size -> {
+      if ( elapsedMs > 2 * targetLatencyMs ) {
+        // Scale down to what would have made the target latency
+        //
+        return Math.max( minBatchSize, (int) Math.min( size, (long) rows * targetLatencyMs / Math.max( 1L, elapsedMs ) ) );
+      }
+      if ( rows >= size && elapsedMs < targetLatencyMs ) {
+        // Only a full batch tells us something about a larger one
+        //
+        return Math.min( maxBatchSize, Math.max( size + 1, size + size / 2 ) );
+      }
+      return size;
+    } );
+  }
+
+  /**
+   * Record a failed commit.  The batch size is halved if the error is caused by the size of the batch or by contention.
+   *
+   * @param rows  The number of rows in the failed batch
+   * @param error The error
+   * @return true if the batch size was reduced and writing the rows in smaller batches makes sense
+   */
+  public boolean recordFailure( int rows, Throwable error ) {
+    if ( !isShrinkable( error ) || rows <= minBatchSize ) {
+      return false;
+    }
+    batchSize.updateAndGet( size -> Math.max( minBatchSize, Math.min( size, rows ) / 2 ) );
+    return true;
+  }
+
+  /**
+   * See if the given error is a transient error, a deadlock or a memory error, anywhere in the chain of causes.
+   *
+   * @param error The error to examine
+   * @return true if a smaller batch stands a chance of succeeding
+   */
+  public static boolean isShrinkable( Throwable error ) {
+    Throwable cause = error;
+    while ( cause != null ) {
+      if ( cause instanceof TransientException ) {
+        return true;
+      }
+      if ( cause instanceof Neo4jException ) {
+        String code = ( (Neo4jException) cause ).code();
+        if ( code != null && ( code.contains( "Deadlock" ) || code.contains( "MemoryPool" ) || code.contains( "OutOfMemory" ) ) ) {
+          return true;
+        }
+      }
+      if ( cause instanceof OutOfMemoryError ) {
+        return true;
+      }
+      if ( cause.getCause() == cause ) {
+        break;
+      }
+      cause = cause.getCause();
+    }
+    return false;
+  }
+
+  /**
+   * Gets key
+   *
+   * @return value of key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Gets the current batch size
+   *
+   * @return value of batchSize
+   */
+  public int getBatchSize() {
+    return batchSize.get();
+  }
+
+  /**
+   * Gets minBatchSize
+   *
+   * @return value of minBatchSize
+   */
+  public int getMinBatchSize() {
+    return minBatchSize;
+  }
+
+  /**
+   * Gets maxBatchSize
+   *
+   * @return value of maxBatchSize
+   */
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Gets targetLatencyMs
+   *
+   * @return value of targetLatencyMs
+   */
+  public long getTargetLatencyMs() {
+    return targetLatencyMs;
+  }
+}
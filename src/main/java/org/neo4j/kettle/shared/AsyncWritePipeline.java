@@ -0,0 +1,225 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.driver.async.ResultCursor;
+import org.neo4j.driver.summary.ResultSummary;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes statements asynchronously, each in its own write transaction, keeping at most a given number of transactions
+ * in flight.  When that limit is reached the caller blocks until a transaction finishes.  This way the processing of
+ * the next rows overlaps with the commit round trips to the server.
+ * <p>
+ * Failures are reported by a later call to {@link #submit(String, Map)}, {@link #flush()} or {@link #close()}, once all
+ * the statements submitted before the failed one finished: failures are reported in submission order.
+ * Statements are not ordered with respect to each other on the server so only submit statements which don't depend
+ * on each other being committed first.
+ * <p>
+ * This class is not thread-safe, use a pipeline per step copy.
+ */
+public class AsyncWritePipeline implements AutoCloseable {
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+  private final LogChannelInterface log;
+  private final NeoConnection connection;
+  private final int maxInFlight;
+  private final Semaphore permits;
+  private final Deque<Pending> pending;
+
+  private DriverLease lease;
+
+  private long transactionsCommitted;
+
+  public AsyncWritePipeline( LogChannelInterface log, NeoConnection connection ) {
+    this( log, connection, DEFAULT_MAX_IN_FLIGHT );
+  }
+
+  public AsyncWritePipeline( LogChannelInterface log, NeoConnection connection, int maxInFlight ) {
+    if ( maxInFlight < 1 ) {
+      throw new IllegalArgumentException( "The maximum number of transactions in flight needs to be at least 1" );
+    }
+    this.log = log;
+    this.connection = connection;
+    this.maxInFlight = maxInFlight;
+    this.permits = new Semaphore( maxInFlight );
+    this.pending = new ArrayDeque<>();
+  }
+
+  /**
+   * Submit a statement to execute in its own write transaction.
+   * Blocks when the maximum number of transactions is already in flight.
+   *
+   * @param cypher     The statement
+   * @param parameters The parameters of the statement
+   * @throws KettleException In case an earlier submitted statement failed or we got interrupted
+   */
+  public void submit( String cypher, Map<String, Object> parameters ) throws KettleException {
+    checkCompleted();
+
+    try {
+      permits.acquire();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( "Interrupted while waiting for a Neo4j transaction to finish", e );
+    }
+
+    CompletableFuture<ResultSummary> future;
+    try {
+      if ( lease == null ) {
+        lease = DriverSingleton.leaseDriver( log, connection );
+      }
+      AsyncSession session = lease.getDriver().asyncSession( connection.getSessionConfig() );
+      future = session
+        .<ResultSummary>writeTransactionAsync( tx -> tx.runAsync( cypher, parameters ).thenCompose( ResultCursor::consumeAsync ) )
+        .handle( ( summary, error ) -> {
+          session.closeAsync();
+          if ( error != null ) {
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException( error );
+          }
+          return summary;
+        } )
+        .toCompletableFuture();
+    } catch ( RuntimeException e ) {
+      permits.release();
+      throw new KettleException( "Error starting asynchronous Neo4j transaction", e );
+    }
+    future.whenComplete( ( summary, error ) -> permits.release() );
+    pending.addLast( new Pending( cypher, future ) );
+  }
+
+  /**
+   * Remove the finished transactions from the head of the queue, throw the first failure.  A failed transaction behind
+   * one which is still running stays in the queue until all transactions before it finished, so failures are reported
+   * in submission order.
+   *
+   * @throws KettleException The first failure in submission order, once the transactions before it finished
+   */
+  private void checkCompleted() throws KettleException {
+    while ( !pending.isEmpty() && pending.peekFirst().future.isDone() ) {
+      getResult( pending.removeFirst() );
+    }
+
+    // Also drop the committed transactions behind a slow one so the queue doesn't grow
+    //
+    Iterator<Pending> iterator = pending.iterator();
+    while ( iterator.hasNext() ) {
+      Pending p = iterator.next();
+      if ( p.future.isDone() && !p.future.isCompletedExceptionally() ) {
+        iterator.remove();
+        transactionsCommitted++;
+      }
+    }
+  }
+
+  /**
+   * Wait for a transaction to finish and remove it from the queue.  If we get interrupted it stays in the queue.
+   */
+  private void waitFor( Pending p ) throws KettleException {
+    try {
+      p.future.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( "Interrupted while waiting for a Neo4j transaction to finish", e );
+    } catch ( ExecutionException | CancellationException e ) {
+      // Reported below
+    }
+    pending.remove( p );
+    getResult( p );
+  }
+
+  private void getResult( Pending p ) throws KettleException {
+    try {
+      p.future.join();
+      transactionsCommitted++;
+    } catch ( CompletionException | CancellationException e ) {
+      Throwable cause = e.getCause() != null ? e.getCause() : e;
+      throw new KettleException( "Error executing asynchronous Neo4j transaction with statement: " + p.cypher, cause );
+    }
+  }
+
+  /**
+   * Wait for all transactions in flight to finish
+   *
+   * @throws KettleException The first failure in submission order
+   */
+  public void flush() throws KettleException {
+    while ( !pending.isEmpty() ) {
+      waitFor( pending.peekFirst() );
+    }
+  }
+
+  /**
+   * Wait for all transactions to finish and release the driver.
+   *
+   * @throws KettleException The first failure in submission order
+   */
+  @Override public void close() throws KettleException {
+    try {
+      flush();
+    } finally {
+      // After a failure, let the other transactions finish before we let go of the driver
+      //
+      for ( Pending p : pending ) {
+        try {
+          p.future.join();
+        } catch ( Exception e ) {
+          log.logError( "Error executing asynchronous Neo4j transaction with statement: " + p.cypher, e );
+        }
+      }
+      pending.clear();
+      if ( lease != null ) {
+        lease.close();
+        lease = null;
+      }
+    }
+  }
+
+  private static class Pending {
+    private final String cypher;
+    private final CompletableFuture<ResultSummary> future;
+
+    private Pending( String cypher, CompletableFuture<ResultSummary> future ) {
+      this.cypher = cypher;
+      this.future = future;
+    }
+  }
+
+  /**
+   * Gets maxInFlight
+   *
+   * @return value of maxInFlight
+   */
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Gets the number of transactions which are submitted but not yet known to be finished
+   *
+   * @return value of the number of transactions in flight
+   */
+  public int getInFlight() {
+    return pending.size();
+  }
+
+  /**
+   * Gets transactionsCommitted
+   *
+   * @return value of transactionsCommitted
+   */
+  public long getTransactionsCommitted() {
+    return transactionsCommitted;
+  }
+}
@@ -0,0 +1,60 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.driver.Driver;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A lease on a shared driver from the {@link DriverSingleton} registry.
+ * Don't close the driver itself, close the lease instead.
+ */
+public class DriverLease implements AutoCloseable {
+
+  private final String key;
+
+  private final Driver driver;
+
+  private final AtomicBoolean released;
+
+  DriverLease( String key, Driver driver ) {
+    this.key = key;
+    this.driver = driver;
+    this.released = new AtomicBoolean( false );
+  }
+
+  /**
+   * Release the lease on the driver.  Calling this more than once has no effect.
+   */
+  @Override public void close() {
+    if ( released.compareAndSet( false, true ) ) {
+      DriverSingleton.releaseDriver( this );
+    }
+  }
+
+  /**
+   * Gets key
+   *
+   * @return value of key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Gets driver
+   *
+   * @return value of driver
+   */
+  public Driver getDriver() {
+    return driver;
+  }
+
+  /**
+   * Gets released
+   *
+   * @return true if the lease was released
+   */
+  public boolean isReleased() {
+    return released.get();
+  }
+}
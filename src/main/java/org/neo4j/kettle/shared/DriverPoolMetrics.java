@@ -0,0 +1,199 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.driver.ConnectionPoolMetrics;
+
+/**
+ * A snapshot of the connection pool metrics of a shared driver, summed over all its pools.
+ * A routing driver has a pool per cluster member.
+ */
+public class DriverPoolMetrics {
+
+  private final String driverKey;
+
+  private int pools;
+  private int inUse;
+  private int idle;
+  private int creating;
+  private int acquiring;
+  private long created;
+  private long failedToCreate;
+  private long closed;
+  private long acquired;
+  private long timedOutToAcquire;
+  private long totalAcquisitionTime;
+  private long totalConnectionTime;
+
+  public DriverPoolMetrics( String driverKey ) {
+    this.driverKey = driverKey;
+  }
+
+  /**
+   * Add the metrics of a connection pool to this snapshot
+   *
+   * @param poolMetrics The metrics of one pool of the driver
+   */
+  public void add( ConnectionPoolMetrics poolMetrics ) {
+    pools++;
+    inUse += poolMetrics.inUse();
+    idle += poolMetrics.idle();
+    creating += poolMetrics.creating();
+    acquiring += poolMetrics.acquiring();
+    created += poolMetrics.created();
+    failedToCreate += poolMetrics.failedToCreate();
+    closed += poolMetrics.closed();
+    acquired += poolMetrics.acquired();
+    timedOutToAcquire += poolMetrics.timedOutToAcquire();
+    totalAcquisitionTime += poolMetrics.totalAcquisitionTime();
+    totalConnectionTime += poolMetrics.totalConnectionTime();
+  }
+
+  /**
+   * Gets the average time it took to acquire a connection from the pool
+   *
+   * @return The average acquisition time in ms or 0 if nothing was acquired yet
+   */
+  public double getAverageAcquisitionTimeMs() {
+    return acquired == 0 ? 0.0 : (double) totalAcquisitionTime / acquired;
+  }
+
+  /**
+   * Gets the average time it took to create a new connection
+   *
+   * @return The average connection creation time in ms or 0 if nothing was created yet
+   */
+  public double getAverageConnectionTimeMs() {
+    return created == 0 ? 0.0 : (double) totalConnectionTime / created;
+  }
+
+  @Override public String toString() {
+    return "pools=" + pools
+      + ", inUse=" + inUse
+      + ", idle=" + idle
+      + ", creating=" + creating
+      + ", acquiring=" + acquiring
+      + ", created=" + created
+      + ", failedToCreate=" + failedToCreate
+      + ", closed=" + closed
+      + ", acquired=" + acquired
+      + ", timedOutToAcquire=" + timedOutToAcquire
+      + ", avgAcquisitionTimeMs=" + String.format( "%.1f", getAverageAcquisitionTimeMs() )
+      + ", avgConnectionTimeMs=" + String.format( "%.1f", getAverageConnectionTimeMs() );
+  }
+
+  /**
+   * Gets driverKey
+   *
+   * @return value of driverKey
+   */
+  public String getDriverKey() {
+    return driverKey;
+  }
+
+  /**
+   * Gets pools
+   *
+   * @return value of pools
+   */
+  public int getPools() {
+    return pools;
+  }
+
+  /**
+   * Gets inUse
+   *
+   * @return value of inUse
+   */
+  public int getInUse() {
+    return inUse;
+  }
+
+  /**
+   * Gets idle
+   *
+   * @return value of idle
+   */
+  public int getIdle() {
+    return idle;
+  }
+
+  /**
+   * Gets creating
+   *
+   * @return value of creating
+   */
+  public int getCreating() {
+    return creating;
+  }
+
+  /**
+   * Gets acquiring
+   *
+   * @return value of acquiring
+   */
+  public int getAcquiring() {
+    return acquiring;
+  }
+
+  /**
+   * Gets created
+   *
+   * @return value of created
+   */
+  public long getCreated() {
+    return created;
+  }
+
+  /**
+   * Gets failedToCreate
+   *
+   * @return value of failedToCreate
+   */
+  public long getFailedToCreate() {
+    return failedToCreate;
+  }
+
+  /**
+   * Gets closed
+   *
+   * @return value of closed
+   */
+  public long getClosed() {
+    return closed;
+  }
+
+  /**
+   * Gets acquired
+   *
+   * @return value of acquired
+   */
+  public long getAcquired() {
+    return acquired;
+  }
+
+  /**
+   * Gets timedOutToAcquire
+   *
+   * @return value of timedOutToAcquire
+   */
+  public long getTimedOutToAcquire() {
+    return timedOutToAcquire;
+  }
+
+  /**
+   * Gets totalAcquisitionTime
+   *
+   * @return value of totalAcquisitionTime in ms
+   */
+  public long getTotalAcquisitionTime() {
+    return totalAcquisitionTime;
+  }
+
+  /**
+   * Gets totalConnectionTime
+   *
+   * @return value of totalConnectionTime in ms
+   */
+  public long getTotalConnectionTime() {
+    return totalConnectionTime;
+  }
+}
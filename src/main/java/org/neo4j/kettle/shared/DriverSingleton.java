@@ -1,73 +1,535 @@
 package org.neo4j.kettle.shared;
 
+import org.neo4j.driver.ConnectionPoolMetrics;
 import org.neo4j.driver.Driver;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.Transaction;
+import org.neo4j.kettle.core.Neo4jDefaults;
+import org.neo4j.kettle.core.metastore.MetaStoreFactory;
+import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * A process wide registry of Neo4j drivers, one per driver key.
+ * Parallel step copies asking for the same key share a single driver (and connection pool).
+ * Users can lease a driver and release it when done: when the last lease is released the driver is closed after it
+ * has been idle for the configured idle timeout.
+ */
 public class DriverSingleton {
 
-  private static DriverSingleton singleton;
+  /**
+   * By default we keep unused drivers around for 5 minutes
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000L;
+
+  private static final int WARM_UP_THREADS = 8;
+
+  private static final DriverSingleton singleton = new DriverSingleton();
+
+  private final ConcurrentHashMap<String, DriverEntry> driverMap;
+
+  private final ConcurrentHashMap<String, CompletableFuture<DriverEntry>> creations;
+
+  private volatile long idleTimeoutMs;
+
+  private ScheduledExecutorService scheduler;
+
+  private ScheduledFuture<?> eviction;
 
-  private Map<String, org.neo4j.driver.Driver> driverMap;
+  private ScheduledFuture<?> metricsLogging;
 
   private DriverSingleton() {
-    driverMap = new HashMap<>(  );
+    driverMap = new ConcurrentHashMap<>();
+    creations = new ConcurrentHashMap<>();
+    idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
   }
 
   public static DriverSingleton getInstance() {
-    if (singleton==null) {
-      singleton = new DriverSingleton();
-    }
     return singleton;
   }
 
-  public static Driver getDriver( LogChannelInterface log, NeoConnection connection) {
+  /**
+   * Get a shared driver for the given connection.  The driver is never closed because of inactivity, only by
+   * {@link #closeAll()}.  If you can, use {@link #leaseDriver(LogChannelInterface, NeoConnection)} instead.
+   *
+   * @param log        The log channel to use when creating the driver
+   * @param connection The connection to get a driver for
+   * @return The shared driver
+   */
+  public static Driver getDriver( LogChannelInterface log, NeoConnection connection ) {
     DriverSingleton ds = getInstance();
+    DriverEntry entry = ds.acquire( getDriverKey( connection ), log, connection, true );
+    return entry.driver;
+  }
 
+  /**
+   * Lease a shared driver for the given connection.  Close the lease when you're done with the driver.
+   *
+   * @param log        The log channel to use when creating the driver
+   * @param connection The connection to get a driver for
+   * @return The lease on the shared driver
+   */
+  public static DriverLease leaseDriver( LogChannelInterface log, NeoConnection connection ) {
+    DriverSingleton ds = getInstance();
     String key = getDriverKey( connection );
+    DriverEntry entry = ds.acquire( key, log, connection, false );
+    ds.startEviction();
 
-    Driver driver = ds.driverMap.get(key);
-    if (driver==null) {
-      driver = connection.getDriver( log );
-      ds.driverMap.put(key, driver);
+    return new DriverLease( key, entry.driver );
+  }
+
+  /**
+   * Pin or lease the driver with the given key, creating it if needed.  The driver is created outside of the map so
+   * that connecting doesn't block lookups of other drivers.  Only one thread creates the driver for a key: it registers
+   * a future in {@link #creations} and the other threads asking for the same key wait for it.  If creating the driver
+   * fails, the future is removed again and all waiting threads get the error.
+   */
+  private DriverEntry acquire( String key, LogChannelInterface log, NeoConnection connection, boolean pin ) {
+    while ( true ) {
+      DriverEntry entry = driverMap.computeIfPresent( key, ( k, existing ) -> {
+        existing.use( pin );
+        return existing;
+      } );
+      if ( entry != null ) {
+        return entry;
+      }
+
+      CompletableFuture<DriverEntry> creation = new CompletableFuture<>();
+      CompletableFuture<DriverEntry> pending = creations.putIfAbsent( key, creation );
+      if ( pending != null ) {
+        // Somebody else is creating the driver, wait for it and try again
+        //
+        awaitCreation( pending );
+        continue;
+      }
+
+      try {
+        // The driver could have been registered just before we claimed its creation
+        //
+        entry = driverMap.computeIfPresent( key, ( k, existing ) -> {
+          existing.use( pin );
+          return existing;
+        } );
+        if ( entry == null ) {
+          entry = new DriverEntry( connection.getDriver( log ), connection.isDriverMetrics() );
+          entry.use( pin );
+          driverMap.put( key, entry );
+        }
+        creation.complete( entry );
+        return entry;
+      } catch ( RuntimeException | Error e ) {
+        creation.completeExceptionally( e );
+        throw e;
+      } finally {
+        creations.remove( key, creation );
+      }
     }
+  }
+
+  private static void awaitCreation( CompletableFuture<DriverEntry> creation ) {
+    try {
+      creation.join();
+    } catch ( CompletionException e ) {
+      if ( e.getCause() instanceof RuntimeException ) {
+        throw (RuntimeException) e.getCause();
+      }
+      if ( e.getCause() instanceof Error ) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Release a lease on a shared driver.  Use {@link DriverLease#close()}.
+   *
+   * @param lease The lease to release
+   */
+  static void releaseDriver( DriverLease lease ) {
+    DriverSingleton ds = getInstance();
+    List<Driver> toClose = new ArrayList<>();
+    ds.driverMap.computeIfPresent( lease.getKey(), ( k, entry ) -> {
+      if ( entry.driver != lease.getDriver() ) {
+        // The driver was closed and replaced in the mean time
+        return entry;
+      }
+      entry.leases = Math.max( 0, entry.leases - 1 );
+      entry.lastUsed = System.currentTimeMillis();
+      if ( entry.isEvictable( ds.idleTimeoutMs, entry.lastUsed ) ) {
+        toClose.add( entry.driver );
+        return null;
+      }
+      return entry;
+    } );
+    closeDrivers( toClose );
+  }
 
-    return driver;
+  /**
+   * Close all drivers which haven't been leased or used for longer than the idle timeout.
+   *
+   * @return the number of drivers closed
+   */
+  public static int evictIdleDrivers() {
+    DriverSingleton ds = getInstance();
+    long now = System.currentTimeMillis();
+    List<Driver> toClose = new ArrayList<>();
+    for ( String key : ds.driverMap.keySet() ) {
+      ds.driverMap.computeIfPresent( key, ( k, entry ) -> {
+        if ( entry.isEvictable( ds.idleTimeoutMs, now ) ) {
+          toClose.add( entry.driver );
+          return null;
+        }
+        return entry;
+      } );
+    }
+    closeDrivers( toClose );
+    return toClose.size();
   }
 
+  /**
+   * Close all drivers, leased or not.
+   */
   public static void closeAll() {
     DriverSingleton ds = getInstance();
 
-    List<String> keys = new ArrayList<>( ds.getDriverMap().keySet() );
-    for (String key : keys) {
-      synchronized ( ds.getDriverMap() ) {
-        Driver driver = ds.driverMap.get( key );
+    List<Driver> toClose = new ArrayList<>();
+    for ( String key : ds.driverMap.keySet() ) {
+      DriverEntry entry = ds.driverMap.remove( key );
+      if ( entry != null ) {
+        toClose.add( entry.driver );
+      }
+    }
+    closeDrivers( toClose );
+  }
+
+  /**
+   * Verify connectivity and pre-open pooled connections for the given connections, in parallel.
+   * See {@link #warmUp(LogChannelInterface, List, int)}.
+   *
+   * @param connections          The connections to warm up
+   * @param connectionsPerDriver The number of pooled connections to open per driver
+   * @return The number of drivers which were warmed up successfully
+   */
+  public static int warmUp( List<NeoConnection> connections, int connectionsPerDriver ) {
+    return warmUp( LogChannel.GENERAL, connections, connectionsPerDriver );
+  }
+
+  /**
+   * Verify connectivity and pre-open pooled connections for all the Neo4j connections in the given metastore, in parallel.
+   * See {@link #warmUp(LogChannelInterface, List, int)}.
+   *
+   * @param log                  The log channel to report to
+   * @param metaStore            The metastore to load the Neo4j connections from
+   * @param space                The variables to resolve the connection settings with
+   * @param connectionsPerDriver The number of pooled connections to open per driver
+   * @return The number of drivers which were warmed up successfully
+   * @throws MetaStoreException In case the connections couldn't be loaded
+   */
+  public static int warmUp( LogChannelInterface log, IMetaStore metaStore, VariableSpace space, int connectionsPerDriver ) throws MetaStoreException {
+    MetaStoreFactory<NeoConnection> factory = new MetaStoreFactory<>( NeoConnection.class, metaStore, Neo4jDefaults.NAMESPACE );
+    List<NeoConnection> connections = factory.getElements();
+    for ( NeoConnection connection : connections ) {
+      connection.initializeVariablesFrom( space );
+    }
+    return warmUp( log, connections, connectionsPerDriver );
+  }
+
+  /**
+   * Verify connectivity and pre-open pooled connections for the given connections, in parallel.
+   * Connections sharing a driver are only warmed up once.  Failures are logged, not thrown: warming up is an optimisation.
+   * The drivers stay in the registry for the idle timeout.
+   * <p>
+   * No more connections are opened than the pool of a driver can hold.  The connections are opened by write sessions
+   * so on a routed cluster only the pool of the leader is warmed up, read sessions still connect to the followers and
+   * read replicas on demand.
+   *
+   * @param log                  The log channel to report to
+   * @param connections          The connections to warm up
+   * @param connectionsPerDriver The number of pooled connections to open per driver
+   * @return The number of drivers which were warmed up successfully
+   */
+  public static int warmUp( LogChannelInterface log, List<NeoConnection> connections, int connectionsPerDriver ) {
+    Map<String, NeoConnection> driverConnections = new LinkedHashMap<>();
+    for ( NeoConnection connection : connections ) {
+      try {
+        driverConnections.putIfAbsent( getDriverKey( connection ), connection );
+      } catch ( Exception e ) {
+        log.logError( "Unable to determine driver for Neo4j connection '" + connection.getName() + "'", e );
+      }
+    }
+    if ( driverConnections.isEmpty() ) {
+      return 0;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool( Math.min( driverConnections.size(), WARM_UP_THREADS ), runnable -> {
+      Thread thread = new Thread( runnable, "Neo4j driver warm-up" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    try {
+      List<Callable<Boolean>> tasks = new ArrayList<>();
+      for ( NeoConnection connection : driverConnections.values() ) {
+        tasks.add( () -> warmUp( log, connection, connectionsPerDriver ) );
+      }
+      int warmed = 0;
+      for ( Future<Boolean> future : executor.invokeAll( tasks ) ) {
+        if ( future.get() ) {
+          warmed++;
+        }
+      }
+      return warmed;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return 0;
+    } catch ( ExecutionException e ) {
+      log.logError( "Error warming up Neo4j drivers", e );
+      return 0;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static boolean warmUp( LogChannelInterface log, NeoConnection connection, int connectionsPerDriver ) {
+    long startTime = System.currentTimeMillis();
+    try ( DriverLease lease = leaseDriver( log, connection ) ) {
+      Driver driver = lease.getDriver();
+      driver.verifyConnectivity();
+
+      // Asking for more connections than the pool holds would block until the acquisition timeout
+      //
+      int connectionCount = Math.min( connectionsPerDriver, connection.resolve().getDriverConfig().maxConnectionPoolSize() );
+
+      // Keep a transaction open on every session to force the pool to open a new connection for each
+      //
+      List<Session> sessions = new ArrayList<>();
+      List<Transaction> transactions = new ArrayList<>();
+      try {
+        for ( int i = 0; i < connectionCount; i++ ) {
+          Session session = driver.session( connection.getSessionConfig() );
+          sessions.add( session );
+          Transaction transaction = session.beginTransaction();
+          transactions.add( transaction );
+          transaction.run( "RETURN 1" ).consume();
+        }
+      } finally {
+        for ( Transaction transaction : transactions ) {
+          transaction.close();
+        }
+        for ( Session session : sessions ) {
+          session.close();
+        }
+      }
+      log.logDetailed( "Neo4j connection '" + connection.getName() + "' warmed up with " + connectionCount + " pooled connections in "
+        + ( System.currentTimeMillis() - startTime ) + "ms" );
+      return true;
+    } catch ( Exception e ) {
+      log.logError( "Unable to warm up Neo4j connection '" + connection.getName() + "'", e );
+      return false;
+    }
+  }
+
+  private static void closeDrivers( List<Driver> drivers ) {
+    for ( Driver driver : drivers ) {
+      try {
         driver.close();
-        ds.driverMap.remove( key );
+      } catch ( Exception e ) {
+        LogChannel.GENERAL.logError( "Error closing Neo4j driver", e );
+      }
+    }
+  }
+
+  private synchronized ScheduledExecutorService getScheduler() {
+    if ( scheduler == null ) {
+      scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "Neo4j driver registry" );
+        thread.setDaemon( true );
+        return thread;
+      } );
+    }
+    return scheduler;
+  }
+
+  private synchronized void startEviction() {
+    if ( eviction != null ) {
+      return;
+    }
+    long period = Math.max( 1000L, idleTimeoutMs / 2 );
+    eviction = getScheduler().scheduleWithFixedDelay( DriverSingleton::evictIdleDrivers, period, period, TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Get a snapshot of the connection pool metrics of all shared drivers which have driver metrics enabled.
+   *
+   * @return The metrics per driver key
+   */
+  public static Map<String, DriverPoolMetrics> getPoolMetrics() {
+    DriverSingleton ds = getInstance();
+    Map<String, DriverPoolMetrics> metricsMap = new LinkedHashMap<>();
+    for ( Map.Entry<String, DriverEntry> entry : ds.driverMap.entrySet() ) {
+      if ( !entry.getValue().metricsEnabled ) {
+        continue;
+      }
+      DriverPoolMetrics metrics = new DriverPoolMetrics( entry.getKey() );
+      try {
+        for ( ConnectionPoolMetrics poolMetrics : entry.getValue().driver.metrics().connectionPoolMetrics() ) {
+          metrics.add( poolMetrics );
+        }
+      } catch ( Exception e ) {
+        // Driver closed in the mean time
+        continue;
+      }
+      metricsMap.put( entry.getKey(), metrics );
+    }
+    return metricsMap;
+  }
+
+  /**
+   * Log the connection pool metrics of all shared drivers with metrics enabled periodically.
+   * This replaces earlier periodic metrics logging.
+   *
+   * @param log        The log channel to write to
+   * @param intervalMs The logging interval in ms
+   */
+  public static void startMetricsLogging( LogChannelInterface log, long intervalMs ) {
+    DriverSingleton ds = getInstance();
+    synchronized ( ds ) {
+      stopMetricsLogging();
+      ds.metricsLogging = ds.getScheduler().scheduleAtFixedRate( () -> logPoolMetrics( log ), intervalMs, intervalMs, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * Stop the periodic logging of connection pool metrics
+   */
+  public static void stopMetricsLogging() {
+    DriverSingleton ds = getInstance();
+    synchronized ( ds ) {
+      if ( ds.metricsLogging != null ) {
+        ds.metricsLogging.cancel( false );
+        ds.metricsLogging = null;
       }
     }
   }
 
-  private static String getDriverKey(NeoConnection connection) {
-    String hostname = connection.environmentSubstitute( connection.getServer() );
-    String boltPort = connection.environmentSubstitute( connection.getBoltPort() );
-    String username = connection.environmentSubstitute( connection.getUsername() );
+  /**
+   * Log the connection pool metrics of all shared drivers with metrics enabled
+   *
+   * @param log The log channel to write to
+   */
+  public static void logPoolMetrics( LogChannelInterface log ) {
+    for ( DriverPoolMetrics metrics : getPoolMetrics().values() ) {
+      log.logBasic( "Neo4j driver pool " + metrics.getDriverKey() + " : " + metrics );
+    }
+  }
 
-    return hostname+":"+boltPort+"@"+username;
+  /**
+   * Get the key of the driver for the given connection: the fingerprint of its resolved settings.
+   * It covers everything that changes the identity of a driver: URIs, database, encryption, routing, credentials and pool settings.
+   *
+   * @param connection The connection to get the driver key for
+   * @return The driver key
+   */
+  public static String getDriverKey( NeoConnection connection ) {
+    return connection.resolve().getFingerprint();
   }
 
   /**
-   * Gets driverMap
+   * Gets a snapshot of the shared drivers
    *
    * @return value of driverMap
    */
   public Map<String, Driver> getDriverMap() {
-    return driverMap;
+    Map<String, Driver> map = new HashMap<>();
+    for ( Map.Entry<String, DriverEntry> entry : driverMap.entrySet() ) {
+      map.put( entry.getKey(), entry.getValue().driver );
+    }
+    return Collections.unmodifiableMap( map );
+  }
+
+  /**
+   * Gets the number of active leases on the driver with the given key
+   *
+   * @param key The driver key
+   * @return The number of leases or -1 if there is no such driver
+   */
+  public int getLeaseCount( String key ) {
+    DriverEntry entry = driverMap.get( key );
+    return entry == null ? -1 : entry.leases;
+  }
+
+  /**
+   * Gets idleTimeoutMs
+   *
+   * @return value of idleTimeoutMs
+   */
+  public long getIdleTimeoutMs() {
+    return idleTimeoutMs;
+  }
+
+  /**
+   * @param idleTimeoutMs The time in ms after which unused drivers are closed. 0 closes them as soon as the last lease is released.
+   */
+  public synchronized void setIdleTimeoutMs( long idleTimeoutMs ) {
+    this.idleTimeoutMs = idleTimeoutMs;
+
+    // Check at the pace of the new timeout
+    //
+    if ( eviction != null ) {
+      eviction.cancel( false );
+      eviction = null;
+      startEviction();
+    }
   }
 
+  /**
+   * The mutable state of a driver in the registry.  Only ever modified inside the atomic compute methods of the map,
+   * or before it's added to the map.
+   */
+  private static class DriverEntry {
+    private final Driver driver;
+    private final boolean metricsEnabled;
+    private volatile int leases;
+    private boolean pinned;
+    private long lastUsed;
 
+    private DriverEntry( Driver driver, boolean metricsEnabled ) {
+      this.driver = driver;
+      this.metricsEnabled = metricsEnabled;
+      this.lastUsed = System.currentTimeMillis();
+    }
+
+    private void use( boolean pin ) {
+      if ( pin ) {
+        pinned = true;
+      } else {
+        leases++;
+      }
+      lastUsed = System.currentTimeMillis();
+    }
+
+    private boolean isEvictable( long idleTimeoutMs, long now ) {
+      return !pinned && leases == 0 && now - lastUsed >= idleTimeoutMs;
+    }
+  }
 }
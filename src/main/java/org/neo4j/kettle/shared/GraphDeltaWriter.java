@@ -0,0 +1,139 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.kettle.core.data.GraphDelta;
+import org.neo4j.kettle.core.data.GraphNodeData;
+import org.neo4j.kettle.core.data.GraphPropertyData;
+import org.neo4j.kettle.core.data.GraphRelationshipData;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a {@link GraphDelta} into UNWIND batches which only write what changed: new nodes and relationships are merged,
+ * changed ones only get the changed properties and labels set and removed ones are deleted.
+ * <p>
+ * Existing nodes are found on their labels and primary properties.  Relationships are found on their type and nodes.
+ * Changed or removed nodes without primary properties can't be found and give an error.
+ */
+public class GraphDeltaWriter {
+
+  private final GraphDelta delta;
+
+  public GraphDeltaWriter( GraphDelta delta ) {
+    this.delta = delta;
+  }
+
+  /**
+   * Get the rows to write grouped per target, in the order in which they should be written:
+   * <ol>
+   * <li>deleted relationships</li>
+   * <li>deleted nodes</li>
+   * <li>merged nodes</li>
+   * <li>updated nodes</li>
+   * <li>merged relationships</li>
+   * <li>updated relationships</li>
+   * </ol>
+   *
+   * @return The rows per phase and target
+   */
+  public List<Map<UnwindTarget, List<Map<String, Object>>>> getPhases() {
+    List<Map<UnwindTarget, List<Map<String, Object>>>> phases = new ArrayList<>();
+
+    Map<UnwindTarget, List<Map<String, Object>>> phase = new LinkedHashMap<>();
+    for ( GraphRelationshipData relationship : delta.getRemovedRelationships() ) {
+      GraphNodeData source = UnwindPhases.getNode( delta.findBeforeNode( relationship.getSourceNodeId() ), relationship.getSourceNodeId() );
+      GraphNodeData target = UnwindPhases.getNode( delta.findBeforeNode( relationship.getTargetNodeId() ), relationship.getTargetNodeId() );
+      UnwindTarget unwindTarget = UnwindTarget.relationshipDelete( relationship.getLabel(),
+        source.getLabels(), UnwindTarget.getPrimaryKeys( source.getProperties() ),
+        target.getLabels(), UnwindTarget.getPrimaryKeys( target.getProperties() ) );
+      Map<String, Object> row = unwindTarget.relationshipRow( relationship, source, target );
+      row.remove( UnwindTarget.ROW_PROPERTIES );
+      UnwindPhases.add( phase, unwindTarget, row );
+    }
+    phases.add( phase );
+
+    phase = new LinkedHashMap<>();
+    for ( GraphNodeData node : delta.getRemovedNodes() ) {
+      UnwindTarget unwindTarget = UnwindTarget.nodeDelete( node.getLabels(), UnwindTarget.getPrimaryKeys( node.getProperties() ) );
+      UnwindPhases.add( phase, unwindTarget, unwindTarget.nodeKeyRow( node, null ) );
+    }
+    phases.add( phase );
+
+    phase = new LinkedHashMap<>();
+    for ( GraphNodeData node : delta.getAddedNodes() ) {
+      UnwindPhases.add( phase, UnwindTarget.node( node ), UnwindTarget.nodeRow( node ) );
+    }
+    phases.add( phase );
+
+    phase = new LinkedHashMap<>();
+    for ( GraphDelta.Change<GraphNodeData> change : delta.getChangedNodes() ) {
+      GraphNodeData node = change.getBefore();
+      UnwindTarget unwindTarget = UnwindTarget.nodeUpdate( node.getLabels(), UnwindTarget.getPrimaryKeys( node.getProperties() ),
+        change.getAddedLabels(), change.getRemovedLabels() );
+      UnwindPhases.add( phase, unwindTarget, unwindTarget.nodeKeyRow( node, getChangedProperties( change ) ) );
+    }
+    phases.add( phase );
+
+    phase = new LinkedHashMap<>();
+    for ( GraphRelationshipData relationship : delta.getAddedRelationships() ) {
+      GraphNodeData source = UnwindPhases.getNode( delta.findAfterNode( relationship.getSourceNodeId() ), relationship.getSourceNodeId() );
+      GraphNodeData target = UnwindPhases.getNode( delta.findAfterNode( relationship.getTargetNodeId() ), relationship.getTargetNodeId() );
+      UnwindTarget unwindTarget = UnwindTarget.relationship( relationship, source, target );
+      UnwindPhases.add( phase, unwindTarget, unwindTarget.relationshipRow( relationship, source, target ) );
+    }
+    phases.add( phase );
+
+    phase = new LinkedHashMap<>();
+    for ( GraphDelta.Change<GraphRelationshipData> change : delta.getChangedRelationships() ) {
+      GraphRelationshipData relationship = change.getBefore();
+      GraphNodeData source = UnwindPhases.getNode( delta.findBeforeNode( relationship.getSourceNodeId() ), relationship.getSourceNodeId() );
+      GraphNodeData target = UnwindPhases.getNode( delta.findBeforeNode( relationship.getTargetNodeId() ), relationship.getTargetNodeId() );
+      UnwindTarget unwindTarget = UnwindTarget.relationshipUpdate( relationship.getLabel(),
+        source.getLabels(), UnwindTarget.getPrimaryKeys( source.getProperties() ),
+        target.getLabels(), UnwindTarget.getPrimaryKeys( target.getProperties() ) );
+      Map<String, Object> row = unwindTarget.relationshipRow( relationship, source, target );
+      row.put( UnwindTarget.ROW_PROPERTIES, getChangedProperties( change ) );
+      UnwindPhases.add( phase, unwindTarget, row );
+    }
+    phases.add( phase );
+
+    return phases;
+  }
+
+  /**
+   * Write the delta with the given writer.  Each phase is written and committed before the next one starts.
+   *
+   * @param writer The writer to use
+   * @throws KettleException In case writing failed
+   */
+  public void write( UnwindBatchWriter writer ) throws KettleException {
+    UnwindPhases.write( writer, getPhases() );
+  }
+
+  /**
+   * The properties to set: the changed values and null for the removed properties
+   */
+  private static Map<String, Object> getChangedProperties( GraphDelta.Change<?> change ) {
+    Map<String, Object> properties = new HashMap<>();
+    for ( GraphPropertyData property : change.getSetProperties() ) {
+      properties.put( property.getId(), property.getValue() );
+    }
+    for ( String removed : change.getRemovedProperties() ) {
+      properties.put( removed, null );
+    }
+    return properties;
+  }
+
+  /**
+   * Gets delta
+   *
+   * @return value of delta
+   */
+  public GraphDelta getDelta() {
+    return delta;
+  }
+}
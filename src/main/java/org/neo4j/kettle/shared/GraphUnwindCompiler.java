@@ -0,0 +1,215 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.kettle.core.data.GraphData;
+import org.neo4j.kettle.core.data.GraphNodeData;
+import org.neo4j.kettle.core.data.GraphPropertyData;
+import org.neo4j.kettle.core.data.GraphRelationshipData;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compiles graphs into UNWIND batches.  The nodes and relationships are grouped per {@link UnwindTarget}: nodes on their
+ * labels and primary properties, relationships on their type and the labels and primary properties of their nodes.
+ * A graph with many kinds of elements is then written with one statement per group instead of one per element.
+ * <p>
+ * Add any number of graphs before writing, elements of the same kind end up in the same group.  The targets, and with
+ * them their Cypher statements, are kept over all graphs compiled with this instance so every statement is only built
+ * once.  Elements with the same target but different property sets share a statement: the properties are passed as a
+ * map in the row.  Looking up the target of an element doesn't allocate once the target was seen before.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class GraphUnwindCompiler {
+
+  /**
+   * The parts a target is looked up on: labels and key properties for nodes, type and node targets for relationships.
+   * One instance is reused to probe the caches, copies are stored.
+   */
+  private static class TargetKey {
+    private Object first;
+    private Object second;
+    private Object third;
+
+    private TargetKey set( Object first, Object second, Object third ) {
+      this.first = first;
+      this.second = second;
+      this.third = third;
+      return this;
+    }
+
+    @Override public boolean equals( Object o ) {
+      if ( !( o instanceof TargetKey ) ) {
+        return false;
+      }
+      TargetKey key = (TargetKey) o;
+      return Objects.equals( first, key.first ) && Objects.equals( second, key.second ) && Objects.equals( third, key.third );
+    }
+
+    @Override public int hashCode() {
+      return 31 * ( 31 * Objects.hashCode( first ) + Objects.hashCode( second ) ) + Objects.hashCode( third );
+    }
+  }
+
+  private final Map<UnwindTarget, UnwindTarget> targets;
+  private final Map<TargetKey, UnwindTarget> nodeTargetCache;
+  private final Map<TargetKey, UnwindTarget> relationshipTargetCache;
+  private final Map<UnwindTarget, List<Map<String, Object>>> nodeGroups;
+  private final Map<UnwindTarget, List<Map<String, Object>>> relationshipGroups;
+  private final TargetKey probe;
+  private final List<String> probeKeys;
+
+  public GraphUnwindCompiler() {
+    targets = new HashMap<>();
+    nodeTargetCache = new HashMap<>();
+    relationshipTargetCache = new HashMap<>();
+    probe = new TargetKey();
+    probeKeys = new ArrayList<>();
+    nodeGroups = new LinkedHashMap<>();
+    relationshipGroups = new LinkedHashMap<>();
+  }
+
+  /**
+   * Add the nodes and relationships of the given graph to their groups.  Nodes without primary properties are created,
+   * relationships need primary properties on both their nodes to find them.  The graph is checked before anything is
+   * added so a rejected graph leaves the groups as they were.
+   *
+   * @param graphData The graph to add
+   * @return this compiler
+   * @throws KettleException          In case a relationship refers to a node without primary properties, like the nodes
+   *                                  of a graph read from a query result
+   * @throws IllegalArgumentException In case a relationship refers to a node which isn't in the graph
+   */
+  public GraphUnwindCompiler add( GraphData graphData ) throws KettleException {
+    // The target of every node, to derive the relationship targets from
+    //
+    List<UnwindTarget> nodeTargetList = new ArrayList<>();
+    Map<Object, UnwindTarget> nodeTargets = new HashMap<>();
+    for ( GraphNodeData node : graphData.getNodesForReading() ) {
+      UnwindTarget target = getNodeTarget( node );
+      nodeTargetList.add( target );
+      nodeTargets.put( node.getIdKey(), target );
+    }
+
+    List<UnwindTarget> relationshipTargets = new ArrayList<>();
+    List<Map<String, Object>> relationshipRows = new ArrayList<>();
+    for ( GraphRelationshipData relationship : graphData.getRelationshipsForReading() ) {
+      GraphNodeData source = UnwindPhases.getNode( graphData.findSourceNode( relationship ), relationship.getSourceNodeIdKey() );
+      GraphNodeData target = UnwindPhases.getNode( graphData.findTargetNode( relationship ), relationship.getTargetNodeIdKey() );
+      UnwindTarget sourceTarget = getKeyedTarget( nodeTargets, relationship, "source", source );
+      UnwindTarget targetTarget = getKeyedTarget( nodeTargets, relationship, "target", target );
+      UnwindTarget unwindTarget = getRelationshipTarget( relationship.getLabel(), sourceTarget, targetTarget );
+      relationshipTargets.add( unwindTarget );
+      relationshipRows.add( unwindTarget.relationshipRow( relationship, source, target ) );
+    }
+
+    int index = 0;
+    for ( GraphNodeData node : graphData.getNodesForReading() ) {
+      UnwindPhases.add( nodeGroups, nodeTargetList.get( index++ ), UnwindTarget.nodeRow( node ) );
+    }
+    for ( int i = 0; i < relationshipRows.size(); i++ ) {
+      UnwindPhases.add( relationshipGroups, relationshipTargets.get( i ), relationshipRows.get( i ) );
+    }
+    return this;
+  }
+
+  /**
+   * Get the rows to write grouped per target, in the order in which they should be written: first the nodes, then the
+   * relationships between them.
+   *
+   * @return The rows per phase and target
+   */
+  public List<Map<UnwindTarget, List<Map<String, Object>>>> getPhases() {
+    return Arrays.asList( nodeGroups, relationshipGroups );
+  }
+
+  /**
+   * Write the graphs added so far with the given writer and start over.  The nodes are written and committed before
+   * the relationships.
+   *
+   * @param writer The writer to use
+   * @throws KettleException In case writing failed
+   */
+  public void write( UnwindBatchWriter writer ) throws KettleException {
+    UnwindPhases.write( writer, getPhases() );
+    clear();
+  }
+
+  /**
+   * Remove the rows added so far.  The cached targets are kept.
+   */
+  public void clear() {
+    nodeGroups.clear();
+    relationshipGroups.clear();
+  }
+
+  /**
+   * Gets the number of different targets seen so far
+   *
+   * @return value of the number of targets
+   */
+  public int getTargetCount() {
+    return targets.size();
+  }
+
+  /**
+   * Get the cached target equal to the given one, so its Cypher statement is built only once
+   */
+  private UnwindTarget getTarget( UnwindTarget target ) {
+    UnwindTarget cached = targets.putIfAbsent( target, target );
+    return cached == null ? target : cached;
+  }
+
+  /**
+   * Get the target of a node from the cache, probing it on the labels and primary property IDs of the node
+   */
+  private UnwindTarget getNodeTarget( GraphNodeData node ) {
+    probeKeys.clear();
+    for ( GraphPropertyData property : node.getProperties() ) {
+      if ( property.isPrimary() ) {
+        probeKeys.add( property.getId() );
+      }
+    }
+    List<String> labels = node.getLabels() == null ? Collections.emptyList() : node.getLabels();
+    UnwindTarget target = nodeTargetCache.get( probe.set( labels, probeKeys, null ) );
+    if ( target == null ) {
+      target = getTarget( UnwindTarget.node( labels, probeKeys ) );
+      nodeTargetCache.put( new TargetKey().set( target.getLabels(), target.getKeyProperties(), null ), target );
+    }
+    return target;
+  }
+
+  /**
+   * Get the target of a node of a relationship, it needs primary properties for the relationship to find the node
+   */
+  private UnwindTarget getKeyedTarget( Map<Object, UnwindTarget> nodeTargets, GraphRelationshipData relationship,
+                                       String end, GraphNodeData node ) throws KettleException {
+    UnwindTarget target = nodeTargets.get( node.getIdKey() );
+    if ( target.getKeyProperties().isEmpty() ) {
+      throw new KettleException( "Relationship '" + relationship.getId() + "' can't be written: its " + end + " node '"
+        + node.getId() + "' has no primary properties to look it up on.  Graphs read from a query result don't have "
+        + "primary properties, mark the properties which identify the nodes as primary first." );
+    }
+    return target;
+  }
+
+  /**
+   * Get the target of a relationship from the cache, probing it on its type and the cached targets of its nodes
+   */
+  private UnwindTarget getRelationshipTarget( String type, UnwindTarget sourceTarget, UnwindTarget targetTarget ) {
+    UnwindTarget target = relationshipTargetCache.get( probe.set( type, sourceTarget, targetTarget ) );
+    if ( target == null ) {
+      target = getTarget( UnwindTarget.relationship( type, sourceTarget.getLabels(), sourceTarget.getKeyProperties(),
+        targetTarget.getLabels(), targetTarget.getKeyProperties() ) );
+      relationshipTargetCache.put( new TargetKey().set( type, sourceTarget, targetTarget ), target );
+    }
+    return target;
+  }
+}
@@ -0,0 +1,57 @@
+package org.neo4j.kettle.shared;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Wraps a session on a shared driver so that closing the session also releases the lease on the driver.
+ * All other calls go straight to the driver session.  Both blocking (close) and asynchronous (closeAsync) sessions are supported.
+ */
+class LeasedSession implements InvocationHandler {
+
+  private final Object session;
+
+  private final DriverLease lease;
+
+  private LeasedSession( Object session, DriverLease lease ) {
+    this.session = session;
+    this.lease = lease;
+  }
+
+  /**
+   * Wrap a session
+   *
+   * @param sessionInterface The session interface to expose
+   * @param session          The session to wrap
+   * @param lease            The lease on the driver which created the session
+   * @return The wrapped session
+   */
+  static <T> T wrap( Class<T> sessionInterface, T session, DriverLease lease ) {
+    Object proxy = Proxy.newProxyInstance( sessionInterface.getClassLoader(), new Class<?>[] { sessionInterface }, new LeasedSession( session, lease ) );
+    return sessionInterface.cast( proxy );
+  }
+
+  @Override public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+    boolean close = "close".equals( method.getName() ) && method.getParameterCount() == 0;
+    boolean closeAsync = "closeAsync".equals( method.getName() ) && method.getParameterCount() == 0;
+    Object result;
+    try {
+      result = method.invoke( session, args );
+    } catch ( InvocationTargetException e ) {
+      if ( close || closeAsync ) {
+        lease.close();
+      }
+      throw e.getCause();
+    }
+    if ( close ) {
+      lease.close();
+    }
+    if ( closeAsync ) {
+      return ( (CompletionStage<?>) result ).whenComplete( ( ignored, error ) -> lease.close() );
+    }
+    return result;
+  }
+}
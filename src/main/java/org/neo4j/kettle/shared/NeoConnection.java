@@ -1,6 +1,8 @@
 package org.neo4j.kettle.shared;
 
 import org.apache.commons.lang.StringUtils;
+import org.neo4j.driver.AccessMode;
+import org.neo4j.driver.AuthToken;
 import org.neo4j.driver.AuthTokens;
 import org.neo4j.driver.Config;
 import org.neo4j.driver.Driver;
@@ -9,13 +11,11 @@ import org.neo4j.driver.Record;
 import org.neo4j.driver.Result;
 import org.neo4j.driver.Session;
 import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.TransactionWork;
 import org.neo4j.driver.Value;
-import org.pentaho.di.core.Const;
-import org.pentaho.di.core.encryption.Encr;
+import org.neo4j.driver.async.AsyncSession;
 import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.logging.LogChannelInterface;
-import org.pentaho.di.core.row.value.ValueMetaString;
-import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.variables.Variables;
 import org.pentaho.metastore.persist.MetaStoreAttribute;
@@ -23,10 +23,8 @@ import org.pentaho.metastore.persist.MetaStoreElementType;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 @MetaStoreElementType( name = "Neo4j Connection", description = "A shared connection to a Neo4j server" )
 public class NeoConnection extends Variables {
@@ -53,6 +51,9 @@ public class NeoConnection extends Variables {
   @MetaStoreAttribute
   private String routingPolicy;
 
+  @MetaStoreAttribute
+  private String readRoutingPolicy;
+
   @MetaStoreAttribute
   private String username;
 
@@ -86,12 +87,19 @@ public class NeoConnection extends Variables {
   @MetaStoreAttribute
   private String maxTransactionRetryTime;
 
+  @MetaStoreAttribute
+  private boolean driverMetrics;
+
   @MetaStoreAttribute
   private boolean version4;
 
   @MetaStoreAttribute
   private String version4Variable;
 
+  private volatile ResolvedNeoConnection resolved;
+
+  private volatile NeoConnection readConnection;
+
   public NeoConnection() {
     boltPort = "7687";
     browserPort = "7474";
@@ -109,21 +117,25 @@ public class NeoConnection extends Variables {
     this( parent );
     this.name = source.name;
     this.server = source.server;
+    this.databaseName = source.databaseName;
     this.boltPort = source.boltPort;
     this.browserPort = source.browserPort;
     this.routing = source.routing;
     this.routingVariable = source.routingVariable;
     this.routingPolicy = source.routingPolicy;
+    this.readRoutingPolicy = source.readRoutingPolicy;
     this.username = source.username;
     this.password = source.password;
     this.usingEncryption = source.usingEncryption;
     this.usingEncryptionVariable = source.usingEncryptionVariable;
+    this.manualUrls = source.manualUrls == null ? new ArrayList<>() : new ArrayList<>( source.manualUrls );
     this.connectionLivenessCheckTimeout = source.connectionLivenessCheckTimeout;
     this.maxConnectionLifetime = source.maxConnectionLifetime;
     this.maxConnectionPoolSize = source.maxConnectionPoolSize;
     this.connectionAcquisitionTimeout = source.connectionAcquisitionTimeout;
     this.connectionTimeout = source.connectionTimeout;
     this.maxTransactionRetryTime = source.maxTransactionRetryTime;
+    this.driverMetrics = source.driverMetrics;
     this.version4 = source.version4;
     this.version4Variable = source.version4Variable;
   }
@@ -154,21 +166,159 @@ public class NeoConnection extends Variables {
   }
 
   /**
-   * Get a Neo4j session to work with
+   * Get a Neo4j session to work with.
+   * The session is opened on a driver shared through {@link DriverSingleton}, closing the session releases the driver.
    *
    * @param log The logchannel to log to
    * @return The Neo4j session
    */
   public Session getSession( LogChannelInterface log ) {
-    Driver driver = getDriver( log );
-    SessionConfig.Builder cfgBuilder = SessionConfig.builder();
-    if ( StringUtils.isNotEmpty( databaseName ) ) {
-      String realDatabaseName = environmentSubstitute( databaseName );
-      if ( StringUtils.isNotEmpty( realDatabaseName ) ) {
-        cfgBuilder.withDatabase( realDatabaseName );
-      }
+    DriverLease lease = DriverSingleton.leaseDriver( log, this );
+    try {
+      return LeasedSession.wrap( Session.class, lease.getDriver().session( getSessionConfig() ), lease );
+    } catch ( RuntimeException e ) {
+      lease.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Get a Neo4j session to work with in the given access mode.
+   * On a routed cluster read sessions go to followers or read replicas, using the read routing policy if one is set.
+   * The session is opened on a driver shared through {@link DriverSingleton}, closing the session releases the driver.
+   *
+   * @param log        The logchannel to log to
+   * @param accessMode The default access mode of the session
+   * @return The Neo4j session
+   */
+  public Session getSession( LogChannelInterface log, AccessMode accessMode ) {
+    NeoConnection driverConnection = accessMode == AccessMode.READ ? getReadConnection() : this;
+    DriverLease lease = DriverSingleton.leaseDriver( log, driverConnection );
+    try {
+      return LeasedSession.wrap( Session.class, lease.getDriver().session( getSessionConfig( accessMode ) ), lease );
+    } catch ( RuntimeException e ) {
+      lease.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Get a Neo4j session for read-only work.
+   * On a routed cluster it is served by followers or read replicas.
+   *
+   * @param log The logchannel to log to
+   * @return The read session
+   */
+  public Session getReadSession( LogChannelInterface log ) {
+    return getSession( log, AccessMode.READ );
+  }
+
+  /**
+   * Execute the given work in a read transaction on a read session, retried on transient errors by the driver.
+   *
+   * @param log  The logchannel to log to
+   * @param work The work to execute
+   * @param <T>  The type of result
+   * @return The result of the work
+   */
+  public <T> T readTransaction( LogChannelInterface log, TransactionWork<T> work ) {
+    try ( Session session = getReadSession( log ) ) {
+      return session.readTransaction( work );
+    }
+  }
+
+  /**
+   * Execute the given work in a write transaction, retried on transient errors by the driver.
+   *
+   * @param log  The logchannel to log to
+   * @param work The work to execute
+   * @param <T>  The type of result
+   * @return The result of the work
+   */
+  public <T> T writeTransaction( LogChannelInterface log, TransactionWork<T> work ) {
+    try ( Session session = getSession( log, AccessMode.WRITE ) ) {
+      return session.writeTransaction( work );
     }
-    return driver.session( cfgBuilder.build() );
+  }
+
+  /**
+   * The connection to use for the read driver: a copy with the read routing policy if routing is used and a read
+   * routing policy is set, otherwise this connection.
+   *
+   * @return The connection to create the read driver with
+   */
+  NeoConnection getReadConnection() {
+    ResolvedNeoConnection current = resolve();
+    if ( !current.isUsingRouting() || StringUtils.isEmpty( current.getReadRoutingPolicy() ) ) {
+      return this;
+    }
+    NeoConnection copy = readConnection;
+    if ( copy == null || !current.getReadRoutingPolicy().equals( copy.getRoutingPolicy() ) || !copy.resolve().isValidFor( this ) ) {
+      copy = new NeoConnection( this, this );
+      copy.setRoutingPolicy( current.getReadRoutingPolicy() );
+      copy.setReadRoutingPolicy( null );
+      readConnection = copy;
+    }
+    return copy;
+  }
+
+  /**
+   * Get an asynchronous Neo4j session to work with.
+   * The session is opened on a driver shared through {@link DriverSingleton}, closing the session releases the driver.
+   *
+   * @param log The logchannel to log to
+   * @return The asynchronous Neo4j session
+   */
+  public AsyncSession getAsyncSession( LogChannelInterface log ) {
+    DriverLease lease = DriverSingleton.leaseDriver( log, this );
+    try {
+      return LeasedSession.wrap( AsyncSession.class, lease.getDriver().asyncSession( getSessionConfig() ), lease );
+    } catch ( RuntimeException e ) {
+      lease.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Get the session configuration: the database to use
+   *
+   * @return The session configuration
+   */
+  public SessionConfig getSessionConfig() {
+    return resolve().getSessionConfig( null );
+  }
+
+  /**
+   * Get the session configuration: the database to use and the default access mode
+   *
+   * @param accessMode The default access mode or null for the driver default (write)
+   * @return The session configuration
+   */
+  public SessionConfig getSessionConfig( AccessMode accessMode ) {
+    return resolve().getSessionConfig( accessMode );
+  }
+
+  /**
+   * Get the settings of this connection with all variables resolved.  The snapshot is cached and only rebuilt when a
+   * setting or the value of a variable used in the settings changes.
+   *
+   * @return The resolved connection settings
+   */
+  public ResolvedNeoConnection resolve() {
+    ResolvedNeoConnection current = resolved;
+    if ( current == null || !current.isValidFor( this ) ) {
+      current = new ResolvedNeoConnection( this );
+      resolved = current;
+    }
+    return current;
+  }
+
+  /**
+   * Forget the resolved settings of this connection
+   */
+  private void invalidate() {
+    resolved = null;
+    readConnection = null;
   }
 
   /**
@@ -178,14 +328,7 @@ public class NeoConnection extends Variables {
    */
   public void test() throws Exception {
 
-    Session session = null;
-    try {
-      Driver driver = getDriver( LogChannel.GENERAL );
-      SessionConfig.Builder builder = SessionConfig.builder();
-      if ( StringUtils.isNotEmpty( databaseName ) ) {
-        builder = builder.withDatabase( environmentSubstitute( databaseName ) );
-      }
-      session = driver.session( builder.build() );
+    try ( Session session = getSession( LogChannel.GENERAL ) ) {
       // Do something with the session otherwise it doesn't test the connection
       //
       Result result = session.run( "RETURN 0" );
@@ -195,84 +338,15 @@ public class NeoConnection extends Variables {
       assert ( zero == 0 );
     } catch ( Exception e ) {
       throw new Exception( "Unable to connect to database '" + name + "' : " + e.getMessage(), e );
-    } finally {
-      if ( session != null ) {
-        session.close();
-      }
     }
   }
 
   public List<URI> getURIs() throws URISyntaxException {
-
-    List<URI> uris = new ArrayList<>();
-
-    if ( manualUrls != null && !manualUrls.isEmpty() ) {
-      // A manual URL is specified
-      //
-      for ( String manualUrl : manualUrls ) {
-        uris.add( new URI( manualUrl ) );
-      }
-    } else {
-      // Construct the URIs from the entered values
-      //
-      List<String> serverStrings = new ArrayList<>();
-      String serversString = environmentSubstitute( server );
-      if ( isUsingRouting() ) {
-        for ( String serverString : serversString.split( "," ) ) {
-          serverStrings.add( serverString );
-        }
-      } else {
-        serverStrings.add( serversString );
-      }
-
-      for ( String serverString : serverStrings ) {
-        // Trim excess spaces from server name
-        //
-        String url = getUrl( Const.trim( serverString ) );
-        uris.add( new URI( url ) );
-      }
-    }
-
-    return uris;
+    return new ArrayList<>( resolve().getURIs() );
   }
 
   public String getUrl( String hostname ) {
-
-    /*
-     * Construct the following URL:
-     *
-     * bolt://hostname:port
-     * bolt+routing://core-server:port/?policy=MyPolicy
-     */
-    String url = "";
-    if ( isRouting() ) {
-      url += "neo4j";
-    } else {
-      url += "bolt";
-    }
-    url += "://";
-
-    // Hostname
-    //
-    url += hostname;
-
-    // Port
-    //
-    if ( StringUtils.isNotEmpty( boltPort ) && hostname != null && !hostname.contains( ":" ) ) {
-      url += ":" + environmentSubstitute( boltPort );
-    }
-
-    String routingPolicyString = environmentSubstitute( routingPolicy );
-    if ( isUsingRouting() && StringUtils.isNotEmpty( routingPolicyString ) ) {
-      try {
-        url += "?policy=" + URLEncoder.encode( routingPolicyString, "UTF-8" );
-      } catch ( Exception e ) {
-        LogChannel.GENERAL.logError( "Error encoding routing policy context '" + routingPolicyString + "' in connection URL", e );
-        url += "?policy=" + routingPolicyString;
-      }
-    }
-
-    return url;
+    return resolve().getUrl( hostname );
   }
 
   /**
@@ -281,96 +355,36 @@ public class NeoConnection extends Variables {
    * @return
    */
   public String getUrl() {
-    StringBuffer urls = new StringBuffer();
-    try {
-      for ( URI uri : getURIs() ) {
-        if ( urls.length() > 0 ) {
-          urls.append( "," );
-        }
-        urls.append( uri.toString() );
-      }
-    } catch ( Exception e ) {
-      urls.append( "ERROR building URLs: " + e.getMessage() );
-    }
-    return urls.toString();
+    return resolve().getUrl();
   }
 
   public boolean encryptionVariableSet() {
-    if ( !Utils.isEmpty( usingEncryptionVariable ) ) {
-      String value = environmentSubstitute( usingEncryptionVariable );
-      if ( !Utils.isEmpty( value ) ) {
-        return ValueMetaString.convertStringToBoolean( value );
-      }
-    }
-    return false;
+    return resolve().isEncryptionVariableSet();
   }
 
   public boolean version4VariableSet() {
-    if ( !Utils.isEmpty( version4Variable ) ) {
-      String value = environmentSubstitute( version4Variable );
-      if ( !Utils.isEmpty( value ) ) {
-        return ValueMetaString.convertStringToBoolean( value );
-      }
-    }
-    return false;
+    return resolve().isVersion4VariableSet();
   }
 
+  /**
+   * Create a new driver for this connection.  The caller owns the driver and needs to close it.
+   * To work with a shared driver and its connection pool use {@link #getSession(LogChannelInterface)} or
+   * {@link DriverSingleton#leaseDriver(LogChannelInterface, NeoConnection)}
+   *
+   * @param log The log channel to use
+   * @return A new driver
+   */
   public Driver getDriver( LogChannelInterface log ) {
-
+    ResolvedNeoConnection resolvedConnection = resolve();
     try {
-      List<URI> uris = getURIs();
+      List<URI> uris = resolvedConnection.getURIs();
+      AuthToken authToken = AuthTokens.basic( resolvedConnection.getUsername(), resolvedConnection.getPassword() );
+      Config config = resolvedConnection.getDriverConfig();
 
-      String realUsername = environmentSubstitute( username );
-      String realPassword = Encr.decryptPasswordOptionallyEncrypted( environmentSubstitute( password ) );
-      Config.ConfigBuilder configBuilder;
-      if ( encryptionVariableSet() || usingEncryption ) {
-        configBuilder = Config.builder().withEncryption();
+      if ( resolvedConnection.isUsingRouting() ) {
+        return GraphDatabase.routingDriver( uris, authToken, config );
       } else {
-        configBuilder = Config.builder().withoutEncryption();
-      }
-      if ( StringUtils.isNotEmpty( connectionLivenessCheckTimeout ) ) {
-        long seconds = Const.toLong( environmentSubstitute( connectionLivenessCheckTimeout ), -1L );
-        if ( seconds > 0 ) {
-          configBuilder = configBuilder.withConnectionLivenessCheckTimeout( seconds, TimeUnit.MILLISECONDS );
-        }
-      }
-      if ( StringUtils.isNotEmpty( maxConnectionLifetime ) ) {
-        long seconds = Const.toLong( environmentSubstitute( maxConnectionLifetime ), -1L );
-        if ( seconds > 0 ) {
-          configBuilder = configBuilder.withMaxConnectionLifetime( seconds, TimeUnit.MILLISECONDS );
-        }
-      }
-      if ( StringUtils.isNotEmpty( maxConnectionPoolSize ) ) {
-        int size = Const.toInt( environmentSubstitute( maxConnectionPoolSize ), -1 );
-        if ( size > 0 ) {
-          configBuilder = configBuilder.withMaxConnectionPoolSize( size );
-        }
-      }
-      if ( StringUtils.isNotEmpty( connectionAcquisitionTimeout ) ) {
-        long seconds = Const.toLong( environmentSubstitute( connectionAcquisitionTimeout ), -1L );
-        if ( seconds > 0 ) {
-          configBuilder = configBuilder.withConnectionAcquisitionTimeout( seconds, TimeUnit.MILLISECONDS );
-        }
-      }
-      if ( StringUtils.isNotEmpty( connectionTimeout ) ) {
-        long seconds = Const.toLong( environmentSubstitute( connectionTimeout ), -1L );
-        if ( seconds > 0 ) {
-          configBuilder = configBuilder.withConnectionTimeout( seconds, TimeUnit.MILLISECONDS );
-        }
-      }
-      if ( StringUtils.isNotEmpty( maxTransactionRetryTime ) ) {
-        long seconds = Const.toLong( environmentSubstitute( maxTransactionRetryTime ), -1L );
-        if ( seconds > 0 ) {
-          configBuilder = configBuilder.withMaxTransactionRetryTime( seconds, TimeUnit.MILLISECONDS );
-        }
-      }
-
-      Config config = configBuilder.build();
-
-      if ( isUsingRouting() ) {
-        return GraphDatabase.routingDriver( uris, AuthTokens.basic( realUsername, realPassword ), config );
-      } else {
-        return GraphDatabase.driver( uris.get( 0 ), AuthTokens.basic( realUsername, realPassword ), config );
+        return GraphDatabase.driver( uris.get( 0 ), authToken, config );
       }
     } catch ( URISyntaxException e ) {
       throw new RuntimeException( "URI syntax problem, check your settings, hostnames especially.  For routing use comma separated server values.", e );
@@ -378,13 +392,7 @@ public class NeoConnection extends Variables {
   }
 
   public boolean isUsingRouting() {
-    if ( !Utils.isEmpty( routingVariable ) ) {
-      String value = environmentSubstitute( routingVariable );
-      if ( !Utils.isEmpty( value ) ) {
-        return ValueMetaString.convertStringToBoolean( value );
-      }
-    }
-    return routing;
+    return resolve().isUsingRouting();
   }
 
   /**
@@ -401,6 +409,7 @@ public class NeoConnection extends Variables {
    */
   public void setName( String name ) {
     this.name = name;
+    invalidate();
   }
 
   /**
@@ -417,6 +426,7 @@ public class NeoConnection extends Variables {
    */
   public void setServer( String server ) {
     this.server = server;
+    invalidate();
   }
 
   /**
@@ -433,6 +443,7 @@ public class NeoConnection extends Variables {
    */
   public void setDatabaseName( String databaseName ) {
     this.databaseName = databaseName;
+    invalidate();
   }
 
   /**
@@ -449,6 +460,7 @@ public class NeoConnection extends Variables {
    */
   public void setBoltPort( String boltPort ) {
     this.boltPort = boltPort;
+    invalidate();
   }
 
   /**
@@ -465,6 +477,7 @@ public class NeoConnection extends Variables {
    */
   public void setBrowserPort( String browserPort ) {
     this.browserPort = browserPort;
+    invalidate();
   }
 
   /**
@@ -481,6 +494,7 @@ public class NeoConnection extends Variables {
    */
   public void setRouting( boolean routing ) {
     this.routing = routing;
+    invalidate();
   }
 
   /**
@@ -497,6 +511,7 @@ public class NeoConnection extends Variables {
    */
   public void setRoutingVariable( String routingVariable ) {
     this.routingVariable = routingVariable;
+    invalidate();
   }
 
   /**
@@ -513,6 +528,24 @@ public class NeoConnection extends Variables {
    */
   public void setRoutingPolicy( String routingPolicy ) {
     this.routingPolicy = routingPolicy;
+    invalidate();
+  }
+
+  /**
+   * Gets readRoutingPolicy
+   *
+   * @return value of readRoutingPolicy
+   */
+  public String getReadRoutingPolicy() {
+    return readRoutingPolicy;
+  }
+
+  /**
+   * @param readRoutingPolicy The routing policy to use for read sessions on a routed cluster
+   */
+  public void setReadRoutingPolicy( String readRoutingPolicy ) {
+    this.readRoutingPolicy = readRoutingPolicy;
+    invalidate();
   }
 
   /**
@@ -529,6 +562,7 @@ public class NeoConnection extends Variables {
    */
   public void setUsername( String username ) {
     this.username = username;
+    invalidate();
   }
 
   /**
@@ -545,6 +579,7 @@ public class NeoConnection extends Variables {
    */
   public void setPassword( String password ) {
     this.password = password;
+    invalidate();
   }
 
   /**
@@ -561,6 +596,7 @@ public class NeoConnection extends Variables {
    */
   public void setUsingEncryption( boolean usingEncryption ) {
     this.usingEncryption = usingEncryption;
+    invalidate();
   }
 
   /**
@@ -577,6 +613,7 @@ public class NeoConnection extends Variables {
    */
   public void setManualUrls( List<String> manualUrls ) {
     this.manualUrls = manualUrls;
+    invalidate();
   }
 
   /**
@@ -593,6 +630,7 @@ public class NeoConnection extends Variables {
    */
   public void setConnectionLivenessCheckTimeout( String connectionLivenessCheckTimeout ) {
     this.connectionLivenessCheckTimeout = connectionLivenessCheckTimeout;
+    invalidate();
   }
 
   /**
@@ -609,6 +647,7 @@ public class NeoConnection extends Variables {
    */
   public void setMaxConnectionLifetime( String maxConnectionLifetime ) {
     this.maxConnectionLifetime = maxConnectionLifetime;
+    invalidate();
   }
 
   /**
@@ -625,6 +664,7 @@ public class NeoConnection extends Variables {
    */
   public void setMaxConnectionPoolSize( String maxConnectionPoolSize ) {
     this.maxConnectionPoolSize = maxConnectionPoolSize;
+    invalidate();
   }
 
   /**
@@ -641,6 +681,7 @@ public class NeoConnection extends Variables {
    */
   public void setConnectionAcquisitionTimeout( String connectionAcquisitionTimeout ) {
     this.connectionAcquisitionTimeout = connectionAcquisitionTimeout;
+    invalidate();
   }
 
   /**
@@ -657,6 +698,7 @@ public class NeoConnection extends Variables {
    */
   public void setConnectionTimeout( String connectionTimeout ) {
     this.connectionTimeout = connectionTimeout;
+    invalidate();
   }
 
   /**
@@ -673,6 +715,24 @@ public class NeoConnection extends Variables {
    */
   public void setMaxTransactionRetryTime( String maxTransactionRetryTime ) {
     this.maxTransactionRetryTime = maxTransactionRetryTime;
+    invalidate();
+  }
+
+  /**
+   * Gets driverMetrics
+   *
+   * @return value of driverMetrics
+   */
+  public boolean isDriverMetrics() {
+    return driverMetrics;
+  }
+
+  /**
+   * @param driverMetrics Enable the connection pool metrics of the driver
+   */
+  public void setDriverMetrics( boolean driverMetrics ) {
+    this.driverMetrics = driverMetrics;
+    invalidate();
   }
 
   /**
@@ -689,6 +749,7 @@ public class NeoConnection extends Variables {
    */
   public void setVersion4( boolean version4 ) {
     this.version4 = version4;
+    invalidate();
   }
 
   /**
@@ -705,6 +766,7 @@ public class NeoConnection extends Variables {
    */
   public void setUsingEncryptionVariable( String usingEncryptionVariable ) {
     this.usingEncryptionVariable = usingEncryptionVariable;
+    invalidate();
   }
 
   /**
@@ -721,5 +783,6 @@ public class NeoConnection extends Variables {
    */
   public void setVersion4Variable( String version4Variable ) {
     this.version4Variable = version4Variable;
+    invalidate();
   }
 }
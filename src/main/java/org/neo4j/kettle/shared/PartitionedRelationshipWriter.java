@@ -0,0 +1,361 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.driver.Session;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.exceptions.Neo4jException;
+import org.neo4j.driver.exceptions.TransientException;
+import org.neo4j.kettle.core.data.GraphData;
+import org.neo4j.kettle.core.data.GraphNodeData;
+import org.neo4j.kettle.core.data.GraphRelationshipData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes relationships from several threads at once without the transactions fighting over node locks.
+ * <p>
+ * The relationship rows are partitioned by hashing the source node keys and the target node keys into P partitions
+ * each, giving a P x P grid of cells.  The cells are written in P rounds: in round r the P cells (i, (i+r) mod P) are
+ * written concurrently, each in its own transactions.  Within a round no two cells share a source partition or a target
+ * partition so they don't lock the same nodes.  (This is the "mix and batch" technique.)
+ * <p>
+ * The source and target nodes are merged first, partitioned on their keys, and the relationship cells only match
+ * them.  Merging them in the cells would let two concurrent transactions create the same new node twice.
+ * <p>
+ * If source and target nodes come from the same set of nodes, a node can still be the source in one cell and the
+ * target in another in the same round.  Batches are written in explicit transactions without the retries of managed
+ * transactions.  Batches which fail with a transient error like a deadlock are collected and retried at the end of
+ * the phase on a single thread.
+ * <p>
+ * The cells are written on the given executor or on a thread pool of the writer which is shut down by {@link #close()}.
+ */
+public class PartitionedRelationshipWriter implements AutoCloseable {
+
+  public static final int DEFAULT_PARTITIONS = 4;
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private final LogChannelInterface log;
+  private final NeoConnection connection;
+  private final int partitions;
+  private final boolean ownExecutor;
+
+  private ExecutorService executor;
+  private int batchSize;
+
+  private long rowsWritten;
+  private long rowsRetried;
+
+  public PartitionedRelationshipWriter( LogChannelInterface log, NeoConnection connection ) {
+    this( log, connection, DEFAULT_PARTITIONS );
+  }
+
+  /**
+   * @param log        The log channel to use
+   * @param connection The connection to write to
+   * @param partitions The number of partitions, which is also the number of concurrent transactions
+   */
+  public PartitionedRelationshipWriter( LogChannelInterface log, NeoConnection connection, int partitions ) {
+    this( log, connection, partitions, null );
+  }
+
+  /**
+   * @param log        The log channel to use
+   * @param connection The connection to write to
+   * @param partitions The number of partitions, which is also the number of concurrent transactions
+   * @param executor   The executor to write the cells with, it needs at least as many threads as partitions.
+   *                   It isn't shut down by this writer.  Null to use a thread pool of this writer.
+   */
+  public PartitionedRelationshipWriter( LogChannelInterface log, NeoConnection connection, int partitions, ExecutorService executor ) {
+    if ( partitions < 1 ) {
+      throw new IllegalArgumentException( "The number of partitions needs to be at least 1" );
+    }
+    this.log = log;
+    this.connection = connection;
+    this.partitions = partitions;
+    this.executor = executor;
+    this.ownExecutor = executor == null;
+    this.batchSize = DEFAULT_BATCH_SIZE;
+  }
+
+  /**
+   * Write the given relationships.  The source and target nodes are looked up in the given graph and identified by
+   * their labels and primary properties.
+   *
+   * @param graphData     The graph to look up the source and target nodes in
+   * @param relationships The relationships to write
+   * @throws KettleException In case writing failed
+   */
+  public void writeRelationships( GraphData graphData, List<GraphRelationshipData> relationships ) throws KettleException {
+    Map<UnwindTarget, List<Map<String, Object>>> targetRows = new LinkedHashMap<>();
+    for ( GraphRelationshipData relationship : relationships ) {
+      GraphNodeData source = graphData.findSourceNode( relationship );
+      GraphNodeData target = graphData.findTargetNode( relationship );
+      if ( source == null || target == null ) {
+        throw new KettleException( "Unable to find source or target node of relationship " + relationship );
+      }
+      UnwindTarget unwindTarget = UnwindTarget.relationship( relationship, source, target );
+      targetRows.computeIfAbsent( unwindTarget, t -> new ArrayList<>() ).add( unwindTarget.relationshipRow( relationship, source, target ) );
+    }
+    for ( Map.Entry<UnwindTarget, List<Map<String, Object>>> entry : targetRows.entrySet() ) {
+      write( entry.getKey(), entry.getValue() );
+    }
+  }
+
+  /**
+   * Write relationship rows to the given relationship target.  See {@link UnwindTarget} for the layout of the rows.
+   * For a merge target the source and target nodes are merged on their key properties before the relationships.
+   *
+   * @param target The relationship target
+   * @param rows   The relationship rows
+   * @throws KettleException In case writing failed
+   */
+  public void write( UnwindTarget target, List<Map<String, Object>> rows ) throws KettleException {
+    if ( target.getType() != UnwindTarget.Type.RELATIONSHIP ) {
+      throw new KettleException( "Only relationship targets can be written partitioned, not " + target );
+    }
+
+    // Split the rows over the grid of cells
+    //
+    List<List<Map<String, Object>>> cells = new ArrayList<>( partitions * partitions );
+    for ( int i = 0; i < partitions * partitions; i++ ) {
+      cells.add( new ArrayList<>() );
+    }
+    for ( Map<String, Object> row : rows ) {
+      int sourcePartition = partition( row.get( UnwindTarget.ROW_SOURCE ) );
+      int targetPartition = partition( row.get( UnwindTarget.ROW_TARGET ) );
+      cells.get( sourcePartition * partitions + targetPartition ).add( row );
+    }
+
+    // Write the source and target nodes of a merge first, the relationship cells only match them.
+    // Cells merging the same new node in concurrent transactions could each create it.
+    //
+    UnwindTarget relationshipTarget = target;
+    if ( target.getOperation() == UnwindTarget.Operation.MERGE && !target.isMatchingNodes() ) {
+      for ( Map.Entry<UnwindTarget, Set<Map<String, Object>>> entry : getNodeKeys( target, rows ).entrySet() ) {
+        List<List<Map<String, Object>>> nodeCells = new ArrayList<>( partitions );
+        for ( int i = 0; i < partitions; i++ ) {
+          nodeCells.add( new ArrayList<>() );
+        }
+        for ( Map<String, Object> keys : entry.getValue() ) {
+          nodeCells.get( partition( keys ) ).add( keys );
+        }
+        writeCells( entry.getKey(), nodeCells );
+      }
+      relationshipTarget = target.matchingNodes();
+    }
+
+    for ( int round = 0; round < partitions; round++ ) {
+      List<List<Map<String, Object>>> roundCells = new ArrayList<>( partitions );
+      for ( int sourcePartition = 0; sourcePartition < partitions; sourcePartition++ ) {
+        int targetPartition = ( sourcePartition + round ) % partitions;
+        roundCells.add( cells.get( sourcePartition * partitions + targetPartition ) );
+      }
+      // All cells of a round need to be finished before the next round starts
+      //
+      rowsWritten += writeCells( relationshipTarget, roundCells );
+    }
+  }
+
+  /**
+   * Get the distinct key properties of the source and target nodes of the given relationship rows, per node target
+   */
+  @SuppressWarnings( "unchecked" )
+  private static Map<UnwindTarget, Set<Map<String, Object>>> getNodeKeys( UnwindTarget target, List<Map<String, Object>> rows ) {
+    UnwindTarget sourceNodes = UnwindTarget.node( target.getLabels(), target.getKeyProperties() );
+    UnwindTarget targetNodes = UnwindTarget.node( target.getTargetLabels(), target.getTargetKeyProperties() );
+    Map<UnwindTarget, Set<Map<String, Object>>> nodeKeys = new LinkedHashMap<>();
+    for ( Map<String, Object> row : rows ) {
+      nodeKeys.computeIfAbsent( sourceNodes, t -> new LinkedHashSet<>() ).add( (Map<String, Object>) row.get( UnwindTarget.ROW_SOURCE ) );
+      nodeKeys.computeIfAbsent( targetNodes, t -> new LinkedHashSet<>() ).add( (Map<String, Object>) row.get( UnwindTarget.ROW_TARGET ) );
+    }
+    return nodeKeys;
+  }
+
+  /**
+   * Write the given cells concurrently, then the rows which failed with a conflict on a single thread
+   *
+   * @return The number of rows written
+   */
+  private int writeCells( UnwindTarget target, List<List<Map<String, Object>>> cells ) throws KettleException {
+    List<Map<String, Object>> remainder = Collections.synchronizedList( new ArrayList<>() );
+    int written = 0;
+
+    ExecutorService executor = getExecutor();
+    try {
+      List<Callable<Integer>> tasks = new ArrayList<>();
+      for ( List<Map<String, Object>> cell : cells ) {
+        if ( !cell.isEmpty() ) {
+          tasks.add( () -> writeCell( target, cell, remainder ) );
+        }
+      }
+      for ( Future<Integer> future : executor.invokeAll( tasks ) ) {
+        written += future.get();
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( "Interrupted while writing to " + target, e );
+    } catch ( ExecutionException e ) {
+      throw new KettleException( "Error writing to " + target, e.getCause() );
+    }
+
+    // Retry the conflicting remainder on a single thread, nothing to conflict with anymore
+    //
+    if ( !remainder.isEmpty() ) {
+      log.logDetailed( "Retrying " + remainder.size() + " rows for " + target + " after transient errors" );
+      try ( Session session = connection.getSession( log ) ) {
+        for ( List<Map<String, Object>> batch : split( remainder ) ) {
+          writeBatch( session, target, batch );
+          written += batch.size();
+          if ( target.getType() == UnwindTarget.Type.RELATIONSHIP ) {
+            rowsRetried += batch.size();
+          }
+        }
+      } catch ( Exception e ) {
+        throw new KettleException( "Error retrying rows for " + target, e );
+      }
+    }
+    return written;
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if ( executor == null ) {
+      executor = Executors.newFixedThreadPool( partitions, runnable -> {
+        Thread thread = new Thread( runnable, "Neo4j partitioned writer" );
+        thread.setDaemon( true );
+        return thread;
+      } );
+    }
+    return executor;
+  }
+
+  /**
+   * Stop the threads of this writer.  An executor given to the writer is left alone.
+   */
+  @Override public synchronized void close() {
+    if ( ownExecutor && executor != null ) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private int writeCell( UnwindTarget target, List<Map<String, Object>> cell, List<Map<String, Object>> remainder ) {
+    int written = 0;
+    try ( Session session = connection.getSession( log ) ) {
+      for ( List<Map<String, Object>> batch : split( cell ) ) {
+        try {
+          writeBatch( session, target, batch );
+          written += batch.size();
+        } catch ( Neo4jException e ) {
+          if ( !isConflict( e ) ) {
+            throw e;
+          }
+          remainder.addAll( batch );
+        }
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Write a batch in an explicit transaction.  A managed transaction would retry conflicts with a back-off while the
+   * other cells of the round wait for it, conflicting rows are retried at the end instead.
+   */
+  private void writeBatch( Session session, UnwindTarget target, List<Map<String, Object>> batch ) {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put( UnwindTarget.ROWS_PARAMETER, batch );
+    try ( Transaction transaction = session.beginTransaction() ) {
+      transaction.run( target.getCypher(), parameters ).consume();
+      transaction.commit();
+    }
+  }
+
+  private List<List<Map<String, Object>>> split( List<Map<String, Object>> rows ) {
+    List<List<Map<String, Object>>> batches = new ArrayList<>();
+    for ( int i = 0; i < rows.size(); i += batchSize ) {
+      batches.add( rows.subList( i, Math.min( rows.size(), i + batchSize ) ) );
+    }
+    return batches;
+  }
+
+  /**
+   * See if the given error is caused by concurrent transactions: a deadlock or another transient error
+   *
+   * @param e The error
+   * @return true if retrying later on a single thread makes sense
+   */
+  static boolean isConflict( Neo4jException e ) {
+    return e instanceof TransientException || ( e.code() != null && e.code().contains( "DeadlockDetected" ) );
+  }
+
+  /**
+   * Get the partition of the given source or target node keys
+   *
+   * @param keys The key properties of a node in a row
+   * @return The partition, from 0 up to the number of partitions
+   */
+  int partition( Object keys ) {
+    int hash = keys == null ? 0 : keys.hashCode();
+    // Spread the bits, the hash codes of small numbers are not very random
+    //
+    hash ^= ( hash >>> 16 );
+    hash *= 0x85ebca6b;
+    hash ^= ( hash >>> 13 );
+    return Math.floorMod( hash, partitions );
+  }
+
+  /**
+   * Gets partitions
+   *
+   * @return value of partitions
+   */
+  public int getPartitions() {
+    return partitions;
+  }
+
+  /**
+   * Gets batchSize
+   *
+   * @return value of batchSize
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @param batchSize The maximum number of rows written per transaction
+   */
+  public void setBatchSize( int batchSize ) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Gets rowsWritten
+   *
+   * @return value of rowsWritten
+   */
+  public long getRowsWritten() {
+    return rowsWritten;
+  }
+
+  /**
+   * Gets rowsRetried: the number of rows which were written on a single thread after a conflict
+   *
+   * @return value of rowsRetried
+   */
+  public long getRowsRetried() {
+    return rowsRetried;
+  }
+}
@@ -0,0 +1,502 @@
+package org.neo4j.kettle.shared;
+
+import org.apache.commons.lang.StringUtils;
+import org.neo4j.driver.AccessMode;
+import org.neo4j.driver.Config;
+import org.neo4j.driver.SessionConfig;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.encryption.Encr;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.util.Utils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of the settings of a {@link NeoConnection} with all variables resolved, passwords decrypted
+ * and numbers parsed.  It remembers the values of the variables it used so the connection can cheaply check if the
+ * snapshot is still valid for the current state of its variables.
+ * <p>
+ * Get it with {@link NeoConnection#resolve()}.
+ */
+public class ResolvedNeoConnection {
+
+  private final String name;
+  private final String databaseName;
+  private final String boltPort;
+  private final boolean routing;
+  private final boolean usingRouting;
+  private final String routingPolicy;
+  private final String readRoutingPolicy;
+  private final String username;
+  private final String password;
+  private final boolean encryptionVariableSet;
+  private final boolean usingEncryption;
+  private final List<String> manualUrls;
+  private final long connectionLivenessCheckTimeout;
+  private final long maxConnectionLifetime;
+  private final int maxConnectionPoolSize;
+  private final long connectionAcquisitionTimeout;
+  private final long connectionTimeout;
+  private final long maxTransactionRetryTime;
+  private final boolean driverMetrics;
+  private final boolean version4VariableSet;
+
+  private final List<URI> uris;
+  private final URISyntaxException uriException;
+  private final String url;
+  private final String fingerprint;
+
+  /**
+   * The variables used to resolve the settings with their values at the time
+   */
+  private final Map<String, String> usedVariables;
+
+  ResolvedNeoConnection( NeoConnection connection ) {
+    usedVariables = new HashMap<>();
+
+    name = connection.getName();
+    databaseName = substitute( connection, connection.getDatabaseName() );
+    boltPort = substitute( connection, connection.getBoltPort() );
+    routing = connection.isRouting();
+    usingRouting = getBoolean( connection, connection.getRoutingVariable(), connection.isRouting() );
+    routingPolicy = substitute( connection, connection.getRoutingPolicy() );
+    readRoutingPolicy = substitute( connection, connection.getReadRoutingPolicy() );
+    username = substitute( connection, connection.getUsername() );
+    password = Encr.decryptPasswordOptionallyEncrypted( substitute( connection, connection.getPassword() ) );
+    encryptionVariableSet = getBoolean( connection, connection.getUsingEncryptionVariable(), false );
+    usingEncryption = encryptionVariableSet || connection.isUsingEncryption();
+    manualUrls = connection.getManualUrls() == null ? Collections.emptyList() : Collections.unmodifiableList( new ArrayList<>( connection.getManualUrls() ) );
+    connectionLivenessCheckTimeout = Const.toLong( substitute( connection, connection.getConnectionLivenessCheckTimeout() ), -1L );
+    maxConnectionLifetime = Const.toLong( substitute( connection, connection.getMaxConnectionLifetime() ), -1L );
+    maxConnectionPoolSize = Const.toInt( substitute( connection, connection.getMaxConnectionPoolSize() ), -1 );
+    connectionAcquisitionTimeout = Const.toLong( substitute( connection, connection.getConnectionAcquisitionTimeout() ), -1L );
+    connectionTimeout = Const.toLong( substitute( connection, connection.getConnectionTimeout() ), -1L );
+    maxTransactionRetryTime = Const.toLong( substitute( connection, connection.getMaxTransactionRetryTime() ), -1L );
+    driverMetrics = connection.isDriverMetrics();
+    version4VariableSet = getBoolean( connection, connection.getVersion4Variable(), false );
+
+    String serversString = Const.NVL( substitute( connection, connection.getServer() ), "" );
+
+    List<URI> uriList = new ArrayList<>();
+    URISyntaxException exception = null;
+    try {
+      uriList = buildURIs( serversString );
+    } catch ( URISyntaxException e ) {
+      exception = e;
+    }
+    uris = Collections.unmodifiableList( uriList );
+    uriException = exception;
+    url = buildUrl();
+    fingerprint = buildFingerprint();
+  }
+
+  /**
+   * See if this snapshot is still valid for the given connection: all the variables used still have the same values
+   *
+   * @param connection The connection this snapshot was resolved from
+   * @return true if the snapshot is still valid
+   */
+  boolean isValidFor( NeoConnection connection ) {
+    for ( Map.Entry<String, String> entry : usedVariables.entrySet() ) {
+      if ( !Objects.equals( connection.getVariable( entry.getKey() ), entry.getValue() ) ) {
+        return false;
+      }
+    }
+    return Objects.equals( manualUrls, connection.getManualUrls() == null ? Collections.emptyList() : connection.getManualUrls() );
+  }
+
+  private String substitute( NeoConnection connection, String string ) {
+    if ( string == null ) {
+      return null;
+    }
+    for ( String variable : getUsedVariables( string ) ) {
+      usedVariables.put( variable, connection.getVariable( variable ) );
+    }
+    return connection.environmentSubstitute( string );
+  }
+
+  private boolean getBoolean( NeoConnection connection, String variableString, boolean defaultValue ) {
+    if ( !Utils.isEmpty( variableString ) ) {
+      String value = substitute( connection, variableString );
+      if ( !Utils.isEmpty( value ) ) {
+        return ValueMetaString.convertStringToBoolean( value );
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Find the names of the ${VARIABLE} and %%VARIABLE%% variables used in a string
+   *
+   * @param string The string to search
+   * @return The variable names
+   */
+  static List<String> getUsedVariables( String string ) {
+    List<String> variables = new ArrayList<>();
+    int index = 0;
+    while ( index < string.length() ) {
+      int start = string.indexOf( "${", index );
+      if ( start < 0 ) {
+        break;
+      }
+      int end = string.indexOf( '}', start + 2 );
+      if ( end < 0 ) {
+        break;
+      }
+      variables.add( string.substring( start + 2, end ) );
+      index = end + 1;
+    }
+    index = 0;
+    while ( index < string.length() ) {
+      int start = string.indexOf( "%%", index );
+      if ( start < 0 ) {
+        break;
+      }
+      int end = string.indexOf( "%%", start + 2 );
+      if ( end < 0 ) {
+        break;
+      }
+      variables.add( string.substring( start + 2, end ) );
+      index = end + 2;
+    }
+    return variables;
+  }
+
+  private List<URI> buildURIs( String serversString ) throws URISyntaxException {
+    List<URI> list = new ArrayList<>();
+
+    if ( !manualUrls.isEmpty() ) {
+      // A manual URL is specified
+      //
+      for ( String manualUrl : manualUrls ) {
+        list.add( new URI( manualUrl ) );
+      }
+    } else {
+      // Construct the URIs from the entered values
+      //
+      List<String> serverStrings = new ArrayList<>();
+      if ( usingRouting ) {
+        for ( String serverString : serversString.split( "," ) ) {
+          serverStrings.add( serverString );
+        }
+      } else {
+        serverStrings.add( serversString );
+      }
+
+      for ( String serverString : serverStrings ) {
+        // Trim excess spaces from server name
+        //
+        list.add( new URI( getUrl( Const.trim( serverString ) ) ) );
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Construct the URL for the given hostname:
+   * <p>
+   * bolt://hostname:port
+   * neo4j://core-server:port/?policy=MyPolicy
+   *
+   * @param hostname The hostname
+   * @return The URL
+   */
+  public String getUrl( String hostname ) {
+    StringBuilder url = new StringBuilder();
+    url.append( routing ? "neo4j" : "bolt" ).append( "://" );
+
+    // Hostname
+    //
+    url.append( hostname );
+
+    // Port
+    //
+    if ( StringUtils.isNotEmpty( boltPort ) && hostname != null && !hostname.contains( ":" ) ) {
+      url.append( ":" ).append( boltPort );
+    }
+
+    if ( usingRouting && StringUtils.isNotEmpty( routingPolicy ) ) {
+      try {
+        url.append( "?policy=" ).append( URLEncoder.encode( routingPolicy, "UTF-8" ) );
+      } catch ( Exception e ) {
+        LogChannel.GENERAL.logError( "Error encoding routing policy context '" + routingPolicy + "' in connection URL", e );
+        url.append( "?policy=" ).append( routingPolicy );
+      }
+    }
+
+    return url.toString();
+  }
+
+  private String buildUrl() {
+    if ( uriException != null ) {
+      return "ERROR building URLs: " + uriException.getMessage();
+    }
+    StringBuilder urls = new StringBuilder();
+    for ( URI uri : uris ) {
+      if ( urls.length() > 0 ) {
+        urls.append( "," );
+      }
+      urls.append( uri.toString() );
+    }
+    return urls.toString();
+  }
+
+  /**
+   * Everything that changes the identity of a driver: URIs, database, encryption, routing, metrics, credentials and
+   * pool settings.  The credentials are only included as a one-way hash.
+   */
+  private String buildFingerprint() {
+    StringBuilder key = new StringBuilder();
+    key.append( url );
+    key.append( "|db=" ).append( Const.NVL( databaseName, "" ) );
+    key.append( "|encryption=" ).append( usingEncryption );
+    key.append( "|routing=" ).append( usingRouting );
+    key.append( "|policy=" ).append( Const.NVL( routingPolicy, "" ) );
+    key.append( "|metrics=" ).append( driverMetrics );
+    key.append( "|pool=" );
+    key.append( connectionLivenessCheckTimeout ).append( "," );
+    key.append( maxConnectionLifetime ).append( "," );
+    key.append( maxConnectionPoolSize ).append( "," );
+    key.append( connectionAcquisitionTimeout ).append( "," );
+    key.append( connectionTimeout ).append( "," );
+    key.append( maxTransactionRetryTime );
+    key.append( "|user=" ).append( Const.NVL( username, "" ) );
+    key.append( "|credentials=" ).append( hash( Const.NVL( username, "" ) + "/" + Const.NVL( password, "" ) ) );
+    return key.toString();
+  }
+
+  /**
+   * Calculate a short one-way hash of the given string so that secrets never end up in a driver key.
+   *
+   * @param string The string to hash
+   * @return The hexadecimal hash
+   */
+  static String hash( String string ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+      byte[] hash = digest.digest( string.getBytes( StandardCharsets.UTF_8 ) );
+      StringBuilder hex = new StringBuilder();
+      for ( int i = 0; i < 8; i++ ) {
+        hex.append( String.format( "%02x", hash[ i ] ) );
+      }
+      return hex.toString();
+    } catch ( NoSuchAlgorithmException e ) {
+      // Every JVM has SHA-256 so this doesn't really happen
+      return Integer.toHexString( string.hashCode() );
+    }
+  }
+
+  /**
+   * Build the driver configuration
+   *
+   * @return The driver configuration
+   */
+  public Config getDriverConfig() {
+    Config.ConfigBuilder configBuilder;
+    if ( usingEncryption ) {
+      configBuilder = Config.builder().withEncryption();
+    } else {
+      configBuilder = Config.builder().withoutEncryption();
+    }
+    if ( connectionLivenessCheckTimeout > 0 ) {
+      configBuilder = configBuilder.withConnectionLivenessCheckTimeout( connectionLivenessCheckTimeout, TimeUnit.MILLISECONDS );
+    }
+    if ( maxConnectionLifetime > 0 ) {
+      configBuilder = configBuilder.withMaxConnectionLifetime( maxConnectionLifetime, TimeUnit.MILLISECONDS );
+    }
+    if ( maxConnectionPoolSize > 0 ) {
+      configBuilder = configBuilder.withMaxConnectionPoolSize( maxConnectionPoolSize );
+    }
+    if ( connectionAcquisitionTimeout > 0 ) {
+      configBuilder = configBuilder.withConnectionAcquisitionTimeout( connectionAcquisitionTimeout, TimeUnit.MILLISECONDS );
+    }
+    if ( connectionTimeout > 0 ) {
+      configBuilder = configBuilder.withConnectionTimeout( connectionTimeout, TimeUnit.MILLISECONDS );
+    }
+    if ( maxTransactionRetryTime > 0 ) {
+      configBuilder = configBuilder.withMaxTransactionRetryTime( maxTransactionRetryTime, TimeUnit.MILLISECONDS );
+    }
+    if ( driverMetrics ) {
+      configBuilder = configBuilder.withDriverMetrics();
+    }
+    return configBuilder.build();
+  }
+
+  /**
+   * Build the session configuration: the database to use and the default access mode
+   *
+   * @param accessMode The default access mode or null for the driver default
+   * @return The session configuration
+   */
+  public SessionConfig getSessionConfig( AccessMode accessMode ) {
+    SessionConfig.Builder cfgBuilder = SessionConfig.builder();
+    if ( StringUtils.isNotEmpty( databaseName ) ) {
+      cfgBuilder.withDatabase( databaseName );
+    }
+    if ( accessMode != null ) {
+      cfgBuilder.withDefaultAccessMode( accessMode );
+    }
+    return cfgBuilder.build();
+  }
+
+  /**
+   * Gets name
+   *
+   * @return value of name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets databaseName
+   *
+   * @return value of databaseName
+   */
+  public String getDatabaseName() {
+    return databaseName;
+  }
+
+  /**
+   * Gets usingRouting
+   *
+   * @return value of usingRouting
+   */
+  public boolean isUsingRouting() {
+    return usingRouting;
+  }
+
+  /**
+   * Gets routingPolicy
+   *
+   * @return value of routingPolicy
+   */
+  public String getRoutingPolicy() {
+    return routingPolicy;
+  }
+
+  /**
+   * Gets readRoutingPolicy
+   *
+   * @return value of readRoutingPolicy
+   */
+  public String getReadRoutingPolicy() {
+    return readRoutingPolicy;
+  }
+
+  /**
+   * Gets username
+   *
+   * @return value of username
+   */
+  public String getUsername() {
+    return username;
+  }
+
+  /**
+   * Gets the decrypted password
+   *
+   * @return value of password
+   */
+  public String getPassword() {
+    return password;
+  }
+
+  /**
+   * Gets encryptionVariableSet
+   *
+   * @return value of encryptionVariableSet
+   */
+  public boolean isEncryptionVariableSet() {
+    return encryptionVariableSet;
+  }
+
+  /**
+   * Gets usingEncryption
+   *
+   * @return value of usingEncryption
+   */
+  public boolean isUsingEncryption() {
+    return usingEncryption;
+  }
+
+  /**
+   * Gets version4VariableSet
+   *
+   * @return value of version4VariableSet
+   */
+  public boolean isVersion4VariableSet() {
+    return version4VariableSet;
+  }
+
+  /**
+   * Gets maxTransactionRetryTime
+   *
+   * @return value of maxTransactionRetryTime in ms or -1 if not set
+   */
+  public long getMaxTransactionRetryTime() {
+    return maxTransactionRetryTime;
+  }
+
+  /**
+   * Gets maxConnectionPoolSize
+   *
+   * @return value of maxConnectionPoolSize or -1 if not set
+   */
+  public int getMaxConnectionPoolSize() {
+    return maxConnectionPoolSize;
+  }
+
+  /**
+   * Gets driverMetrics
+   *
+   * @return value of driverMetrics
+   */
+  public boolean isDriverMetrics() {
+    return driverMetrics;
+  }
+
+  /**
+   * Gets the URIs of the servers
+   *
+   * @return value of uris
+   * @throws URISyntaxException In case the URIs couldn't be built from the settings
+   */
+  public List<URI> getURIs() throws URISyntaxException {
+    if ( uriException != null ) {
+      throw uriException;
+    }
+    return uris;
+  }
+
+  /**
+   * Gets all the URLs, comma separated
+   *
+   * @return value of url
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Gets fingerprint: a key which is the same for all connections which can share a driver
+   *
+   * @return value of fingerprint
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+}
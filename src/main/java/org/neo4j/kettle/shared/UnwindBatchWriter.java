@@ -0,0 +1,483 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.driver.Session;
+import org.neo4j.kettle.core.data.GraphNodeData;
+import org.neo4j.kettle.core.data.GraphRelationshipData;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffers rows per {@link UnwindTarget} and writes them with a single UNWIND statement per batch in a write transaction.
+ * A batch is written when it reaches the maximum number of rows, the maximum (estimated) size in bytes or when the
+ * oldest buffered row is older than the maximum latency.  Close the writer to write the remaining rows.
+ * <p>
+ * There is no timer thread: the age of the batches is checked when rows are added, for all targets at most once per
+ * maximum latency.  While rows keep coming in, a row waits at most about twice the maximum latency.  When the input
+ * is idle, call {@link #flushExpired()} to write the batches which waited long enough.
+ * <p>
+ * A batch stays buffered until it's written successfully so after a failure it's written again by the next flush or
+ * by {@link #close()}.  Rows are merged on their key properties so writing them again doesn't duplicate them, except
+ * for nodes without key properties which are created.
+ * <p>
+ * With a maximum number of transactions in flight larger than 1 the batches are written asynchronously through an
+ * {@link AsyncWritePipeline}: the caller only blocks when that many transactions are waiting to commit.
+ * Since batches then commit in any order, use unique constraints on the key properties to prevent duplicate nodes.
+ * Failures are only reported by a later call so in this mode a failed batch isn't written again.
+ * <p>
+ * With adaptive batch sizes the batch size per target is learned by an {@link AdaptiveBatchSizer} and batches failing
+ * on transient errors are written again in smaller batches.
+ * <p>
+ * This class is not thread-safe, use a writer per step copy.
+ */
+public class UnwindBatchWriter implements AutoCloseable {
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  public static final long DEFAULT_MAX_BATCH_BYTES = 8 * 1024 * 1024L;
+  public static final long DEFAULT_MAX_LATENCY_MS = 5000L;
+
+  private final LogChannelInterface log;
+  private final NeoConnection connection;
+
+  private int batchSize;
+  private long maxBatchBytes;
+  private long maxLatencyMs;
+  private int maxInFlight;
+  private boolean adaptiveBatchSize;
+
+  private final Map<UnwindTarget, Batch> batches;
+  private final Map<UnwindTarget, AdaptiveBatchSizer> sizers;
+
+  private Session session;
+  private AsyncWritePipeline pipeline;
+
+  private long rowsWritten;
+  private long batchesWritten;
+  private long lastExpiryCheck;
+
+  public UnwindBatchWriter( LogChannelInterface log, NeoConnection connection ) {
+    this.log = log;
+    this.connection = connection;
+    this.batchSize = DEFAULT_BATCH_SIZE;
+    this.maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    this.maxLatencyMs = DEFAULT_MAX_LATENCY_MS;
+    this.maxInFlight = 1;
+    this.batches = new LinkedHashMap<>();
+    this.sizers = new HashMap<>();
+    this.lastExpiryCheck = System.currentTimeMillis();
+  }
+
+  /**
+   * Add a row to write to the given target.  See {@link UnwindTarget} for the layout of the row.
+   *
+   * @param target The target to write to
+   * @param row    The row parameters
+   * @throws KettleException In case a batch had to be written and that failed
+   */
+  public void addRow( UnwindTarget target, Map<String, Object> row ) throws KettleException {
+    Batch batch = batches.computeIfAbsent( target, t -> new Batch( adaptiveBatchSize && maxInFlight <= 1 ? getSizer( t ) : null ) );
+    batch.add( row );
+
+    long now = System.currentTimeMillis();
+    if ( batch.rows.size() >= batch.getBatchSize( batchSize ) || batch.bytes >= maxBatchBytes || batch.getAgeMs( now ) >= maxLatencyMs ) {
+      writeBatch( target, batch );
+    }
+
+    // Batches of other targets can be waiting as well
+    //
+    if ( now - lastExpiryCheck >= maxLatencyMs ) {
+      flushExpired();
+    }
+  }
+
+  /**
+   * Merge the given node on its labels and primary properties
+   *
+   * @param node The node to write
+   * @throws KettleException In case a batch had to be written and that failed
+   */
+  public void addNode( GraphNodeData node ) throws KettleException {
+    addRow( UnwindTarget.node( node ), UnwindTarget.nodeRow( node ) );
+  }
+
+  /**
+   * Write the given node to the given node target
+   *
+   * @param target The node target
+   * @param node   The node to write
+   * @throws KettleException In case a batch had to be written and that failed
+   */
+  public void addNode( UnwindTarget target, GraphNodeData node ) throws KettleException {
+    addRow( target, UnwindTarget.nodeRow( node ) );
+  }
+
+  /**
+   * Merge the given relationship between the source and target nodes, identified by their labels and primary properties
+   *
+   * @param relationship The relationship to write
+   * @param source       The source node
+   * @param target       The target node
+   * @throws KettleException In case a batch had to be written and that failed
+   */
+  public void addRelationship( GraphRelationshipData relationship, GraphNodeData source, GraphNodeData target ) throws KettleException {
+    addRelationship( UnwindTarget.relationship( relationship, source, target ), relationship, source, target );
+  }
+
+  /**
+   * Write the given relationship between the source and target nodes to the given relationship target
+   *
+   * @param unwindTarget The relationship target
+   * @param relationship The relationship to write
+   * @param source       The source node
+   * @param target       The target node
+   * @throws KettleException In case a batch had to be written and that failed
+   */
+  public void addRelationship( UnwindTarget unwindTarget, GraphRelationshipData relationship, GraphNodeData source, GraphNodeData target )
+    throws KettleException {
+    addRow( unwindTarget, unwindTarget.relationshipRow( relationship, source, target ) );
+  }
+
+  /**
+   * Write all batches which have been waiting for longer than the maximum latency.
+   * Call this when your input is idle to make sure rows don't wait forever.
+   *
+   * @throws KettleException In case writing failed
+   */
+  public void flushExpired() throws KettleException {
+    long now = System.currentTimeMillis();
+    lastExpiryCheck = now;
+    for ( Map.Entry<UnwindTarget, Batch> entry : new ArrayList<>( batches.entrySet() ) ) {
+      if ( entry.getValue().getAgeMs( now ) >= maxLatencyMs ) {
+        writeBatch( entry.getKey(), entry.getValue() );
+      }
+    }
+  }
+
+  /**
+   * Write all buffered rows.  Nodes are written and committed before relationships.  With transactions in flight this
+   * waits for them to finish: the relationships merge their nodes as well, so writing them while the nodes are still
+   * being written would create duplicate nodes without a unique constraint.
+   *
+   * @throws KettleException In case writing failed
+   */
+  public void flush() throws KettleException {
+    for ( UnwindTarget.Type type : UnwindTarget.Type.values() ) {
+      for ( Map.Entry<UnwindTarget, Batch> entry : new ArrayList<>( batches.entrySet() ) ) {
+        if ( entry.getKey().getType() == type ) {
+          writeBatch( entry.getKey(), entry.getValue() );
+        }
+      }
+      if ( pipeline != null ) {
+        pipeline.flush();
+      }
+    }
+  }
+
+  /**
+   * Write all buffered rows, wait for the transactions in flight and close the session
+   *
+   * @throws KettleException In case writing failed
+   */
+  @Override public void close() throws KettleException {
+    try {
+      flush();
+    } finally {
+      try {
+        if ( pipeline != null ) {
+          pipeline.close();
+          pipeline = null;
+        }
+      } finally {
+        if ( session != null ) {
+          session.close();
+          session = null;
+        }
+      }
+    }
+  }
+
+  private void writeBatch( UnwindTarget target, Batch batch ) throws KettleException {
+    if ( batch.rows.isEmpty() ) {
+      return;
+    }
+
+    // Only forget the rows once they're written, a failed batch is written again later.
+    // Rows committed in smaller batches before a failure are forgotten right away.
+    //
+    try {
+      writeRows( target, batch.rows, batch.sizer );
+    } catch ( KettleException e ) {
+      batch.recalculateBytes();
+      throw e;
+    }
+    batches.remove( target );
+    batchesWritten++;
+  }
+
+  /**
+   * Write the given rows.  If the batch sizer thinks smaller batches stand a chance after a failure the rows are written
+   * again in smaller batches.  Those are removed from the given list as soon as they are committed, so after a failure
+   * the list only contains the rows which still need to be written.
+   */
+  private void writeRows( UnwindTarget target, List<Map<String, Object>> rows, AdaptiveBatchSizer sizer ) throws KettleException {
+    try {
+      writeRows( target, rows );
+      rowsWritten += rows.size();
+    } catch ( KettleException e ) {
+      if ( sizer == null || !sizer.recordFailure( rows.size(), e ) ) {
+        throw e;
+      }
+      // Try again in smaller batches
+      //
+      int size = Math.min( sizer.getBatchSize(), ( rows.size() + 1 ) / 2 );
+      log.logDetailed( "Writing " + rows.size() + " rows to " + target + " in batches of " + size + " after error: " + e.getMessage() );
+      while ( !rows.isEmpty() ) {
+        List<Map<String, Object>> part = rows.subList( 0, Math.min( rows.size(), size ) );
+        writeRows( target, part, sizer );
+        part.clear();
+      }
+    }
+  }
+
+  /**
+   * Write the given rows to the given target in a single write transaction
+   *
+   * @param target The target to write to
+   * @param rows   The rows to write
+   * @throws KettleException In case writing failed
+   */
+  protected void writeRows( UnwindTarget target, List<Map<String, Object>> rows ) throws KettleException {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put( UnwindTarget.ROWS_PARAMETER, rows );
+    String cypher = target.getCypher();
+    if ( maxInFlight > 1 ) {
+      if ( pipeline == null ) {
+        pipeline = new AsyncWritePipeline( log, connection, maxInFlight );
+      }
+      pipeline.submit( cypher, parameters );
+      return;
+    }
+    AdaptiveBatchSizer sizer = adaptiveBatchSize ? getSizer( target ) : null;
+    try {
+      if ( session == null ) {
+        session = connection.getSession( log );
+      }
+      long startTime = System.currentTimeMillis();
+      session.writeTransaction( tx -> tx.run( cypher, parameters ).consume() );
+      if ( sizer != null ) {
+        sizer.recordSuccess( rows.size(), System.currentTimeMillis() - startTime );
+      }
+      if ( log.isDebug() ) {
+        log.logDebug( "Wrote batch of " + rows.size() + " rows to " + target );
+      }
+    } catch ( Exception e ) {
+      throw new KettleException( "Error writing batch of " + rows.size() + " rows to " + target + " with statement: " + cypher, e );
+    }
+  }
+
+  /**
+   * Get the batch sizer of the given target, it's looked up once per target for the lifetime of this writer
+   */
+  private AdaptiveBatchSizer getSizer( UnwindTarget target ) {
+    return sizers.computeIfAbsent( target, t -> AdaptiveBatchSizer.getSizer( connection, t.getCypher(), batchSize ) );
+  }
+
+  /**
+   * Gets the batch size to use for the given target: the learned one for adaptive batch sizes
+   *
+   * @param target The target to get the batch size for
+   * @return The maximum number of rows in a batch for the target
+   */
+  public int getBatchSize( UnwindTarget target ) {
+    if ( adaptiveBatchSize && maxInFlight <= 1 ) {
+      return getSizer( target ).getBatchSize();
+    }
+    return batchSize;
+  }
+
+  /**
+   * Estimate the size of a parameter value in bytes.  This doesn't need to be precise, just good enough to keep the
+   * size of transactions in check.
+   *
+   * @param value The value to estimate the size of
+   * @return The estimated size in bytes
+   */
+  public static long estimateSize( Object value ) {
+    if ( value == null ) {
+      return 1;
+    }
+    if ( value instanceof String ) {
+      return 4 + ( (String) value ).length();
+    }
+    if ( value instanceof byte[] ) {
+      return 4 + ( (byte[]) value ).length;
+    }
+    if ( value instanceof Map ) {
+      long size = 4;
+      for ( Map.Entry<?, ?> entry : ( (Map<?, ?>) value ).entrySet() ) {
+        size += estimateSize( entry.getKey() ) + estimateSize( entry.getValue() );
+      }
+      return size;
+    }
+    if ( value instanceof Collection ) {
+      long size = 4;
+      for ( Object element : (Collection<?>) value ) {
+        size += estimateSize( element );
+      }
+      return size;
+    }
+    return 9;
+  }
+
+  private static class Batch {
+    private final List<Map<String, Object>> rows = new ArrayList<>();
+    private final AdaptiveBatchSizer sizer;
+    private long bytes;
+    private long firstRowTime;
+
+    private Batch( AdaptiveBatchSizer sizer ) {
+      this.sizer = sizer;
+    }
+
+    private int getBatchSize( int defaultBatchSize ) {
+      return sizer == null ? defaultBatchSize : sizer.getBatchSize();
+    }
+
+    private void add( Map<String, Object> row ) {
+      if ( rows.isEmpty() ) {
+        firstRowTime = System.currentTimeMillis();
+      }
+      rows.add( row );
+      bytes += estimateSize( row );
+    }
+
+    private void recalculateBytes() {
+      bytes = 0;
+      for ( Map<String, Object> row : rows ) {
+        bytes += estimateSize( row );
+      }
+    }
+
+    private long getAgeMs( long now ) {
+      return rows.isEmpty() ? 0L : now - firstRowTime;
+    }
+  }
+
+  /**
+   * Gets batchSize
+   *
+   * @return value of batchSize
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @param batchSize The maximum number of rows in a batch
+   */
+  public void setBatchSize( int batchSize ) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Gets maxBatchBytes
+   *
+   * @return value of maxBatchBytes
+   */
+  public long getMaxBatchBytes() {
+    return maxBatchBytes;
+  }
+
+  /**
+   * @param maxBatchBytes The maximum estimated size of a batch in bytes
+   */
+  public void setMaxBatchBytes( long maxBatchBytes ) {
+    this.maxBatchBytes = maxBatchBytes;
+  }
+
+  /**
+   * Gets maxLatencyMs
+   *
+   * @return value of maxLatencyMs
+   */
+  public long getMaxLatencyMs() {
+    return maxLatencyMs;
+  }
+
+  /**
+   * @param maxLatencyMs The maximum time in ms a row is buffered before its batch is written
+   */
+  public void setMaxLatencyMs( long maxLatencyMs ) {
+    this.maxLatencyMs = maxLatencyMs;
+  }
+
+  /**
+   * Gets maxInFlight
+   *
+   * @return value of maxInFlight
+   */
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * @param maxInFlight The maximum number of batches committing at the same time. 1 writes synchronously.
+   */
+  public void setMaxInFlight( int maxInFlight ) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Gets adaptiveBatchSize
+   *
+   * @return value of adaptiveBatchSize
+   */
+  public boolean isAdaptiveBatchSize() {
+    return adaptiveBatchSize;
+  }
+
+  /**
+   * @param adaptiveBatchSize Learn the batch size per target from commit latencies and errors, starting from the batch size.
+   *                          Only used for synchronous writes.
+   */
+  public void setAdaptiveBatchSize( boolean adaptiveBatchSize ) {
+    this.adaptiveBatchSize = adaptiveBatchSize;
+  }
+
+  /**
+   * Gets rowsWritten
+   *
+   * @return value of rowsWritten
+   */
+  public long getRowsWritten() {
+    return rowsWritten;
+  }
+
+  /**
+   * Gets batchesWritten
+   *
+   * @return value of batchesWritten
+   */
+  public long getBatchesWritten() {
+    return batchesWritten;
+  }
+
+  /**
+   * Gets the number of rows waiting to be written
+   *
+   * @return value of the number of buffered rows
+   */
+  public int getBufferedRows() {
+    int count = 0;
+    for ( Batch batch : batches.values() ) {
+      count += batch.rows.size();
+    }
+    return count;
+  }
+}
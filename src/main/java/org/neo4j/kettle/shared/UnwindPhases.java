@@ -0,0 +1,65 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.kettle.core.data.GraphNodeData;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for the classes which turn graphs into phases of UNWIND rows grouped per {@link UnwindTarget}.
+ */
+class UnwindPhases {
+
+  private UnwindPhases() {
+  }
+
+  /**
+   * Write the given phases with the given writer.  Each phase is written and committed before the next one starts,
+   * empty phases are skipped.
+   *
+   * @param writer The writer to use
+   * @param phases The rows per phase and target
+   * @throws KettleException In case writing failed
+   */
+  static void write( UnwindBatchWriter writer, List<Map<UnwindTarget, List<Map<String, Object>>>> phases ) throws KettleException {
+    for ( Map<UnwindTarget, List<Map<String, Object>>> phase : phases ) {
+      if ( phase.isEmpty() ) {
+        continue;
+      }
+      for ( Map.Entry<UnwindTarget, List<Map<String, Object>>> entry : phase.entrySet() ) {
+        for ( Map<String, Object> row : entry.getValue() ) {
+          writer.addRow( entry.getKey(), row );
+        }
+      }
+      writer.flush();
+    }
+  }
+
+  /**
+   * Add a row to the group of its target in a phase
+   *
+   * @param phase  The rows per target
+   * @param target The target of the row
+   * @param row    The row to add
+   */
+  static void add( Map<UnwindTarget, List<Map<String, Object>>> phase, UnwindTarget target, Map<String, Object> row ) {
+    phase.computeIfAbsent( target, t -> new ArrayList<>() ).add( row );
+  }
+
+  /**
+   * Check that a node of a relationship was found
+   *
+   * @param node   The node found or null
+   * @param nodeId The ID or ID key of the node which was looked up
+   * @return The node
+   * @throws IllegalArgumentException In case the node wasn't found
+   */
+  static GraphNodeData getNode( GraphNodeData node, Object nodeId ) {
+    if ( node == null ) {
+      throw new IllegalArgumentException( "Node with ID '" + nodeId + "' of a relationship wasn't found in the graph" );
+    }
+    return node;
+  }
+}
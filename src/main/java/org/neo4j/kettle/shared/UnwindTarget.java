@@ -0,0 +1,538 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.kettle.core.data.GraphNodeData;
+import org.neo4j.kettle.core.data.GraphPropertyData;
+import org.neo4j.kettle.core.data.GraphRelationshipData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Describes where a batch of UNWIND rows is written to: a node label set with its key properties or a relationship
+ * type with the label sets and key properties of the source and target nodes.
+ * It generates the Cypher statement to use with a $rows parameter.
+ * <p>
+ * Node rows are maps with the node properties, including the key properties.
+ * Relationship rows are maps with a "source" and "target" map containing the node key properties and a "properties" map.
+ * <p>
+ * Targets which update or delete existing nodes find them on their key properties.  Their rows are maps with a "key"
+ * map containing the key properties and for updates a "properties" map with the properties to set.  A property with a
+ * null value is removed.  Relationship update and delete rows have the same layout as merge rows.
+ */
+public class UnwindTarget {
+
+  public static final String ROWS_PARAMETER = "rows";
+  public static final String ROW_SOURCE = "source";
+  public static final String ROW_TARGET = "target";
+  public static final String ROW_PROPERTIES = "properties";
+  public static final String ROW_KEY = "key";
+
+  public enum Type {
+    NODE, RELATIONSHIP,
+  }
+
+  public enum Operation {
+    MERGE, UPDATE, DELETE,
+  }
+
+  private final Type type;
+  private final Operation operation;
+
+  private final List<String> labels;
+  private final List<String> keyProperties;
+
+  private final String relationshipType;
+  private final List<String> targetLabels;
+  private final List<String> targetKeyProperties;
+
+  private final List<String> addedLabels;
+  private final List<String> removedLabels;
+
+  private final boolean matchingNodes;
+
+  private final int hashCode;
+
+  private String cypher;
+
+  private UnwindTarget( Type type, List<String> labels, List<String> keyProperties, String relationshipType, List<String> targetLabels,
+                        List<String> targetKeyProperties ) {
+    this( type, Operation.MERGE, labels, keyProperties, relationshipType, targetLabels, targetKeyProperties, null, null );
+  }
+
+  private UnwindTarget( Type type, Operation operation, List<String> labels, List<String> keyProperties, String relationshipType,
+                        List<String> targetLabels, List<String> targetKeyProperties, List<String> addedLabels, List<String> removedLabels ) {
+    this( type, operation, labels, keyProperties, relationshipType, targetLabels, targetKeyProperties, addedLabels, removedLabels, false );
+  }
+
+  private UnwindTarget( Type type, Operation operation, List<String> labels, List<String> keyProperties, String relationshipType,
+                        List<String> targetLabels, List<String> targetKeyProperties, List<String> addedLabels, List<String> removedLabels,
+                        boolean matchingNodes ) {
+    this.type = type;
+    this.operation = operation;
+    this.labels = copy( labels );
+    this.keyProperties = copy( keyProperties );
+    this.relationshipType = relationshipType;
+    this.targetLabels = copy( targetLabels );
+    this.targetKeyProperties = copy( targetKeyProperties );
+    this.addedLabels = copy( addedLabels );
+    this.removedLabels = copy( removedLabels );
+    this.matchingNodes = matchingNodes;
+    this.hashCode = Objects.hash( type, operation, this.labels, this.keyProperties, relationshipType, this.targetLabels,
+      this.targetKeyProperties, this.addedLabels, this.removedLabels, matchingNodes );
+  }
+
+  private static List<String> copy( List<String> list ) {
+    if ( list == null ) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList( new ArrayList<>( list ) );
+  }
+
+  /**
+   * Nodes with the given labels, merged on the given key properties.  Without key properties the nodes are created.
+   *
+   * @param labels        The labels of the nodes
+   * @param keyProperties The key properties to merge on
+   * @return The node target
+   */
+  public static UnwindTarget node( List<String> labels, List<String> keyProperties ) {
+    return new UnwindTarget( Type.NODE, labels, keyProperties, null, null, null );
+  }
+
+  /**
+   * Relationships of the given type between the source and target nodes, merged on source and target node key properties.
+   *
+   * @param relationshipType    The type of relationship
+   * @param sourceLabels        The labels of the source node
+   * @param sourceKeyProperties The key properties of the source node
+   * @param targetLabels        The labels of the target node
+   * @param targetKeyProperties The key properties of the target node
+   * @return The relationship target
+   */
+  public static UnwindTarget relationship( String relationshipType, List<String> sourceLabels, List<String> sourceKeyProperties,
+                                           List<String> targetLabels, List<String> targetKeyProperties ) {
+    if ( sourceKeyProperties == null || sourceKeyProperties.isEmpty() || targetKeyProperties == null || targetKeyProperties.isEmpty() ) {
+      throw new IllegalArgumentException( "Relationship target " + relationshipType + " needs key properties for the source and target nodes" );
+    }
+    return new UnwindTarget( Type.RELATIONSHIP, sourceLabels, sourceKeyProperties, relationshipType, targetLabels, targetKeyProperties );
+  }
+
+  /**
+   * Existing nodes with the given labels, found on the given key properties, which get the properties of the row and
+   * optionally labels added or removed
+   *
+   * @param labels        The labels of the nodes
+   * @param keyProperties The key properties to find the nodes with
+   * @param addedLabels   The labels to add to the nodes or null
+   * @param removedLabels The labels to remove from the nodes or null
+   * @return The node update target
+   */
+  public static UnwindTarget nodeUpdate( List<String> labels, List<String> keyProperties, List<String> addedLabels,
+                                         List<String> removedLabels ) {
+    validateKeys( labels, keyProperties );
+    return new UnwindTarget( Type.NODE, Operation.UPDATE, labels, keyProperties, null, null, null, addedLabels, removedLabels );
+  }
+
+  /**
+   * Existing nodes with the given labels, found on the given key properties, which are deleted with their relationships
+   *
+   * @param labels        The labels of the nodes
+   * @param keyProperties The key properties to find the nodes with
+   * @return The node delete target
+   */
+  public static UnwindTarget nodeDelete( List<String> labels, List<String> keyProperties ) {
+    validateKeys( labels, keyProperties );
+    return new UnwindTarget( Type.NODE, Operation.DELETE, labels, keyProperties, null, null, null, null, null );
+  }
+
+  /**
+   * Existing relationships of the given type between the source and target nodes which get the properties of the row.
+   *
+   * @param relationshipType    The type of relationship
+   * @param sourceLabels        The labels of the source node
+   * @param sourceKeyProperties The key properties of the source node
+   * @param targetLabels        The labels of the target node
+   * @param targetKeyProperties The key properties of the target node
+   * @return The relationship update target
+   */
+  public static UnwindTarget relationshipUpdate( String relationshipType, List<String> sourceLabels, List<String> sourceKeyProperties,
+                                                 List<String> targetLabels, List<String> targetKeyProperties ) {
+    validateKeys( sourceLabels, sourceKeyProperties );
+    validateKeys( targetLabels, targetKeyProperties );
+    return new UnwindTarget( Type.RELATIONSHIP, Operation.UPDATE, sourceLabels, sourceKeyProperties, relationshipType, targetLabels,
+      targetKeyProperties, null, null );
+  }
+
+  /**
+   * Existing relationships of the given type between the source and target nodes which are deleted.
+   * All relationships of that type between the two nodes are deleted.
+   *
+   * @param relationshipType    The type of relationship
+   * @param sourceLabels        The labels of the source node
+   * @param sourceKeyProperties The key properties of the source node
+   * @param targetLabels        The labels of the target node
+   * @param targetKeyProperties The key properties of the target node
+   * @return The relationship delete target
+   */
+  public static UnwindTarget relationshipDelete( String relationshipType, List<String> sourceLabels, List<String> sourceKeyProperties,
+                                                 List<String> targetLabels, List<String> targetKeyProperties ) {
+    validateKeys( sourceLabels, sourceKeyProperties );
+    validateKeys( targetLabels, targetKeyProperties );
+    return new UnwindTarget( Type.RELATIONSHIP, Operation.DELETE, sourceLabels, sourceKeyProperties, relationshipType, targetLabels,
+      targetKeyProperties, null, null );
+  }
+
+  /**
+   * This relationship merge target, but finding the source and target nodes with MATCH instead of merging them.
+   * Use it when the nodes are written before the relationships: concurrent transactions merging the same node which
+   * doesn't exist yet can each create it, unless there is a uniqueness constraint on its key properties.
+   * Rows with a source or target node which doesn't exist are skipped.
+   *
+   * @return The relationship target which matches its nodes
+   */
+  public UnwindTarget matchingNodes() {
+    if ( type != Type.RELATIONSHIP || operation != Operation.MERGE ) {
+      throw new IllegalStateException( "Only relationship merge targets can match their nodes, not " + this );
+    }
+    return new UnwindTarget( type, operation, labels, keyProperties, relationshipType, targetLabels, targetKeyProperties, addedLabels,
+      removedLabels, true );
+  }
+
+  private static void validateKeys( List<String> labels, List<String> keyProperties ) {
+    if ( keyProperties == null || keyProperties.isEmpty() ) {
+      throw new IllegalArgumentException( "Existing nodes with labels " + labels + " can only be found with key properties" );
+    }
+  }
+
+  /**
+   * The node target for the given node: its labels with the primary properties as keys
+   *
+   * @param node The node
+   * @return The node target
+   */
+  public static UnwindTarget node( GraphNodeData node ) {
+    return node( node.getLabels(), getPrimaryKeys( node.getProperties() ) );
+  }
+
+  /**
+   * The relationship target for the given relationship between the given source and target nodes.
+   * The nodes are identified by their labels and primary properties.
+   *
+   * @param relationship The relationship
+   * @param source       The source node
+   * @param target       The target node
+   * @return The relationship target
+   */
+  public static UnwindTarget relationship( GraphRelationshipData relationship, GraphNodeData source, GraphNodeData target ) {
+    return relationship( relationship.getLabel(), source.getLabels(), getPrimaryKeys( source.getProperties() ),
+      target.getLabels(), getPrimaryKeys( target.getProperties() ) );
+  }
+
+  /**
+   * Get the IDs of the primary properties
+   *
+   * @param properties The properties of a node
+   * @return The primary property IDs
+   */
+  public static List<String> getPrimaryKeys( List<GraphPropertyData> properties ) {
+    List<String> keys = new ArrayList<>();
+    for ( GraphPropertyData property : properties ) {
+      if ( property.isPrimary() ) {
+        keys.add( property.getId() );
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Build a node row: all the properties of the node
+   *
+   * @param node The node
+   * @return The row to write to a node target
+   */
+  public static Map<String, Object> nodeRow( GraphNodeData node ) {
+    return toMap( node.getProperties() );
+  }
+
+  /**
+   * Build a relationship row for this relationship target: the key properties of the source and target nodes and the
+   * properties of the relationship.
+   *
+   * @param relationship The relationship
+   * @param source       The source node
+   * @param target       The target node
+   * @return The row to write to this relationship target
+   */
+  public Map<String, Object> relationshipRow( GraphRelationshipData relationship, GraphNodeData source, GraphNodeData target ) {
+    Map<String, Object> row = new HashMap<>();
+    row.put( ROW_SOURCE, keyMap( source, keyProperties ) );
+    row.put( ROW_TARGET, keyMap( target, targetKeyProperties ) );
+    row.put( ROW_PROPERTIES, toMap( relationship.getProperties() ) );
+    return row;
+  }
+
+  /**
+   * Build a node update or delete row for this node target: the key properties of the node and the given properties.
+   *
+   * @param node       The node to get the key properties from
+   * @param properties The properties to set or null for a delete row
+   * @return The row to write to this node target
+   */
+  public Map<String, Object> nodeKeyRow( GraphNodeData node, Map<String, Object> properties ) {
+    Map<String, Object> row = new HashMap<>();
+    row.put( ROW_KEY, keyMap( node, keyProperties ) );
+    if ( properties != null ) {
+      row.put( ROW_PROPERTIES, properties );
+    }
+    return row;
+  }
+
+  private static Map<String, Object> keyMap( GraphNodeData node, List<String> keys ) {
+    Map<String, Object> map = new HashMap<>();
+    for ( String key : keys ) {
+      GraphPropertyData property = node.findProperty( key );
+      if ( property == null ) {
+        throw new IllegalArgumentException( "Key property '" + key + "' not found in node " + node );
+      }
+      map.put( key, property.getValue() );
+    }
+    return map;
+  }
+
+  private static Map<String, Object> toMap( List<GraphPropertyData> properties ) {
+    Map<String, Object> map = new HashMap<>();
+    for ( GraphPropertyData property : properties ) {
+      map.put( property.getId(), property.getValue() );
+    }
+    return map;
+  }
+
+  /**
+   * Get the Cypher statement which writes a batch of rows in the $rows parameter to this target
+   *
+   * @return The Cypher statement
+   */
+  public String getCypher() {
+    if ( cypher == null ) {
+      cypher = buildCypher();
+    }
+    return cypher;
+  }
+
+  private String buildCypher() {
+    StringBuilder cypher = new StringBuilder();
+    cypher.append( "UNWIND $" ).append( ROWS_PARAMETER ).append( " AS row " );
+    if ( operation != Operation.MERGE ) {
+      appendMatch( cypher );
+      return cypher.toString();
+    }
+    switch ( type ) {
+      case NODE:
+        cypher.append( keyProperties.isEmpty() ? "CREATE " : "MERGE " );
+        appendNode( cypher, "n", labels, keyProperties, "row" );
+        cypher.append( " SET n += row" );
+        break;
+      case RELATIONSHIP:
+        String nodeClause = matchingNodes ? "MATCH " : "MERGE ";
+        cypher.append( nodeClause );
+        appendNode( cypher, "s", labels, keyProperties, "row." + ROW_SOURCE );
+        cypher.append( " " ).append( nodeClause );
+        appendNode( cypher, "t", targetLabels, targetKeyProperties, "row." + ROW_TARGET );
+        cypher.append( " MERGE (s)-[r:" ).append( escape( relationshipType ) ).append( "]->(t)" );
+        cypher.append( " SET r += row." ).append( ROW_PROPERTIES );
+        break;
+    }
+    return cypher.toString();
+  }
+
+  private void appendMatch( StringBuilder cypher ) {
+    cypher.append( "MATCH " );
+    switch ( type ) {
+      case NODE:
+        appendNode( cypher, "n", labels, keyProperties, "row." + ROW_KEY );
+        if ( operation == Operation.DELETE ) {
+          cypher.append( " DETACH DELETE n" );
+          break;
+        }
+        cypher.append( " SET n += row." ).append( ROW_PROPERTIES );
+        if ( !addedLabels.isEmpty() ) {
+          cypher.append( ", n" );
+          for ( String label : addedLabels ) {
+            cypher.append( ":" ).append( escape( label ) );
+          }
+        }
+        if ( !removedLabels.isEmpty() ) {
+          cypher.append( " REMOVE n" );
+          for ( String label : removedLabels ) {
+            cypher.append( ":" ).append( escape( label ) );
+          }
+        }
+        break;
+      case RELATIONSHIP:
+        appendNode( cypher, "s", labels, keyProperties, "row." + ROW_SOURCE );
+        cypher.append( "-[r:" ).append( escape( relationshipType ) ).append( "]->" );
+        appendNode( cypher, "t", targetLabels, targetKeyProperties, "row." + ROW_TARGET );
+        if ( operation == Operation.DELETE ) {
+          cypher.append( " DELETE r" );
+        } else {
+          cypher.append( " SET r += row." ).append( ROW_PROPERTIES );
+        }
+        break;
+    }
+  }
+
+  private static void appendNode( StringBuilder cypher, String alias, List<String> labels, List<String> keys, String rowExpression ) {
+    cypher.append( "(" ).append( alias );
+    for ( String label : labels ) {
+      cypher.append( ":" ).append( escape( label ) );
+    }
+    if ( !keys.isEmpty() ) {
+      cypher.append( " {" );
+      for ( int i = 0; i < keys.size(); i++ ) {
+        if ( i > 0 ) {
+          cypher.append( ", " );
+        }
+        String key = escape( keys.get( i ) );
+        cypher.append( key ).append( ": " ).append( rowExpression ).append( "." ).append( key );
+      }
+      cypher.append( "}" );
+    }
+    cypher.append( ")" );
+  }
+
+  /**
+   * Escape a label, relationship type or property key with backticks
+   *
+   * @param name The name to escape
+   * @return The escaped name
+   */
+  public static String escape( String name ) {
+    return "`" + name.replace( "`", "``" ) + "`";
+  }
+
+  @Override public boolean equals( Object o ) {
+    if ( this == o ) {
+      return true;
+    }
+    if ( !( o instanceof UnwindTarget ) ) {
+      return false;
+    }
+    UnwindTarget target = (UnwindTarget) o;
+    return type == target.type
+      && operation == target.operation
+      && labels.equals( target.labels )
+      && keyProperties.equals( target.keyProperties )
+      && Objects.equals( relationshipType, target.relationshipType )
+      && targetLabels.equals( target.targetLabels )
+      && targetKeyProperties.equals( target.targetKeyProperties )
+      && addedLabels.equals( target.addedLabels )
+      && removedLabels.equals( target.removedLabels )
+      && matchingNodes == target.matchingNodes;
+  }
+
+  @Override public int hashCode() {
+    return hashCode;
+  }
+
+  @Override public String toString() {
+    String prefix = operation == Operation.MERGE ? "" : operation + " ";
+    if ( type == Type.NODE ) {
+      return prefix + "(:" + String.join( ":", labels ) + " " + keyProperties + ")";
+    }
+    return prefix + "(:" + String.join( ":", labels ) + ")-[:" + relationshipType + "]->(:" + String.join( ":", targetLabels ) + ")";
+  }
+
+  /**
+   * Gets type
+   *
+   * @return value of type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Gets operation
+   *
+   * @return value of operation
+   */
+  public Operation getOperation() {
+    return operation;
+  }
+
+  /**
+   * Gets labels: the node labels or the source node labels for a relationship
+   *
+   * @return value of labels
+   */
+  public List<String> getLabels() {
+    return labels;
+  }
+
+  /**
+   * Gets keyProperties: the node key properties or the source node key properties for a relationship
+   *
+   * @return value of keyProperties
+   */
+  public List<String> getKeyProperties() {
+    return keyProperties;
+  }
+
+  /**
+   * Gets relationshipType
+   *
+   * @return value of relationshipType
+   */
+  public String getRelationshipType() {
+    return relationshipType;
+  }
+
+  /**
+   * Gets targetLabels
+   *
+   * @return value of targetLabels
+   */
+  public List<String> getTargetLabels() {
+    return targetLabels;
+  }
+
+  /**
+   * Gets targetKeyProperties
+   *
+   * @return value of targetKeyProperties
+   */
+  public List<String> getTargetKeyProperties() {
+    return targetKeyProperties;
+  }
+
+  /**
+   * Gets addedLabels: the labels a node update adds
+   *
+   * @return value of addedLabels
+   */
+  public List<String> getAddedLabels() {
+    return addedLabels;
+  }
+
+  /**
+   * Gets removedLabels: the labels a node update removes
+   *
+   * @return value of removedLabels
+   */
+  public List<String> getRemovedLabels() {
+    return removedLabels;
+  }
+
+  /**
+   * Gets matchingNodes: true if a relationship merge finds its source and target nodes instead of merging them
+   *
+   * @return value of matchingNodes
+   */
+  public boolean isMatchingNodes() {
+    return matchingNodes;
+  }
+}
@@ -0,0 +1,88 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarGraphDataTest {
+
+  @Test
+  public void copyIntoColumns() {
+    GraphData graphData = new GraphData();
+    for ( int i = 0; i < 100; i++ ) {
+      List<GraphPropertyData> properties = new ArrayList<>();
+      properties.add( new GraphPropertyData( "id", (long) i, GraphPropertyDataType.Integer, true ) );
+      properties.add( new GraphPropertyData( "name", "Node " + ( i % 10 ), GraphPropertyDataType.String, false ) );
+      if ( i % 2 == 0 ) {
+        properties.add( new GraphPropertyData( "even", true, GraphPropertyDataType.Boolean, false ) );
+      }
+      // Mixed value classes in one column
+      //
+      properties.add( new GraphPropertyData( "mixed", i < 50 ? (Object) 1.5d : "text", i < 50 ? GraphPropertyDataType.Float : GraphPropertyDataType.String, false ) );
+      String id = i < 90 ? Integer.toString( i ) : "node-" + i;
+      graphData.getNodes().add( new GraphNodeData( id, new ArrayList<>( Arrays.asList( "Person", i % 3 == 0 ? "Customer" : "Prospect" ) ), properties ) );
+    }
+    for ( int i = 1; i < 90; i++ ) {
+      graphData.getRelationships().add( new GraphRelationshipData( "r" + i, "KNOWS", new ArrayList<>(), Integer.toString( i - 1 ), Integer.toString( i ) ) );
+    }
+
+    ColumnarGraphData columnar = new ColumnarGraphData( graphData );
+    assertEquals( 100, columnar.getNodes().size() );
+    assertEquals( 89, columnar.getRelationships().size() );
+
+    GraphNodeData node = columnar.findNode( "42" );
+    assertEquals( "42", node.getId() );
+    assertEquals( Arrays.asList( "Person", "Customer" ), node.getLabels() );
+    assertEquals( 42L, node.findProperty( "ID" ).getValue() );
+    assertTrue( node.findProperty( "id" ).isPrimary() );
+    assertEquals( "Node 2", node.getName() );
+    assertEquals( true, node.findProperty( "even" ).getValue() );
+    assertEquals( 1.5d, node.findProperty( "mixed" ).getValue() );
+    assertEquals( GraphPropertyDataType.Float, node.findProperty( "mixed" ).getType() );
+    assertNull( columnar.findNode( "43" ).findProperty( "even" ) );
+    assertEquals( "text", columnar.findNode( "node-95" ).findProperty( "mixed" ).getValue() );
+    assertEquals( GraphPropertyDataType.String, columnar.findNode( "node-95" ).findProperty( "mixed" ).getType() );
+
+    assertEquals( "r42", columnar.findRelationship( "41", "42" ).getId() );
+
+    // Write through
+    //
+    node.setProperties( new ArrayList<>() );
+    assertTrue( columnar.findNode( "42" ).getProperties().isEmpty() );
+    columnar.getNodes().remove( 0 );
+    assertEquals( 99, columnar.getNodes().size() );
+    assertNull( columnar.findNode( "0" ) );
+    assertEquals( "1", columnar.getNodes().get( 0 ).getId() );
+    assertFalse( columnar.getNodes().get( 0 ).getProperties().isEmpty() );
+
+    // Changes to the lists of labels and properties end up in the columns
+    //
+    columnar.findNode( "42" ).getProperties().add( new GraphPropertyData( "name", "Jim", GraphPropertyDataType.String, false ) );
+    assertEquals( "Jim", columnar.findNode( "42" ).findProperty( "name" ).getValue() );
+    assertEquals( 1, columnar.findNode( "42" ).getProperties().size() );
+    columnar.findNode( "42" ).getLabels().add( "Vip" );
+    assertEquals( Arrays.asList( "Person", "Customer", "Vip" ), columnar.findNode( "42" ).getLabels() );
+    assertEquals( Arrays.asList( "Person", "Customer" ), columnar.findNode( "45" ).getLabels() );
+    columnar.findNode( "42" ).getLabels().remove( "Customer" );
+    assertEquals( Arrays.asList( "Person", "Vip" ), columnar.findNode( "42" ).getLabels() );
+
+    GraphRelationshipData relationship = columnar.findRelationship( "r42" );
+    relationship.getProperties().add( new GraphPropertyData( "since", 2020L, GraphPropertyDataType.Integer, false ) );
+    assertEquals( 2020L, columnar.findRelationship( "r42" ).findProperty( "since" ).getValue() );
+    relationship.getProperties().clear();
+    assertTrue( columnar.findRelationship( "r42" ).getProperties().isEmpty() );
+
+    // Back to objects
+    //
+    GraphData copy = new GraphData( columnar );
+    assertEquals( 99, copy.getNodes().size() );
+    assertEquals( "node-99", copy.getNodes().get( 98 ).getId() );
+  }
+}
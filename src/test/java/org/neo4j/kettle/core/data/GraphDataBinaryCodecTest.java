@@ -0,0 +1,160 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+import org.neo4j.driver.Values;
+import org.neo4j.driver.types.IsoDuration;
+import org.neo4j.driver.types.Point;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GraphDataBinaryCodecTest {
+
+  @Test
+  public void roundTrip() throws Exception {
+    GraphData graphData = new GraphData();
+    graphData.setSourceTransformationName( "lineage" );
+    graphData.setSourceStepName( null );
+
+    List<GraphPropertyData> properties = new ArrayList<>();
+    properties.add( new GraphPropertyData( "id", -42L, GraphPropertyDataType.Integer, true ) );
+    properties.add( new GraphPropertyData( "name", "\u00dcn\u00efcode", GraphPropertyDataType.String, false ) );
+    properties.add( new GraphPropertyData( "score", 3.25d, GraphPropertyDataType.Float, false ) );
+    properties.add( new GraphPropertyData( "active", false, GraphPropertyDataType.Boolean, false ) );
+    properties.add( new GraphPropertyData( "born", LocalDate.of( 1970, 1, 2 ), GraphPropertyDataType.Date, false ) );
+    properties.add( new GraphPropertyData( "seen", LocalDateTime.of( 2020, 5, 6, 7, 8, 9, 10 ), GraphPropertyDataType.LocalDateTime, false ) );
+    properties.add( new GraphPropertyData( "took", Duration.ofMillis( 1234 ), GraphPropertyDataType.Duration, false ) );
+    properties.add( new GraphPropertyData( "tags", Arrays.asList( "a", 1L, null ), GraphPropertyDataType.List, false ) );
+    properties.add( new GraphPropertyData( "missing", null, null, false ) );
+    GraphNodeData node = new GraphNodeData( "12345678901", new ArrayList<>( Arrays.asList( "Person", "Customer" ) ), properties );
+    node.setPropertySetId( "Person,Customer" );
+    graphData.getNodes().add( node );
+    graphData.getNodes().add( new GraphNodeData( "node-b" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "0", "KNOWS", new ArrayList<>(), "12345678901", "node-b" ) );
+
+    GraphData copy = GraphDataBinaryCodec.decode( GraphDataBinaryCodec.encode( graphData ) );
+
+    assertEquals( "lineage", copy.getSourceTransformationName() );
+    assertNull( copy.getSourceStepName() );
+    assertEquals( 2, copy.getNodes().size() );
+    assertEquals( 1, copy.getRelationships().size() );
+
+    GraphNodeData nodeCopy = copy.findNode( "12345678901" );
+    assertEquals( Arrays.asList( "Person", "Customer" ), nodeCopy.getLabels() );
+    assertEquals( "Person,Customer", nodeCopy.getPropertySetId() );
+    assertEquals( properties.size(), nodeCopy.getProperties().size() );
+    for ( GraphPropertyData property : properties ) {
+      GraphPropertyData propertyCopy = nodeCopy.findProperty( property.getId() );
+      assertEquals( property.getValue(), propertyCopy.getValue() );
+      assertEquals( property.getType(), propertyCopy.getType() );
+      assertEquals( property.isPrimary(), propertyCopy.isPrimary() );
+    }
+    assertTrue( copy.findNode( "node-b" ).getProperties().isEmpty() );
+
+    GraphRelationshipData relationship = copy.findRelationship( "0" );
+    assertEquals( "KNOWS", relationship.getLabel() );
+    assertEquals( "node-b", relationship.getTargetNodeId() );
+    assertNull( relationship.getPropertySetId() );
+  }
+
+  @Test
+  public void variableLengthIntegers() throws Exception {
+    GraphData graphData = new GraphData();
+    graphData.getNodes().add( new GraphNodeData( Long.toString( Long.MIN_VALUE ) ) );
+    graphData.getNodes().add( new GraphNodeData( Long.toString( Long.MAX_VALUE ) ) );
+    graphData.getNodes().add( new GraphNodeData( "007" ) );
+
+    GraphData copy = GraphDataBinaryCodec.decode( GraphDataBinaryCodec.encode( graphData ) );
+    assertEquals( Long.toString( Long.MIN_VALUE ), copy.getNodes().get( 0 ).getId() );
+    assertEquals( Long.toString( Long.MAX_VALUE ), copy.getNodes().get( 1 ).getId() );
+    assertEquals( "007", copy.getNodes().get( 2 ).getId() );
+    assertFalse( IdColumn.isNumericId( "-0" ) );
+  }
+
+  @Test
+  public void driverValues() throws Exception {
+    IsoDuration duration = Values.isoDuration( 14, -3, 3600, 500 ).asIsoDuration();
+    Point point = Values.point( 4326, 4.35, 50.85 ).asPoint();
+    Point point3d = Values.point( 4979, 4.35, 50.85, 13.5 ).asPoint();
+
+    IsoDuration durationCopy = (IsoDuration) roundTrip( duration );
+    assertEquals( 14, durationCopy.months() );
+    assertEquals( -3, durationCopy.days() );
+    assertEquals( 3600, durationCopy.seconds() );
+    assertEquals( 500, durationCopy.nanoseconds() );
+
+    Point pointCopy = (Point) roundTrip( point );
+    assertEquals( 4326, pointCopy.srid() );
+    assertEquals( 4.35, pointCopy.x(), 0d );
+    assertEquals( 50.85, pointCopy.y(), 0d );
+    assertTrue( Double.isNaN( pointCopy.z() ) );
+    assertEquals( 13.5, ( (Point) roundTrip( point3d ) ).z(), 0d );
+  }
+
+  private static Object roundTrip( Object value ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GraphDataBinaryCodec.writeValue( new DataOutputStream( bytes ), value );
+    return GraphDataBinaryCodec.readValue( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+  }
+
+  @Test
+  public void unsupportedValues() throws Exception {
+    try {
+      GraphDataBinaryCodec.writeValue( new DataOutputStream( new ByteArrayOutputStream() ), new StringBuilder( "text" ) );
+      fail( "Serializable values other than the supported ones are not written" );
+    } catch ( IOException e ) {
+      assertTrue( e.getMessage().contains( "Unsupported" ) );
+    }
+    // The tag which was used for Java serialized values
+    //
+    assertCorrupt( new byte[] { 18, 0 } );
+  }
+
+  @Test
+  public void corruptInput() throws Exception {
+    // Byte array, list and string lengths way beyond the end of the input
+    //
+    assertCorrupt( new byte[] { 8, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 1, 2, 3 } );
+    assertCorrupt( new byte[] { 16, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0, 0 } );
+    assertCorrupt( new byte[] { 7, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F, 1, 2 } );
+
+    // A negative length
+    //
+    assertCorrupt( new byte[] { 8, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F } );
+
+    // A graph which claims a huge number of nodes
+    //
+    byte[] encoded = GraphDataBinaryCodec.encode( new GraphData() );
+    encoded[ encoded.length - 2 ] = (byte) 0x7F;
+    try {
+      GraphDataBinaryCodec.decode( encoded );
+      fail( "Corrupt graph data was decoded" );
+    } catch ( IOException e ) {
+      // Expected
+    }
+  }
+
+  private static void assertCorrupt( byte[] bytes ) {
+    try {
+      GraphDataBinaryCodec.readValue( new DataInputStream( new ByteArrayInputStream( bytes ) ) );
+      fail( "Corrupt value was decoded" );
+    } catch ( IOException e ) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.InternalRelationship;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class GraphDataBuilderTest {
+
+  private static InternalNode createNode( long id, String name ) {
+    return new InternalNode( id, Collections.singletonList( "Person" ), Collections.singletonMap( "name", Values.value( name ) ) );
+  }
+
+  @Test
+  public void records() {
+    List<String> keys = Arrays.asList( "a", "r", "b", "x" );
+    GraphDataBuilder builder = new GraphDataBuilder();
+    builder.addRecord( new InternalRecord( keys, new Value[] {
+      Values.value( createNode( 1, "Jim" ) ),
+      Values.value( new InternalRelationship( 10, 1, 2, "KNOWS", Collections.emptyMap() ) ),
+      Values.value( createNode( 2, "Ann" ) ),
+      Values.value( "not a graph element" )
+    } ) );
+    builder.addRecord( new InternalRecord( keys, new Value[] {
+      Values.value( createNode( 3, "Bob" ) ),
+      Values.value( new InternalRelationship( 10, 1, 2, "KNOWS", Collections.singletonMap( "since", Values.value( 2020L ) ) ) ),
+      Values.value( createNode( 1, "James" ) ),
+      Values.value( 42L )
+    } ) );
+    assertEquals( 3, builder.getNodeCount() );
+    assertEquals( 1, builder.getRelationshipCount() );
+
+    // The order in which they were first seen, the values seen last
+    //
+    GraphData graphData = builder.build();
+    assertEquals( "1", graphData.getNodes().get( 0 ).getId() );
+    assertEquals( "James", graphData.getNodes().get( 0 ).findProperty( "name" ).getValue() );
+    assertEquals( "2", graphData.getNodes().get( 1 ).getId() );
+    assertEquals( "3", graphData.getNodes().get( 2 ).getId() );
+    assertEquals( 2020L, graphData.findRelationship( "10" ).findProperty( "since" ).getValue() );
+    assertEquals( "1", graphData.findRelationship( "10" ).getSourceNodeId() );
+    assertEquals( "2", graphData.findRelationship( "10" ).getTargetNodeId() );
+  }
+
+  @Test
+  public void graphElements() {
+    GraphNodeData jim = new GraphNodeData( "1" );
+    GraphNodeData james = new GraphNodeData( "1" );
+    GraphData graphData = new GraphDataBuilder()
+      .addNode( jim )
+      .addNode( new GraphNodeData( "x" ) )
+      .addNode( james )
+      .build();
+    assertEquals( 2, graphData.getNodes().size() );
+    assertSame( james, graphData.getNodes().get( 0 ) );
+  }
+
+  @Test
+  public void addAll() {
+    GraphDataBuilder first = new GraphDataBuilder().addNode( createNode( 1, "Jim" ) ).addNode( createNode( 2, "Ann" ) );
+    GraphDataBuilder second = new GraphDataBuilder().addNode( createNode( 3, "Bob" ) ).addNode( createNode( 1, "James" ) );
+    GraphData graphData = first.addAll( second ).build();
+
+    // The same as adding the records of the second builder to the first one
+    //
+    assertEquals( 3, graphData.getNodes().size() );
+    assertEquals( "James", graphData.getNodes().get( 0 ).findProperty( "name" ).getValue() );
+    assertEquals( "Bob", graphData.getNodes().get( 2 ).findProperty( "name" ).getValue() );
+  }
+}
@@ -0,0 +1,171 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GraphDataCopyOnWriteTest {
+
+  private GraphData createGraph() {
+    GraphData graphData = new GraphData();
+    graphData.setSourceStepName( "step" );
+    for ( int i = 0; i < 3; i++ ) {
+      GraphNodeData node = new GraphNodeData( "n" + i );
+      node.setLabels( new ArrayList<>( Arrays.asList( "Node" ) ) );
+      node.getProperties().add( new GraphPropertyData( "name", "name" + i, GraphPropertyDataType.String, false ) );
+      graphData.getNodes().add( node );
+    }
+    graphData.getRelationships().add( new GraphRelationshipData( "r0", "NEXT", new ArrayList<>(), "n0", "n1" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "r1", "NEXT", new ArrayList<>(), "n1", "n2" ) );
+    return graphData;
+  }
+
+  @Test
+  public void changesStayInTheirGraph() {
+    GraphData original = createGraph();
+    GraphData copy = original.copyOnWrite();
+    assertEquals( "step", copy.getSourceStepName() );
+
+    copy.findNode( "n1" ).findProperty( "name" ).setValue( "changed" );
+    assertEquals( "name1", original.findNode( "n1" ).findProperty( "name" ).getValue() );
+    assertEquals( "changed", copy.findNode( "n1" ).findProperty( "name" ).getValue() );
+
+    original.getNodes().get( 2 ).setLabels( new ArrayList<>( Arrays.asList( "Other" ) ) );
+    assertEquals( Arrays.asList( "Node" ), copy.findNode( "n2" ).getLabels() );
+
+    // Retrieving an element twice gives the same copy
+    //
+    assertSame( copy.findNode( "n0" ), copy.getNodes().get( 0 ) );
+    assertNotSame( copy.findNode( "n0" ), original.findNode( "n0" ) );
+  }
+
+  @Test
+  public void structuralChanges() throws Exception {
+    GraphData original = createGraph();
+    GraphData copy = original.copyOnWrite();
+
+    copy.getNodes().add( new GraphNodeData( "n3" ) );
+    copy.getRelationships().add( new GraphRelationshipData( "r2", "NEXT", new ArrayList<>(), "n2", "n3" ) );
+    original.getNodes().remove( 0 );
+
+    assertEquals( 4, copy.getNodes().size() );
+    assertEquals( 2, original.getNodes().size() );
+    assertNull( original.findNode( "n0" ) );
+    assertEquals( "n0", copy.findNode( "n0" ).getId() );
+    assertNull( original.findNode( "n3" ) );
+    assertEquals( "r2", copy.findRelationship( "n2", "n3" ).getId() );
+    assertEquals( 1, copy.findIncomingRelationships( "n3" ).size() );
+    assertEquals( 0, original.findIncomingRelationships( "n3" ).size() );
+
+    // A copy of a copy
+    //
+    GraphData copy2 = copy.copyOnWrite();
+    copy2.findRelationship( "r0" ).setLabel( "PREVIOUS" );
+    assertEquals( "NEXT", copy.findRelationship( "r0" ).getLabel() );
+    assertEquals( "NEXT", original.findRelationship( "r0" ).getLabel() );
+    assertEquals( 1, copy2.findRelationships( "PREVIOUS" ).size() );
+    assertEquals( 4, GraphDataBinaryCodec.decode( GraphDataBinaryCodec.encode( copy2 ) ).getNodes().size() );
+  }
+
+  @Test
+  public void readingDoesntCopy() {
+    GraphData original = createGraph();
+    GraphData copy = original.copyOnWrite();
+
+    // Iterating over the graph for reading shares the elements
+    //
+    int index = 0;
+    for ( GraphNodeData node : copy.getNodesForReading() ) {
+      assertSame( original.getNodesForReading().get( index++ ), node );
+    }
+    for ( GraphRelationshipData relationship : copy.getRelationshipsForReading() ) {
+      assertSame( relationship, original.getRelationshipsForReading().get( relationship.getId().equals( "r0" ) ? 0 : 1 ) );
+    }
+    assertEquals( "name1", copy.findNodeWithProperty( "name", "name1" ).findProperty( "name" ).getValue() );
+    assertSame( copy.getNodesForReading().get( 2 ), original.getNodesForReading().get( 2 ) );
+  }
+
+  @Test
+  public void ownershipStays() {
+    GraphData original = createGraph();
+    GraphData copy = original.copyOnWrite();
+
+    // The original keeps the node it handed out, even after it's copied again
+    //
+    GraphNodeData node = original.getNodes().get( 0 );
+    GraphData copy2 = original.copyOnWrite();
+    assertSame( node, original.getNodes().get( 0 ) );
+    node.findProperty( "name" ).setValue( "changed" );
+    assertEquals( "changed", original.findNode( "n0" ).findProperty( "name" ).getValue() );
+    assertEquals( "name0", copy.findNode( "n0" ).findProperty( "name" ).getValue() );
+    assertEquals( "name0", copy2.findNode( "n0" ).findProperty( "name" ).getValue() );
+
+    // Structural changes keep the copies
+    //
+    GraphNodeData copied = copy2.getNodes().get( 1 );
+    copy2.getNodes().add( new GraphNodeData( "n3" ) );
+    assertSame( copied, copy2.getNodes().get( 1 ) );
+    assertEquals( 3, original.getNodes().size() );
+  }
+
+  @Test
+  public void sharingDoesntCopy() {
+    AtomicInteger copies = new AtomicInteger();
+    SharedElementList<GraphNodeData> list = new SharedElementList<>( 0, node -> {
+      copies.incrementAndGet();
+      return new GraphNodeData( node );
+    } );
+    for ( int i = 0; i < 1000; i++ ) {
+      list.add( new GraphNodeData( "n" + i ) );
+    }
+
+    // Sharing and reading hand out the same elements
+    //
+    SharedElementList<GraphNodeData> copy = list.share();
+    SharedElementList<GraphNodeData> copy2 = copy.share();
+    for ( int i = 0; i < list.size(); i++ ) {
+      assertSame( list.peek( i ), copy2.peek( i ) );
+    }
+    assertEquals( 0, copies.get() );
+
+    // Only retrieving an element copies it, once
+    //
+    GraphNodeData node = copy.get( 5 );
+    assertSame( node, copy.get( 5 ) );
+    assertNotSame( node, list.peek( 5 ) );
+    assertEquals( 1, copies.get() );
+
+    copy.add( new GraphNodeData( "n1000" ) );
+    assertSame( node, copy.peek( 5 ) );
+    assertEquals( 1001, copy.size() );
+    assertEquals( 1000, list.size() );
+    assertEquals( 1, copies.get() );
+  }
+
+  @Test
+  public void traversingAndWritingDontCopy() {
+    GraphData original = createGraph();
+    GraphData copy = original.copyOnWrite();
+
+    List<GraphNodeData> component = new GraphTraversal( copy ).connectedComponents().get( 0 );
+    assertEquals( 3, component.size() );
+    List<GraphNodeData> path = new GraphTraversal( copy ).shortestPath( copy.getNodesForReading().get( 0 ),
+      copy.getNodesForReading().get( 2 ) );
+    assertEquals( 3, path.size() );
+    copy.toJson();
+    copy.toJsonString();
+    for ( int i = 0; i < 3; i++ ) {
+      assertSame( original.getNodesForReading().get( i ), component.get( i ) );
+      assertSame( original.getNodesForReading().get( i ), path.get( i ) );
+      assertSame( original.getNodesForReading().get( i ), copy.getNodesForReading().get( i ) );
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GraphDataIndexTest {
+
+  private GraphData graphData;
+
+  @Before
+  public void setUp() throws Exception {
+    graphData = new GraphData();
+    for ( int i = 0; i < 10; i++ ) {
+      graphData.getNodes().add( new GraphNodeData( "n" + i ) );
+    }
+    for ( int i = 0; i < 9; i++ ) {
+      graphData.getRelationships().add( new GraphRelationshipData( "r" + i, "NEXT", new ArrayList<>(), "n" + i, "n" + ( i + 1 ) ) );
+    }
+  }
+
+  @Test
+  public void findNode() {
+    assertSame( graphData.getNodes().get( 5 ), graphData.findNode( "n5" ) );
+    assertNull( graphData.findNode( "n10" ) );
+
+    GraphNodeData added = new GraphNodeData( "n10" );
+    graphData.getNodes().add( added );
+    assertSame( added, graphData.findNode( "n10" ) );
+
+    graphData.getNodes().remove( 0 );
+    assertNull( graphData.findNode( "n0" ) );
+
+    // Changing the ID after adding the node
+    //
+    graphData.getNodes().get( 0 ).setId( "x1" );
+    assertNull( graphData.findNode( "n1" ) );
+    assertSame( graphData.getNodes().get( 0 ), graphData.findNode( "x1" ) );
+  }
+
+  @Test
+  public void findRelationships() {
+    assertSame( graphData.getRelationships().get( 3 ), graphData.findRelationship( "r3" ) );
+    assertSame( graphData.getRelationships().get( 3 ), graphData.findRelationship( "n3", "n4" ) );
+    assertSame( graphData.getRelationships().get( 3 ), graphData.findRelationship( "n4", "n3" ) );
+    assertNull( graphData.findRelationship( "n3", "n5" ) );
+
+    List<GraphRelationshipData> relationships = graphData.findRelationships( graphData.findNode( "n4" ) );
+    assertEquals( 2, relationships.size() );
+    assertEquals( 1, graphData.findOutgoingRelationships( "n0" ).size() );
+    assertEquals( 0, graphData.findIncomingRelationships( "n0" ).size() );
+
+    // Re-point a relationship and reindex
+    //
+    graphData.getRelationships().get( 0 ).setTargetNodeId( "n9" );
+    graphData.reindex();
+    assertEquals( 2, graphData.findIncomingRelationships( "n9" ).size() );
+    assertEquals( 0, graphData.findIncomingRelationships( "n1" ).size() );
+  }
+
+  @Test
+  public void idChanges() {
+    // The node which was added, changed without getting it from the graph
+    //
+    GraphNodeData node = new GraphNodeData( "n10" );
+    graphData.getNodes().add( node );
+    assertSame( node, graphData.findNode( "n10" ) );
+    node.setId( 100L );
+    assertNull( graphData.findNode( "n10" ) );
+    assertSame( node, graphData.findNode( "100" ) );
+
+    // Relationships pick up changes of their ID, source and target without reindexing
+    //
+    GraphRelationshipData relationship = graphData.getRelationships().get( 0 );
+    relationship.setId( "x0" );
+    assertNull( graphData.findRelationship( "r0" ) );
+    assertSame( relationship, graphData.findRelationship( "x0" ) );
+
+    relationship.setTargetNodeId( "n9" );
+    assertEquals( 2, graphData.findIncomingRelationships( "n9" ).size() );
+    assertEquals( 0, graphData.findIncomingRelationships( "n1" ).size() );
+    relationship.setSourceNodeId( "100" );
+    assertEquals( 0, graphData.findOutgoingRelationships( "n0" ).size() );
+    assertSame( relationship, graphData.findRelationship( "100", "n9" ) );
+
+    // Nodes which aren't in any graph yet don't invalidate the indexes
+    //
+    GraphNodeData other = new GraphNodeData();
+    other.setId( "n11" );
+    assertNull( graphData.findNode( "n11" ) );
+    graphData.getNodes().add( other );
+    assertSame( other, graphData.findNode( "n11" ) );
+  }
+
+  @Test
+  public void changesOutsideTheGraph() {
+    // Changing the list given to the graph doesn't go through the graph
+    //
+    List<GraphNodeData> nodes = new ArrayList<>();
+    nodes.add( new GraphNodeData( "a" ) );
+    nodes.add( new GraphNodeData( "b" ) );
+    graphData.setNodes( nodes );
+    assertSame( nodes.get( 0 ), graphData.findNode( "a" ) );
+    GraphNodeData other = new GraphNodeData( "c" );
+    nodes.set( 0, other );
+    assertNull( graphData.findNode( "a" ) );
+    assertSame( other, graphData.findNode( "c" ) );
+    assertSame( nodes.get( 1 ), graphData.findNode( "b" ) );
+
+    List<GraphRelationshipData> relationships = new ArrayList<>();
+    relationships.add( new GraphRelationshipData( "r0", "NEXT", new ArrayList<>(), "a", "b" ) );
+    graphData.setRelationships( relationships );
+    assertEquals( 1, graphData.findOutgoingRelationships( "a" ).size() );
+    relationships.set( 0, new GraphRelationshipData( "x0", "NEXT", new ArrayList<>(), "c", "b" ) );
+    assertNull( graphData.findRelationship( "r0" ) );
+    assertEquals( 0, graphData.findOutgoingRelationships( "a" ).size() );
+    assertEquals( "x0", graphData.findOutgoingRelationships( "c" ).get( 0 ).getId() );
+  }
+
+  @Test
+  public void idChangesStayWithTheirGraph() {
+    GraphData other = new GraphData();
+    other.getNodes().add( new GraphNodeData( "n0" ) );
+    assertEquals( "n0", other.findNode( "n0" ).getId() );
+
+    graphData.findNode( "n1" ).setId( "x1" );
+    assertSame( graphData.getNodes().get( 1 ), graphData.findNode( "x1" ) );
+    assertEquals( "n0", other.findNode( "n0" ).getId() );
+
+    // A node moved to another graph reports its changes there
+    //
+    GraphNodeData moved = graphData.getNodes().remove( 2 );
+    other.getNodes().add( moved );
+    other.findNode( "n2" );
+    moved.setId( "x2" );
+    assertSame( moved, other.findNode( "x2" ) );
+    assertNull( other.findNode( "n2" ) );
+  }
+
+  @Test
+  public void relationshipsInGraphOrder() {
+    // Incoming, outgoing and a loop mixed
+    //
+    graphData.getRelationships().add( new GraphRelationshipData( "r9", "LOOP", new ArrayList<>(), "n4", "n4" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "r10", "BACK", new ArrayList<>(), "n7", "n4" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "r11", "OUT", new ArrayList<>(), "n4", "n0" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "r12", "BACK", new ArrayList<>(), "n8", "n4" ) );
+    List<String> ids = new ArrayList<>();
+    for ( GraphRelationshipData relationship : graphData.findRelationships( graphData.findNode( "n4" ) ) ) {
+      ids.add( relationship.getId() );
+    }
+    assertEquals( "[r3, r4, r9, r10, r11, r12]", ids.toString() );
+  }
+
+  @Test
+  public void findTopNode() {
+    assertEquals( "n0", graphData.findTopNode( "NEXT" ).getId() );
+
+    // Close the loop, it should still finish
+    //
+    graphData.getRelationships().add( new GraphRelationshipData( "r9", "NEXT", new ArrayList<>(), "n9", "n0" ) );
+    graphData.findTopNode( "NEXT" );
+  }
+
+  @Test
+  public void numericIds() {
+    GraphData numeric = new GraphData();
+    GraphNodeData node = new GraphNodeData( "42" );
+    numeric.getNodes().add( node );
+    numeric.getNodes().add( new GraphNodeData( "007" ) );
+    numeric.getRelationships().add( new GraphRelationshipData( "1", "REL", new ArrayList<>(), "42", "007" ) );
+
+    assertTrue( node.hasNumericId() );
+    assertEquals( 42L, node.getNumericId() );
+    assertEquals( "42", node.getId() );
+    assertFalse( numeric.getNodes().get( 1 ).hasNumericId() );
+    assertSame( node, numeric.findNode( 42L ) );
+    assertSame( node, numeric.findNode( "42" ) );
+    assertEquals( "007", numeric.findNode( "007" ).getId() );
+    assertNull( numeric.findNode( "7" ) );
+    assertEquals( "1", numeric.findRelationship( "42", "007" ).getId() );
+
+    // The String form of a numeric ID is only created once, until the ID changes
+    //
+    GraphRelationshipData relationship = numeric.getRelationships().get( 0 );
+    assertSame( node.getId(), node.getId() );
+    assertSame( relationship.getId(), relationship.getId() );
+    assertSame( relationship.getSourceNodeId(), relationship.getSourceNodeId() );
+    assertSame( node, numeric.findSourceNode( relationship ) );
+    relationship.setSourceNodeId( 43L );
+    assertEquals( "43", relationship.getSourceNodeId() );
+    assertNull( numeric.findSourceNode( relationship ) );
+    node.setId( 43L );
+    assertEquals( "43", node.getId() );
+    assertSame( node, numeric.findSourceNode( relationship ) );
+    node.setId( 42L );
+    relationship.setSourceNodeId( "42" );
+
+    GraphNodeData same = new GraphNodeData();
+    same.setId( 42L );
+    assertEquals( node, same );
+    assertEquals( node.hashCode(), same.hashCode() );
+    assertEquals( new GraphRelationshipData( "r", null, null, null, null ), new GraphRelationshipData( "r", null, null, null, null ) );
+    assertFalse( new GraphRelationshipData( "R", null, null, null, null ).equals( new GraphRelationshipData( "r", null, null, null, null ) ) );
+  }
+}
@@ -0,0 +1,70 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GraphDataJsonTest {
+
+  @Test
+  public void roundTrip() throws Exception {
+    GraphData graphData = new GraphData();
+    graphData.setSourceTransformationName( "trans \"quoted\"" );
+    graphData.setSourceStepName( "step" );
+
+    List<GraphPropertyData> properties = new ArrayList<>();
+    properties.add( new GraphPropertyData( "id", 123L, GraphPropertyDataType.Integer, true ) );
+    properties.add( new GraphPropertyData( "weight", 1.5d, GraphPropertyDataType.Float, false ) );
+    properties.add( new GraphPropertyData( "flag", true, GraphPropertyDataType.Boolean, false ) );
+    properties.add( new GraphPropertyData( "list", Arrays.asList( 1L, "two" ), GraphPropertyDataType.List, false ) );
+    properties.add( new GraphPropertyData( "nothing", null, GraphPropertyDataType.String, false ) );
+    GraphNodeData node = new GraphNodeData( "1", new ArrayList<>( Arrays.asList( "A", "B" ) ), properties );
+    node.setPropertySetId( "A,B" );
+    graphData.getNodes().add( node );
+    graphData.getNodes().add( new GraphNodeData( "2" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "3", "REL", new ArrayList<>(), "1", "2" ) );
+
+    StringWriter writer = new StringWriter();
+    graphData.writeJson( writer );
+    GraphData copy = new GraphData( new StringReader( writer.toString() ) );
+
+    assertEquals( "trans \"quoted\"", copy.getSourceTransformationName() );
+    assertEquals( "step", copy.getSourceStepName() );
+    GraphNodeData nodeCopy = copy.findNode( "1" );
+    assertEquals( Arrays.asList( "A", "B" ), nodeCopy.getLabels() );
+    assertEquals( "A,B", nodeCopy.getPropertySetId() );
+    assertEquals( 123L, nodeCopy.findProperty( "id" ).getValue() );
+    assertTrue( nodeCopy.findProperty( "id" ).isPrimary() );
+    assertEquals( 1.5d, nodeCopy.findProperty( "weight" ).getValue() );
+    assertEquals( true, nodeCopy.findProperty( "flag" ).getValue() );
+    assertEquals( Arrays.asList( 1L, "two" ), nodeCopy.findProperty( "list" ).getValue() );
+    assertNull( nodeCopy.findProperty( "nothing" ).getValue() );
+    assertEquals( GraphPropertyDataType.String, nodeCopy.findProperty( "nothing" ).getType() );
+    assertEquals( "2", copy.findRelationship( "3" ).getTargetNodeId() );
+    assertTrue( copy.findRelationship( "3" ).getProperties().isEmpty() );
+
+    // The string based API uses the same format
+    //
+    assertEquals( writer.toString(), graphData.toJsonString() );
+    assertEquals( 2, new GraphData( graphData.toJsonString() ).getNodes().size() );
+  }
+
+  @Test
+  public void readValues() throws Exception {
+    GraphData graphData = new GraphData( "{\"relationships\":[],\"extra\":{\"a\":[1,2]},"
+      + "\"nodes\":[{\"id\":\"n\",\"labels\":[],\"properties\":[{\"id\":\"m\",\"type\":\"Map\",\"value\":{\"x\":1e3,\"y\":null}}]}]}" );
+    Map<?, ?> map = (Map<?, ?>) graphData.findNode( "n" ).findProperty( "m" ).getValue();
+    assertEquals( 1000.0d, map.get( "x" ) );
+    assertTrue( map.containsKey( "y" ) );
+    assertNull( graphData.getSourceStepName() );
+  }
+}
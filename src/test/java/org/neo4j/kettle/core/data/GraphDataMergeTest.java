@@ -0,0 +1,113 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GraphDataMergeTest {
+
+  private GraphNodeData createNode( String id, String label, long key, String name ) {
+    List<GraphPropertyData> properties = new ArrayList<>();
+    properties.add( new GraphPropertyData( "key", key, GraphPropertyDataType.Integer, true ) );
+    properties.add( new GraphPropertyData( "name", name, GraphPropertyDataType.String, false ) );
+    return new GraphNodeData( id, new ArrayList<>( Collections.singletonList( label ) ), properties );
+  }
+
+  private GraphData createFragment( long sourceKey, long targetKey, String name ) {
+    GraphData graphData = new GraphData();
+    graphData.getNodes().add( createNode( "source", "Person", sourceKey, name ) );
+    graphData.getNodes().add( createNode( "target", "Person", targetKey, name ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "rel", "KNOWS", new ArrayList<>(), "source", "target" ) );
+    return graphData;
+  }
+
+  @Test
+  public void union() {
+    GraphData graphData = createFragment( 1, 2, "first" );
+    GraphData merged = graphData.merge( createFragment( 2, 3, "second" ), MergePolicy.KEEP_FIRST );
+
+    // The original isn't modified
+    //
+    assertEquals( 2, graphData.getNodes().size() );
+    assertEquals( 1, graphData.getRelationships().size() );
+
+    assertEquals( 3, merged.getNodes().size() );
+    assertEquals( 2, merged.getRelationships().size() );
+    GraphNodeData node3 = merged.findNodeWithProperty( "key", 3L );
+    assertEquals( "target-2", node3.getId() );
+    assertEquals( "second", node3.findProperty( "name" ).getValue() );
+    assertEquals( "first", merged.findNodeWithProperty( "key", 2L ).findProperty( "name" ).getValue() );
+
+    // The new relationship points to the node which was already there
+    //
+    GraphRelationshipData relationship = merged.findRelationship( "rel-2" );
+    assertEquals( "target", relationship.getSourceNodeId() );
+    assertEquals( "target-2", relationship.getTargetNodeId() );
+
+    // Merging the same fragment again adds nothing
+    //
+    merged.mergeInPlace( createFragment( 1, 2, "third" ), MergePolicy.KEEP_LAST );
+    assertEquals( 3, merged.getNodes().size() );
+    assertEquals( 2, merged.getRelationships().size() );
+    assertEquals( "third", merged.findNode( "source" ).findProperty( "name" ).getValue() );
+  }
+
+  @Test
+  public void policies() {
+    GraphData graphData = createFragment( 1, 2, "a" );
+    GraphData other = createFragment( 1, 2, "b" );
+
+    // Nodes without primary properties are matched on their ID
+    //
+    graphData.getNodes().add( new GraphNodeData( "tag", new ArrayList<>( Arrays.asList( "Tag", "Customer" ) ), new ArrayList<>() ) );
+    other.getNodes().add( new GraphNodeData( "tag", new ArrayList<>( Arrays.asList( "Tag", "Employee" ) ), new ArrayList<>() ) );
+    other.findRelationship( "rel" ).getProperties().add( new GraphPropertyData( "since", 2020L, GraphPropertyDataType.Integer, false ) );
+
+    graphData.mergeInPlace( other, MergePolicy.COMBINE_LISTS );
+    graphData.mergeInPlace( createFragment( 1, 2, "b" ), MergePolicy.COMBINE_LISTS );
+    GraphNodeData source = graphData.findNode( "source" );
+    assertEquals( Arrays.asList( "Tag", "Customer", "Employee" ), graphData.findNode( "tag" ).getLabels() );
+    assertEquals( Arrays.asList( "a", "b" ), source.findProperty( "name" ).getValue() );
+    assertEquals( GraphPropertyDataType.List, source.findProperty( "name" ).getType() );
+    assertEquals( 1L, source.findProperty( "key" ).getValue() );
+    assertEquals( 2020L, graphData.findRelationship( "rel" ).getProperties().get( 0 ).getValue() );
+
+    graphData.mergeInPlace( other, ( existing, otherProperty ) -> existing.isPrimary() ? existing
+      : new GraphPropertyData( existing.getId(), null, existing.getType(), false ) );
+    assertNull( graphData.findNode( "target" ).findProperty( "name" ).getValue() );
+    assertEquals( 3, graphData.getNodes().size() );
+  }
+
+  @Test
+  public void numericIds() {
+    GraphData graphData = new GraphData();
+    graphData.getNodes().add( createNode( "1", "Person", 1, "first" ) );
+    graphData.getNodes().add( createNode( "2", "Person", 2, "first" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "10", "KNOWS", new ArrayList<>(), "1", "2" ) );
+
+    GraphData other = new GraphData();
+    other.getNodes().add( createNode( "2", "Person", 3, "second" ) );
+    other.getNodes().add( createNode( "5", "Person", 1, "second" ) );
+    other.getRelationships().add( new GraphRelationshipData( "10", "KNOWS", new ArrayList<>(), "2", "5" ) );
+
+    graphData.mergeInPlace( other, MergePolicy.KEEP_FIRST );
+
+    // The new node needs another ID, the relationship points to the node which was already there
+    //
+    assertEquals( 3, graphData.getNodes().size() );
+    GraphNodeData node3 = graphData.findNodeWithProperty( "key", 3L );
+    assertEquals( "2-2", node3.getId() );
+    GraphRelationshipData relationship = graphData.getRelationships().get( 1 );
+    assertEquals( "10-2", relationship.getId() );
+    assertEquals( "2-2", relationship.getSourceNodeId() );
+    assertEquals( "1", relationship.getTargetNodeId() );
+    assertEquals( 1L, relationship.getNumericTargetNodeId() );
+    assertEquals( graphData.findNode( 1L ), graphData.findTargetNode( relationship ) );
+  }
+}
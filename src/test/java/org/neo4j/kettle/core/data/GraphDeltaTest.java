@@ -0,0 +1,144 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+import org.neo4j.kettle.shared.GraphDeltaWriter;
+import org.neo4j.kettle.shared.UnwindTarget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GraphDeltaTest {
+
+  private GraphNodeData createNode( String id, long key, String name ) {
+    List<GraphPropertyData> properties = new ArrayList<>();
+    properties.add( new GraphPropertyData( "key", key, GraphPropertyDataType.Integer, true ) );
+    properties.add( new GraphPropertyData( "name", name, GraphPropertyDataType.String, false ) );
+    return new GraphNodeData( id, new ArrayList<>( Collections.singletonList( "Person" ) ), properties );
+  }
+
+  private GraphData createGraph( String idPrefix ) {
+    GraphData graphData = new GraphData();
+    for ( int i = 0; i < 4; i++ ) {
+      graphData.getNodes().add( createNode( idPrefix + i, i, "name" + i ) );
+    }
+    for ( int i = 0; i < 3; i++ ) {
+      graphData.getRelationships().add( new GraphRelationshipData( idPrefix + "r" + i, "KNOWS", new ArrayList<>(), idPrefix + i, idPrefix + ( i + 1 ) ) );
+    }
+    return graphData;
+  }
+
+  @Test
+  public void noChanges() {
+    // Different IDs, same keys
+    //
+    GraphDelta delta = createGraph( "a" ).diff( createGraph( "b" ) );
+    assertTrue( delta.isEmpty() );
+    for ( Map<UnwindTarget, List<Map<String, Object>>> phase : new GraphDeltaWriter( delta ).getPhases() ) {
+      assertTrue( phase.isEmpty() );
+    }
+  }
+
+  @Test
+  public void changes() {
+    GraphData before = createGraph( "n" );
+    GraphData after = createGraph( "n" );
+    after.findNode( "n1" ).findProperty( "name" ).setValue( "renamed" );
+    after.findNode( "n2" ).getProperties().remove( 1 );
+    after.findNode( "n2" ).getProperties().add( new GraphPropertyData( "age", 42L, GraphPropertyDataType.Integer, false ) );
+    after.getNodes().add( createNode( "n4", 4, "name4" ) );
+    after.getRelationships().remove( 0 );
+    after.getRelationships().add( new GraphRelationshipData( "nr3", "KNOWS", new ArrayList<>(), "n3", "n4" ) );
+    after.findRelationship( "nr1" ).getProperties().add( new GraphPropertyData( "since", 2020L, GraphPropertyDataType.Integer, false ) );
+
+    GraphDelta delta = before.diff( after );
+    assertEquals( 1, delta.getAddedNodes().size() );
+    assertEquals( "n4", delta.getAddedNodes().get( 0 ).getId() );
+    assertEquals( 0, delta.getRemovedNodes().size() );
+    assertEquals( 2, delta.getChangedNodes().size() );
+
+    GraphDelta.Change<GraphNodeData> renamed = delta.getChangedNodes().get( 0 );
+    assertEquals( "n1", renamed.getAfter().getId() );
+    assertEquals( 1, renamed.getSetProperties().size() );
+    assertEquals( "renamed", renamed.getSetProperties().get( 0 ).getValue() );
+    assertTrue( renamed.getRemovedProperties().isEmpty() );
+
+    GraphDelta.Change<GraphNodeData> aged = delta.getChangedNodes().get( 1 );
+    assertEquals( "age", aged.getSetProperties().get( 0 ).getId() );
+    assertEquals( Collections.singletonList( "name" ), aged.getRemovedProperties() );
+
+    assertEquals( 1, delta.getAddedRelationships().size() );
+    assertEquals( 1, delta.getRemovedRelationships().size() );
+    assertEquals( "nr0", delta.getRemovedRelationships().get( 0 ).getId() );
+    assertEquals( 1, delta.getChangedRelationships().size() );
+
+    List<Map<UnwindTarget, List<Map<String, Object>>>> phases = new GraphDeltaWriter( delta ).getPhases();
+    assertEquals( 6, phases.size() );
+
+    Map.Entry<UnwindTarget, List<Map<String, Object>>> deletes = phases.get( 0 ).entrySet().iterator().next();
+    assertEquals( "UNWIND $rows AS row MATCH (s:`Person` {`key`: row.source.`key`})-[r:`KNOWS`]->(t:`Person` {`key`: row.target.`key`}) DELETE r",
+      deletes.getKey().getCypher() );
+
+    Map.Entry<UnwindTarget, List<Map<String, Object>>> updates = phases.get( 3 ).entrySet().iterator().next();
+    assertEquals( "UNWIND $rows AS row MATCH (n:`Person` {`key`: row.key.`key`}) SET n += row.properties", updates.getKey().getCypher() );
+    assertEquals( 2, updates.getValue().size() );
+    Map<?, ?> properties = (Map<?, ?>) updates.getValue().get( 1 ).get( UnwindTarget.ROW_PROPERTIES );
+    assertEquals( 42L, properties.get( "age" ) );
+    assertTrue( properties.containsKey( "name" ) );
+    assertNull( properties.get( "name" ) );
+    assertEquals( 2L, ( (Map<?, ?>) updates.getValue().get( 1 ).get( UnwindTarget.ROW_KEY ) ).get( "key" ) );
+
+    assertEquals( 1, phases.get( 2 ).size() );
+    assertEquals( 1, phases.get( 4 ).size() );
+    assertEquals( 1, phases.get( 5 ).values().iterator().next().size() );
+  }
+
+  @Test
+  public void duplicateNodes() {
+    // The same person twice, under another ID
+    //
+    GraphData before = createGraph( "n" );
+    before.getNodes().add( createNode( "dup", 1, "name1" ) );
+    GraphData after = createGraph( "n" );
+    after.getNodes().add( createNode( "dup2", 2, "name2" ) );
+
+    GraphDelta delta = before.diff( after );
+    assertTrue( delta.isEmpty() );
+
+    // Removing the node still removes it once
+    //
+    after.getNodes().remove( 1 );
+    after.getRelationships().clear();
+    delta = before.diff( after );
+    assertEquals( 1, delta.getRemovedNodes().size() );
+    assertEquals( "n1", delta.getRemovedNodes().get( 0 ).getId() );
+    assertEquals( 0, delta.getAddedNodes().size() );
+  }
+
+  @Test
+  public void parallelRelationships() {
+    GraphData before = createGraph( "n" );
+    before.getRelationships().add( new GraphRelationshipData( "nr3", "KNOWS", new ArrayList<>(), "n0", "n1" ) );
+    GraphData after = createGraph( "n" );
+
+    // Deleting the one which is gone would delete the one which is left as well
+    //
+    GraphDelta delta = before.diff( after );
+    assertTrue( delta.getRemovedRelationships().isEmpty() );
+    for ( Map<UnwindTarget, List<Map<String, Object>>> phase : new GraphDeltaWriter( delta ).getPhases() ) {
+      assertTrue( phase.isEmpty() );
+    }
+
+    // Without any left they are all removed
+    //
+    after.getRelationships().remove( 0 );
+    delta = before.diff( after );
+    assertEquals( 2, delta.getRemovedRelationships().size() );
+    assertEquals( 1, new GraphDeltaWriter( delta ).getPhases().get( 0 ).size() );
+  }
+}
@@ -0,0 +1,76 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GraphSymbolTableTest {
+
+  @Test
+  public void intern() {
+    String name = GraphSymbolTable.intern( new String( "symbolTableTest" ) );
+    assertSame( name, GraphSymbolTable.intern( new String( "symbolTableTest" ) ) );
+    assertNull( GraphSymbolTable.intern( null ) );
+
+    int id = GraphSymbolTable.getId( name );
+    assertTrue( id >= 0 );
+    assertEquals( id, GraphSymbolTable.lookup( "symbolTableTest" ) );
+    assertSame( name, GraphSymbolTable.getName( id ) );
+    assertEquals( -1, GraphSymbolTable.lookup( "symbolTableTestNotInterned" ) );
+    assertEquals( -1, GraphSymbolTable.getId( null ) );
+  }
+
+  @Test
+  public void properties() {
+    GraphPropertyData property = new GraphPropertyData( new String( "firstName" ), "Jim", GraphPropertyDataType.String, false );
+    assertSame( GraphSymbolTable.intern( "firstName" ), property.getId() );
+    assertEquals( GraphSymbolTable.lookup( "firstName" ), property.getSymbol() );
+
+    GraphNodeData node = new GraphNodeData( "n", new ArrayList<>( Arrays.asList( "Person" ) ), new ArrayList<>() );
+    node.getProperties().add( new GraphPropertyData( "name", "Jim", GraphPropertyDataType.String, false ) );
+    node.getProperties().add( property );
+    assertSame( property, node.findProperty( "firstName" ) );
+    assertSame( property, node.findProperty( "FIRSTNAME" ) );
+    assertNull( node.findProperty( "lastName" ) );
+  }
+
+  @Test
+  public void maxSize() {
+    GraphSymbolTable.intern( "symbolTableTestBeforeMax" );
+    int maxSize = GraphSymbolTable.getMaxSize();
+    GraphSymbolTable.setMaxSize( GraphSymbolTable.size() );
+    try {
+      // Names which don't fit anymore aren't shared but still work
+      //
+      String name = new String( "symbolTableTestOverMax" );
+      assertSame( name, GraphSymbolTable.intern( name ) );
+      assertEquals( -1, GraphSymbolTable.getId( name ) );
+      assertEquals( -1, GraphSymbolTable.lookup( name ) );
+      assertTrue( GraphSymbolTable.getId( "symbolTableTestBeforeMax" ) >= 0 );
+
+      GraphPropertyData property = new GraphPropertyData( name, "value", GraphPropertyDataType.String, false );
+      assertSame( name, property.getId() );
+      assertEquals( -1, property.getSymbol() );
+      GraphNodeData node = new GraphNodeData( "n", new ArrayList<>(), new ArrayList<>( Arrays.asList( property ) ) );
+      assertSame( property, node.findProperty( "symbolTableTestOverMax" ) );
+
+      assertEquals( "symbolTableTestOverMax,Person", GraphSymbolTable.getLabelSetId( Arrays.asList( name, "Person" ) ) );
+    } finally {
+      GraphSymbolTable.setMaxSize( maxSize );
+    }
+  }
+
+  @Test
+  public void labelSets() {
+    String labelSetId = GraphSymbolTable.getLabelSetId( Arrays.asList( "Person", "Customer" ) );
+    assertEquals( "Person,Customer", labelSetId );
+    assertSame( labelSetId, GraphSymbolTable.getLabelSetId( new ArrayList<>( Arrays.asList( "Person", "Customer" ) ) ) );
+    assertEquals( "", GraphSymbolTable.getLabelSetId( new ArrayList<>() ) );
+  }
+}
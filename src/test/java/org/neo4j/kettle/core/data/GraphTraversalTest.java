@@ -0,0 +1,94 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GraphTraversalTest {
+
+  private GraphData createGraph() {
+    // a -> b -> c -> d, a -> d, e -> f -> e and a lonely g
+    //
+    GraphData graphData = new GraphData();
+    for ( String id : new String[] { "a", "b", "c", "d", "e", "f", "g" } ) {
+      String label = id.equals( "c" ) ? "Step" : "Transformation";
+      graphData.getNodes().add( new GraphNodeData( id, new ArrayList<>( Collections.singletonList( label ) ), new ArrayList<>() ) );
+    }
+    addRelationship( graphData, "a", "b", "NEXT" );
+    addRelationship( graphData, "b", "c", "NEXT" );
+    addRelationship( graphData, "c", "d", "NEXT" );
+    addRelationship( graphData, "a", "d", "CALLS" );
+    addRelationship( graphData, "e", "f", "NEXT" );
+    addRelationship( graphData, "f", "e", "NEXT" );
+    return graphData;
+  }
+
+  private void addRelationship( GraphData graphData, String source, String target, String label ) {
+    graphData.getRelationships().add( new GraphRelationshipData( source + target, label, new ArrayList<>(), source, target ) );
+  }
+
+  private String ids( Iterable<GraphNodeData> nodes ) {
+    StringBuilder ids = new StringBuilder();
+    for ( GraphNodeData node : nodes ) {
+      ids.append( node.getId() );
+    }
+    return ids.toString();
+  }
+
+  @Test
+  public void walks() {
+    GraphData graphData = createGraph();
+    GraphTraversal traversal = new GraphTraversal( graphData );
+    GraphNodeData a = graphData.findNode( "a" );
+    assertEquals( "abdc", ids( traversal.breadthFirst( a ) ) );
+    assertEquals( "abcd", ids( traversal.depthFirst( a ) ) );
+    assertEquals( "ef", ids( traversal.breadthFirst( graphData.findNode( "e" ) ) ) );
+
+    assertEquals( "dcab", ids( traversal.direction( GraphTraversal.Direction.INCOMING ).breadthFirst( graphData.findNode( "d" ) ) ) );
+    assertEquals( "abd", ids( traversal.direction( GraphTraversal.Direction.BOTH ).nodeLabels( "Transformation" ).depthFirst( a ) ) );
+    assertEquals( "abcd",
+      ids( traversal.direction( GraphTraversal.Direction.OUTGOING ).nodeLabels().relationshipLabels( "NEXT" ).breadthFirst( a ) ) );
+    assertEquals( "", ids( traversal.breadthFirst( new GraphNodeData( "x" ) ) ) );
+  }
+
+  @Test
+  public void algorithms() {
+    GraphData graphData = createGraph();
+    GraphTraversal traversal = new GraphTraversal( graphData );
+    GraphNodeData a = graphData.findNode( "a" );
+    GraphNodeData d = graphData.findNode( "d" );
+
+    assertEquals( "ad", ids( traversal.shortestPath( a, d ) ) );
+    assertEquals( "a", ids( traversal.shortestPath( a, a ) ) );
+    assertNull( traversal.shortestPath( d, a ) );
+    assertEquals( "abcd", ids( traversal.relationshipLabels( "NEXT" ).shortestPath( a, d ) ) );
+    traversal.relationshipLabels();
+
+    List<List<GraphNodeData>> components = traversal.connectedComponents();
+    assertEquals( 3, components.size() );
+    assertEquals( "abcd", ids( components.get( 0 ) ) );
+    assertEquals( "ef", ids( components.get( 1 ) ) );
+    assertEquals( "g", ids( components.get( 2 ) ) );
+
+    // e and f form a cycle
+    //
+    assertNull( traversal.topologicalOrder() );
+
+    GraphTraversal.DegreeStatistics statistics = traversal.direction( GraphTraversal.Direction.BOTH ).getDegreeStatistics();
+    assertEquals( 7, statistics.getNodeCount() );
+    assertEquals( 1, statistics.getIsolatedNodeCount() );
+    assertEquals( 0, statistics.getMinimum() );
+    assertEquals( 2, statistics.getMaximum() );
+    assertEquals( 12L, statistics.getTotal() );
+    assertEquals( 2, traversal.getDegree( d ) );
+    assertEquals( -1, traversal.getDegree( new GraphNodeData( "x" ) ) );
+
+    graphData.getRelationships().remove( graphData.getRelationships().size() - 1 );
+    assertEquals( "aegbfcd", ids( new GraphTraversal( graphData ).topologicalOrder() ) );
+  }
+}
@@ -0,0 +1,139 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRelationship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LazyGraphDataTest {
+
+  private Map<String, Value> createProperties() {
+    Map<String, Value> properties = new LinkedHashMap<>();
+    properties.put( "name", Values.value( "Jim" ) );
+    properties.put( "age", Values.value( 42L ) );
+    properties.put( "score", Values.value( 1.5 ) );
+    return properties;
+  }
+
+  @Test
+  public void node() {
+    LazyGraphNodeData node = new LazyGraphNodeData( new InternalNode( 7, Arrays.asList( "Person", "Customer" ), createProperties() ) );
+    assertEquals( "7", node.getId() );
+    assertTrue( node.hasNumericId() );
+    assertEquals( 7L, node.getNumericId() );
+    assertFalse( node.isMaterialized() );
+
+    // Looking up one property converts only that one and keeps it
+    //
+    GraphPropertyData age = node.findProperty( "AGE" );
+    assertEquals( 42L, age.getValue() );
+    assertEquals( GraphPropertyDataType.Integer, age.getType() );
+    age.setValue( 43L );
+    assertNull( node.findProperty( "unknown" ) );
+    assertFalse( node.isMaterialized() );
+
+    assertEquals( "Person,Customer", node.getPropertySetId() );
+    assertEquals( Arrays.asList( "Person", "Customer" ), node.getLabels() );
+    assertEquals( 3, node.getProperties().size() );
+    assertSame( age, node.getProperties().get( 1 ) );
+    assertEquals( 43L, node.findProperty( "age" ).getValue() );
+    assertTrue( node.isMaterialized() );
+
+    GraphNodeData detached = node.detach();
+    assertFalse( detached instanceof LazyGraphNodeData );
+    assertEquals( node, detached );
+    assertEquals( node.getLabels(), detached.getLabels() );
+    assertEquals( "Jim", detached.findProperty( "name" ).getValue() );
+    assertEquals( GraphPropertyDataType.Float, detached.findProperty( "score" ).getType() );
+  }
+
+  @Test
+  public void relationship() {
+    LazyGraphRelationshipData relationship = new LazyGraphRelationshipData( new InternalRelationship( 3, 7, 8, "KNOWS", createProperties() ) );
+    assertEquals( "3", relationship.getId() );
+    assertEquals( "7", relationship.getSourceNodeId() );
+    assertEquals( 8L, relationship.getNumericTargetNodeId() );
+    assertEquals( "KNOWS", relationship.getLabel() );
+    assertEquals( "Jim", relationship.findProperty( "name" ).getValue() );
+    assertFalse( relationship.isMaterialized() );
+
+    GraphRelationshipData detached = relationship.detach();
+    assertTrue( relationship.isMaterialized() );
+    assertFalse( detached instanceof LazyGraphRelationshipData );
+    assertEquals( relationship, detached );
+    assertEquals( 3, detached.getProperties().size() );
+    assertEquals( 1.5, detached.findProperty( "score" ).getValue() );
+  }
+
+  @Test
+  public void graph() {
+    GraphDataBuilder builder = new GraphDataBuilder( true );
+    builder.addNode( new InternalNode( 7, Arrays.asList( "Person" ), createProperties() ) );
+    builder.addNode( new InternalNode( 8, Arrays.asList( "Person" ), createProperties() ) );
+    builder.addRelationship( new InternalRelationship( 3, 7, 8, "KNOWS", createProperties() ) );
+    GraphData graphData = builder.build();
+
+    assertTrue( graphData.findNode( 7L ) instanceof LazyGraphNodeData );
+    assertEquals( "Jim", graphData.findNode( "8" ).getName() );
+
+    // Copies don't refer to the driver values anymore
+    //
+    GraphData clone = graphData.clone();
+    assertFalse( clone.findNode( 7L ) instanceof LazyGraphNodeData );
+    assertEquals( graphData.toJsonString(), clone.toJsonString() );
+  }
+
+  @Test
+  public void sharedBetweenThreads() throws Exception {
+    GraphDataBuilder builder = new GraphDataBuilder( true );
+    for ( int i = 0; i < 200; i++ ) {
+      builder.addNode( new InternalNode( i, Arrays.asList( "Person" ), createProperties() ) );
+    }
+    GraphData graphData = builder.build();
+
+    // Copies share the lazy nodes, reading them from several threads converts every property once
+    //
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    try {
+      List<Future<List<GraphPropertyData>>> futures = new ArrayList<>();
+      for ( int t = 0; t < 4; t++ ) {
+        GraphData copy = graphData.copyOnWrite();
+        futures.add( executor.submit( (Callable<List<GraphPropertyData>>) () -> {
+          List<GraphPropertyData> found = new ArrayList<>();
+          for ( GraphNodeData node : copy.getNodesForReading() ) {
+            found.add( node.findProperty( "age" ) );
+            found.addAll( node.getProperties() );
+          }
+          return found;
+        } ) );
+      }
+      List<GraphPropertyData> first = futures.get( 0 ).get();
+      assertEquals( 800, first.size() );
+      for ( Future<List<GraphPropertyData>> future : futures ) {
+        List<GraphPropertyData> found = future.get();
+        for ( int i = 0; i < found.size(); i++ ) {
+          assertSame( first.get( i ), found.get( i ) );
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.InternalRelationship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelGraphDataBuilderTest {
+
+  private List<Record> createRecords( int count ) {
+    List<String> keys = Arrays.asList( "a", "r", "b" );
+    List<Record> records = new ArrayList<>();
+    for ( int i = 0; i < count; i++ ) {
+      // Every node shows up in several records, often in different chunks
+      //
+      long source = i % 37;
+      long target = ( i * 7 ) % 53;
+      records.add( new InternalRecord( keys, new Value[] {
+        Values.value( createNode( source ) ),
+        Values.value( new InternalRelationship( i % 101, source, target, "LINKS", Collections.emptyMap() ) ),
+        Values.value( createNode( target ) )
+      } ) );
+    }
+    return records;
+  }
+
+  private InternalNode createNode( long id ) {
+    Map<String, Value> properties = new HashMap<>();
+    properties.put( "id", Values.value( id ) );
+    return new InternalNode( id, Collections.singletonList( "Item" ), properties );
+  }
+
+  @Test
+  public void sameAsSequential() {
+    List<Record> records = createRecords( 500 );
+    GraphDataBuilder sequential = new GraphDataBuilder();
+    for ( Record record : records ) {
+      sequential.addRecord( record );
+    }
+    String expected = sequential.build().toJsonString();
+
+    ForkJoinPool pool = new ForkJoinPool( 4 );
+    try {
+      GraphData graphData = new ParallelGraphDataBuilder( pool, 7, 3 ).addRecords( records.iterator() ).build();
+      assertEquals( sequential.getNodeCount(), graphData.getNodes().size() );
+      assertEquals( sequential.getRelationshipCount(), graphData.getRelationships().size() );
+      assertEquals( expected, graphData.toJsonString() );
+
+      // Records can be added in several batches
+      //
+      ParallelGraphDataBuilder builder = new ParallelGraphDataBuilder( pool, 1000, 1 );
+      builder.addRecords( records.subList( 0, 250 ).iterator() );
+      builder.addRecords( records.subList( 250, 500 ).iterator() );
+      assertEquals( expected, builder.build().toJsonString() );
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingElementListTest {
+
+  private static final SpillingElementList.Codec<String> CODEC = new SpillingElementList.Codec<String>() {
+    @Override public void write( DataOutput out, String element ) throws IOException {
+      out.writeUTF( element );
+    }
+
+    @Override public String read( DataInput in ) throws IOException {
+      return in.readUTF();
+    }
+  };
+
+  @Test
+  public void reusesRecords() throws Exception {
+    SpillingElementList.Budget budget = new SpillingElementList.Budget( 1000, null );
+    try {
+      SpillingElementList<String> list = new SpillingElementList<>( budget, CODEC, element -> 100L );
+      for ( int i = 0; i < 100; i++ ) {
+        list.add( "element " + i );
+      }
+      assertTrue( list.getSpilledCount() > 0 );
+
+      // After one pass every element has a record, unchanged ones are spilled again into their old records
+      //
+      for ( int i = 0; i < 100; i++ ) {
+        assertEquals( "element " + i, list.get( i ) );
+      }
+      long recordLength = budget.getRecordLength();
+      for ( int i = 0; i < 100; i++ ) {
+        assertEquals( "element " + i, list.get( i ) );
+      }
+      assertEquals( recordLength, budget.getRecordLength() );
+
+      // Elements which fit are rewritten in place, others appended
+      //
+      list.set( 0, "short" );
+      list.set( 1, "a much longer element than before" );
+      for ( int i = 0; i < 100; i++ ) {
+        list.get( i );
+      }
+      assertEquals( "short", list.get( 0 ) );
+      assertEquals( "a much longer element than before", list.get( 1 ) );
+      assertEquals( "element 2", list.get( 2 ) );
+      assertTrue( budget.getRecordLength() > recordLength );
+      assertTrue( budget.getRecordLength() < recordLength + 100 );
+    } finally {
+      budget.close();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package org.neo4j.kettle.core.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingGraphDataTest {
+
+  private void fill( GraphData graphData, int count ) {
+    for ( int i = 0; i < count; i++ ) {
+      List<GraphPropertyData> properties = new ArrayList<>();
+      properties.add( new GraphPropertyData( "key", (long) i, GraphPropertyDataType.Integer, true ) );
+      properties.add( new GraphPropertyData( "description", "A fairly long description of node " + i, GraphPropertyDataType.String, false ) );
+      graphData.getNodes().add( new GraphNodeData( "n" + i, new ArrayList<>( Collections.singletonList( "Item" ) ), properties ) );
+      if ( i > 0 ) {
+        graphData.getRelationships().add( new GraphRelationshipData( "r" + i, "NEXT", new ArrayList<>(), "n" + ( i - 1 ), "n" + i ) );
+      }
+    }
+  }
+
+  @Test
+  public void spills() {
+    GraphData expected = new GraphData();
+    fill( expected, 1000 );
+
+    try ( SpillingGraphData graphData = new SpillingGraphData( 20000, null ) ) {
+      fill( graphData, 1000 );
+      assertTrue( graphData.getMemoryUsed() <= 20000 );
+      assertTrue( graphData.getSpilledBytes() > 0 );
+      assertEquals( expected.toJsonString(), graphData.toJsonString() );
+
+      // Lookups and changes work the same
+      //
+      GraphNodeData node = graphData.findNode( "n10" );
+      assertEquals( 10L, node.findProperty( "key" ).getValue() );
+      node.findProperty( "description" ).setValue( "changed" );
+      assertEquals( "n11", graphData.findOutgoingRelationships( "n10" ).get( 0 ).getTargetNodeId() );
+      assertEquals( "changed", graphData.findNode( "n10" ).findProperty( "description" ).getValue() );
+      assertEquals( node, graphData.findNodeWithProperty( "key", 10L ) );
+
+      graphData.getNodes().remove( 0 );
+      graphData.getRelationships().remove( 0 );
+      assertEquals( 999, graphData.getNodes().size() );
+      assertEquals( "n1", graphData.getNodes().get( 0 ).getId() );
+
+      SpillingGraphData copy = graphData.clone();
+      assertEquals( graphData.toJsonString(), copy.toJsonString() );
+      copy.close();
+      assertEquals( 0, copy.getNodes().size() );
+      assertEquals( 999, graphData.getNodes().size() );
+    }
+  }
+
+  @Test
+  public void replacedListsReleaseMemory() {
+    GraphData source = new GraphData();
+    fill( source, 100 );
+
+    try ( SpillingGraphData graphData = new SpillingGraphData( source, 1000000, null ) ) {
+      long used = graphData.getMemoryUsed();
+      assertTrue( used > 0 );
+      String json = graphData.toJsonString();
+
+      // Replacing the lists gives the memory of the previous ones back, twice over
+      //
+      for ( int i = 0; i < 2; i++ ) {
+        graphData.setNodes( new ArrayList<>( graphData.getNodes() ) );
+        graphData.setRelationships( new ArrayList<>( graphData.getRelationships() ) );
+        assertEquals( used, graphData.getMemoryUsed() );
+      }
+      for ( int i = 0; i < 2; i++ ) {
+        graphData.replace( source );
+        assertEquals( used, graphData.getMemoryUsed() );
+      }
+      assertEquals( json, graphData.toJsonString() );
+
+      graphData.setNodes( new ArrayList<>() );
+      graphData.setRelationships( new ArrayList<>() );
+      assertEquals( 0, graphData.getMemoryUsed() );
+    }
+  }
+
+  @Test
+  public void copyOnWriteDoesntSpill() {
+    GraphData copy;
+    String json;
+    try ( SpillingGraphData graphData = new SpillingGraphData( 20000, null ) ) {
+      fill( graphData, 1000 );
+      json = graphData.toJsonString();
+      copy = graphData.copyOnWrite();
+      assertFalse( copy instanceof SpillingGraphData );
+    }
+    assertEquals( json, copy.toJsonString() );
+  }
+
+  @Test
+  public void sameAsBinaryCodec() throws Exception {
+    GraphData expected = new GraphData();
+    fill( expected, 100 );
+    try ( SpillingGraphData graphData = new SpillingGraphData( expected, 1000, null ) ) {
+      assertEquals( expected.toJsonString(), GraphDataBinaryCodec.decode( GraphDataBinaryCodec.encode( graphData ) ).toJsonString() );
+    }
+  }
+}
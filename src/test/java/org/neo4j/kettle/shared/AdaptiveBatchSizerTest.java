@@ -0,0 +1,119 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.exceptions.ClientException;
+import org.neo4j.driver.exceptions.TransientException;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBatchSizerTest {
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  @After
+  public void clear() {
+    AdaptiveBatchSizer.clear();
+  }
+
+  @Test
+  public void targetLatency() {
+    assertEquals( AdaptiveBatchSizer.DEFAULT_TARGET_LATENCY_MS, AdaptiveBatchSizer.calculateTargetLatency( -1L ) );
+    assertEquals( AdaptiveBatchSizer.DEFAULT_TARGET_LATENCY_MS, AdaptiveBatchSizer.calculateTargetLatency( 30000L ) );
+    assertEquals( 500L, AdaptiveBatchSizer.calculateTargetLatency( 5000L ) );
+    assertEquals( 1L, AdaptiveBatchSizer.calculateTargetLatency( 5L ) );
+  }
+
+  @Test
+  public void recordSuccess() {
+    AdaptiveBatchSizer sizer = new AdaptiveBatchSizer( "test", 100, 10, 300, 1000L );
+
+    // A partial batch doesn't tell us anything
+    //
+    sizer.recordSuccess( 50, 10L );
+    assertEquals( 100, sizer.getBatchSize() );
+
+    // Full and fast batches grow up to the maximum
+    //
+    sizer.recordSuccess( 100, 10L );
+    assertEquals( 150, sizer.getBatchSize() );
+    sizer.recordSuccess( 150, 10L );
+    assertEquals( 225, sizer.getBatchSize() );
+    sizer.recordSuccess( 225, 10L );
+    assertEquals( 300, sizer.getBatchSize() );
+
+    // Within twice the target latency the size is kept
+    //
+    sizer.recordSuccess( 300, 1500L );
+    assertEquals( 300, sizer.getBatchSize() );
+
+    // Slow batches scale down to the target latency, not below the minimum
+    //
+    sizer.recordSuccess( 300, 3000L );
+    assertEquals( 100, sizer.getBatchSize() );
+    sizer.recordSuccess( 100, 100000L );
+    assertEquals( 10, sizer.getBatchSize() );
+  }
+
+  @Test
+  public void recordFailure() {
+    AdaptiveBatchSizer sizer = new AdaptiveBatchSizer( "test", 100, 10, 300, 1000L );
+
+    assertFalse( sizer.recordFailure( 100, new ClientException( "Neo.ClientError.Statement.SyntaxError", "Syntax" ) ) );
+    assertEquals( 100, sizer.getBatchSize() );
+
+    assertTrue( sizer.recordFailure( 100, new TransientException( "Neo.TransientError.Transaction.LockClientStopped", "Stopped" ) ) );
+    assertEquals( 50, sizer.getBatchSize() );
+
+    // The cause counts as well
+    //
+    assertTrue( sizer.recordFailure( 50, new KettleException( "Error", new ClientException( "Neo.TransientError.Transaction.DeadlockDetected", "Deadlock" ) ) ) );
+    assertEquals( 25, sizer.getBatchSize() );
+
+    assertTrue( sizer.recordFailure( 25, new OutOfMemoryError() ) );
+    assertEquals( 12, sizer.getBatchSize() );
+    assertTrue( sizer.recordFailure( 12, new OutOfMemoryError() ) );
+    assertEquals( 10, sizer.getBatchSize() );
+
+    // Nothing to gain from splitting a minimal batch
+    //
+    assertFalse( sizer.recordFailure( 10, new OutOfMemoryError() ) );
+    assertEquals( 10, sizer.getBatchSize() );
+  }
+
+  @Test
+  public void bounds() {
+    AdaptiveBatchSizer sizer = new AdaptiveBatchSizer( "test", 1000000, 0, 100, 1000L );
+    assertEquals( 1, sizer.getMinBatchSize() );
+    assertEquals( 100, sizer.getMaxBatchSize() );
+    assertEquals( 100, sizer.getBatchSize() );
+  }
+
+  @Test
+  public void sharedSizers() {
+    NeoConnection connection = new NeoConnection();
+    connection.setName( "test" );
+    connection.setServer( "localhost" );
+
+    AdaptiveBatchSizer sizer = AdaptiveBatchSizer.getSizer( connection, "RETURN 1", 500 );
+    assertEquals( 500, sizer.getBatchSize() );
+    assertSame( sizer, AdaptiveBatchSizer.getSizer( connection, "RETURN 1", 100 ) );
+
+    // Only the most recently used sizers are kept
+    //
+    for ( int i = 0; i < AdaptiveBatchSizer.MAX_SIZERS; i++ ) {
+      AdaptiveBatchSizer.getSizer( connection, "RETURN " + ( i + 2 ), 500 );
+    }
+    assertEquals( AdaptiveBatchSizer.MAX_SIZERS, AdaptiveBatchSizer.getLearnedBatchSizes().size() );
+    assertFalse( AdaptiveBatchSizer.getLearnedBatchSizes().containsKey( sizer.getKey() ) );
+  }
+}
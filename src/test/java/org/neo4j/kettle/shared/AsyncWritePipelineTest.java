@@ -0,0 +1,140 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncWritePipelineTest {
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  @After
+  public void closeDrivers() {
+    DriverSingleton.closeAll();
+  }
+
+  private static void submit( AsyncWritePipeline pipeline, String cypher ) throws KettleException {
+    pipeline.submit( cypher, Collections.emptyMap() );
+  }
+
+  @Test
+  public void finishedTransactionsBehindSlowOne() throws KettleException {
+    FakeConnection connection = new FakeConnection( "slow" );
+    AsyncWritePipeline pipeline = new AsyncWritePipeline( LogChannel.GENERAL, connection, 3 );
+    submit( pipeline, "a" );
+    submit( pipeline, "b" );
+    submit( pipeline, "c" );
+    FakeDriver driver = connection.getDrivers().get( 0 );
+    assertEquals( "[a, b, c]", driver.getStatements().toString() );
+    List<CompletableFuture<Object>> transactions = driver.getTransactions();
+    transactions.get( 1 ).complete( null );
+    transactions.get( 2 ).complete( null );
+
+    // The finished transactions are removed although the first one is still running
+    //
+    submit( pipeline, "d" );
+    assertEquals( 2, pipeline.getInFlight() );
+    assertEquals( 2, pipeline.getTransactionsCommitted() );
+
+    transactions.get( 0 ).complete( null );
+    transactions.get( 3 ).complete( null );
+    pipeline.flush();
+    assertEquals( 0, pipeline.getInFlight() );
+    assertEquals( 4, pipeline.getTransactionsCommitted() );
+    pipeline.close();
+  }
+
+  @Test
+  public void failure() throws KettleException {
+    FakeConnection connection = new FakeConnection( "failure" );
+    AsyncWritePipeline pipeline = new AsyncWritePipeline( LogChannel.GENERAL, connection, 3 );
+    submit( pipeline, "a" );
+    submit( pipeline, "b" );
+    List<CompletableFuture<Object>> transactions = connection.getDrivers().get( 0 ).getTransactions();
+    IllegalStateException error = new IllegalStateException( "b failed" );
+    transactions.get( 1 ).completeExceptionally( error );
+    transactions.get( 0 ).complete( null );
+    try {
+      submit( pipeline, "c" );
+      fail( "The failure of b should be reported" );
+    } catch ( KettleException e ) {
+      assertSame( error, e.getCause() );
+    }
+    pipeline.close();
+    assertEquals( 1, pipeline.getTransactionsCommitted() );
+  }
+
+  @Test
+  public void failuresInSubmissionOrder() throws KettleException {
+    FakeConnection connection = new FakeConnection( "order" );
+    AsyncWritePipeline pipeline = new AsyncWritePipeline( LogChannel.GENERAL, connection, 3 );
+    submit( pipeline, "a" );
+    submit( pipeline, "b" );
+    List<CompletableFuture<Object>> transactions = connection.getDrivers().get( 0 ).getTransactions();
+    IllegalStateException bError = new IllegalStateException( "b failed" );
+    transactions.get( 1 ).completeExceptionally( bError );
+
+    // The failure of b isn't reported while a is still running
+    //
+    submit( pipeline, "c" );
+    assertEquals( 3, pipeline.getInFlight() );
+
+    // a failed as well: it was submitted first so it's reported first
+    //
+    IllegalStateException aError = new IllegalStateException( "a failed" );
+    transactions.get( 0 ).completeExceptionally( aError );
+    transactions.get( 2 ).complete( null );
+    try {
+      pipeline.flush();
+      fail( "The failure of a should be reported" );
+    } catch ( KettleException e ) {
+      assertSame( aError, e.getCause() );
+    }
+    try {
+      pipeline.close();
+      fail( "The failure of b should be reported" );
+    } catch ( KettleException e ) {
+      assertSame( bError, e.getCause() );
+    }
+    assertEquals( 0, pipeline.getInFlight() );
+  }
+
+  @Test
+  public void interrupted() throws KettleException {
+    FakeConnection connection = new FakeConnection( "interrupted" );
+    AsyncWritePipeline pipeline = new AsyncWritePipeline( LogChannel.GENERAL, connection, 2 );
+    submit( pipeline, "a" );
+
+    Thread.currentThread().interrupt();
+    try {
+      pipeline.flush();
+      fail( "Flush should be interrupted" );
+    } catch ( KettleException e ) {
+      assertTrue( Thread.interrupted() );
+    }
+
+    // The transaction is still waited for
+    //
+    assertEquals( 1, pipeline.getInFlight() );
+    connection.getDrivers().get( 0 ).getTransactions().get( 0 ).complete( null );
+    pipeline.flush();
+    assertEquals( 0, pipeline.getInFlight() );
+    assertEquals( 1, pipeline.getTransactionsCommitted() );
+    pipeline.close();
+  }
+}
@@ -0,0 +1,81 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.ConnectionPoolMetrics;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DriverPoolMetricsTest {
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  @After
+  public void closeDrivers() {
+    DriverSingleton.closeAll();
+  }
+
+  /**
+   * Create pool metrics which return the given value for every int metric and ten times that for every long metric
+   */
+  private static ConnectionPoolMetrics createPoolMetrics( int value ) {
+    return (ConnectionPoolMetrics) Proxy.newProxyInstance( ConnectionPoolMetrics.class.getClassLoader(),
+      new Class<?>[] { ConnectionPoolMetrics.class }, ( proxy, method, args ) -> {
+        if ( method.getReturnType() == int.class ) {
+          return value;
+        }
+        if ( method.getReturnType() == long.class ) {
+          return value * 10L;
+        }
+        return "pool-" + value;
+      } );
+  }
+
+  @Test
+  public void sum() {
+    DriverPoolMetrics metrics = new DriverPoolMetrics( "key" );
+    assertEquals( 0.0, metrics.getAverageAcquisitionTimeMs(), 0.0 );
+    metrics.add( createPoolMetrics( 1 ) );
+    metrics.add( createPoolMetrics( 2 ) );
+
+    assertEquals( 2, metrics.getPools() );
+    assertEquals( 3, metrics.getInUse() );
+    assertEquals( 3, metrics.getIdle() );
+    assertEquals( 30L, metrics.getAcquired() );
+    assertEquals( 30L, metrics.getCreated() );
+    assertEquals( 1.0, metrics.getAverageAcquisitionTimeMs(), 0.0001 );
+    assertEquals( 1.0, metrics.getAverageConnectionTimeMs(), 0.0001 );
+    assertTrue( metrics.toString().startsWith( "pools=2, inUse=3" ) );
+  }
+
+  @Test
+  public void onlyDriversWithMetrics() {
+    FakeConnection withMetrics = new FakeConnection( "metrics" );
+    withMetrics.setDriverMetrics( true );
+    FakeConnection withoutMetrics = new FakeConnection( "no-metrics" );
+    DriverLease lease = DriverSingleton.leaseDriver( LogChannel.GENERAL, withMetrics );
+    DriverLease otherLease = DriverSingleton.leaseDriver( LogChannel.GENERAL, withoutMetrics );
+    withMetrics.getDrivers().get( 0 ).getPoolMetrics().add( createPoolMetrics( 4 ) );
+
+    Map<String, DriverPoolMetrics> poolMetrics = new HashMap<>( DriverSingleton.getPoolMetrics() );
+    assertEquals( 1, poolMetrics.size() );
+    DriverPoolMetrics metrics = poolMetrics.get( lease.getKey() );
+    assertEquals( lease.getKey(), metrics.getDriverKey() );
+    assertEquals( 4, metrics.getInUse() );
+
+    lease.close();
+    otherLease.close();
+  }
+}
@@ -0,0 +1,231 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.Driver;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DriverSingletonTest {
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  @After
+  public void closeDrivers() {
+    DriverSingleton.closeAll();
+    DriverSingleton.getInstance().setIdleTimeoutMs( DriverSingleton.DEFAULT_IDLE_TIMEOUT_MS );
+  }
+
+  @Test
+  public void driverKey() {
+    FakeConnection connection = new FakeConnection( "${HOST}" );
+    connection.setVariable( "HOST", "server1" );
+    connection.setUsername( "neo4j" );
+    connection.setPassword( "secret" );
+    String key = DriverSingleton.getDriverKey( connection );
+    assertTrue( key.contains( "server1" ) );
+    assertFalse( key.contains( "secret" ) );
+
+    // Another connection with the same settings shares the driver
+    //
+    FakeConnection same = new FakeConnection( "server1" );
+    same.setUsername( "neo4j" );
+    same.setPassword( "secret" );
+    assertEquals( key, DriverSingleton.getDriverKey( same ) );
+
+    same.setPassword( "other" );
+    assertFalse( key.equals( DriverSingleton.getDriverKey( same ) ) );
+    same.setPassword( "secret" );
+    same.setDatabaseName( "movies" );
+    assertFalse( key.equals( DriverSingleton.getDriverKey( same ) ) );
+    same.setDatabaseName( null );
+    same.setUsingEncryption( !connection.isUsingEncryption() );
+    assertFalse( key.equals( DriverSingleton.getDriverKey( same ) ) );
+
+    // A new value for a variable gives a new key
+    //
+    connection.setVariable( "HOST", "server2" );
+    assertTrue( DriverSingleton.getDriverKey( connection ).contains( "server2" ) );
+  }
+
+  @Test
+  public void leases() {
+    DriverSingleton.getInstance().setIdleTimeoutMs( 0 );
+    FakeConnection connection = new FakeConnection( "leases" );
+    String key = DriverSingleton.getDriverKey( connection );
+
+    DriverLease first = DriverSingleton.leaseDriver( LogChannel.GENERAL, connection );
+    DriverLease second = DriverSingleton.leaseDriver( LogChannel.GENERAL, connection );
+    assertSame( first.getDriver(), second.getDriver() );
+    assertEquals( 1, connection.getDrivers().size() );
+    assertEquals( 2, DriverSingleton.getInstance().getLeaseCount( key ) );
+
+    // Releasing twice only counts once
+    //
+    first.close();
+    first.close();
+    assertTrue( first.isReleased() );
+    assertEquals( 1, DriverSingleton.getInstance().getLeaseCount( key ) );
+    assertEquals( 0, connection.getDrivers().get( 0 ).getCloseCount() );
+
+    second.close();
+    assertEquals( -1, DriverSingleton.getInstance().getLeaseCount( key ) );
+    assertEquals( 1, connection.getDrivers().get( 0 ).getCloseCount() );
+
+    // The next lease gets a new driver
+    //
+    try ( DriverLease third = DriverSingleton.leaseDriver( LogChannel.GENERAL, connection ) ) {
+      assertSame( connection.getDrivers().get( 1 ).getDriver(), third.getDriver() );
+    }
+  }
+
+  @Test
+  public void idleTimeout() {
+    FakeConnection connection = new FakeConnection( "idle" );
+    String key = DriverSingleton.getDriverKey( connection );
+
+    DriverSingleton.leaseDriver( LogChannel.GENERAL, connection ).close();
+    assertEquals( 0, DriverSingleton.getInstance().getLeaseCount( key ) );
+    assertEquals( 0, DriverSingleton.evictIdleDrivers() );
+
+    DriverSingleton.getInstance().setIdleTimeoutMs( 0 );
+    assertEquals( 1, DriverSingleton.evictIdleDrivers() );
+    assertEquals( -1, DriverSingleton.getInstance().getLeaseCount( key ) );
+    assertEquals( 1, connection.getDrivers().get( 0 ).getCloseCount() );
+  }
+
+  @Test
+  public void pinned() {
+    DriverSingleton.getInstance().setIdleTimeoutMs( 0 );
+    FakeConnection connection = new FakeConnection( "pinned" );
+
+    Driver driver = DriverSingleton.getDriver( LogChannel.GENERAL, connection );
+    DriverSingleton.leaseDriver( LogChannel.GENERAL, connection ).close();
+    assertEquals( 0, DriverSingleton.evictIdleDrivers() );
+    assertSame( driver, DriverSingleton.getDriver( LogChannel.GENERAL, connection ) );
+    assertEquals( 0, connection.getDrivers().get( 0 ).getCloseCount() );
+
+    DriverSingleton.closeAll();
+    assertEquals( 1, connection.getDrivers().get( 0 ).getCloseCount() );
+    assertTrue( DriverSingleton.getInstance().getDriverMap().isEmpty() );
+  }
+
+  @Test
+  public void warmUpWithinPoolSize() {
+    FakeConnection connection = new FakeConnection( "warm-up" );
+    connection.setMaxConnectionPoolSize( "2" );
+    FakeConnection sameDriver = new FakeConnection( "warm-up" );
+    sameDriver.setMaxConnectionPoolSize( "2" );
+
+    assertEquals( 1, DriverSingleton.warmUp( LogChannel.GENERAL, Arrays.<NeoConnection>asList( connection, sameDriver ), 5 ) );
+    assertEquals( 1, connection.getDrivers().size() );
+    assertEquals( 2, connection.getDrivers().get( 0 ).getSessionConfigs().size() );
+    assertTrue( sameDriver.getDrivers().isEmpty() );
+  }
+
+  @Test
+  public void concurrentLeases() throws Exception {
+    FakeConnection connection = new FakeConnection( "concurrent" );
+    connection.setCreationDelayMs( 50 );
+    String key = DriverSingleton.getDriverKey( connection );
+
+    int threads = 8;
+    CountDownLatch start = new CountDownLatch( 1 );
+    ExecutorService executor = Executors.newFixedThreadPool( threads );
+    try {
+      List<Future<DriverLease>> futures = new ArrayList<>();
+      for ( int i = 0; i < threads; i++ ) {
+        futures.add( executor.submit( (Callable<DriverLease>) () -> {
+          start.await();
+          return DriverSingleton.leaseDriver( LogChannel.GENERAL, connection );
+        } ) );
+      }
+      start.countDown();
+      List<DriverLease> leases = new ArrayList<>();
+      for ( Future<DriverLease> future : futures ) {
+        leases.add( future.get() );
+      }
+
+      // Only one driver is created, everybody shares it
+      //
+      Driver driver = DriverSingleton.getInstance().getDriverMap().get( key );
+      assertEquals( 1, connection.getDrivers().size() );
+      assertSame( connection.getDrivers().get( 0 ).getDriver(), driver );
+      assertEquals( 0, connection.getDrivers().get( 0 ).getCloseCount() );
+      for ( DriverLease lease : leases ) {
+        assertSame( driver, lease.getDriver() );
+      }
+      assertEquals( threads, DriverSingleton.getInstance().getLeaseCount( key ) );
+
+      for ( DriverLease lease : leases ) {
+        lease.close();
+      }
+      assertEquals( 0, DriverSingleton.getInstance().getLeaseCount( key ) );
+      assertFalse( DriverSingleton.getInstance().getDriverMap().isEmpty() );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void failedCreation() throws Exception {
+    FakeConnection connection = new FakeConnection( "failed" );
+    connection.setCreationDelayMs( 50 );
+    connection.setCreationFailure( new IllegalStateException( "Unable to connect" ) );
+    String key = DriverSingleton.getDriverKey( connection );
+
+    int threads = 4;
+    CountDownLatch start = new CountDownLatch( 1 );
+    ExecutorService executor = Executors.newFixedThreadPool( threads );
+    try {
+      List<Future<DriverLease>> futures = new ArrayList<>();
+      for ( int i = 0; i < threads; i++ ) {
+        futures.add( executor.submit( (Callable<DriverLease>) () -> {
+          start.await();
+          return DriverSingleton.leaseDriver( LogChannel.GENERAL, connection );
+        } ) );
+      }
+      start.countDown();
+      for ( Future<DriverLease> future : futures ) {
+        try {
+          future.get();
+          fail( "Creating the driver should have failed" );
+        } catch ( ExecutionException e ) {
+          assertEquals( "Unable to connect", e.getCause().getMessage() );
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals( -1, DriverSingleton.getInstance().getLeaseCount( key ) );
+
+    // The failed creation doesn't stay registered
+    //
+    connection.setCreationFailure( null );
+    try ( DriverLease lease = DriverSingleton.leaseDriver( LogChannel.GENERAL, connection ) ) {
+      assertEquals( 1, connection.getDrivers().size() );
+      assertSame( connection.getDrivers().get( 0 ).getDriver(), lease.getDriver() );
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.driver.Driver;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A connection which creates {@link FakeDriver}s instead of connecting to a server
+ */
+class FakeConnection extends NeoConnection {
+
+  private final List<FakeDriver> drivers;
+  private long creationDelayMs;
+  private volatile RuntimeException creationFailure;
+
+  FakeConnection( String server ) {
+    drivers = new CopyOnWriteArrayList<>();
+    setName( server );
+    setServer( server );
+  }
+
+  @Override public Driver getDriver( LogChannelInterface log ) {
+    if ( creationDelayMs > 0 ) {
+      try {
+        Thread.sleep( creationDelayMs );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    RuntimeException failure = creationFailure;
+    if ( failure != null ) {
+      throw failure;
+    }
+    FakeDriver driver = new FakeDriver();
+    drivers.add( driver );
+    return driver.getDriver();
+  }
+
+  /**
+   * Gets the drivers created so far
+   *
+   * @return value of drivers
+   */
+  List<FakeDriver> getDrivers() {
+    return drivers;
+  }
+
+  /**
+   * @param creationDelayMs The time it takes to create a driver, like a real one connecting
+   */
+  void setCreationDelayMs( long creationDelayMs ) {
+    this.creationDelayMs = creationDelayMs;
+  }
+
+  /**
+   * @param creationFailure The error to throw when creating a driver, null to create drivers again
+   */
+  void setCreationFailure( RuntimeException creationFailure ) {
+    this.creationFailure = creationFailure;
+  }
+}
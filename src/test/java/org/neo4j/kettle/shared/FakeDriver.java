@@ -0,0 +1,159 @@
+package org.neo4j.kettle.shared;
+
+import org.neo4j.driver.ConnectionPoolMetrics;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Metrics;
+import org.neo4j.driver.Result;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Transaction;
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.driver.async.AsyncTransaction;
+import org.neo4j.driver.async.AsyncTransactionWork;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A driver which doesn't connect to anything so the registry and the writers can be tested without a server.
+ * <p>
+ * Sessions only support explicit transactions which record the statements they run and don't do anything else.
+ * Asynchronous write transactions record the statement they run and only finish when the test completes the future
+ * of the transaction.
+ */
+class FakeDriver implements InvocationHandler {
+
+  private final Driver driver;
+  private final AtomicInteger closeCount;
+  private final List<ConnectionPoolMetrics> poolMetrics;
+  private final List<SessionConfig> sessionConfigs;
+  private final List<String> statements;
+  private final List<CompletableFuture<Object>> transactions;
+
+  FakeDriver() {
+    driver = (Driver) Proxy.newProxyInstance( Driver.class.getClassLoader(), new Class<?>[] { Driver.class }, this );
+    closeCount = new AtomicInteger();
+    poolMetrics = new CopyOnWriteArrayList<>();
+    sessionConfigs = new CopyOnWriteArrayList<>();
+    statements = new CopyOnWriteArrayList<>();
+    transactions = new CopyOnWriteArrayList<>();
+  }
+
+  @Override public Object invoke( Object proxy, Method method, Object[] args ) {
+    switch ( method.getName() ) {
+      case "close":
+        closeCount.incrementAndGet();
+        return null;
+      case "metrics":
+        return (Metrics) () -> poolMetrics;
+      case "verifyConnectivity":
+        return null;
+      case "session":
+        sessionConfigs.add( args == null ? SessionConfig.defaultConfig() : (SessionConfig) args[ 0 ] );
+        return createSession();
+      case "asyncSession":
+        return Proxy.newProxyInstance( AsyncSession.class.getClassLoader(), new Class<?>[] { AsyncSession.class },
+          ( session, sessionMethod, sessionArgs ) -> {
+            if ( "writeTransactionAsync".equals( sessionMethod.getName() ) ) {
+              return writeTransactionAsync( (AsyncTransactionWork<?>) sessionArgs[ 0 ] );
+            }
+            if ( "closeAsync".equals( sessionMethod.getName() ) ) {
+              return CompletableFuture.completedFuture( null );
+            }
+            throw new UnsupportedOperationException( sessionMethod.getName() );
+          } );
+      case "equals":
+        return proxy == args[ 0 ];
+      case "hashCode":
+        return System.identityHashCode( proxy );
+      case "toString":
+        return "FakeDriver@" + Integer.toHexString( System.identityHashCode( proxy ) );
+      default:
+        throw new UnsupportedOperationException( method.getName() );
+    }
+  }
+
+  private Session createSession() {
+    Transaction transaction = (Transaction) Proxy.newProxyInstance( Transaction.class.getClassLoader(),
+      new Class<?>[] { Transaction.class }, ( tx, txMethod, txArgs ) -> {
+        if ( "run".equals( txMethod.getName() ) ) {
+          statements.add( (String) txArgs[ 0 ] );
+          return Proxy.newProxyInstance( Result.class.getClassLoader(), new Class<?>[] { Result.class }, ( result, resultMethod, resultArgs ) -> null );
+        }
+        return null;
+      } );
+    return (Session) Proxy.newProxyInstance( Session.class.getClassLoader(), new Class<?>[] { Session.class },
+      ( session, sessionMethod, sessionArgs ) -> "beginTransaction".equals( sessionMethod.getName() ) ? transaction : null );
+  }
+
+  private CompletableFuture<Object> writeTransactionAsync( AsyncTransactionWork<?> work ) {
+    AsyncTransaction transaction = (AsyncTransaction) Proxy.newProxyInstance( AsyncTransaction.class.getClassLoader(),
+      new Class<?>[] { AsyncTransaction.class }, ( tx, txMethod, txArgs ) -> {
+        statements.add( (String) txArgs[ 0 ] );
+        return new CompletableFuture<>();
+      } );
+    work.execute( transaction );
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    transactions.add( future );
+    return future;
+  }
+
+  /**
+   * Gets driver
+   *
+   * @return value of driver
+   */
+  Driver getDriver() {
+    return driver;
+  }
+
+  /**
+   * Gets the number of times the driver was closed
+   *
+   * @return value of closeCount
+   */
+  int getCloseCount() {
+    return closeCount.get();
+  }
+
+  /**
+   * Gets the metrics of the connection pools reported by the driver, add some to test with
+   *
+   * @return value of poolMetrics
+   */
+  List<ConnectionPoolMetrics> getPoolMetrics() {
+    return poolMetrics;
+  }
+
+  /**
+   * Gets the configurations of the sessions opened so far
+   *
+   * @return value of sessionConfigs
+   */
+  List<SessionConfig> getSessionConfigs() {
+    return sessionConfigs;
+  }
+
+  /**
+   * Gets the statements run in explicit and asynchronous transactions
+   *
+   * @return value of statements
+   */
+  List<String> getStatements() {
+    return statements;
+  }
+
+  /**
+   * Gets the futures of the asynchronous transactions: complete them to finish the transactions
+   *
+   * @return value of transactions
+   */
+  List<CompletableFuture<Object>> getTransactions() {
+    return transactions;
+  }
+}
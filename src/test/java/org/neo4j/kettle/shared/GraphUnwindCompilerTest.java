@@ -0,0 +1,134 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.Test;
+import org.neo4j.kettle.core.data.GraphData;
+import org.neo4j.kettle.core.data.GraphNodeData;
+import org.neo4j.kettle.core.data.GraphPropertyData;
+import org.neo4j.kettle.core.data.GraphPropertyDataType;
+import org.neo4j.kettle.core.data.GraphRelationshipData;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GraphUnwindCompilerTest {
+
+  private void addNode( GraphData graphData, String id, String label, long key, boolean extraProperty ) {
+    List<GraphPropertyData> properties = new ArrayList<>();
+    properties.add( new GraphPropertyData( "key", key, GraphPropertyDataType.Integer, true ) );
+    if ( extraProperty ) {
+      properties.add( new GraphPropertyData( "name", id, GraphPropertyDataType.String, false ) );
+    }
+    graphData.getNodes().add( new GraphNodeData( id, new ArrayList<>( Collections.singletonList( label ) ), properties ) );
+  }
+
+  private GraphData createGraph() {
+    GraphData graphData = new GraphData();
+    addNode( graphData, "p1", "Person", 1, true );
+    addNode( graphData, "c1", "Company", 1, false );
+    addNode( graphData, "p2", "Person", 2, false );
+    addNode( graphData, "c2", "Company", 2, true );
+    addNode( graphData, "p3", "Person", 3, true );
+    graphData.getRelationships().add( new GraphRelationshipData( "r1", "WORKS_AT", new ArrayList<>(), "p1", "c1" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "r2", "KNOWS", new ArrayList<>(), "p1", "p2" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "r3", "WORKS_AT", new ArrayList<>(), "p2", "c2" ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "r4", "WORKS_AT", new ArrayList<>(), "p3", "c1" ) );
+    return graphData;
+  }
+
+  @Test
+  public void groups() throws KettleException {
+    GraphUnwindCompiler compiler = new GraphUnwindCompiler().add( createGraph() );
+    List<Map<UnwindTarget, List<Map<String, Object>>>> phases = compiler.getPhases();
+    assertEquals( 2, phases.size() );
+
+    // Different property sets share a statement
+    //
+    Iterator<Map.Entry<UnwindTarget, List<Map<String, Object>>>> nodeGroups = phases.get( 0 ).entrySet().iterator();
+    Map.Entry<UnwindTarget, List<Map<String, Object>>> people = nodeGroups.next();
+    assertEquals( UnwindTarget.node( Collections.singletonList( "Person" ), Collections.singletonList( "key" ) ), people.getKey() );
+    assertEquals( 3, people.getValue().size() );
+    assertEquals( "p1", people.getValue().get( 0 ).get( "name" ) );
+    assertEquals( 2, nodeGroups.next().getValue().size() );
+
+    Map<UnwindTarget, List<Map<String, Object>>> relationshipGroups = phases.get( 1 );
+    assertEquals( 2, relationshipGroups.size() );
+    Map.Entry<UnwindTarget, List<Map<String, Object>>> worksAt = relationshipGroups.entrySet().iterator().next();
+    assertEquals( "UNWIND $rows AS row MERGE (s:`Person` {`key`: row.source.`key`}) MERGE (t:`Company` {`key`: row.target.`key`})"
+      + " MERGE (s)-[r:`WORKS_AT`]->(t) SET r += row.properties", worksAt.getKey().getCypher() );
+    assertEquals( 3, worksAt.getValue().size() );
+    assertEquals( 2L, ( (Map<?, ?>) worksAt.getValue().get( 1 ).get( UnwindTarget.ROW_TARGET ) ).get( "key" ) );
+    assertEquals( 4, compiler.getTargetCount() );
+
+    // The targets are kept over graphs
+    //
+    compiler.clear();
+    compiler.add( createGraph() );
+    assertSame( people.getKey(), compiler.getPhases().get( 0 ).keySet().iterator().next() );
+    assertSame( worksAt.getKey(), compiler.getPhases().get( 1 ).keySet().iterator().next() );
+    compiler.add( createGraph() );
+    assertEquals( 6, compiler.getPhases().get( 0 ).values().iterator().next().size() );
+    assertEquals( 4, compiler.getTargetCount() );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void missingNode() throws KettleException {
+    GraphData graphData = createGraph();
+    graphData.getRelationships().add( new GraphRelationshipData( "r5", "KNOWS", new ArrayList<>(), "p1", "p9" ) );
+    new GraphUnwindCompiler().add( graphData );
+  }
+
+  @Test
+  public void sharedGraph() throws KettleException {
+    // Compiling reads the graph without copying the elements it shares with its copies
+    //
+    GraphData graphData = createGraph();
+    GraphData copy = graphData.copyOnWrite();
+    GraphUnwindCompiler compiler = new GraphUnwindCompiler().add( copy ).add( graphData );
+    assertEquals( 10, compiler.getPhases().get( 0 ).values().stream().mapToInt( List::size ).sum() );
+    assertEquals( 8, compiler.getPhases().get( 1 ).values().stream().mapToInt( List::size ).sum() );
+    assertEquals( 4, compiler.getTargetCount() );
+
+    // Nodes without labels or primary properties share a target too
+    //
+    GraphData unlabeled = new GraphData();
+    unlabeled.getNodes().add( new GraphNodeData( "u1", null, new ArrayList<>() ) );
+    unlabeled.getNodes().add( new GraphNodeData( "u2", new ArrayList<>(), new ArrayList<>() ) );
+    compiler.clear();
+    compiler.add( unlabeled );
+    assertEquals( 1, compiler.getPhases().get( 0 ).size() );
+    assertEquals( 5, compiler.getTargetCount() );
+  }
+
+  @Test
+  public void unkeyedRelationship() throws KettleException {
+    // Like a graph read from a query result: numeric IDs and no primary properties
+    //
+    GraphData graphData = new GraphData();
+    graphData.getNodes().add( new GraphNodeData( "1", new ArrayList<>( Collections.singletonList( "Person" ) ), new ArrayList<>() ) );
+    graphData.getNodes().add( new GraphNodeData( "2", new ArrayList<>( Collections.singletonList( "Person" ) ), new ArrayList<>() ) );
+    graphData.getRelationships().add( new GraphRelationshipData( "3", "KNOWS", new ArrayList<>(), "1", "2" ) );
+
+    GraphUnwindCompiler compiler = new GraphUnwindCompiler().add( createGraph() );
+    try {
+      compiler.add( graphData );
+      fail( "Relationships between nodes without primary properties can't be written" );
+    } catch ( KettleException e ) {
+      assertTrue( e.getMessage(), e.getMessage().contains( "'3'" ) );
+      assertTrue( e.getMessage(), e.getMessage().contains( "source node '1'" ) );
+    }
+
+    // Nothing of the rejected graph was added
+    //
+    assertEquals( 5, compiler.getPhases().get( 0 ).values().stream().mapToInt( List::size ).sum() );
+    assertEquals( 4, compiler.getPhases().get( 1 ).values().stream().mapToInt( List::size ).sum() );
+  }
+}
@@ -0,0 +1,84 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.Test;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.async.AsyncSession;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LeasedSessionTest {
+
+  private final List<String> calls = new ArrayList<>();
+
+  private <T> T createSession( Class<T> sessionInterface, Object closeResult, RuntimeException closeError ) {
+    Object session = Proxy.newProxyInstance( sessionInterface.getClassLoader(), new Class<?>[] { sessionInterface }, ( proxy, method, args ) -> {
+      calls.add( method.getName() );
+      if ( method.getName().startsWith( "close" ) ) {
+        if ( closeError != null ) {
+          throw closeError;
+        }
+        return closeResult;
+      }
+      if ( method.getName().equals( "isOpen" ) ) {
+        return true;
+      }
+      return null;
+    } );
+    return sessionInterface.cast( session );
+  }
+
+  private DriverLease createLease() {
+    return new DriverLease( "not-registered", new FakeDriver().getDriver() );
+  }
+
+  @Test
+  public void delegates() {
+    DriverLease lease = createLease();
+    Session session = LeasedSession.wrap( Session.class, createSession( Session.class, null, null ), lease );
+
+    assertTrue( session.isOpen() );
+    session.run( "RETURN 1" );
+    assertEquals( "[isOpen, run]", calls.toString() );
+    assertFalse( lease.isReleased() );
+
+    session.close();
+    assertEquals( "[isOpen, run, close]", calls.toString() );
+    assertTrue( lease.isReleased() );
+  }
+
+  @Test
+  public void closeFails() {
+    DriverLease lease = createLease();
+    IllegalStateException error = new IllegalStateException( "close failed" );
+    Session session = LeasedSession.wrap( Session.class, createSession( Session.class, null, error ), lease );
+    try {
+      session.close();
+      fail( "The close error should be thrown as is" );
+    } catch ( IllegalStateException e ) {
+      assertSame( error, e );
+    }
+    assertTrue( lease.isReleased() );
+  }
+
+  @Test
+  public void closeAsync() {
+    DriverLease lease = createLease();
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    AsyncSession session = LeasedSession.wrap( AsyncSession.class, createSession( AsyncSession.class, closed, null ), lease );
+
+    CompletableFuture<Void> result = session.closeAsync().toCompletableFuture();
+    assertFalse( lease.isReleased() );
+    closed.complete( null );
+    assertTrue( result.isDone() );
+    assertTrue( lease.isReleased() );
+  }
+}
@@ -0,0 +1,86 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.AccessMode;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class NeoConnectionTest {
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  @After
+  public void closeDrivers() {
+    DriverSingleton.closeAll();
+  }
+
+  @Test
+  public void sessionAccessMode() {
+    FakeConnection connection = new FakeConnection( "access-mode" );
+    connection.setDatabaseName( "movies" );
+    String key = DriverSingleton.getDriverKey( connection );
+
+    try ( Session session = connection.getReadSession( LogChannel.GENERAL ) ) {
+      assertEquals( 1, DriverSingleton.getInstance().getLeaseCount( key ) );
+    }
+    try ( Session session = connection.getSession( LogChannel.GENERAL, AccessMode.WRITE ) ) {
+      assertEquals( 1, DriverSingleton.getInstance().getLeaseCount( key ) );
+    }
+
+    // Without routing both go through the same driver
+    //
+    assertEquals( 1, connection.getDrivers().size() );
+    List<SessionConfig> configs = connection.getDrivers().get( 0 ).getSessionConfigs();
+    assertEquals( AccessMode.READ, configs.get( 0 ).defaultAccessMode() );
+    assertEquals( "movies", configs.get( 0 ).database().orElse( null ) );
+    assertEquals( AccessMode.WRITE, configs.get( 1 ).defaultAccessMode() );
+    assertEquals( 0, DriverSingleton.getInstance().getLeaseCount( key ) );
+  }
+
+  @Test
+  public void readRoutingPolicy() {
+    NeoConnection connection = new NeoConnection();
+    connection.setName( "cluster" );
+    connection.setServer( "core1,core2" );
+    connection.setRouting( true );
+    connection.setRoutingPolicy( "writers" );
+    assertSame( connection, connection.getReadConnection() );
+
+    connection.setReadRoutingPolicy( "${READ_POLICY}" );
+    connection.setVariable( "READ_POLICY", "readers" );
+    NeoConnection readConnection = connection.getReadConnection();
+    assertNotSame( connection, readConnection );
+    assertEquals( "readers", readConnection.resolve().getRoutingPolicy() );
+    assertNull( readConnection.getReadRoutingPolicy() );
+    assertFalse( DriverSingleton.getDriverKey( connection ).equals( DriverSingleton.getDriverKey( readConnection ) ) );
+    assertSame( readConnection, connection.getReadConnection() );
+
+    // A new read policy gives a new read connection
+    //
+    connection.setVariable( "READ_POLICY", "analytics" );
+    NeoConnection analytics = connection.getReadConnection();
+    assertNotSame( readConnection, analytics );
+    assertEquals( "analytics", analytics.resolve().getRoutingPolicy() );
+
+    // Without routing reads use the connection itself
+    //
+    connection.setRouting( false );
+    assertSame( connection, connection.getReadConnection() );
+  }
+}
@@ -0,0 +1,116 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.exceptions.ClientException;
+import org.neo4j.driver.exceptions.TransientException;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedRelationshipWriterTest {
+
+  private static final UnwindTarget KNOWS = UnwindTarget.relationship( "KNOWS", Collections.singletonList( "Person" ),
+    Collections.singletonList( "key" ), Collections.singletonList( "Person" ), Collections.singletonList( "key" ) );
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  @After
+  public void closeDrivers() {
+    DriverSingleton.closeAll();
+  }
+
+  @Test
+  public void partition() {
+    PartitionedRelationshipWriter writer = new PartitionedRelationshipWriter( LogChannel.GENERAL, new FakeConnection( "partition" ), 4 );
+    int[] counts = new int[ 4 ];
+    for ( long key = 0; key < 1000; key++ ) {
+      int partition = writer.partition( Collections.singletonMap( "key", key ) );
+      assertEquals( partition, writer.partition( Collections.singletonMap( "key", key ) ) );
+      counts[ partition ]++;
+    }
+
+    // Consecutive keys are spread over all partitions
+    //
+    for ( int count : counts ) {
+      assertTrue( "Partition sizes " + counts[ 0 ] + ", " + counts[ 1 ] + ", " + counts[ 2 ] + ", " + counts[ 3 ], count > 150 );
+    }
+    assertEquals( writer.partition( null ), writer.partition( null ) );
+  }
+
+  @Test
+  public void conflicts() {
+    assertTrue( PartitionedRelationshipWriter.isConflict( new TransientException( "Neo.TransientError.Transaction.LockClientStopped", "Stopped" ) ) );
+    assertTrue( PartitionedRelationshipWriter.isConflict( new ClientException( "Neo.TransientError.Transaction.DeadlockDetected", "Deadlock" ) ) );
+    assertFalse( PartitionedRelationshipWriter.isConflict( new ClientException( "Neo.ClientError.Statement.SyntaxError", "Syntax" ) ) );
+  }
+
+  private static List<Map<String, Object>> createRows( int count ) {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for ( long i = 0; i < count; i++ ) {
+      Map<String, Object> row = new HashMap<>();
+      row.put( UnwindTarget.ROW_SOURCE, Collections.singletonMap( "key", i ) );
+      row.put( UnwindTarget.ROW_TARGET, Collections.singletonMap( "key", i + 1 ) );
+      row.put( UnwindTarget.ROW_PROPERTIES, Collections.emptyMap() );
+      rows.add( row );
+    }
+    return rows;
+  }
+
+  @Test
+  public void executor() throws KettleException {
+    ExecutorService executor = Executors.newFixedThreadPool( 2 );
+    try {
+      PartitionedRelationshipWriter writer = new PartitionedRelationshipWriter( LogChannel.GENERAL, new FakeConnection( "executor" ), 2, executor );
+      writer.setBatchSize( 10 );
+      writer.write( KNOWS, createRows( 100 ) );
+      writer.write( KNOWS, createRows( 50 ) );
+      assertEquals( 150, writer.getRowsWritten() );
+
+      // The executor belongs to the caller
+      //
+      writer.close();
+      assertFalse( executor.isShutdown() );
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void nodesBeforeRelationships() throws KettleException {
+    FakeConnection connection = new FakeConnection( "nodes" );
+    try ( PartitionedRelationshipWriter writer = new PartitionedRelationshipWriter( LogChannel.GENERAL, connection, 2 ) ) {
+      writer.setBatchSize( 10 );
+      writer.write( KNOWS, createRows( 100 ) );
+      assertEquals( 100, writer.getRowsWritten() );
+    }
+
+    // The nodes are merged first, the relationships only match them
+    //
+    String nodeCypher = UnwindTarget.node( Collections.singletonList( "Person" ), Collections.singletonList( "key" ) ).getCypher();
+    String relationshipCypher = KNOWS.matchingNodes().getCypher();
+    List<String> statements = connection.getDrivers().get( 0 ).getStatements();
+    int nodeStatements = statements.lastIndexOf( nodeCypher ) + 1;
+    assertTrue( nodeStatements >= 11 );
+    for ( int i = 0; i < statements.size(); i++ ) {
+      assertEquals( i < nodeStatements ? nodeCypher : relationshipCypher, statements.get( i ) );
+    }
+    assertTrue( statements.size() >= nodeStatements + 10 );
+  }
+}
@@ -0,0 +1,79 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResolvedNeoConnectionTest {
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  private NeoConnection createConnection() {
+    NeoConnection connection = new NeoConnection();
+    connection.setName( "test" );
+    connection.setServer( "${HOST}" );
+    connection.setMaxConnectionPoolSize( "%%POOL%%" );
+    connection.setVariable( "HOST", "server1" );
+    connection.setVariable( "POOL", "20" );
+    return connection;
+  }
+
+  @Test
+  public void resolved() {
+    NeoConnection connection = createConnection();
+    ResolvedNeoConnection resolved = connection.resolve();
+    assertEquals( "bolt://server1:7687", resolved.getUrl() );
+    assertEquals( 20, resolved.getMaxConnectionPoolSize() );
+    assertEquals( -1L, resolved.getMaxTransactionRetryTime() );
+    assertSame( resolved, connection.resolve() );
+  }
+
+  @Test
+  public void usedVariables() {
+    assertEquals( Arrays.asList( "A", "B", "C" ), ResolvedNeoConnection.getUsedVariables( "${A}:${B}/%%C%%" ) );
+    assertTrue( ResolvedNeoConnection.getUsedVariables( "no ${variables" ).isEmpty() );
+  }
+
+  @Test
+  public void invalidation() {
+    NeoConnection connection = createConnection();
+    ResolvedNeoConnection resolved = connection.resolve();
+
+    // Variables which aren't used don't matter
+    //
+    connection.setVariable( "OTHER", "value" );
+    assertTrue( resolved.isValidFor( connection ) );
+    assertSame( resolved, connection.resolve() );
+
+    connection.setVariable( "POOL", "30" );
+    assertFalse( resolved.isValidFor( connection ) );
+    resolved = connection.resolve();
+    assertEquals( 30, resolved.getMaxConnectionPoolSize() );
+
+    // Setters drop the snapshot
+    //
+    connection.setDatabaseName( "movies" );
+    ResolvedNeoConnection changed = connection.resolve();
+    assertNotSame( resolved, changed );
+    assertEquals( "movies", changed.getDatabaseName() );
+    assertFalse( resolved.getFingerprint().equals( changed.getFingerprint() ) );
+
+    // So does changing the manual URLs in place
+    //
+    connection.getManualUrls().add( "neo4j://manual:7687" );
+    assertFalse( changed.isValidFor( connection ) );
+    assertEquals( "neo4j://manual:7687", connection.resolve().getUrl() );
+  }
+}
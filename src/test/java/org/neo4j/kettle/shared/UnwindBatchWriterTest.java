@@ -0,0 +1,203 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.driver.exceptions.TransientException;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class UnwindBatchWriterTest {
+
+  private static final UnwindTarget PEOPLE = UnwindTarget.node( Collections.singletonList( "Person" ), Collections.singletonList( "key" ) );
+  private static final UnwindTarget COMPANIES = UnwindTarget.node( Collections.singletonList( "Company" ), Collections.singletonList( "key" ) );
+  private static final UnwindTarget WORKS_AT = UnwindTarget.relationship( "WORKS_AT", Collections.singletonList( "Person" ),
+    Collections.singletonList( "key" ), Collections.singletonList( "Company" ), Collections.singletonList( "key" ) );
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleClientEnvironment.init();
+  }
+
+  @After
+  public void closeDrivers() {
+    DriverSingleton.closeAll();
+  }
+
+  /**
+   * Records the batches instead of writing them, failing the given number of writes first or with the given errors
+   */
+  private static class RecordingWriter extends UnwindBatchWriter {
+    private final List<String> writes = new ArrayList<>();
+    private final List<KettleException> errors = new ArrayList<>();
+    private int failures;
+
+    private RecordingWriter() {
+      super( LogChannel.GENERAL, new FakeConnection( "recording" ) );
+    }
+
+    @Override protected void writeRows( UnwindTarget target, List<Map<String, Object>> rows ) throws KettleException {
+      if ( failures > 0 ) {
+        failures--;
+        throw new KettleException( "Write failed" );
+      }
+      if ( !errors.isEmpty() ) {
+        KettleException error = errors.remove( 0 );
+        if ( error != null ) {
+          throw error;
+        }
+      }
+      writes.add( target.toString() + " x " + rows.size() );
+    }
+  }
+
+  private static Map<String, Object> row( long key ) {
+    return Collections.singletonMap( "key", key );
+  }
+
+  @Test
+  public void batchSize() throws KettleException {
+    RecordingWriter writer = new RecordingWriter();
+    writer.setBatchSize( 2 );
+    for ( int i = 0; i < 5; i++ ) {
+      writer.addRow( PEOPLE, row( i ) );
+    }
+    assertEquals( 2, writer.writes.size() );
+    assertEquals( 1, writer.getBufferedRows() );
+    writer.close();
+    assertEquals( "[(:Person [key]) x 2, (:Person [key]) x 2, (:Person [key]) x 1]", writer.writes.toString() );
+    assertEquals( 5, writer.getRowsWritten() );
+    assertEquals( 3, writer.getBatchesWritten() );
+  }
+
+  @Test
+  public void failedBatchIsKept() throws KettleException {
+    RecordingWriter writer = new RecordingWriter();
+    writer.setBatchSize( 2 );
+    writer.failures = 1;
+    writer.addRow( PEOPLE, row( 1 ) );
+    try {
+      writer.addRow( PEOPLE, row( 2 ) );
+      fail( "The write should fail" );
+    } catch ( KettleException e ) {
+      // Expected
+    }
+    assertEquals( 2, writer.getBufferedRows() );
+    assertEquals( 0, writer.getRowsWritten() );
+
+    writer.close();
+    assertEquals( "[(:Person [key]) x 2]", writer.writes.toString() );
+    assertEquals( 0, writer.getBufferedRows() );
+  }
+
+  @Test
+  public void committedSplitsAreForgotten() throws KettleException {
+    AdaptiveBatchSizer.clear();
+    RecordingWriter writer = new RecordingWriter();
+    writer.setBatchSize( 40 );
+    writer.setAdaptiveBatchSize( true );
+
+    // The batch fails on a deadlock, the first half gets written, the second half fails for good
+    //
+    writer.errors.add( new KettleException( "Deadlock", new TransientException( "Neo.TransientError.Transaction.DeadlockDetected", "Deadlock" ) ) );
+    writer.errors.add( null );
+    writer.errors.add( new KettleException( "Write failed" ) );
+    try {
+      for ( int i = 0; i < 40; i++ ) {
+        writer.addRow( PEOPLE, row( i ) );
+      }
+      fail( "The write should fail" );
+    } catch ( KettleException e ) {
+      // Expected
+    }
+    assertEquals( 20, writer.getBufferedRows() );
+    assertEquals( 20, writer.getRowsWritten() );
+
+    // Only the rows which weren't committed are written again
+    //
+    writer.close();
+    assertEquals( "[(:Person [key]) x 20, (:Person [key]) x 20]", writer.writes.toString() );
+    assertEquals( 40, writer.getRowsWritten() );
+    assertEquals( 0, writer.getBufferedRows() );
+  }
+
+  @Test
+  public void nodesBeforeRelationships() throws KettleException {
+    RecordingWriter writer = new RecordingWriter();
+    writer.addRow( WORKS_AT, Collections.emptyMap() );
+    writer.addRow( PEOPLE, row( 1 ) );
+    writer.addRow( COMPANIES, row( 1 ) );
+    writer.flush();
+    assertEquals( "[(:Person [key]) x 1, (:Company [key]) x 1, (:Person)-[:WORKS_AT]->(:Company) x 1]", writer.writes.toString() );
+  }
+
+  private static void waitForStatements( FakeDriver driver, int count ) throws InterruptedException {
+    for ( int i = 0; i < 500 && driver.getStatements().size() < count; i++ ) {
+      Thread.sleep( 10 );
+    }
+    assertEquals( count, driver.getStatements().size() );
+  }
+
+  @Test
+  public void asyncNodesCommittedBeforeRelationships() throws Exception {
+    FakeConnection connection = new FakeConnection( "async" );
+    UnwindBatchWriter writer = new UnwindBatchWriter( LogChannel.GENERAL, connection );
+    writer.setMaxInFlight( 4 );
+    writer.addRow( WORKS_AT, Collections.emptyMap() );
+    writer.addRow( PEOPLE, row( 1 ) );
+
+    CompletableFuture<Void> flushed = CompletableFuture.runAsync( () -> {
+      try {
+        writer.flush();
+      } catch ( KettleException e ) {
+        throw new IllegalStateException( e );
+      }
+    } );
+    while ( connection.getDrivers().isEmpty() ) {
+      Thread.sleep( 10 );
+    }
+    FakeDriver driver = connection.getDrivers().get( 0 );
+    waitForStatements( driver, 1 );
+    assertEquals( PEOPLE.getCypher(), driver.getStatements().get( 0 ) );
+
+    // The relationships wait for the nodes to commit
+    //
+    Thread.sleep( 50 );
+    assertEquals( 1, driver.getStatements().size() );
+    driver.getTransactions().get( 0 ).complete( null );
+    waitForStatements( driver, 2 );
+    assertEquals( WORKS_AT.getCypher(), driver.getStatements().get( 1 ) );
+
+    // And flush waits for the relationships as well
+    //
+    Thread.sleep( 50 );
+    assertEquals( false, flushed.isDone() );
+    driver.getTransactions().get( 1 ).complete( null );
+    flushed.get();
+    writer.close();
+  }
+
+  @Test
+  public void maxLatencyOverTargets() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    writer.setMaxLatencyMs( 20 );
+    writer.addRow( PEOPLE, row( 1 ) );
+    Thread.sleep( 50 );
+
+    // Adding a row for another target also writes the batch which waited too long
+    //
+    writer.addRow( COMPANIES, row( 1 ) );
+    assertEquals( "[(:Person [key]) x 1]", writer.writes.toString() );
+    assertEquals( 1, writer.getBufferedRows() );
+  }
+}
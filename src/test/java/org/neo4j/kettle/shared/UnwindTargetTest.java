@@ -0,0 +1,82 @@
+package org.neo4j.kettle.shared;
+
+import org.junit.Test;
+import org.neo4j.kettle.core.data.GraphNodeData;
+import org.neo4j.kettle.core.data.GraphPropertyData;
+import org.neo4j.kettle.core.data.GraphPropertyDataType;
+import org.neo4j.kettle.core.data.GraphRelationshipData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class UnwindTargetTest {
+
+  private GraphNodeData createNode( String id, String label, long key ) {
+    List<GraphPropertyData> properties = new ArrayList<>();
+    properties.add( new GraphPropertyData( "key", key, GraphPropertyDataType.Integer, true ) );
+    properties.add( new GraphPropertyData( "name", id, GraphPropertyDataType.String, false ) );
+    return new GraphNodeData( id, new ArrayList<>( Collections.singletonList( label ) ), properties );
+  }
+
+  @Test
+  public void nodeCypher() {
+    UnwindTarget target = UnwindTarget.node( Arrays.asList( "Person", "Special`Label" ), Arrays.asList( "first", "last" ) );
+    assertEquals( "UNWIND $rows AS row MERGE (n:`Person`:`Special``Label` {`first`: row.`first`, `last`: row.`last`}) SET n += row",
+      target.getCypher() );
+
+    // Without keys the nodes are created
+    //
+    assertEquals( "UNWIND $rows AS row CREATE (n:`Person`) SET n += row",
+      UnwindTarget.node( Collections.singletonList( "Person" ), null ).getCypher() );
+  }
+
+  @Test
+  public void relationshipCypher() {
+    UnwindTarget target = UnwindTarget.relationship( "KNOWS", Collections.singletonList( "Person" ), Collections.singletonList( "key" ),
+      Collections.singletonList( "Person" ), Collections.singletonList( "key" ) );
+    assertEquals( "UNWIND $rows AS row MERGE (s:`Person` {`key`: row.source.`key`}) MERGE (t:`Person` {`key`: row.target.`key`})"
+      + " MERGE (s)-[r:`KNOWS`]->(t) SET r += row.properties", target.getCypher() );
+
+    // Nodes written beforehand are only matched
+    //
+    UnwindTarget matching = target.matchingNodes();
+    assertEquals( "UNWIND $rows AS row MATCH (s:`Person` {`key`: row.source.`key`}) MATCH (t:`Person` {`key`: row.target.`key`})"
+      + " MERGE (s)-[r:`KNOWS`]->(t) SET r += row.properties", matching.getCypher() );
+    assertFalse( target.equals( matching ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void relationshipWithoutKeys() {
+    UnwindTarget.relationship( "KNOWS", Collections.singletonList( "Person" ), Collections.emptyList(),
+      Collections.singletonList( "Person" ), Collections.singletonList( "key" ) );
+  }
+
+  @Test
+  public void fromGraphData() {
+    GraphNodeData source = createNode( "p1", "Person", 1 );
+    GraphNodeData target = createNode( "c1", "Company", 2 );
+    GraphRelationshipData relationship = new GraphRelationshipData( "r1", "WORKS_AT",
+      new ArrayList<>( Collections.singletonList( new GraphPropertyData( "since", 2010L, GraphPropertyDataType.Integer, false ) ) ), "p1", "c1" );
+
+    UnwindTarget nodeTarget = UnwindTarget.node( source );
+    assertEquals( UnwindTarget.node( Collections.singletonList( "Person" ), Collections.singletonList( "key" ) ), nodeTarget );
+    assertEquals( nodeTarget.hashCode(),
+      UnwindTarget.node( Collections.singletonList( "Person" ), Collections.singletonList( "key" ) ).hashCode() );
+    assertFalse( nodeTarget.equals( UnwindTarget.node( target ) ) );
+    Map<String, Object> nodeRow = UnwindTarget.nodeRow( source );
+    assertEquals( 1L, nodeRow.get( "key" ) );
+    assertEquals( "p1", nodeRow.get( "name" ) );
+
+    UnwindTarget relationshipTarget = UnwindTarget.relationship( relationship, source, target );
+    Map<String, Object> row = relationshipTarget.relationshipRow( relationship, source, target );
+    assertEquals( Collections.singletonMap( "key", 1L ), row.get( UnwindTarget.ROW_SOURCE ) );
+    assertEquals( Collections.singletonMap( "key", 2L ), row.get( UnwindTarget.ROW_TARGET ) );
+    assertEquals( Collections.singletonMap( "since", 2010L ), row.get( UnwindTarget.ROW_PROPERTIES ) );
+  }
+}